@@ -1,13 +1,30 @@
 package ru.vatolin.applicationcdrtoudr.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.IngestionStats;
 import ru.vatolin.applicationcdrtoudr.service.CDRGeneratorService;
+import ru.vatolin.applicationcdrtoudr.service.CDRImportService;
+import ru.vatolin.applicationcdrtoudr.service.CDRIngestionService;
 
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Класс REST контроллера отвечающего за обработку запросов для работы с CDR
@@ -15,16 +32,22 @@ import java.util.Map;
  * <p>Основные методы:
  * <ul>
  *   <li>{@link #generateCDR(String, String, String)} — REST метод запускающий генерацию CDR отчета в формате csv.</li>
+ *   <li>{@link #streamCDR(String, String, String)} — REST метод пишущий CDR отчет в формате csv прямо в ответ.</li>
+ *   <li>{@link #getIngestionStats()} — REST метод возвращающий состояние непрерывной загрузки CDR.</li>
+ *   <li>{@link #importCDR(InputStream)} — REST метод импортирующий CDR записи из csv файла.</li>
  * </ul>
  *
  * <p>Вспомогательные методы:
  * <ul>
  *   <li>{@link #convertDate(String)} — отвечает за конвертацию и валидацию даты из строки в LocalDateTime.</li>
+ *   <li>{@link #streamError(String)} — формирует ответ с ошибкой для потокового метода.</li>
  * </ul>
  *
  * <p>Класс взаимодействует с:
  * <ul>
  *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRGeneratorService} — сервис отвечающий за генерацию CDR.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRIngestionService} — сервис непрерывной загрузки CDR.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRImportService} — сервис импорта CDR из csv файлов.</li>
  * </ul>
  *
  * <p>Для работы используются:
@@ -36,10 +59,18 @@ import java.util.Map;
 @RestController
 @RequestMapping("/cdr")
 public class CDRController {
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv");
+    private static final ObjectMapper ERROR_MAPPER = new ObjectMapper();
+
     private final CDRGeneratorService cdrGeneratorService;
+    private final CDRIngestionService cdrIngestionService;
+    private final CDRImportService cdrImportService;
 
-    public CDRController(CDRGeneratorService cdrGeneratorService) {
+    public CDRController(CDRGeneratorService cdrGeneratorService, CDRIngestionService cdrIngestionService,
+                         CDRImportService cdrImportService) {
         this.cdrGeneratorService = cdrGeneratorService;
+        this.cdrIngestionService = cdrIngestionService;
+        this.cdrImportService = cdrImportService;
     }
 
     /**
@@ -67,6 +98,97 @@ public class CDRController {
         return ResponseEntity.ok(Map.of("successfully", reportId));
     }
 
+    /**
+     * REST метод принимающий GET запрос с mode=stream, который пишет CDR отчет в формате csv прямо в ответ.
+     * Строки читаются курсором хранилища страницами и пишутся по мере чтения, без промежуточного списка и файла,
+     * поэтому время до первого байта и память не зависят от длины периода.
+     * Абонент и наличие записей проверяются до начала ответа, первая страница читается в потоке запроса
+     *
+     * @param msisdn номер абонента для которого генерируем отчет (@PathVariable)
+     * @param startDate начало периода, за который будет отчет (@RequestParam)
+     * @param endDate конец периода, за который будет отчет (@RequestParam)
+     * @return ResponseEntity с телом csv, которое пишется по мере чтения записей
+     */
+    @GetMapping(value = "/generate/{msisdn}", params = "mode=stream")
+    public ResponseEntity<StreamingResponseBody> streamCDR(@PathVariable String msisdn, @RequestParam String startDate,
+                                                           @RequestParam String endDate) {
+        LocalDateTime startDateTime = convertDate(startDate);
+        LocalDateTime endDateTime = convertDate(endDate);
+        if (startDateTime == null || endDateTime == null) {
+            return streamError("Invalid target date format. Expected format: YYYY-MM-DDTHH:mm:ss");
+        }
+
+        Stream<CDRRow> rows;
+        try {
+            rows = cdrGeneratorService.streamCDReport(msisdn, startDateTime, endDateTime);
+        } catch (RuntimeException e) {
+            return streamError("No CDR for " + msisdn);
+        }
+        Iterator<CDRRow> iterator = rows.iterator();
+        if (!iterator.hasNext()) {
+            rows.close();
+            return streamError("No CDR for " + msisdn);
+        }
+
+        StreamingResponseBody body = out -> {
+            try (rows) {
+                //поток ответа закрывает контейнер, поэтому writer только сбрасывается
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                cdrGeneratorService.writeCDReport(iterator, writer);
+                writer.flush();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(CSV)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + msisdn + ".csv\"")
+                .body(body);
+    }
+
+    /**
+     * REST метод принимающий GET запрос, который возвращает состояние непрерывной загрузки CDR записей
+     *
+     * @return ResponseEntity в теле JSON с глубиной очереди, счетчиками записей и задержкой сохранения
+     */
+    @GetMapping("/ingest/stats")
+    public ResponseEntity<IngestionStats> getIngestionStats() {
+        return ResponseEntity.ok(cdrIngestionService.getStats());
+    }
+
+    /**
+     * REST метод принимающий POST запрос с csv файлом CDR записей в теле (формат как у CDR отчета).
+     * Тело читается потоком, некорректные строки отклоняются без прерывания загрузки
+     *
+     * @param body тело запроса
+     * @return ResponseEntity в теле JSON с количеством импортированных и отклоненных строк и пропускной способностью
+     */
+    @PostMapping("/import")
+    public ResponseEntity<?> importCDR(InputStream body) {
+        CDRImportResult result;
+        try {
+            result = cdrImportService.importCsv(body);
+        } catch (UncheckedIOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Failed to read CDR file"));
+        }
+
+        if (result.getTotalLines() == 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Empty CDR file"));
+        }
+
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Формирует ответ с ошибкой в формате JSON для потокового метода
+     *
+     * @param error текст ошибки
+     * @return ResponseEntity со статусом 400
+     */
+    private ResponseEntity<StreamingResponseBody> streamError(String error) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> ERROR_MAPPER.writeValue(out, Map.of("error", error)));
+    }
+
     /**
      * Конвертирует и валидирует дату из String в LocalDateTime
      *
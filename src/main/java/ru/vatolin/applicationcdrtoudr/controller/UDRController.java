@@ -1,14 +1,26 @@
 package ru.vatolin.applicationcdrtoudr.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.vatolin.applicationcdrtoudr.repository.UDR;
+import ru.vatolin.applicationcdrtoudr.repository.UDRBatchRequest;
+import ru.vatolin.applicationcdrtoudr.repository.UDRBatchResult;
+import ru.vatolin.applicationcdrtoudr.repository.UDRCacheStats;
 import ru.vatolin.applicationcdrtoudr.service.UDRGeneratorService;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Класс REST контроллера отвечающего за обработку запросов для работы с udr
@@ -16,12 +28,19 @@ import java.util.Map;
  * <p>Основные методы:
  * <ul>
  *   <li>{@link #generateUDReport(String, String, String)} — генерирует UDR отчет для конкретного абонента за определенный период в JSON формате.</li>
- *   <li>{@link #generateUDReportForEveryone(String)} — генерирует UDR отчет для всех абонентов за определенный месяц в JSON формате.</li>
+ *   <li>{@link #generateUDReportForEveryone(String, String)} — генерирует UDR отчет для всех абонентов за определенный месяц в JSON формате.</li>
+ *   <li>{@link #streamUDReportForEveryone(String)} — пишет UDR отчеты всех абонентов за месяц в формате NDJSON по мере их построения.</li>
+ *   <li>{@link #generateUDReportForBatch(UDRBatchRequest)} — генерирует UDR отчеты абонентов из списка за период в JSON формате.</li>
+ *   <li>{@link #generateUDReportByMonths(String)} — генерирует UDR отчет абонента с разбивкой по месяцам в JSON формате.</li>
+ *   <li>{@link #generateUDReportForRange(String, String, String)} — генерирует UDR отчет абонента за произвольный период в JSON формате.</li>
+ *   <li>{@link #getCacheStats()} — возвращает счетчики кэша UDR отчетов в JSON формате.</li>
  * </ul>
  *
  * <p>Вспомогательные методы:
  * <ul>
  *   <li>{@link #convertNumberOfMonth(String)} — отвечает за конвертацию и валидацию номера месяца из строки в число.</li>
+ *   <li>{@link #convertDate(String)} — отвечает за конвертацию и валидацию даты из строки в LocalDateTime.</li>
+ *   <li>{@link #writeNdjson(Stream, OutputStream)} — пишет поток отчетов в ответ в формате NDJSON.</li>
  * </ul>
  *
  * <p>Класс взаимодействует с:
@@ -31,14 +50,20 @@ import java.util.Map;
  *
  * <p>Для работы используются:
  * <ul>
- *   <li>{@link java.util.ArrayList} — для работы с коллекциями.</li>
+ *   <li>{@link java.time.LocalDateTime} — для работы со временем.</li>
  *   <li>{@link java.util.List} — для работы с коллекциями.</li>
  *   <li>{@link java.util.Map} — для формирования ответов в формате JSON.</li>
+ *   <li>{@link org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody} — для записи отчетов в ответ по мере их построения.</li>
  * </ul>
  */
 @RestController
 @RequestMapping("/udr")
 public class UDRController {
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    //количество отчетов между сбросами буфера ответа в режиме stream
+    private static final int FLUSH_EVERY = 100;
+    private static final ObjectMapper NDJSON_MAPPER = new ObjectMapper();
+
     private final UDRGeneratorService udrGeneratorService;
 
     public UDRController(UDRGeneratorService udrGeneratorService) {
@@ -86,13 +111,14 @@ public class UDRController {
      * REST метод принимает GET запросы, обрабатывает данные и передает их для генерации UDR отчета для всех абонентов
      *
      * @param numberOfMonth номер месяца, за который хотим получить отчет (@RequestParam)
+     * @param mode "grouped" - один группирующий запрос (по умолчанию), "parallel" - отчет каждого абонента
+     *             отдельной задачей с ограничением потоков и срока, ответ содержит отчеты и ошибки (@RequestParam),
+     *             "stream" обрабатывается {@link #streamUDReportForEveryone(String)}
      * @return ResponseEntity в теле JSON
      */
     @GetMapping("/report/all")
-    public ResponseEntity<?> generateUDReportForEveryone(@RequestParam String numberOfMonth) {
-        List<UDR> UDReports = new ArrayList<>();
-        List<String> msisdnList = udrGeneratorService.generateMsisdnList();
-
+    public ResponseEntity<?> generateUDReportForEveryone(@RequestParam String numberOfMonth,
+                                                         @RequestParam(defaultValue = "grouped") String mode) {
         int number;
         try {
             number = convertNumberOfMonth(numberOfMonth);
@@ -100,15 +126,19 @@ public class UDRController {
             return ResponseEntity.badRequest().body(Map.of("error", "Invalid month number"));
         }
 
-        //генерируем отчеты для каждого абонента
-        for (String msisdn : msisdnList) {
-            try {
-                UDReports.add(udrGeneratorService.generateUDReportForMonth(msisdn, number));
-            } catch (RuntimeException e) {
-                e.printStackTrace();
+        if (mode.equals("parallel")) {
+            UDRBatchResult result = udrGeneratorService.generateUDReportForEveryoneInParallel(number);
+            if (result.getReports().isEmpty() && result.getErrors().isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "No records for this month"));
             }
+            return ResponseEntity.ok(result);
+        } else if (!mode.equals("grouped")) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid mode parameter"));
         }
 
+        //генерируем отчеты для всех абонентов одним группирующим запросом
+        List<UDR> UDReports = udrGeneratorService.generateUDReportForEveryone(number);
+
         if(UDReports.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "No records for this month"));
         }
@@ -116,6 +146,107 @@ public class UDRController {
         return ResponseEntity.ok(UDReports);
     }
 
+    /**
+     * REST метод принимает GET запросы с mode=stream и пишет UDR отчеты всех абонентов за месяц в формате NDJSON
+     * по мере чтения курсора хранилища: отчеты не собираются в список, поэтому память не зависит от количества абонентов.
+     * Ответ пишется после возврата из метода, поэтому месяц без звонков дает пустое тело, а не ошибку
+     *
+     * @param numberOfMonth номер месяца, за который хотим получить отчет (@RequestParam)
+     * @return ResponseEntity с телом, которое пишется по мере построения отчетов
+     */
+    @GetMapping(value = "/report/all", params = "mode=stream")
+    public ResponseEntity<StreamingResponseBody> streamUDReportForEveryone(@RequestParam String numberOfMonth) {
+        int number;
+        try {
+            number = convertNumberOfMonth(numberOfMonth);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> NDJSON_MAPPER.writeValue(out, Map.of("error", "Invalid month number")));
+        }
+
+        return ResponseEntity.ok().contentType(NDJSON)
+                .body(out -> writeNdjson(udrGeneratorService.streamUDReportForEveryone(number), out));
+    }
+
+    /**
+     * REST метод принимает POST запросы со списком номеров абонентов и периодом и возвращает UDR отчеты
+     * всех абонентов списка одним ответом. Суммы читаются одним запросом к хранилищу по списку номеров
+     *
+     * @param request номера абонентов, период "M" - месяц или "Y" - год и номер месяца (@RequestBody)
+     * @return ResponseEntity в теле JSON: отчеты в порядке номеров и ошибки для месяцев без звонков
+     */
+    @PostMapping("/report/batch")
+    public ResponseEntity<?> generateUDReportForBatch(@RequestBody UDRBatchRequest request) {
+        if (request.getMsisdns() == null || request.getMsisdns().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No msisdns"));
+        }
+
+        //определяем период, 0 - отчет за год
+        int number;
+        if ("M".equals(request.getPeriod())) {
+            if (request.getNumberOfMonth() == null || request.getNumberOfMonth() < 1 || request.getNumberOfMonth() > 12) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid month number"));
+            }
+            number = request.getNumberOfMonth();
+        } else if ("Y".equals(request.getPeriod())) {
+            number = 0;
+        } else {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid period parameter"));
+        }
+
+        try {
+            return ResponseEntity.ok(udrGeneratorService.generateUDReportForBatch(request.getMsisdns(), number));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * REST метод принимает GET запросы и возвращает UDR отчет абонента за год с разбивкой по 12 месяцам,
+     * все суммы строятся за один запрос к хранилищу
+     *
+     * @param msisdn номер абонента (@PathVariable)
+     * @return ResponseEntity в теле JSON
+     */
+    @GetMapping("/report/{msisdn}/months")
+    public ResponseEntity<?> generateUDReportByMonths(@PathVariable String msisdn) {
+        return ResponseEntity.ok(udrGeneratorService.generateUDReportByMonths(msisdn));
+    }
+
+    /**
+     * REST метод принимает GET запросы и возвращает UDR отчет абонента за произвольный период [from, to).
+     * Звонки на границах периода учитываются только своей частью внутри периода
+     *
+     * @param msisdn номер абонента (@PathVariable)
+     * @param from начало периода в формате YYYY-MM-DDTHH:mm:ss (@RequestParam)
+     * @param to конец периода в формате YYYY-MM-DDTHH:mm:ss (@RequestParam)
+     * @return ResponseEntity в теле JSON
+     */
+    @GetMapping("/report/{msisdn}/range")
+    public ResponseEntity<?> generateUDReportForRange(@PathVariable String msisdn, @RequestParam String from, @RequestParam String to) {
+        LocalDateTime fromDateTime = convertDate(from);
+        LocalDateTime toDateTime = convertDate(to);
+        if (fromDateTime == null || toDateTime == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid target date format. Expected format: YYYY-MM-DDTHH:mm:ss"));
+        }
+        if (!fromDateTime.isBefore(toDateTime)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Range start must be before range end"));
+        }
+
+        return ResponseEntity.ok(udrGeneratorService.generateUDReportForRange(msisdn, fromDateTime, toDateTime));
+    }
+
+    /**
+     * REST метод принимает GET запросы и возвращает размер кэша UDR отчетов, количество попаданий, промахов,
+     * вытеснений по размеру и времени жизни и удалений после сохранения CDR записей
+     *
+     * @return ResponseEntity в теле JSON
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<UDRCacheStats> getCacheStats() {
+        return ResponseEntity.ok(udrGeneratorService.getCacheStats());
+    }
+
     /**
      * Конвертирует номер месяца из строки в число, также проводит валидацию
      *
@@ -137,4 +268,40 @@ public class UDRController {
 
         return number;
     }
+
+    /**
+     * Пишет отчеты в формате NDJSON: каждый отчет - отдельная строка JSON. Буфер ответа сбрасывается
+     * каждые FLUSH_EVERY отчетов, поэтому клиент получает первые отчеты до окончания чтения курсора
+     *
+     * @param reports поток UDR отчетов, закрывается после записи
+     * @param out поток ответа
+     * @throws IOException при ошибке записи в ответ
+     */
+    private void writeNdjson(Stream<UDR> reports, OutputStream out) throws IOException {
+        try (reports) {
+            int written = 0;
+            for (Iterator<UDR> iterator = reports.iterator(); iterator.hasNext(); ) {
+                out.write(NDJSON_MAPPER.writeValueAsBytes(iterator.next()));
+                out.write('\n');
+                if (++written % FLUSH_EVERY == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Конвертирует и валидирует дату из String в LocalDateTime
+     *
+     * @param targetDate дата для конвертации
+     * @return дата в формате LocalDateTime или null, если строка не является датой
+     */
+    private LocalDateTime convertDate(String targetDate) {
+        try {
+            return LocalDateTime.parse(targetDate, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Класс результата пакетной вставки CDR записей
+ * Хранит количество сохраненных и отброшенных при сохранении записей и затраченное время,
+ * по ним считается пропускная способность (строк в секунду)
+ */
+public class BulkInsertResult {
+    private final long rows;
+    private final long failedRows;
+    private final long elapsedMillis;
+
+    public BulkInsertResult(long rows, long elapsedMillis) {
+        this(rows, 0, elapsedMillis);
+    }
+
+    public BulkInsertResult(long rows, long failedRows, long elapsedMillis) {
+        this.rows = rows;
+        this.failedRows = failedRows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Создает результат по количеству записей и моменту начала вставки
+     *
+     * @param rows количество сохраненных записей
+     * @param startedNanos момент начала вставки (System.nanoTime())
+     * @return результат пакетной вставки
+     */
+    public static BulkInsertResult since(long rows, long startedNanos) {
+        return since(rows, 0, startedNanos);
+    }
+
+    /**
+     * Создает результат по количеству сохраненных и отброшенных записей и моменту начала вставки
+     *
+     * @param rows количество сохраненных записей
+     * @param failedRows количество записей, которые не удалось сохранить
+     * @param startedNanos момент начала вставки (System.nanoTime())
+     * @return результат пакетной вставки
+     */
+    public static BulkInsertResult since(long rows, long failedRows, long startedNanos) {
+        return new BulkInsertResult(rows, failedRows, (System.nanoTime() - startedNanos) / 1_000_000);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getFailedRows() {
+        return failedRows;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getRowsPerSecond() {
+        //защищаемся от деления на ноль при очень быстрой вставке
+        return rows * 1000 / Math.max(elapsedMillis, 1);
+    }
+}
@@ -0,0 +1,518 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Архив CDR записей на локальном диске (холодное хранилище для записей старых месяцев).
+ * Записи месяца хранятся в неизменяемых сегментах cdr_YYYYMM_NNNNN.seg.gz (GZIP, не больше cdr.archive.segment-size записей),
+ * внутри месяца записи упорядочены по номеру инициатора и времени начала. Для каждого сегмента в файле cdr_YYYYMM.idx
+ * хранится индекс: количество записей, минимальный и максимальный номер инициатора и время начала.
+ * Индексы всех сегментов находятся в памяти, поэтому выборка распаковывает только сегменты,
+ * диапазоны которых пересекаются с номером и периодом запроса, а поток выборки читает их по месяцам.
+ * Повторная запись месяца пропускает строки, идентификаторы которых уже есть в архиве месяца,
+ * поэтому повторный перенос после сбоя между фиксацией архива и удалением записей из бд не дублирует записи
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #openMonth(YearMonth)} — открывает запись новых сегментов месяца.</li>
+ *   <li>{@link #streamIncomingInRange(String, LocalDateTime, LocalDateTime)} — ленивая выборка звонков абонента за период.</li>
+ *   <li>{@link #findIds(YearMonth)} — идентификаторы записей месяца в архиве.</li>
+ *   <li>{@link #forEachSegment(Consumer)} — обход всех записей архива по сегментам.</li>
+ *   <li>{@link #deleteAll()} — удаляет архив.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.util.zip.GZIPOutputStream} — для сжатия сегментов.</li>
+ *   <li>{@link java.io.DataOutputStream} — для двоичной записи полей CDR записи.</li>
+ * </ul>
+ */
+@Repository
+public class CDRArchive {
+    private static final int FORMAT_VERSION = 1;
+    private static final String SEGMENT_SUFFIX = ".seg.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final Path directory;
+    private final int segmentSize;
+    //индексы сегментов, загружаются с диска при первом обращении
+    private volatile List<Segment> segments;
+
+    public CDRArchive(@Value("${cdr.archive.directory:cdr-archive}") String directory,
+                      @Value("${cdr.archive.segment-size:10000}") int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Индекс сегмента архива
+     *
+     * @param month месяц записей сегмента
+     * @param fileName имя файла сегмента
+     * @param count количество записей
+     * @param minCaller минимальный номер инициатора
+     * @param maxCaller максимальный номер инициатора
+     * @param minStartTime минимальное время начала
+     * @param maxStartTime максимальное время начала
+     */
+    public record Segment(YearMonth month, String fileName, int count, String minCaller, String maxCaller,
+                          LocalDateTime minStartTime, LocalDateTime maxStartTime) {
+
+        //может ли сегмент содержать звонки инициатора за период (границы периода не включаются)
+        boolean overlaps(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+            return minCaller.compareTo(msisdn) <= 0 && maxCaller.compareTo(msisdn) >= 0
+                    && maxStartTime.isAfter(startTime) && minStartTime.isBefore(endTime);
+        }
+    }
+
+    /**
+     * Открывает запись сегментов месяца. Сегменты становятся видны выборкам только после {@link MonthWriter#commit()},
+     * при закрытии без фиксации записанные файлы удаляются
+     *
+     * @param month месяц записей
+     * @return запись сегментов месяца
+     */
+    public MonthWriter openMonth(YearMonth month) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Archive directory " + directory + " is not available", e);
+        }
+        return new MonthWriter(month);
+    }
+
+    /**
+     * Возвращает ленивый поток звонков абонента в качестве инициатора за период из архива в порядке (start_time, id).
+     * Месяцы не пересекаются по времени начала, поэтому читаются по очереди, следующий месяц - только после того,
+     * как прочитаны строки предыдущего. Внутри месяца строки абонента из пересекающихся с запросом сегментов
+     * сливаются по ключу (start_time, id). В памяти находятся только строки абонента из сегментов текущего месяца
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        //месяц -> пересекающиеся сегменты месяца
+        SortedMap<YearMonth, List<Segment>> months = new TreeMap<>();
+        for (Segment segment : segments()) {
+            if (segment.overlaps(msisdn, startTime, endTime)) {
+                months.computeIfAbsent(segment.month(), month -> new ArrayList<>()).add(segment);
+            }
+        }
+        if (months.isEmpty()) {
+            return Stream.empty();
+        }
+
+        MonthMerger merger = new MonthMerger(months.values().iterator(), msisdn, startTime, endTime);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merger, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Передает записи архива потребителю по одному сегменту, в памяти находится не больше одного сегмента
+     *
+     * @param consumer потребитель записей сегмента
+     */
+    public void forEachSegment(Consumer<List<CDRRow>> consumer) {
+        for (Segment segment : segments()) {
+            consumer.accept(readSegment(segment));
+        }
+    }
+
+    /**
+     * Возвращает идентификаторы записей месяца в архиве, сегменты месяца читаются по одному
+     *
+     * @param month месяц записей
+     * @return отсортированные идентификаторы
+     */
+    public long[] findIds(YearMonth month) {
+        LongStream.Builder ids = LongStream.builder();
+        for (Segment segment : segments()) {
+            if (segment.month().equals(month)) {
+                readSegment(segment).forEach(row -> ids.add(row.id()));
+            }
+        }
+        return ids.build().sorted().toArray();
+    }
+
+    public List<Segment> findSegments() {
+        return List.copyOf(segments());
+    }
+
+    public List<YearMonth> findMonths() {
+        return segments().stream().map(Segment::month).distinct().sorted().toList();
+    }
+
+    /**
+     * Удаляет все сегменты и индексы архива
+     */
+    public synchronized void deleteAll() {
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(INDEX_SUFFIX)) {
+                        Files.delete(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Archive cleanup failed", e);
+            }
+        }
+        segments = new ArrayList<>();
+    }
+
+    /**
+     * Запись сегментов одного месяца. Записи должны передаваться в порядке (номер инициатора, start_time, id),
+     * записи, которые уже есть в архиве месяца, пропускаются
+     */
+    public final class MonthWriter implements AutoCloseable {
+        private final YearMonth month;
+        private final List<Segment> written = new ArrayList<>();
+        //отсортированные идентификаторы записей месяца, зафиксированных раньше
+        private final long[] archivedIds;
+        private int nextNumber;
+
+        private DataOutputStream output;
+        private String fileName;
+        private int count;
+        private String minCaller;
+        private String maxCaller;
+        private LocalDateTime minStartTime;
+        private LocalDateTime maxStartTime;
+        private boolean committed;
+
+        private MonthWriter(YearMonth month) {
+            this.month = month;
+            //номера сегментов продолжаются после уже заархивированных сегментов месяца
+            this.nextNumber = (int) segments().stream().filter(segment -> segment.month().equals(month)).count();
+            this.archivedIds = (nextNumber == 0) ? new long[0] : findIds(month);
+        }
+
+        public void write(CDRRow row) {
+            if (Arrays.binarySearch(archivedIds, row.id()) >= 0) {
+                return;
+            }
+            try {
+                if (output == null) {
+                    startSegment();
+                }
+                output.writeLong(row.id());
+                output.writeUTF(row.callType());
+                output.writeUTF(row.callerNumber());
+                output.writeUTF(row.receiverNumber());
+                writeTime(output, row.startTime());
+                writeTime(output, row.endTime());
+            } catch (IOException e) {
+                throw new RuntimeException("Archive segment " + fileName + " write failed", e);
+            }
+
+            count++;
+            minCaller = (minCaller == null || row.callerNumber().compareTo(minCaller) < 0) ? row.callerNumber() : minCaller;
+            maxCaller = (maxCaller == null || row.callerNumber().compareTo(maxCaller) > 0) ? row.callerNumber() : maxCaller;
+            minStartTime = (minStartTime == null || row.startTime().isBefore(minStartTime)) ? row.startTime() : minStartTime;
+            maxStartTime = (maxStartTime == null || row.startTime().isAfter(maxStartTime)) ? row.startTime() : maxStartTime;
+            if (count == segmentSize) {
+                finishSegment();
+            }
+        }
+
+        /**
+         * Дописывает индексы новых сегментов в индекс месяца. Индекс заменяется атомарным переименованием,
+         * поэтому до фиксации выборки не видят новые сегменты
+         *
+         * @return количество записанных записей
+         */
+        public int commit() {
+            finishSegment();
+            synchronized (CDRArchive.this) {
+                List<Segment> all = new ArrayList<>(segments());
+                all.addAll(written);
+
+                Path index = directory.resolve(monthPrefix(month) + INDEX_SUFFIX);
+                Path temp = directory.resolve(monthPrefix(month) + INDEX_SUFFIX + ".tmp");
+                List<String> lines = all.stream()
+                        .filter(segment -> segment.month().equals(month))
+                        .map(CDRArchive::formatIndexLine)
+                        .toList();
+                try {
+                    Files.write(temp, lines);
+                    Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new RuntimeException("Archive index " + index + " write failed", e);
+                }
+                segments = all;
+            }
+            committed = true;
+            return written.stream().mapToInt(Segment::count).sum();
+        }
+
+        @Override
+        public void close() {
+            if (committed) {
+                return;
+            }
+            //без фиксации сегменты не попали в индекс, поэтому файлы удаляются
+            closeOutput();
+            try {
+                if (fileName != null) {
+                    Files.deleteIfExists(directory.resolve(fileName));
+                }
+                for (Segment segment : written) {
+                    Files.deleteIfExists(directory.resolve(segment.fileName()));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Archive cleanup failed", e);
+            }
+        }
+
+        private void startSegment() throws IOException {
+            fileName = String.format("%s_%05d%s", monthPrefix(month), nextNumber++, SEGMENT_SUFFIX);
+            //файл с таким именем может остаться только от незафиксированной записи, поэтому он перезаписывается
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                    Files.newOutputStream(directory.resolve(fileName)))));
+            output.writeInt(FORMAT_VERSION);
+            count = 0;
+            minCaller = null;
+            maxCaller = null;
+            minStartTime = null;
+            maxStartTime = null;
+        }
+
+        private void finishSegment() {
+            if (output == null) {
+                return;
+            }
+            closeOutput();
+            written.add(new Segment(month, fileName, count, minCaller, maxCaller, minStartTime, maxStartTime));
+            fileName = null;
+        }
+
+        private void closeOutput() {
+            if (output == null) {
+                return;
+            }
+            try {
+                output.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Archive segment " + fileName + " write failed", e);
+            } finally {
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Слияние строк абонента из сегментов по месяцам: сегменты следующего месяца открываются
+     * только после того, как прочитаны все строки предыдущего
+     */
+    private final class MonthMerger implements Iterator<CDRRow> {
+        private final Iterator<List<Segment>> months;
+        private final String msisdn;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private final PriorityQueue<SegmentReader> heads = new PriorityQueue<>(Comparator.comparing(SegmentReader::head, CDRRow.ORDER));
+
+        private MonthMerger(Iterator<List<Segment>> months, String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+            this.months = months;
+            this.msisdn = msisdn;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (heads.isEmpty() && months.hasNext()) {
+                for (Segment segment : months.next()) {
+                    SegmentReader reader = new SegmentReader(segment, msisdn, startTime, endTime);
+                    if (reader.advance()) {
+                        heads.add(reader);
+                    }
+                }
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public CDRRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SegmentReader reader = heads.poll();
+            CDRRow row = reader.head();
+            if (reader.advance()) {
+                heads.add(reader);
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Чтение строк абонента за период из одного сегмента. Сегмент распаковывается потоково до первого номера
+     * инициатора больше запрошенного, в памяти остаются только строки абонента из этого сегмента
+     */
+    private final class SegmentReader {
+        private final Segment segment;
+        private final String msisdn;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private Iterator<CDRRow> rows;
+        private CDRRow head;
+
+        private SegmentReader(Segment segment, String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+            this.segment = segment;
+            this.msisdn = msisdn;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        private CDRRow head() {
+            return head;
+        }
+
+        /**
+         * Переходит к следующей строке абонента за период, при первом вызове читает строки абонента из сегмента
+         *
+         * @return false, если строк абонента в сегменте больше нет
+         */
+        private boolean advance() {
+            if (rows == null) {
+                rows = readMatching().iterator();
+            }
+            head = rows.hasNext() ? rows.next() : null;
+            return head != null;
+        }
+
+        private List<CDRRow> readMatching() {
+            List<CDRRow> matching = new ArrayList<>();
+            try (DataInputStream input = openSegment(segment)) {
+                for (int i = 0; i < segment.count(); i++) {
+                    CDRRow row = readRow(input);
+                    int order = row.callerNumber().compareTo(msisdn);
+                    //строки сегмента упорядочены по номеру инициатора, дальше строк абонента нет
+                    if (order > 0) {
+                        break;
+                    }
+                    if (order == 0 && row.startTime().isAfter(startTime) && row.startTime().isBefore(endTime)) {
+                        matching.add(row);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Archive segment " + segment.fileName() + " read failed", e);
+            }
+            matching.sort(CDRRow.ORDER);
+            return matching;
+        }
+    }
+
+    private List<CDRRow> readSegment(Segment segment) {
+        List<CDRRow> rows = new ArrayList<>(segment.count());
+        try (DataInputStream input = openSegment(segment)) {
+            for (int i = 0; i < segment.count(); i++) {
+                rows.add(readRow(input));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Archive segment " + segment.fileName() + " read failed", e);
+        }
+        return rows;
+    }
+
+    /**
+     * Открывает сегмент на чтение и проверяет версию формата
+     *
+     * @param segment индекс сегмента
+     * @return поток, установленный на первую запись сегмента
+     * @throws IOException выбрасывается, если сегмент не удалось прочитать
+     */
+    private DataInputStream openSegment(Segment segment) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                Files.newInputStream(directory.resolve(segment.fileName())))));
+        int version = input.readInt();
+        if (version != FORMAT_VERSION) {
+            input.close();
+            throw new IllegalStateException("Archive segment " + segment.fileName() + " has unsupported format " + version);
+        }
+        return input;
+    }
+
+    private static CDRRow readRow(DataInputStream input) throws IOException {
+        return new CDRRow(input.readLong(), input.readUTF(), input.readUTF(), input.readUTF(), readTime(input), readTime(input));
+    }
+
+    private List<Segment> segments() {
+        List<Segment> loaded = segments;
+        if (loaded == null) {
+            synchronized (this) {
+                if (segments == null) {
+                    segments = loadSegments();
+                }
+                loaded = segments;
+            }
+        }
+        return loaded;
+    }
+
+    private List<Segment> loadSegments() {
+        List<Segment> loaded = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return loaded;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> indexes = files.filter(file -> file.getFileName().toString().endsWith(INDEX_SUFFIX)).sorted().toList();
+            for (Path index : indexes) {
+                for (String line : Files.readAllLines(index)) {
+                    if (!line.isBlank()) {
+                        loaded.add(parseIndexLine(line));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Archive index read failed", e);
+        }
+        return loaded;
+    }
+
+    private static String formatIndexLine(Segment segment) {
+        return String.join(";", segment.month().format(MONTH_FORMAT), segment.fileName(), String.valueOf(segment.count()),
+                segment.minCaller(), segment.maxCaller(), segment.minStartTime().toString(), segment.maxStartTime().toString());
+    }
+
+    private static Segment parseIndexLine(String line) {
+        String[] fields = line.split(";");
+        return new Segment(YearMonth.parse(fields[0], MONTH_FORMAT), fields[1], Integer.parseInt(fields[2]), fields[3], fields[4],
+                LocalDateTime.parse(fields[5]), LocalDateTime.parse(fields[6]));
+    }
+
+    private static String monthPrefix(YearMonth month) {
+        return "cdr_" + month.format(MONTH_FORMAT);
+    }
+
+    private static void writeTime(DataOutputStream output, LocalDateTime time) throws IOException {
+        output.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        output.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInputStream input) throws IOException {
+        return LocalDateTime.ofEpochSecond(input.readLong(), input.readInt(), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,49 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.util.List;
+
+/**
+ * Класс результата импорта CDR записей из файла
+ * Содержит количество прочитанных, сохраненных и отклоненных строк, пропускную способность
+ * и описание первых ошибок разбора
+ */
+public class CDRImportResult {
+    private final long totalLines;
+    private final long importedCount;
+    private final long rejectedCount;
+    private final long elapsedMillis;
+    private final List<String> errors;
+
+    public CDRImportResult(long totalLines, long importedCount, long rejectedCount, long elapsedMillis, List<String> errors) {
+        this.totalLines = totalLines;
+        this.importedCount = importedCount;
+        this.rejectedCount = rejectedCount;
+        this.elapsedMillis = elapsedMillis;
+        this.errors = errors;
+    }
+
+    public long getTotalLines() {
+        return totalLines;
+    }
+
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getRowsPerSecond() {
+        //защищаемся от деления на ноль при очень быстром импорте
+        return importedCount * 1000 / Math.max(elapsedMillis, 1);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+/**
+ * Строка CDR записи для отчетов: неизменяемый объект без контекста персистентности,
+ * поэтому чтение не создает управляемых сущностей и не требует проверки изменений
+ *
+ * @param id идентификатор записи
+ * @param callType тип звонка
+ * @param callerNumber номер инициатора
+ * @param receiverNumber номер принимающего
+ * @param startTime время начала звонка
+ * @param endTime время окончания звонка
+ */
+public record CDRRow(long id, String callType, String callerNumber, String receiverNumber,
+                     LocalDateTime startTime, LocalDateTime endTime) {
+    //порядок строк в отчетах: по времени начала, при равном времени - по идентификатору
+    public static final Comparator<CDRRow> ORDER = Comparator.comparing(CDRRow::startTime).thenComparingLong(CDRRow::id);
+}
@@ -0,0 +1,95 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Контракт хранилища CDR записей, через который сервисы сохраняют записи и строят отчеты.
+ * Реализация выбирается свойством cdr.storage.backend: "jpa" - таблицы бд и агрегаты usage_rollup,
+ * "columnar" - колоночное хранилище в памяти, "compact" - таблица cdr_compact с внешними ключами на абонентов,
+ * "log" - журнал записей фиксированной длины на диске
+ */
+public interface CDRStore {
+    /**
+     * Сохраняет порцию записей одной операцией. Записи, которые хранилище не может сохранить
+     * (например, с номером неизвестного абонента), отклоняются, остальные записи порции сохраняются
+     *
+     * @param records порция CDR записей
+     * @return отклоненные записи, пустой список, если сохранены все записи
+     */
+    List<CDR> saveAll(List<CDR> records);
+
+    /**
+     * Сохраняет записи по одной, каждую отдельной операцией. После сохранения каждой записи вызывается saved,
+     * отклоненные записи и запись, на которой сохранение прервалось исключением, в saved не передаются
+     *
+     * @param records источник CDR записей
+     * @param saved получатель сохраненных записей
+     */
+    void saveEach(Iterator<CDR> records, Consumer<CDR> saved);
+
+    /**
+     * Возвращает ленивый поток звонков абонента в качестве инициатора за период в порядке времени начала.
+     * Хранилища в бд читают строки страницами по ключу (start_time, id), поэтому память не зависит
+     * от количества звонков абонента
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime);
+
+    /**
+     * Возвращает суммарную длительность звонков всех абонентов за месяц (любого года)
+     *
+     * @param month номер месяца
+     * @return суммы по номеру и направлению
+     */
+    List<UsageTotal> sumUsageByMonth(int month);
+
+    /**
+     * Возвращает ленивый поток сумм длительности звонков всех абонентов за месяц (любого года).
+     * Строки одного абонента идут подряд, хранилища в бд читают суммы страницами по ключу
+     * (абонент, направление), поэтому память не зависит от количества абонентов
+     *
+     * @param month номер месяца
+     * @return поток сумм по номеру и направлению
+     */
+    Stream<UsageTotal> streamUsageByMonth(int month);
+
+    /**
+     * Возвращает суммарную длительность звонков абонента за месяц (любого года)
+     *
+     * @param msisdn номер абонента
+     * @param month номер месяца
+     * @return суммы абонента по направлениям, пустой список, если звонков не было
+     */
+    List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month);
+
+    /**
+     * Возвращает суммарную длительность всех звонков абонента
+     *
+     * @param msisdn номер абонента
+     * @return суммы абонента по направлениям, пустой список, если звонков не было
+     */
+    List<UsageTotal> sumUsageByMsisdn(String msisdn);
+
+    /**
+     * Возвращает суммарную длительность звонков абонентов по месяцам (любого года) и направлениям
+     * одним проходом по данным хранилища. Для абонента возвращается не больше 24 строк
+     *
+     * @param msisdns номера абонентов
+     * @return суммы по номеру, месяцу и направлению
+     */
+    List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns);
+
+    /**
+     * Удаляет все CDR записи хранилища вместе с производными от них суммами
+     */
+    void deleteAll();
+}
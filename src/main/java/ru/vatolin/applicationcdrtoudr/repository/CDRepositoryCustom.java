@@ -0,0 +1,81 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Маршрутизация CDR записей по помесячным партициям (таблицы cdr_p_YYYYMM).
+ * Включается свойством cdr.partitioning.enabled, при выключенном свойстве чтение идет из таблицы cdr
+ */
+public interface CDRepositoryCustom {
+    boolean isPartitioned();
+
+    /**
+     * Создает таблицы партиций для месяцев порции, которых еще нет.
+     * DDL в H2 фиксирует текущую транзакцию, поэтому метод вызывается до начала транзакции вставки
+     *
+     * @param records CDR записи
+     */
+    void createPartitionsFor(List<CDR> records);
+
+    /**
+     * Вставляет записи в партиции по месяцу времени начала, партиции должны существовать
+     *
+     * @param records CDR записи
+     */
+    void insertIntoPartitions(List<CDR> records);
+
+    /**
+     * Возвращает ленивый поток звонков абонента в качестве инициатора за период в порядке (start_time, id).
+     * Строки читаются страницами размера cdr.stream.fetch-size по ключу (start_time, id),
+     * поэтому в памяти находится не больше одной страницы независимо от количества звонков абонента
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime);
+
+    /**
+     * Возвращает месяцы с CDR записями, которые раньше заданного месяца
+     * (при включенных партициях - по списку партиций, без чтения записей)
+     *
+     * @param month месяц
+     * @return месяцы в порядке возрастания
+     */
+    List<YearMonth> findMonthsBefore(YearMonth month);
+
+    /**
+     * Передает записи месяца потребителю в порядке (caller, start_time, id) по мере чтения из бд,
+     * записи не собираются в список
+     *
+     * @param month месяц времени начала записей
+     * @param consumer потребитель строк
+     */
+    void forEachInMonth(YearMonth month, Consumer<CDRRow> consumer);
+
+    /**
+     * Удаляет записи месяца: при включенных партициях - DROP TABLE партиции, иначе - удаление по диапазону start_time
+     *
+     * @param month месяц времени начала записей
+     */
+    void deleteMonth(YearMonth month);
+
+    /**
+     * Пересчитывает агрегаты использования по всем партициям, по одному запросу на партицию
+     */
+    void rebuildUsageRollupFromPartitions();
+
+    List<YearMonth> findPartitions();
+
+    /**
+     * Удаляет партицию целиком (DROP TABLE), время не зависит от количества записей
+     *
+     * @param month месяц партиции
+     */
+    void dropPartition(YearMonth month);
+}
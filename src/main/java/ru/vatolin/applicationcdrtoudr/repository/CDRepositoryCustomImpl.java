@@ -0,0 +1,251 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Реализация маршрутизации CDR записей по помесячным партициям.
+ * Каждая партиция - отдельная таблица cdr_p_YYYYMM со структурой и индексами таблицы cdr,
+ * запись попадает в партицию месяца своего времени начала. Выборка за период читает только партиции,
+ * пересекающиеся с периодом, а удаление месяца выполняется одним DROP TABLE.
+ * Идентификаторы берутся из последовательности cdr_seq, поэтому они не пересекаются между партициями.
+ * Потоки строк читаются страницами по ключу (start_time, id), страница может продолжаться в следующей партиции
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link org.springframework.jdbc.core.JdbcTemplate} — для запросов к таблицам партиций, имена которых известны только во время работы.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.time.YearMonth} — для определения партиции записи.</li>
+ *   <li>{@link java.util.concurrent.ConcurrentSkipListSet} — для упорядоченного набора существующих партиций.</li>
+ * </ul>
+ */
+public class CDRepositoryCustomImpl implements CDRepositoryCustom {
+    private static final String PARTITION_PREFIX = "cdr_p_";
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    //границы периода для чтения всей истории абонента
+    //читаются только колонки отчета, строки не попадают в контекст персистентности
+    private static final String ROW_COLUMNS = "select id, call_type, caller, receiver, start_time, end_time from ";
+    private static final RowMapper<CDRRow> CDR_ROW_MAPPER = (rs, rowNum) -> new CDRRow(
+            rs.getLong("id"),
+            rs.getString("call_type"),
+            rs.getString("caller"),
+            rs.getString("receiver"),
+            rs.getObject("start_time", LocalDateTime.class),
+            rs.getObject("end_time", LocalDateTime.class));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean partitioned;
+    private final int fetchSize;
+    //существующие партиции, загружаются из бд при первом обращении
+    private volatile NavigableSet<YearMonth> partitions;
+
+    public CDRepositoryCustomImpl(DataSource dataSource,
+                                  @Value("${cdr.partitioning.enabled:false}") boolean partitioned,
+                                  @Value("${cdr.stream.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        //размер страницы курсора совпадает с fetch size, поэтому страница читается за одно обращение к бд
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.partitioned = partitioned;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    @Override
+    public void createPartitionsFor(List<CDR> records) {
+        NavigableSet<YearMonth> existing = partitions();
+        for (CDR cdr : records) {
+            YearMonth month = YearMonth.from(cdr.getStartTime());
+            if (!existing.contains(month)) {
+                createPartition(month);
+            }
+        }
+    }
+
+    @Override
+    public void insertIntoPartitions(List<CDR> records) {
+        //группируем порцию по партициям, чтобы вставлять в каждую таблицу одним JDBC batch
+        Map<YearMonth, List<CDR>> byMonth = new TreeMap<>();
+        for (CDR cdr : records) {
+            byMonth.computeIfAbsent(YearMonth.from(cdr.getStartTime()), month -> new ArrayList<>()).add(cdr);
+        }
+
+        for (Map.Entry<YearMonth, List<CDR>> entry : byMonth.entrySet()) {
+            if (!partitions().contains(entry.getKey())) {
+                throw new IllegalStateException("Partition " + tableName(entry.getKey()) + " is not exist");
+            }
+            jdbcTemplate.batchUpdate("insert into " + tableName(entry.getKey()) +
+                            " (id, call_type, caller, receiver, start_time, end_time) values (next value for cdr_seq, ?, ?, ?, ?, ?)",
+                    entry.getValue(), entry.getValue().size(), (ps, cdr) -> {
+                        ps.setString(1, cdr.getCallType());
+                        ps.setString(2, cdr.getCallerNumber());
+                        ps.setString(3, cdr.getReceiverNumber());
+                        ps.setObject(4, cdr.getStartTime());
+                        ps.setObject(5, cdr.getEndTime());
+                    });
+        }
+    }
+
+    @Override
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        return KeysetCursor.stream((afterStartTime, afterId, limit) -> loadPage(msisdn, endTime, afterStartTime, afterId, limit),
+                CDRRow::startTime, CDRRow::id, startTime, fetchSize);
+    }
+
+    @Override
+    public List<YearMonth> findMonthsBefore(YearMonth month) {
+        if (partitioned) {
+            return new ArrayList<>(partitions().headSet(month, false));
+        }
+        return jdbcTemplate.query("select distinct extract(year from start_time) as y, extract(month from start_time) as m " +
+                        "from cdr where start_time < ? order by y, m",
+                (rs, rowNum) -> YearMonth.of(rs.getInt("y"), rs.getInt("m")), month.atDay(1).atStartOfDay());
+    }
+
+    @Override
+    public void forEachInMonth(YearMonth month, Consumer<CDRRow> consumer) {
+        if (partitioned && !partitions().contains(month)) {
+            return;
+        }
+        String table = partitioned ? tableName(month) : "cdr";
+        //строки передаются потребителю по мере чтения, fetch size ограничивает количество строк в памяти драйвера
+        jdbcTemplate.query(ROW_COLUMNS + table + " where start_time >= ? and start_time < ? order by caller, start_time, id",
+                (RowCallbackHandler) rs -> consumer.accept(CDR_ROW_MAPPER.mapRow(rs, 0)),
+                month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+    }
+
+    @Override
+    public void deleteMonth(YearMonth month) {
+        if (partitioned) {
+            dropPartition(month);
+        } else {
+            jdbcTemplate.update("delete from cdr where start_time >= ? and start_time < ?",
+                    month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+        }
+    }
+
+    @Override
+    public void rebuildUsageRollupFromPartitions() {
+        for (YearMonth month : partitions()) {
+            String table = tableName(month);
+            jdbcTemplate.update("insert into usage_rollup (msisdn, usage_year, usage_month, direction, total_seconds, call_count) " +
+                    "select caller, " + month.getYear() + ", " + month.getMonthValue() + ", 'INCOMING', " +
+                    "sum(datediff(SECOND, start_time, end_time)), count(*) from " + table + " group by caller " +
+                    "union all " +
+                    "select receiver, " + month.getYear() + ", " + month.getMonthValue() + ", 'OUTCOMING', " +
+                    "sum(datediff(SECOND, start_time, end_time)), count(*) from " + table + " group by receiver");
+        }
+    }
+
+    @Override
+    public List<YearMonth> findPartitions() {
+        return new ArrayList<>(partitions());
+    }
+
+    @Override
+    public void dropPartition(YearMonth month) {
+        jdbcTemplate.execute("drop table if exists " + tableName(month));
+        partitions().remove(month);
+    }
+
+    /**
+     * Загружает страницу строк с ключом (start_time, id) больше заданного.
+     * Записи месяца лежат только в его партиции, поэтому страница начинается с партиции месяца ключа
+     * и дополняется строками следующих партиций, пока не наберется limit строк
+     *
+     * @param msisdn номер абонента
+     * @param endTime конец периода (не включительно)
+     * @param afterStartTime время начала последней прочитанной строки
+     * @param afterId идентификатор последней прочитанной строки
+     * @param limit размер страницы
+     * @return строки страницы в порядке (start_time, id)
+     */
+    private List<CDRRow> loadPage(String msisdn, LocalDateTime endTime,
+                                  LocalDateTime afterStartTime, long afterId, int limit) {
+        if (!afterStartTime.isBefore(endTime)) {
+            return new ArrayList<>();
+        }
+        if (!partitioned) {
+            return queryPage("cdr", msisdn, endTime, afterStartTime, afterId, limit);
+        }
+
+        List<CDRRow> page = new ArrayList<>(limit);
+        for (YearMonth month : partitions().subSet(YearMonth.from(afterStartTime), true, YearMonth.from(endTime), true)) {
+            page.addAll(queryPage(tableName(month), msisdn, endTime, afterStartTime, afterId, limit - page.size()));
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    //выборка по индексу (caller, start_time) с продолжением после ключа (afterStartTime, afterId)
+    private List<CDRRow> queryPage(String table, String msisdn, LocalDateTime endTime,
+                                   LocalDateTime afterStartTime, long afterId, int limit) {
+        return jdbcTemplate.query(ROW_COLUMNS + table + " where caller = ? " +
+                        "and (start_time > ? or (start_time = ? and id > ?)) and start_time < ? " +
+                        "order by start_time, id fetch first ? rows only",
+                CDR_ROW_MAPPER, msisdn, afterStartTime, afterStartTime, afterId, endTime, limit);
+    }
+
+    /**
+     * Создает таблицу партиции с индексами таблицы cdr
+     *
+     * @param month месяц партиции
+     */
+    private synchronized void createPartition(YearMonth month) {
+        String table = tableName(month);
+        jdbcTemplate.execute("create table if not exists " + table + " (id bigint primary key, call_type varchar(255), " +
+                "caller varchar(255), receiver varchar(255), start_time timestamp(6), end_time timestamp(6))");
+        jdbcTemplate.execute("create index if not exists idx_" + table + "_caller_start on " + table + " (caller, start_time)");
+        jdbcTemplate.execute("create index if not exists idx_" + table + "_receiver_start on " + table + " (receiver, start_time)");
+        partitions().add(month);
+    }
+
+    private NavigableSet<YearMonth> partitions() {
+        NavigableSet<YearMonth> loaded = partitions;
+        if (loaded == null) {
+            synchronized (this) {
+                if (partitions == null) {
+                    partitions = loadPartitions();
+                }
+                loaded = partitions;
+            }
+        }
+        return loaded;
+    }
+
+    private NavigableSet<YearMonth> loadPartitions() {
+        NavigableSet<YearMonth> loaded = new ConcurrentSkipListSet<>();
+        List<String> tables = jdbcTemplate.queryForList("select table_name from information_schema.tables " +
+                "where lower(table_name) like 'cdr\\_p\\_%'", String.class);
+        for (String table : tables) {
+            String suffix = table.substring(PARTITION_PREFIX.length());
+            if (suffix.matches("\\d{6}")) {
+                loaded.add(YearMonth.parse(suffix, PARTITION_FORMAT));
+            }
+        }
+        return loaded;
+    }
+
+    private static String tableName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_FORMAT);
+    }
+}
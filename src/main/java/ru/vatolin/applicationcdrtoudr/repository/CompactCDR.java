@@ -0,0 +1,89 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+@Entity
+//номера абонентов заменены внешними ключами на subscribers, поэтому строка и индексы хранят bigint вместо varchar
+@Table(name = "cdr_compact", indexes = {
+        @Index(name = "idx_cdr_compact_caller_start", columnList = "caller_id, start_time"),
+        @Index(name = "idx_cdr_compact_receiver_start", columnList = "receiver_id, start_time")
+})
+public class CompactCDR {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cdr_compact_seq")
+    @SequenceGenerator(name = "cdr_compact_seq", sequenceName = "cdr_compact_seq", allocationSize = 50)
+    private Long id;
+    @Column(name = "call_type")
+    private String callType;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "caller_id", foreignKey = @ForeignKey(name = "fk_cdr_compact_caller"))
+    private Subscriber caller;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "receiver_id", foreignKey = @ForeignKey(name = "fk_cdr_compact_receiver"))
+    private Subscriber receiver;
+    @Column(name = "start_time")
+    private LocalDateTime startTime;
+    @Column(name = "end_time")
+    private LocalDateTime endTime;
+
+    public CompactCDR() {
+    }
+
+    public CompactCDR(String callType, Subscriber caller, Subscriber receiver, LocalDateTime startTime, LocalDateTime endTime) {
+        this.callType = callType;
+        this.caller = caller;
+        this.receiver = receiver;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCallType() {
+        return callType;
+    }
+
+    public void setCallType(String callType) {
+        this.callType = callType;
+    }
+
+    public Subscriber getCaller() {
+        return caller;
+    }
+
+    public void setCaller(Subscriber caller) {
+        this.caller = caller;
+    }
+
+    public Subscriber getReceiver() {
+        return receiver;
+    }
+
+    public void setReceiver(Subscriber receiver) {
+        this.receiver = receiver;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(LocalDateTime endTime) {
+        this.endTime = endTime;
+    }
+}
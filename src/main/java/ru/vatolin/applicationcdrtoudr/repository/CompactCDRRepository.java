@@ -0,0 +1,74 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface CompactCDRRepository extends JpaRepository<CompactCDR, Long> {
+    //страница курсора: строки после ключа (afterStartTime, afterId) до конца периода в порядке (start_time, id);
+    //проекция в CompactCDRRow не создает сущностей, а c.receiver.id читается из внешнего ключа без соединения с subscribers
+    @Query("select new ru.vatolin.applicationcdrtoudr.repository.CompactCDRRow(c.id, c.callType, c.receiver.id, c.startTime, c.endTime) " +
+            "from CompactCDR c where c.caller.id = :callerId " +
+            "and (c.startTime > :afterStartTime or (c.startTime = :afterStartTime and c.id > :afterId)) and c.startTime < :endTime " +
+            "order by c.startTime, c.id")
+    List<CompactCDRRow> findIncomingPage(long callerId, LocalDateTime afterStartTime, long afterId, LocalDateTime endTime, Limit limit);
+
+    //суммарная длительность звонков всех абонентов за месяц (любого года), группировка по целочисленным ключам
+    @Query(value = "select caller_id as subscriberId, 'INCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where extract(month from start_time) = :month group by caller_id " +
+            "union all " +
+            "select receiver_id as subscriberId, 'OUTCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where extract(month from start_time) = :month group by receiver_id", nativeQuery = true)
+    List<SubscriberUsageTotal> sumUsageByMonth(int month);
+
+    //страница курсора: суммы за месяц после ключа (afterId, afterDirection) в порядке ключа,
+    //INCOMING < OUTCOMING, поэтому ключ отсекает в каждой ветке только уже прочитанные строки
+    @Query(value = "select subscriberId, direction, totalSeconds from (" +
+            "select caller_id as subscriberId, 'INCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where extract(month from start_time) = :month " +
+            "and (caller_id > :afterId or (caller_id = :afterId and :afterDirection < 'INCOMING')) group by caller_id " +
+            "union all " +
+            "select receiver_id as subscriberId, 'OUTCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where extract(month from start_time) = :month " +
+            "and (receiver_id > :afterId or (receiver_id = :afterId and :afterDirection < 'OUTCOMING')) group by receiver_id" +
+            ") t order by subscriberId, direction limit :limit", nativeQuery = true)
+    List<SubscriberUsageTotal> sumUsageByMonthPage(int month, long afterId, String afterDirection, int limit);
+
+    //суммарная длительность звонков абонента за месяц (любого года)
+    @Query(value = "select caller_id as subscriberId, 'INCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where caller_id = :subscriberId and extract(month from start_time) = :month group by caller_id " +
+            "union all " +
+            "select receiver_id as subscriberId, 'OUTCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where receiver_id = :subscriberId and extract(month from start_time) = :month group by receiver_id", nativeQuery = true)
+    List<SubscriberUsageTotal> sumUsageBySubscriberAndMonth(long subscriberId, int month);
+
+    //суммарная длительность всех звонков абонента
+    @Query(value = "select caller_id as subscriberId, 'INCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where caller_id = :subscriberId group by caller_id " +
+            "union all " +
+            "select receiver_id as subscriberId, 'OUTCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where receiver_id = :subscriberId group by receiver_id", nativeQuery = true)
+    List<SubscriberUsageTotal> sumUsageBySubscriber(long subscriberId);
+
+    //суммарная длительность звонков абонентов по месяцам (любого года) и направлениям
+    @Query(value = "select caller_id as subscriberId, extract(month from start_time) as usageMonth, 'INCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where caller_id in (:subscriberIds) group by caller_id, extract(month from start_time) " +
+            "union all " +
+            "select receiver_id as subscriberId, extract(month from start_time) as usageMonth, 'OUTCOMING' as direction, " +
+            "cast(sum(datediff(SECOND, start_time, end_time)) as bigint) as totalSeconds " +
+            "from cdr_compact where receiver_id in (:subscriberIds) group by receiver_id, extract(month from start_time)", nativeQuery = true)
+    List<MonthlySubscriberUsageTotal> sumUsageBySubscribersGroupByMonth(Collection<Long> subscriberIds);
+}
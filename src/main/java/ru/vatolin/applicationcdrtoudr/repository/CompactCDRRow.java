@@ -0,0 +1,15 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Строка таблицы cdr_compact для отчетов (JPQL проекция, сущности не создаются)
+ *
+ * @param id идентификатор записи
+ * @param callType тип звонка
+ * @param receiverId идентификатор принимающего абонента
+ * @param startTime время начала звонка
+ * @param endTime время окончания звонка
+ */
+public record CompactCDRRow(long id, String callType, long receiverId, LocalDateTime startTime, LocalDateTime endTime) {
+}
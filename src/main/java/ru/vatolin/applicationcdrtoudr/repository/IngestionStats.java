@@ -0,0 +1,47 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Класс состояния непрерывной загрузки CDR записей
+ * Глубина очереди и задержка показывают, успевает ли сохранение в бд за частотой поступления записей
+ */
+public class IngestionStats {
+    private final boolean running;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final long producedCount;
+    private final long persistedCount;
+    private final long lagMillis;
+
+    public IngestionStats(boolean running, int queueDepth, int queueCapacity, long producedCount, long persistedCount, long lagMillis) {
+        this.running = running;
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.producedCount = producedCount;
+        this.persistedCount = persistedCount;
+        this.lagMillis = lagMillis;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getProducedCount() {
+        return producedCount;
+    }
+
+    public long getPersistedCount() {
+        return persistedCount;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Курсор по ключу (start_time, id): строки читаются страницами фиксированного размера,
+ * следующая страница начинается строго после ключа последней строки предыдущей.
+ * В памяти находится не больше одной страницы, а каждая страница - отдельный запрос по индексу
+ * (номер, start_time), поэтому соединение с бд не удерживается между страницами и стоимость
+ * страницы не растет с ее номером, как при OFFSET
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #stream(PageLoader, Function, ToLongFunction, LocalDateTime, int)} — ленивый поток строк по страницам.</li>
+ * </ul>
+ *
+ * @param <T> тип строки
+ */
+public final class KeysetCursor<T> implements Iterator<T> {
+    private final PageLoader<T> pageLoader;
+    private final Function<T, LocalDateTime> startTimeOf;
+    private final ToLongFunction<T> idOf;
+    private final int pageSize;
+
+    private LocalDateTime afterStartTime;
+    private long afterId;
+    private Iterator<T> page;
+    private boolean lastPage;
+
+    /**
+     * Загрузчик страницы: строки с ключом строго больше (afterStartTime, afterId) в порядке ключа
+     *
+     * @param <T> тип строки
+     */
+    @FunctionalInterface
+    public interface PageLoader<T> {
+        List<T> load(LocalDateTime afterStartTime, long afterId, int limit);
+    }
+
+    private KeysetCursor(PageLoader<T> pageLoader, Function<T, LocalDateTime> startTimeOf, ToLongFunction<T> idOf,
+                         LocalDateTime startTime, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.pageLoader = pageLoader;
+        this.startTimeOf = startTimeOf;
+        this.idOf = idOf;
+        this.pageSize = pageSize;
+        //ключ (startTime, MAX) исключает строки с временем начала, равным границе периода
+        this.afterStartTime = startTime;
+        this.afterId = Long.MAX_VALUE;
+    }
+
+    /**
+     * Возвращает ленивый поток строк, страницы загружаются по мере чтения потока
+     *
+     * @param pageLoader загрузчик страницы
+     * @param startTimeOf время начала строки
+     * @param idOf идентификатор строки
+     * @param startTime начало периода (не включительно)
+     * @param pageSize размер страницы
+     * @return поток строк в порядке (start_time, id)
+     * @param <T> тип строки
+     */
+    public static <T> Stream<T> stream(PageLoader<T> pageLoader, Function<T, LocalDateTime> startTimeOf,
+                                       ToLongFunction<T> idOf, LocalDateTime startTime, int pageSize) {
+        KeysetCursor<T> cursor = new KeysetCursor<>(pageLoader, startTimeOf, idOf, startTime, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page != null && page.hasNext()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+
+        List<T> rows = pageLoader.load(afterStartTime, afterId, pageSize);
+        //неполная страница - последняя, лишний запрос за пустой страницей не нужен
+        lastPage = rows.size() < pageSize;
+        if (rows.isEmpty()) {
+            return false;
+        }
+        T last = rows.get(rows.size() - 1);
+        afterStartTime = startTimeOf.apply(last);
+        afterId = idOf.applyAsLong(last);
+        page = rows.iterator();
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -0,0 +1,9 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Суммарная длительность звонков по идентификатору абонента, месяцу (любого года) и направлению звонка
+ * (строка группирующего запроса по таблице cdr_compact)
+ */
+public interface MonthlySubscriberUsageTotal extends SubscriberUsageTotal {
+    Integer getUsageMonth();
+}
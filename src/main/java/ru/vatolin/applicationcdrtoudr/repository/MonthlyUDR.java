@@ -0,0 +1,61 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UDR отчет абонента с разбивкой по месяцам: суммы за год в incomingCall и outcomingCall (как в {@link UDR})
+ * и суммы за каждый из 12 месяцев в months
+ */
+public class MonthlyUDR extends UDR {
+    private List<MonthDetail> months = new ArrayList<>();
+
+    public MonthlyUDR() {
+    }
+
+    @JsonProperty("months")
+    public List<MonthDetail> getMonths() {
+        return months;
+    }
+
+    public void setMonths(List<MonthDetail> months) {
+        this.months = months;
+    }
+
+    public static class MonthDetail {
+        private int month;
+        private CallDetail incomingCall;
+        private CallDetail outcomingCall;
+
+        public MonthDetail() {
+        }
+
+        public int getMonth() {
+            return month;
+        }
+
+        public void setMonth(int month) {
+            this.month = month;
+        }
+
+        @JsonProperty("incomingCall")
+        public CallDetail getIncomingCall() {
+            return incomingCall;
+        }
+
+        public void setIncomingCall(CallDetail incomingCall) {
+            this.incomingCall = incomingCall;
+        }
+
+        @JsonProperty("outcomingCall")
+        public CallDetail getOutcomingCall() {
+            return outcomingCall;
+        }
+
+        public void setOutcomingCall(CallDetail outcomingCall) {
+            this.outcomingCall = outcomingCall;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Проекция результата группирующего запроса с разбивкой по месяцам: суммарная длительность звонков абонента
+ * в одном направлении за месяц (любого года)
+ */
+public interface MonthlyUsageTotal extends UsageTotal {
+    Integer getUsageMonth();
+}
@@ -0,0 +1,34 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Перевод номера абонента в long и обратно для хранения номеров без строк
+ */
+public final class Msisdn {
+    private Msisdn() {
+    }
+
+    /**
+     * Переводит номер в long, номер должен состоять из цифр и не начинаться с нуля, иначе перевод не взаимно однозначен
+     *
+     * @param msisdn номер абонента
+     * @return номер в виде long или -1, если номер нельзя перевести
+     */
+    public static long encode(String msisdn) {
+        if (msisdn == null || msisdn.isEmpty() || msisdn.length() > 18 || msisdn.charAt(0) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < msisdn.length(); i++) {
+            char digit = msisdn.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    public static String decode(long msisdn) {
+        return Long.toString(msisdn);
+    }
+}
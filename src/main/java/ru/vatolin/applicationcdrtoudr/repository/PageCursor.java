@@ -0,0 +1,81 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Курсор по ключу последней прочитанной строки: следующая страница загружается запросом строк строго после
+ * последней строки предыдущей страницы. В отличие от {@link KeysetCursor} ключ строки задает сам загрузчик,
+ * поэтому курсор подходит для группирующих запросов, упорядоченных по номеру абонента и направлению звонка.
+ * В памяти находится не больше одной страницы, соединение с бд между страницами не удерживается
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #stream(BiFunction, int)} — ленивый поток строк по страницам.</li>
+ * </ul>
+ *
+ * @param <T> тип строки
+ */
+public final class PageCursor<T> implements Iterator<T> {
+    private final BiFunction<T, Integer, List<T>> pageLoader;
+    private final int pageSize;
+
+    private T last;
+    private Iterator<T> page;
+    private boolean lastPage;
+
+    private PageCursor(BiFunction<T, Integer, List<T>> pageLoader, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Возвращает ленивый поток строк, страницы загружаются по мере чтения потока
+     *
+     * @param pageLoader загрузчик страницы: (последняя строка предыдущей страницы или null, размер страницы) -> строки после нее
+     * @param pageSize размер страницы
+     * @return поток строк в порядке ключа загрузчика
+     * @param <T> тип строки
+     */
+    public static <T> Stream<T> stream(BiFunction<T, Integer, List<T>> pageLoader, int pageSize) {
+        PageCursor<T> cursor = new PageCursor<>(pageLoader, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page != null && page.hasNext()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+
+        List<T> rows = pageLoader.apply(last, pageSize);
+        //неполная страница - последняя, лишний запрос за пустой страницей не нужен
+        lastPage = rows.size() < pageSize;
+        if (rows.isEmpty()) {
+            return false;
+        }
+        last = rows.get(rows.size() - 1);
+        page = rows.iterator();
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -3,6 +3,7 @@ package ru.vatolin.applicationcdrtoudr.repository;
 import jakarta.persistence.*;
 
 @Entity
+@EntityListeners(SubscriberChangeListener.class)
 @Table(name = "subscribers")
 public class Subscriber {
     @Id
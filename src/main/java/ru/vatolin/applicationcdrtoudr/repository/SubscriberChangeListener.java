@@ -0,0 +1,39 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Слушатель изменений абонентов: увеличивает номер версии после фиксации транзакции,
+ * в которой абонент был добавлен, изменен или удален. По номеру версии кэши абонентов понимают, что их нужно перечитать.
+ * Массовые операции в обход сущностей (deleteAllInBatch, native запросы) версию не меняют
+ */
+public class SubscriberChangeListener {
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    public static long version() {
+        return VERSION.get();
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void onChange(Subscriber subscriber) {
+        //до фиксации транзакции изменения не видны другим потокам, поэтому версия меняется после нее
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    VERSION.incrementAndGet();
+                }
+            });
+        } else {
+            VERSION.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Суммарная длительность звонков по идентификатору абонента и направлению звонка
+ * (строка группирующего запроса по таблице cdr_compact)
+ */
+public interface SubscriberUsageTotal {
+    Long getSubscriberId();
+
+    String getDirection();
+
+    Long getTotalSeconds();
+}
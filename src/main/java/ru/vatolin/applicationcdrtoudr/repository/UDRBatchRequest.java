@@ -0,0 +1,40 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.util.List;
+
+/**
+ * Тело запроса UDR отчетов для нескольких абонентов: номера абонентов и период,
+ * period "M" - месяц numberOfMonth или "Y" - год (как у отчета для конкретного абонента)
+ */
+public class UDRBatchRequest {
+    private List<String> msisdns;
+    private String period;
+    private Integer numberOfMonth;
+
+    public UDRBatchRequest() {
+    }
+
+    public List<String> getMsisdns() {
+        return msisdns;
+    }
+
+    public void setMsisdns(List<String> msisdns) {
+        this.msisdns = msisdns;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(String period) {
+        this.period = period;
+    }
+
+    public Integer getNumberOfMonth() {
+        return numberOfMonth;
+    }
+
+    public void setNumberOfMonth(Integer numberOfMonth) {
+        this.numberOfMonth = numberOfMonth;
+    }
+}
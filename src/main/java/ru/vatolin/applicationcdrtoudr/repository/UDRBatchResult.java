@@ -0,0 +1,49 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import java.util.List;
+
+/**
+ * Класс результата построения UDR отчетов для нескольких абонентов
+ * Отчеты идут в порядке абонентов, ошибки построения отдельных отчетов собираются в errors и не прерывают остальные
+ */
+public class UDRBatchResult {
+    private final List<UDR> reports;
+    private final List<Failure> errors;
+    private final long elapsedMillis;
+
+    public UDRBatchResult(List<UDR> reports, List<Failure> errors, long elapsedMillis) {
+        this.reports = reports;
+        this.errors = errors;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<UDR> getReports() {
+        return reports;
+    }
+
+    public List<Failure> getErrors() {
+        return errors;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public static class Failure {
+        private final String msisdn;
+        private final String error;
+
+        public Failure(String msisdn, String error) {
+            this.msisdn = msisdn;
+            this.error = error;
+        }
+
+        public String getMsisdn() {
+            return msisdn;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
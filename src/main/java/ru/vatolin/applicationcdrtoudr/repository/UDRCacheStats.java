@@ -0,0 +1,54 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Класс счетчиков кэша UDR отчетов
+ * Вытеснения по размеру, по времени жизни и удаления после сохранения CDR записей считаются отдельно
+ */
+public class UDRCacheStats {
+    private final int size;
+    private final int maxSize;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expiredCount;
+    private final long invalidationCount;
+
+    public UDRCacheStats(int size, int maxSize, long hitCount, long missCount, long evictionCount, long expiredCount,
+                         long invalidationCount) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expiredCount = expiredCount;
+        this.invalidationCount = invalidationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+}
@@ -0,0 +1,86 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import jakarta.persistence.*;
+
+/**
+ * Агрегат использования: суммарная длительность и количество звонков абонента за месяц в одном направлении.
+ * Обновляется в той же транзакции, что и вставка CDR записей, поэтому UDR отчеты читают готовые суммы
+ */
+@Entity
+@Table(name = "usage_rollup", uniqueConstraints = @UniqueConstraint(name = "uk_usage_rollup_key",
+        columnNames = {"msisdn", "usage_year", "usage_month", "direction"}))
+public class UsageRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String msisdn;
+    @Column(name = "usage_year")
+    private int year;
+    @Column(name = "usage_month")
+    private int month;
+    //INCOMING или OUTCOMING, как в UsageTotal
+    private String direction;
+    @Column(name = "total_seconds")
+    private long totalSeconds;
+    @Column(name = "call_count")
+    private long callCount;
+
+    public UsageRollup() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMsisdn() {
+        return msisdn;
+    }
+
+    public void setMsisdn(String msisdn) {
+        this.msisdn = msisdn;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public void setYear(int year) {
+        this.year = year;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public void setMonth(int month) {
+        this.month = month;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+
+    public long getTotalSeconds() {
+        return totalSeconds;
+    }
+
+    public void setTotalSeconds(long totalSeconds) {
+        this.totalSeconds = totalSeconds;
+    }
+
+    public long getCallCount() {
+        return callCount;
+    }
+
+    public void setCallCount(long callCount) {
+        this.callCount = callCount;
+    }
+}
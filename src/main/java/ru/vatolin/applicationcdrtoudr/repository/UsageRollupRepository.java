@@ -0,0 +1,70 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface UsageRollupRepository extends JpaRepository<UsageRollup, Long> {
+    //прибавляет длительность и количество звонков к агрегату, создает агрегат, если его еще нет
+    @Modifying
+    @Transactional
+    @Query(value = "merge into usage_rollup r " +
+            "using (select cast(:msisdn as varchar(255)) as msisdn, cast(:year as int) as usage_year, " +
+            "cast(:month as int) as usage_month, cast(:direction as varchar(255)) as direction, " +
+            "cast(:seconds as bigint) as total_seconds, cast(:calls as bigint) as call_count) d " +
+            "on (r.msisdn = d.msisdn and r.usage_year = d.usage_year and r.usage_month = d.usage_month and r.direction = d.direction) " +
+            "when matched then update set total_seconds = r.total_seconds + d.total_seconds, call_count = r.call_count + d.call_count " +
+            "when not matched then insert (msisdn, usage_year, usage_month, direction, total_seconds, call_count) " +
+            "values (d.msisdn, d.usage_year, d.usage_month, d.direction, d.total_seconds, d.call_count)", nativeQuery = true)
+    void addUsage(String msisdn, int year, int month, String direction, long seconds, long calls);
+
+    //пересчитывает агрегаты по всей таблице cdr, перед вызовом агрегаты нужно удалить
+    @Modifying
+    @Transactional
+    @Query(value = "insert into usage_rollup (msisdn, usage_year, usage_month, direction, total_seconds, call_count) " +
+            "select caller, extract(year from start_time), extract(month from start_time), 'INCOMING', " +
+            "sum(datediff(SECOND, start_time, end_time)), count(*) " +
+            "from cdr group by caller, extract(year from start_time), extract(month from start_time) " +
+            "union all " +
+            "select receiver, extract(year from start_time), extract(month from start_time), 'OUTCOMING', " +
+            "sum(datediff(SECOND, start_time, end_time)), count(*) " +
+            "from cdr group by receiver, extract(year from start_time), extract(month from start_time)", nativeQuery = true)
+    void rebuildFromCdr();
+
+    //удаляет агрегаты за месяц конкретного года
+    @Modifying
+    @Transactional
+    @Query(value = "delete from usage_rollup where usage_year = :year and usage_month = :month", nativeQuery = true)
+    void deleteByYearAndMonth(int year, int month);
+
+    //суммарная длительность звонков всех абонентов за месяц (любого года)
+    @Query(value = "select msisdn, direction, cast(sum(total_seconds) as bigint) as totalSeconds " +
+            "from usage_rollup where usage_month = :month group by msisdn, direction", nativeQuery = true)
+    List<UsageTotal> sumUsageByMonth(int month);
+
+    //страница курсора: суммы за месяц после ключа (afterMsisdn, afterDirection) в порядке ключа
+    @Query(value = "select msisdn, direction, cast(sum(total_seconds) as bigint) as totalSeconds " +
+            "from usage_rollup where usage_month = :month " +
+            "and (msisdn > :afterMsisdn or (msisdn = :afterMsisdn and direction > :afterDirection)) " +
+            "group by msisdn, direction order by msisdn, direction limit :limit", nativeQuery = true)
+    List<UsageTotal> sumUsageByMonthPage(int month, String afterMsisdn, String afterDirection, int limit);
+
+    //суммарная длительность звонков абонента за месяц (любого года)
+    @Query(value = "select msisdn, direction, cast(sum(total_seconds) as bigint) as totalSeconds " +
+            "from usage_rollup where msisdn = :msisdn and usage_month = :month group by msisdn, direction", nativeQuery = true)
+    List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month);
+
+    //суммарная длительность всех звонков абонента
+    @Query(value = "select msisdn, direction, cast(sum(total_seconds) as bigint) as totalSeconds " +
+            "from usage_rollup where msisdn = :msisdn group by msisdn, direction", nativeQuery = true)
+    List<UsageTotal> sumUsageByMsisdn(String msisdn);
+
+    //суммарная длительность звонков абонентов по месяцам (любого года) и направлениям
+    @Query(value = "select msisdn, usage_month as usageMonth, direction, cast(sum(total_seconds) as bigint) as totalSeconds " +
+            "from usage_rollup where msisdn in (:msisdns) group by msisdn, usage_month, direction", nativeQuery = true)
+    List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns);
+}
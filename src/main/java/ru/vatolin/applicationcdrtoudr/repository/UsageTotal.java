@@ -0,0 +1,16 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Проекция результата группирующего запроса: суммарная длительность звонков абонента в одном направлении.
+ * INCOMING - абонент выступал инициатором звонка, OUTCOMING - принимающим (как в {@link UDR})
+ */
+public interface UsageTotal {
+    String INCOMING = "INCOMING";
+    String OUTCOMING = "OUTCOMING";
+
+    String getMsisdn();
+
+    String getDirection();
+
+    Long getTotalSeconds();
+}
@@ -0,0 +1,43 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+/**
+ * Суммарная длительность звонков абонента по направлению, посчитанная вне SQL проекции.
+ * Месяц 0 означает сумму без разбивки по месяцам
+ */
+public class UsageTotalRow implements MonthlyUsageTotal {
+    private final String msisdn;
+    private final int usageMonth;
+    private final String direction;
+    private final long totalSeconds;
+
+    public UsageTotalRow(String msisdn, String direction, long totalSeconds) {
+        this(msisdn, 0, direction, totalSeconds);
+    }
+
+    public UsageTotalRow(String msisdn, int usageMonth, String direction, long totalSeconds) {
+        this.msisdn = msisdn;
+        this.usageMonth = usageMonth;
+        this.direction = direction;
+        this.totalSeconds = totalSeconds;
+    }
+
+    @Override
+    public String getMsisdn() {
+        return msisdn;
+    }
+
+    @Override
+    public Integer getUsageMonth() {
+        return usageMonth;
+    }
+
+    @Override
+    public String getDirection() {
+        return direction;
+    }
+
+    @Override
+    public Long getTotalSeconds() {
+        return totalSeconds;
+    }
+}
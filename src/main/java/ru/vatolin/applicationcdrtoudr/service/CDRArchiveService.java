@@ -0,0 +1,96 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.CDRArchive;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Данный класс выступает в качестве сервиса переноса старых CDR записей в архив на диске.
+ * Месяц, который старше cdr.archive.age-months месяцев, переписывается в сжатые сегменты архива
+ * и после фиксации индекса архива удаляется из бд (при включенных партициях - через DROP TABLE партиции).
+ * Если удаление не выполнилось (сбой после фиксации архива), месяц остается в бд и переносится повторно при следующем запуске:
+ * архив пропускает уже записанные строки, а выборки и пересчет агрегатов до этого не учитывают строки дважды
+ * Агрегаты использования за месяц остаются в usage_rollup, поэтому UDR отчеты продолжают учитывать перенесенные записи.
+ * Перенос выполняется по расписанию cdr.archive.cron при cdr.archive.enabled=true,
+ * записи в архивируемые месяцы во время переноса не ожидаются
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #archiveMonth(YearMonth)} — переносит записи месяца в архив.</li>
+ *   <li>{@link #archiveAgedMonths()} — переносит в архив месяцы старше срока.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRArchive} — архив CDR записей на диске.</li>
+ * </ul>
+ */
+@Service
+public class CDRArchiveService {
+    private static final Logger log = LoggerFactory.getLogger(CDRArchiveService.class);
+
+    private final CDRepository cdRepository;
+    private final CDRArchive cdrArchive;
+    private final boolean enabled;
+    private final int ageMonths;
+
+    public CDRArchiveService(CDRepository cdRepository, CDRArchive cdrArchive,
+                             @Value("${cdr.archive.enabled:false}") boolean enabled,
+                             @Value("${cdr.archive.age-months:3}") int ageMonths) {
+        if (ageMonths <= 0) {
+            throw new IllegalArgumentException("Archive age months must be positive");
+        }
+        this.cdRepository = cdRepository;
+        this.cdrArchive = cdrArchive;
+        this.enabled = enabled;
+        this.ageMonths = ageMonths;
+    }
+
+    /**
+     * Данный метод переносит записи месяца в архив: строки читаются из бд в порядке (caller, start_time, id)
+     * и сразу пишутся в сегменты, после фиксации индекса архива записи месяца удаляются из бд.
+     * Строки, которые уже есть в архиве месяца, повторно не записываются
+     *
+     * @param month месяц времени начала записей
+     * @return количество записей, добавленных в архив
+     */
+    public int archiveMonth(YearMonth month) {
+        int archived;
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(month)) {
+            cdRepository.forEachInMonth(month, writer::write);
+            archived = writer.commit();
+        }
+        cdRepository.deleteMonth(month);
+        log.info("CDR month {} archived: {} records", month, archived);
+        return archived;
+    }
+
+    /**
+     * Данный метод переносит в архив месяцы, которые старше cdr.archive.age-months месяцев
+     *
+     * @return список перенесенных месяцев
+     */
+    @Scheduled(cron = "${cdr.archive.cron:0 30 3 * * *}")
+    public List<YearMonth> archiveAgedMonths() {
+        List<YearMonth> archived = new ArrayList<>();
+        if (!enabled) {
+            return archived;
+        }
+
+        YearMonth oldestKept = YearMonth.now().minusMonths(ageMonths - 1);
+        for (YearMonth month : cdRepository.findMonthsBefore(oldestKept)) {
+            archiveMonth(month);
+            archived.add(month);
+        }
+        return archived;
+    }
+}
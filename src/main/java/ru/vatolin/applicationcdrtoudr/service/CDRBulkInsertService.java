@@ -0,0 +1,129 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Данный класс выступает в качестве сервиса для пакетной вставки CDR записей в бд.
+ * Записи сохраняются порциями (chunk), каждая порция в отдельной транзакции, внутри порции
+ * вставки объединяются в JDBC batch (размер задается свойством hibernate.jdbc.batch_size).
+ * В той же транзакции обновляются агрегаты использования, поэтому они всегда согласованы с CDR записями.
+ * При включенных партициях (cdr.partitioning.enabled) порция вставляется в помесячные таблицы через CDRepository
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #saveAll(Iterable)} — сохраняет записи порциями и возвращает пропускную способность вставки.</li>
+ *   <li>{@link #saveChunk(List)} — сохраняет одну порцию записей в отдельной транзакции.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link jakarta.persistence.EntityManager} — для сохранения записей и очистки контекста персистентности.</li>
+ *   <li>{@link org.springframework.transaction.support.TransactionTemplate} — для разбиения вставки на транзакции.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — для вставки в помесячные партиции.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRollupService} — сервис агрегатов использования.</li>
+ * </ul>
+ */
+@Service
+public class CDRBulkInsertService {
+    private static final Logger log = LoggerFactory.getLogger(CDRBulkInsertService.class);
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final CDRepository cdRepository;
+    private final UsageRollupService usageRollupService;
+    private final int batchSize;
+    private final int chunkSize;
+
+    public CDRBulkInsertService(EntityManager entityManager,
+                                PlatformTransactionManager transactionManager,
+                                CDRepository cdRepository,
+                                UsageRollupService usageRollupService,
+                                @Value("${cdr.bulk.batch-size:500}") int batchSize,
+                                @Value("${cdr.bulk.chunk-size:5000}") int chunkSize) {
+        if (batchSize < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Batch size and chunk size must be positive");
+        }
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cdRepository = cdRepository;
+        this.usageRollupService = usageRollupService;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Данный метод сохраняет записи порциями по chunkSize записей, каждая порция в своей транзакции.
+     * Записи читаются из источника лениво, поэтому в памяти одновременно находится не больше одной порции
+     *
+     * @param records источник CDR записей
+     * @return результат вставки (количество записей и строк в секунду)
+     */
+    public BulkInsertResult saveAll(Iterable<CDR> records) {
+        long started = System.nanoTime();
+        long rows = 0;
+        List<CDR> chunk = new ArrayList<>(chunkSize);
+
+        for (CDR cdr : records) {
+            chunk.add(cdr);
+            if (chunk.size() == chunkSize) {
+                saveChunk(chunk);
+                rows += chunk.size();
+                chunk.clear();
+            }
+        }
+
+        //сохраняем оставшийся хвост
+        if (!chunk.isEmpty()) {
+            saveChunk(chunk);
+            rows += chunk.size();
+        }
+
+        BulkInsertResult result = BulkInsertResult.since(rows, started);
+        log.info("Bulk insert: {} CDR in {} ms ({} rows/sec)", result.getRows(), result.getElapsedMillis(), result.getRowsPerSecond());
+        return result;
+    }
+
+    /**
+     * Данный метод сохраняет порцию записей в одной транзакции.
+     * Каждые batchSize записей контекст персистентности сбрасывается в бд и очищается,
+     * чтобы он не рос вместе с размером порции. Агрегаты использования обновляются в той же транзакции
+     *
+     * @param chunk порция CDR записей
+     */
+    public void saveChunk(List<CDR> chunk) {
+        if (cdRepository.isPartitioned()) {
+            //DDL в H2 фиксирует текущую транзакцию, поэтому недостающие партиции создаются до ее начала
+            cdRepository.createPartitionsFor(chunk);
+            transactionTemplate.executeWithoutResult(status -> {
+                cdRepository.insertIntoPartitions(chunk);
+                usageRollupService.record(chunk);
+            });
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                entityManager.persist(chunk.get(i));
+                if ((i + 1) % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+            usageRollupService.record(chunk);
+        });
+    }
+}
@@ -0,0 +1,210 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Данный класс выступает в качестве сервиса загрузки больших CDR файлов с диска.
+ * Файл отображается в память участками по cdr.file-ingest.chunk-size байт, границы участков сдвигаются
+ * на конец строки, участки разбираются параллельно без создания строк на каждое поле
+ * и публикуются в конвейер сохранения из нескольких потоков.
+ * При включенном свойстве cdr.file-ingest.enabled каталог cdr.file-ingest.directory периодически
+ * проверяется на новые *.csv файлы, загруженные файлы переименовываются в *.done (или *.failed при ошибке)
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #ingestFile(Path)} — загружает один файл.</li>
+ *   <li>{@link #pollDirectory()} — загружает все новые файлы из каталога.</li>
+ * </ul>
+ *
+ * <p>Вспомогательные методы:
+ * <ul>
+ *   <li>{@link #splitOnLineBoundaries(FileChannel, long)} — делит файл на участки по границам строк.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRPipelineService} — конвейер сохранения CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.MappedCDRChunkReader} — разбор участка файла.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.nio.channels.FileChannel} — для отображения файла в память.</li>
+ *   <li>{@link java.util.concurrent.ForkJoinPool} — для параллельного разбора участков.</li>
+ * </ul>
+ */
+@Service
+public class CDRFileIngestService {
+    private static final Logger log = LoggerFactory.getLogger(CDRFileIngestService.class);
+    private static final int MAX_REPORTED_ERRORS = 100;
+    //размер буфера для поиска конца строки за границей участка
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+
+    private final CDRPipelineService cdrPipelineService;
+    private final boolean enabled;
+    private final Path directory;
+    private final long chunkSize;
+    private final int parallelism;
+
+    public CDRFileIngestService(CDRPipelineService cdrPipelineService,
+                                @Value("${cdr.file-ingest.enabled:false}") boolean enabled,
+                                @Value("${cdr.file-ingest.directory:cdr-inbox}") String directory,
+                                @Value("${cdr.file-ingest.chunk-size:67108864}") long chunkSize,
+                                @Value("${cdr.file-ingest.parallelism:4}") int parallelism) {
+        if (chunkSize < 1 || chunkSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Chunk size must be between 1 byte and 1 GB");
+        }
+        this.cdrPipelineService = cdrPipelineService;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Данный метод загружает новые *.csv файлы из каталога, если загрузка включена
+     */
+    @Scheduled(fixedDelayString = "${cdr.file-ingest.poll-interval-ms:60000}")
+    public void pollDirectory() {
+        if (!enabled || !Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.csv")) {
+            for (Path file : files) {
+                String suffix;
+                try {
+                    ingestFile(file);
+                    suffix = ".done";
+                } catch (RuntimeException e) {
+                    log.error("CDR file {} ingestion failed: {}", file, e.getMessage());
+                    suffix = ".failed";
+                }
+                Files.move(file, file.resolveSibling(file.getFileName() + suffix));
+            }
+        } catch (IOException e) {
+            log.error("CDR inbox {} polling failed: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Данный метод загружает CDR файл: делит его на участки по границам строк, отображает участки в память
+     * и параллельно разбирает и сохраняет их
+     *
+     * @param file путь к файлу
+     * @return результат загрузки (количество строк, отклоненные строки, строк в секунду)
+     * @throws UncheckedIOException выбрасывается, если файл не удалось прочитать
+     */
+    public CDRImportResult ingestFile(Path file) {
+        long started = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = splitOnLineBoundaries(channel, channel.size());
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            List<MappedCDRChunkReader> readers = new ArrayList<>();
+            List<ForkJoinTask<BulkInsertResult>> tasks = new ArrayList<>();
+            try {
+                for (long[] chunk : chunks) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+                    MappedCDRChunkReader reader = new MappedCDRChunkReader(buffer, chunk[0], MAX_REPORTED_ERRORS);
+                    readers.add(reader);
+                    tasks.add(pool.submit(() -> cdrPipelineService.publishAll(() -> reader)));
+                }
+
+                //собираем счетчики участков в порядке следования в файле,
+                //загруженными считаются сохраненные строки, строки отброшенных конвейером порций - отклоненными
+                long lines = 0;
+                long imported = 0;
+                long rejected = 0;
+                List<String> errors = new ArrayList<>();
+                for (int i = 0; i < tasks.size(); i++) {
+                    BulkInsertResult insertResult = tasks.get(i).join();
+                    MappedCDRChunkReader reader = readers.get(i);
+                    lines += reader.getLineCount();
+                    imported += insertResult.getRows();
+                    rejected += reader.getRejectedCount() + insertResult.getFailedRows();
+                    for (String error : reader.getErrors()) {
+                        if (errors.size() < MAX_REPORTED_ERRORS) {
+                            errors.add(error);
+                        }
+                    }
+                    if (insertResult.getFailedRows() > 0 && errors.size() < MAX_REPORTED_ERRORS) {
+                        errors.add("chunk at byte " + chunks.get(i)[0] + ": " + insertResult.getFailedRows() + " records were not persisted");
+                    }
+                }
+
+                CDRImportResult result = new CDRImportResult(lines, imported, rejected, (System.nanoTime() - started) / 1_000_000, errors);
+                log.info("CDR file {}: {} chunks, {} lines, {} imported, {} rejected in {} ms ({} rows/sec)",
+                        file, chunks.size(), result.getTotalLines(), result.getImportedCount(), result.getRejectedCount(),
+                        result.getElapsedMillis(), result.getRowsPerSecond());
+                return result;
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Данный метод делит файл на участки примерно по chunkSize байт, сдвигая конец каждого участка
+     * на ближайший перенос строки, чтобы строки не разрезались между участками
+     *
+     * @param channel канал файла
+     * @param size размер файла
+     * @return список участков в виде пар [начало, конец)
+     * @throws IOException выбрасывается, если файл не удалось прочитать
+     */
+    private List<long[]> splitOnLineBoundaries(FileChannel channel, long size) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer scanBuffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkSize, size);
+
+            //ищем перенос строки начиная с предполагаемого конца участка
+            boolean found = false;
+            while (end < size && !found) {
+                scanBuffer.clear();
+                int read = channel.read(scanBuffer, end);
+                for (int i = 0; i < read; i++) {
+                    if (scanBuffer.get(i) == '\n') {
+                        end += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    end += read;
+                }
+            }
+
+            chunks.add(new long[]{start, Math.min(end, size)});
+            start = end;
+        }
+        return chunks;
+    }
+}
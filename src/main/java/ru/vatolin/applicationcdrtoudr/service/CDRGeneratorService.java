@@ -1,13 +1,17 @@
 package ru.vatolin.applicationcdrtoudr.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
 import ru.vatolin.applicationcdrtoudr.repository.CDR;
-import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
-import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
-import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,6 +19,11 @@ import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Данный класс выступает в качестве сервиса для работы с CDR записями.
@@ -22,20 +31,27 @@ import java.util.*;
  *
  * <p>Основные методы:
  * <ul>
- *   <li>{@link #generateCDRecords()} — генерирует случайные CDR записи и помещает их в бд.</li>
+ *   <li>{@link #generateCDRecords()} — генерирует случайные CDR записи и помещает их в бд по одной.</li>
+ *   <li>{@link #generateCDRecordsInBulk()} — генерирует случайные CDR записи и помещает их в бд пакетной вставкой.</li>
+ *   <li>{@link #generateCDRecordsInParallel(long, int, int)} — генерирует CDR записи параллельно по временным срезам.</li>
+ *   <li>{@link #streamCDRecords(long, long, List, LocalDateTime, LocalDateTime)} — ленивый поток CDR записей с заданным seed.</li>
  *   <li>{@link #generateCDReport(String, LocalDateTime, LocalDateTime)} — генерирует CDR-отчет за указанный год.</li>
+ *   <li>{@link #streamCDReport(String, LocalDateTime, LocalDateTime)} — возвращает поток строк CDR-отчета без записи в файл.</li>
+ *   <li>{@link #writeCDReport(Iterator, Writer)} — пишет строки CDR-отчета в формате csv.</li>
  * </ul>
  *
  * <p>Вспомогательные методы:
  * <ul>
- *   <li>{@link #calculateMaxStartTime(LocalDateTime, LocalDateTime, int)} — генерирует верхнюю границу времени.</li>
- *   <li>{@link #generateRandomDateInRange(LocalDateTime, LocalDateTime)} — генерирует случайную дату в заданом диапазоне.</li>
+ *   <li>{@link #createRandomCDRSource()} — создает источник случайного количества записей за последний год.</li>
  * </ul>
  *
  * <p>Класс взаимодействует с:
  * <ul>
- *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий для работы с CDR-записями.</li>
- *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository} — репозиторий для работы с абонентами.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRStore} — хранилище CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.SubscriberRegistry} — номера абонентов в памяти.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRPipelineService} — конвейер сохранения CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UDRCache} — кэш UDR отчетов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRangeIndex} — индекс длительности звонков за произвольный период.</li>
  * </ul>
  *
  * <p>Для работы используются:
@@ -43,7 +59,9 @@ import java.util.*;
  *   <li>{@link java.time.LocalDateTime} — для работы со временем.</li>
  *   <li>{@link java.time.temporal.ChronoUnit} — для расчета промежутков времени.</li>
  *   <li>{@link java.util.List} — для работы с коллекциями.</li>
- *   <li>{@link java.util.Random} — для генерации случайных значений.</li>
+ *   <li>{@link java.util.SplittableRandom} — для генерации случайных значений и независимых генераторов временных срезов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRSpliterator} — ленивый источник CDR записей.</li>
+ *   <li>{@link java.util.concurrent.ForkJoinPool} — для параллельной генерации срезов.</li>
  *   <li>{@link java.io.BufferedWriter} — для записи в файл.</li>
  *   <li>{@link java.nio.file.Files} — вспомогательный класс для работы с файлами.</li>
  *   <li>{@link java.nio.file.Path} — для работы с путями файлов.</li>
@@ -52,77 +70,209 @@ import java.util.*;
  */
 @Service
 public class CDRGeneratorService {
-    private final CDRepository cdRepository;
-    private final SubscriberRepository subscriberRepository;
+    private static final Logger log = LoggerFactory.getLogger(CDRGeneratorService.class);
+    //максимальное количество записей в одном временном срезе параллельной генерации
+    private static final int RECORDS_PER_SLICE = 10_000;
+
+    private final CDRStore cdrStore;
+    private final SubscriberRegistry subscriberRegistry;
+    private final CDRPipelineService cdrPipelineService;
+    private final UDRCache udrCache;
+    private final UsageRangeIndex usageRangeIndex;
+    private final int minCountRecords;
+    private final int maxCountRecords;
+
+    public CDRGeneratorService(CDRStore cdrStore, SubscriberRegistry subscriberRegistry,
+                               CDRPipelineService cdrPipelineService, UDRCache udrCache,
+                               UsageRangeIndex usageRangeIndex,
+                               @Value("${cdr.generator.min-count:1000}") int minCountRecords,
+                               @Value("${cdr.generator.max-count:2000}") int maxCountRecords) {
+        if (minCountRecords <= 0 || maxCountRecords <= minCountRecords) {
+            throw new IllegalArgumentException("Generator record count range is invalid");
+        }
+        this.cdrStore = cdrStore;
+        this.subscriberRegistry = subscriberRegistry;
+        this.cdrPipelineService = cdrPipelineService;
+        this.udrCache = udrCache;
+        this.usageRangeIndex = usageRangeIndex;
+        this.minCountRecords = minCountRecords;
+        this.maxCountRecords = maxCountRecords;
+    }
+
+    /**
+     * Данный метод генерирует CDR записи и сохраняет каждую запись в хранилище отдельной операцией
+     *
+     * @return результат вставки (количество записей и строк в секунду)
+     */
+    public BulkInsertResult generateCDRecords() {
+        long started = System.nanoTime();
+        CDRSpliterator source = createRandomCDRSource();
+        //затронутые абоненты и месяцы собираются по мере сохранения, отчеты удаляются из кэша после сохранения всех записей,
+        //в индекс периодов и в количество строк попадают только записи, которые хранилище сохранило
+        UDRCache.Invalidation invalidation = new UDRCache.Invalidation();
+        AtomicLong rows = new AtomicLong();
+        try {
+            cdrStore.saveEach(StreamSupport.stream(source, false).iterator(), cdr -> {
+                invalidation.add(cdr);
+                usageRangeIndex.add(cdr);
+                rows.incrementAndGet();
+            });
+        } finally {
+            udrCache.invalidate(invalidation);
+        }
+
+        BulkInsertResult result = BulkInsertResult.since(rows.get(), started);
+        log.info("Single insert: {} CDR in {} ms ({} rows/sec)", result.getRows(), result.getElapsedMillis(), result.getRowsPerSecond());
+        return result;
+    }
+
+    /**
+     * Данный метод генерирует CDR записи и публикует их в конвейер сохранения.
+     * Записи генерируются лениво по мере публикации, весь объем в памяти не собирается
+     *
+     * @return результат вставки (количество сохраненных и отброшенных записей, строк в секунду)
+     */
+    public BulkInsertResult generateCDRecordsInBulk() {
+        CDRSpliterator source = createRandomCDRSource();
+
+        BulkInsertResult result = cdrPipelineService.publishAll(() -> Spliterators.iterator(source));
+        log.info("Bulk insert: {} CDR, {} failed in {} ms ({} rows/sec)",
+                result.getRows(), result.getFailedRows(), result.getElapsedMillis(), result.getRowsPerSecond());
+        return result;
+    }
+
+    /**
+     * Данный метод генерирует CDR записи параллельно за последний год и сохраняет их через пакетную вставку
+     *
+     * @param seed зерно генератора случайных чисел
+     * @param countOfRecords количество записей
+     * @param parallelism количество потоков генерации
+     * @return результат вставки (количество сохраненных и отброшенных записей, строк в секунду)
+     */
+    public BulkInsertResult generateCDRecordsInParallel(long seed, int countOfRecords, int parallelism) {
+        LocalDateTime currentDateTime = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        return generateCDRecordsInParallel(seed, countOfRecords, parallelism, currentDateTime.minusYears(1), currentDateTime);
+    }
 
-    public CDRGeneratorService(CDRepository cdRepository, SubscriberRepository subscriberRepository) {
-        this.cdRepository = cdRepository;
-        this.subscriberRepository = subscriberRepository;
+    /**
+     * Данный метод делит заданный период на независимые временные срезы, генерирует срезы параллельно в ForkJoinPool
+     * и публикует их в конвейер сохранения строго по порядку, поэтому итоговые записи идут в хронологическом порядке.
+     * Разбиение на срезы и генераторы случайных чисел для срезов зависят только от seed и количества записей,
+     * поэтому при одинаковом seed результат не зависит от количества потоков.
+     * В работе одновременно находится не больше 2 * parallelism срезов, поэтому объем генерации не ограничен памятью
+     *
+     * @param seed зерно генератора случайных чисел
+     * @param countOfRecords количество записей
+     * @param parallelism количество потоков генерации
+     * @param startDateTime начало периода генерации
+     * @param endDateTime конец периода генерации
+     * @return результат вставки (количество сохраненных и отброшенных записей, строк в секунду)
+     */
+    public BulkInsertResult generateCDRecordsInParallel(long seed, int countOfRecords, int parallelism,
+                                                        LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        long started = System.nanoTime();
+        String[] msisdns = loadMsisdns();
+
+        int sliceCount = Math.max(1, (countOfRecords + RECORDS_PER_SLICE - 1) / RECORDS_PER_SLICE);
+        long windowSeconds = ChronoUnit.SECONDS.between(startDateTime, endDateTime);
+        //генераторы срезов получаем последовательно из одного seed, поэтому они не зависят от порядка выполнения срезов
+        SplittableRandom seedRandom = new SplittableRandom(seed);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<ForkJoinTask<List<CDR>>> inFlight = new ArrayDeque<>();
+        PublishOutcome outcome = new PublishOutcome();
+        long lastSequence = -1;
+
+        try {
+            int nextSlice = 0;
+            while (nextSlice < sliceCount || !inFlight.isEmpty()) {
+                //отправляем срезы в работу, пока не заполнено окно
+                while (nextSlice < sliceCount && inFlight.size() < parallelism * 2) {
+                    SplittableRandom sliceRandom = seedRandom.split();
+                    LocalDateTime sliceStart = startDateTime.plusSeconds(windowSeconds * nextSlice / sliceCount);
+                    LocalDateTime sliceEnd = startDateTime.plusSeconds(windowSeconds * (nextSlice + 1) / sliceCount);
+                    int sliceRecords = countOfRecords / sliceCount + (nextSlice < countOfRecords % sliceCount ? 1 : 0);
+
+                    inFlight.add(pool.submit(() -> {
+                        List<CDR> slice = new ArrayList<>(sliceRecords);
+                        new CDRSpliterator(sliceRandom, msisdns, sliceStart, sliceEnd, sliceRecords).forEachRemaining(slice::add);
+                        return slice;
+                    }));
+                    nextSlice++;
+                }
+
+                //публикуем самый ранний срез, дожидаясь его генерации, сохранение идет в потоке конвейера
+                List<CDR> slice = inFlight.poll().join();
+                for (CDR cdr : slice) {
+                    lastSequence = cdrPipelineService.publish(cdr, outcome);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (lastSequence >= 0) {
+            cdrPipelineService.awaitPersisted(lastSequence);
+        }
+
+        BulkInsertResult result = BulkInsertResult.since(outcome.getPersisted(), outcome.getFailed(), started);
+        log.info("Parallel generation ({} threads, {} slices): {} CDR, {} failed in {} ms ({} rows/sec)",
+                parallelism, sliceCount, result.getRows(), result.getFailedRows(), result.getElapsedMillis(), result.getRowsPerSecond());
+        return result;
+    }
+
+    /**
+     * Данный метод создает ленивый поток CDR записей с заданным количеством записей
+     *
+     * @param seed зерно генератора случайных чисел
+     * @param countOfRecords количество записей
+     * @param msisdns номера абонентов
+     * @param startDateTime начало периода генерации
+     * @param endDateTime конец периода генерации
+     * @return поток CDR записей в хронологическом порядке
+     */
+    public Stream<CDR> streamCDRecords(long seed, long countOfRecords, List<String> msisdns,
+                                       LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        CDRSpliterator spliterator = new CDRSpliterator(new SplittableRandom(seed), msisdns.toArray(String[]::new),
+                startDateTime, endDateTime, countOfRecords);
+        return StreamSupport.stream(spliterator, false);
     }
 
     /**
-     * Данный метод занимается генерацией случайного количества CDR записей со случайной длительностью звонка
-     * (ограничения генерации представлены в виде констант в классе CDRGeneratorService).
-     * Метод сам заботиться о корректности сгенерированных данных.
-     * Сгенерированные записи сразу заносятся в бд
+     * Данный метод создает ленивый поток CDR записей с заданной частотой записей
+     *
+     * @param seed зерно генератора случайных чисел
+     * @param recordsPerSecond количество записей в секунду периода
+     * @param msisdns номера абонентов
+     * @param startDateTime начало периода генерации
+     * @param endDateTime конец периода генерации
+     * @return поток CDR записей в хронологическом порядке
      */
-    public void generateCDRecords() {
-        final int MIN_COUNT_RECORDS = 1000;
-        final int MAX_COUNT_RECORDS = 2000;
-        final int MAX_CALL_TIME_IN_MINUTES = 120;
+    public Stream<CDR> streamCDRecordsAtRate(long seed, double recordsPerSecond, List<String> msisdns,
+                                             LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        CDRSpliterator spliterator = CDRSpliterator.ofRate(new SplittableRandom(seed), msisdns.toArray(String[]::new),
+                startDateTime, endDateTime, recordsPerSecond);
+        return StreamSupport.stream(spliterator, false);
+    }
 
-        Random random = new Random();
+    /**
+     * Данный метод создает источник случайного количества CDR записей за последний год
+     * (границы количества задаются свойствами cdr.generator.min-count и cdr.generator.max-count)
+     *
+     * @return источник CDR записей
+     */
+    private CDRSpliterator createRandomCDRSource() {
+        SplittableRandom random = new SplittableRandom();
 
         //получаем абонентов из базы данных
-        List<Subscriber> subscribers = subscriberRepository.findAll();
+        String[] msisdns = loadMsisdns();
 
         //получаем текщие время и время год назад
         LocalDateTime currentDateTime = LocalDateTime.now();
         LocalDateTime startDateTime = currentDateTime.minusYears(1);
 
         //генерируем случайное количество записей
-        int countOfRecords = random.nextInt(MIN_COUNT_RECORDS, MAX_COUNT_RECORDS);
-        //ограничитель время последнего окончания
-        LocalDateTime lastEndTime = startDateTime;
-
-        //цикл генерации записей
-        for (int i = 0; i < countOfRecords; i++) {
-            //генерация верхней границы времени начала
-            LocalDateTime maxStartTime = calculateMaxStartTime(lastEndTime, currentDateTime, countOfRecords - i);
-
-            //случайно получаем тип звонка (true - 01, false - 02)
-            String callType = (random.nextBoolean()) ? "01" : "02";
-            //берем номер случайного абонента для инициатора
-            String callerNumber = subscribers.get(random.nextInt(subscribers.size())).getMsisdn();
-            //номер принимающего абонента
-            String receiverNumber;
-            //время начала звонка
-            LocalDateTime startTime = generateRandomDateInRange(lastEndTime, maxStartTime);
-            //время окончания звонка
-            LocalDateTime endTime = startTime.plusMinutes(random.nextInt(MAX_CALL_TIME_IN_MINUTES));
-
-            //проверка корректности времени окончания
-            if (endTime.isAfter(currentDateTime)) {
-                endTime = currentDateTime;
-            }
-
-            //проверяем, чтобы номера инициатора и принимающего не совпадали
-            do {
-                receiverNumber = subscribers.get(random.nextInt(subscribers.size())).getMsisdn();
-            } while(receiverNumber.equals(callerNumber));
-
-            //создаем CDR объкт и помещаем его в бд
-            CDR cdr = new CDR();
-            cdr.setCallType(callType);
-            cdr.setCallerNumber(callerNumber);
-            cdr.setReceiverNumber(receiverNumber);
-            cdr.setStartTime(startTime);
-            cdr.setEndTime(endTime);
-            cdRepository.save(cdr);
-
-            //запоминаем время окончания
-            lastEndTime = endTime;
-        }
+        int countOfRecords = random.nextInt(minCountRecords, maxCountRecords);
+        return new CDRSpliterator(random, msisdns, startDateTime, currentDateTime, countOfRecords);
     }
 
     /**
@@ -140,110 +290,101 @@ public class CDRGeneratorService {
             throw new RuntimeException("Subscriber " + msisdn + " is not exist");
         }
 
-        //список пользователь в заданом периоде
-        List<CDR> CDRList = createCDRListInRange(msisdn, startDateTime, endDateTime);
-
-        //проверяем, чтобы список был не пустым
-        if (CDRList.isEmpty()) {
-            throw new RuntimeException("No records found for this period.");
-        }
-
         String reportId = UUID.randomUUID().toString();
         String fileName = msisdn + "_" + reportId + ".csv";
         Path filePath = Paths.get("src/main/resources/reports", fileName);
 
-        //генерация csv
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath, StandardOpenOption.CREATE)) {
-            writer.write("callType,callerNumber,receiverNumber,startTime,endTime\n");
-
-            for(CDR cdr : CDRList) {
-                writer.write(String.format("%s, %s, %s, %s, %s\n",
-                        cdr.getCallType(),
-                        cdr.getCallerNumber(),
-                        cdr.getReceiverNumber(),
-                        cdr.getStartTime(),
-                        cdr.getEndTime()));
+        //строки пользователя в заданом периоде читаются страницами и пишутся в файл по мере чтения
+        try (Stream<CDRRow> rows = streamCDRInRange(msisdn, startDateTime, endDateTime)) {
+            Iterator<CDRRow> iterator = rows.iterator();
+
+            //проверяем, чтобы записи были, до создания файла
+            if (!iterator.hasNext()) {
+                throw new RuntimeException("No records found for this period.");
+            }
+
+            //генерация csv
+            try (BufferedWriter writer = Files.newBufferedWriter(filePath, StandardOpenOption.CREATE)) {
+                writeCDReport(iterator, writer);
+            } catch (IOException e) {
+                throw new RuntimeException("csv generation failed");
             }
-        } catch (IOException e) {
-            throw new RuntimeException("csv generation failed");
         }
 
         return reportId;
     }
 
     /**
-     * Данный метод вычисляет верхнюю границу времени начала, с каждым прогоном цикла, в котором выполняется данный метод,
-     * верхняя граница приближается к currentDateTime.
+     * Данный метод возвращает ленивый поток строк CDR отчета без записи в файл, абонент проверяется до чтения записей.
+     * Строки читаются страницами по мере чтения потока, поток нужно закрыть после чтения
      *
-     * @param lastEndTime время последнего окончания
-     * @param currentDateTime текущее время (полученное в начале generateCDRecords())
-     * @param remainingRecords число записей, которые необходимо сгенерировать
-     * @return верхняя граница времени начала
+     * @param msisdn номер абонента
+     * @param startDateTime начало периода, за который хотим получить отчет
+     * @param endDateTime конец периода, за который хотим получить отчет
+     * @return поток строк CDR записей в порядке времени начала
+     * @throws RuntimeException выбрасывается, если пользователь не найден
      */
-    private LocalDateTime calculateMaxStartTime(LocalDateTime lastEndTime, LocalDateTime currentDateTime, int remainingRecords) {
-        long totalSeconds = ChronoUnit.SECONDS.between(lastEndTime, currentDateTime);
-        long secondsPerRecord = totalSeconds / remainingRecords;
-
-        return lastEndTime.plusSeconds(secondsPerRecord);
+    public Stream<CDRRow> streamCDReport(String msisdn, LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        if (msisdnIsNotExist(msisdn)) {
+            throw new RuntimeException("Subscriber " + msisdn + " is not exist");
+        }
+        return streamCDRInRange(msisdn, startDateTime, endDateTime);
     }
 
     /**
-     * Данный метод генерирует случайную дату в заданном диапазоне
+     * Данный метод пишет строки CDR отчета в формате csv: заголовок и по строке на каждую запись
      *
-     * @param startDate начало диапазона
-     * @param endDate конец диапазона
-     * @return случайное время в заданном диапазоне
+     * @param rows строки CDR записей
+     * @param writer куда пишется отчет (файл или ответ)
+     * @throws IOException при ошибке записи
      */
-    private LocalDateTime generateRandomDateInRange(LocalDateTime startDate, LocalDateTime endDate) {
-        Random random = new Random();
+    public void writeCDReport(Iterator<CDRRow> rows, Writer writer) throws IOException {
+        writer.write("callType,callerNumber,receiverNumber,startTime,endTime\n");
+
+        while (rows.hasNext()) {
+            CDRRow cdr = rows.next();
+            writer.write(String.format("%s, %s, %s, %s, %s\n",
+                    cdr.callType(),
+                    cdr.callerNumber(),
+                    cdr.receiverNumber(),
+                    cdr.startTime(),
+                    cdr.endTime()));
+        }
+    }
 
-        long secondBetween = ChronoUnit.SECONDS.between(startDate, endDate);
-        long randomSecond = random.nextLong(secondBetween);
-        return startDate.plusSeconds(randomSecond);
+    /**
+     * Данный метод берет номера абонентов из реестра абонентов
+     *
+     * @return массив номеров абонентов
+     */
+    private String[] loadMsisdns() {
+        return subscriberRegistry.msisdns().toArray(String[]::new);
     }
 
     /**
-     * Данный метод формирует список CDR записей для заданного пользователя за определенный период
+     * Данный метод возвращает поток CDR записей для заданного пользователя за определенный период.
+     * Фильтрация по времени выполняется в бд по индексу (caller, start_time), поэтому объем выборки
+     * зависит от длины периода, а не от всей истории абонента. При включенных партициях
+     * читаются только помесячные таблицы, пересекающиеся с периодом, в колоночном хранилище - массивы в памяти.
+     * Записи читаются строками CDRRow без создания управляемых сущностей, страницами по ключу (start_time, id),
+     * поэтому память не зависит от количества звонков абонента
      *
      * @param msisdn номер абонента
      * @param startDateTime начало периода, в котором будем отбирать записи
      * @param endDateTime конец периода, в котором будем отбирать записи
-     * @return список CDR записей за необходимый период
-     * @throws IllegalStateException выбрасывается, если записи с заданым абонентом не были найдены в бд
+     * @return поток строк CDR записей за необходимый период в порядке времени начала
      */
-    private ArrayList<CDR> createCDRListInRange(String msisdn, LocalDateTime startDateTime, LocalDateTime endDateTime) {
-        Optional<ArrayList<CDR>> optionalIncomingList = cdRepository.findIncomingByMsisdn(msisdn);
-
-        if(optionalIncomingList.isEmpty()) {
-            throw new IllegalStateException("Incoming calls for " + msisdn + " not found");
-        }
-
-        List<CDR> fuelList = optionalIncomingList.get();
-        ArrayList<CDR> resultList = new ArrayList<>();
-
-        for(CDR cdr : fuelList) {
-            if (cdr.getStartTime().isAfter(startDateTime) && cdr.getStartTime().isBefore(endDateTime)) {
-                resultList.add(cdr);
-            }
-        }
-
-        return resultList;
+    private Stream<CDRRow> streamCDRInRange(String msisdn, LocalDateTime startDateTime, LocalDateTime endDateTime) {
+        return cdrStore.streamIncomingInRange(msisdn, startDateTime, endDateTime);
     }
 
     /**
-     * Данный метод проверяет наличие заданного абонента в бд
+     * Данный метод проверяет наличие заданного абонента по реестру абонентов, без обращения к бд
      *
      * @param msisdn номер абонента
      * @return true - если абонента не существует, false - в обратном случае
      */
     private boolean msisdnIsNotExist(String msisdn) {
-        List<Subscriber> subscribers = subscriberRepository.findAll();
-
-        for(Subscriber subscriber : subscribers) {
-            if (subscriber.getMsisdn().equals(msisdn)) {
-                return false;
-            }
-        }
-        return true;
+        return !subscriberRegistry.exists(msisdn);
     }
 }
@@ -0,0 +1,195 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Данный класс выступает в качестве сервиса импорта CDR записей из csv файлов
+ * в том же формате, в котором их формирует {@link CDRGeneratorService#generateCDReport(String, LocalDateTime, LocalDateTime)}.
+ * Файл читается построчно из потока, строки разбираются лениво по мере публикации в конвейер сохранения,
+ * поэтому файл целиком в памяти не хранится. Некорректные строки отклоняются, не прерывая загрузку
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #importCsv(InputStream)} — импортирует CDR записи из csv потока.</li>
+ *   <li>{@link #parseLine(String)} — разбирает и валидирует одну строку csv.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRPipelineService} — конвейер сохранения CDR записей.</li>
+ * </ul>
+ */
+@Service
+public class CDRImportService {
+    private static final Logger log = LoggerFactory.getLogger(CDRImportService.class);
+    //количество ошибок, которые возвращаются в ответе, остальные только считаются
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final String HEADER_PREFIX = "callType";
+
+    private final CDRPipelineService cdrPipelineService;
+
+    public CDRImportService(CDRPipelineService cdrPipelineService) {
+        this.cdrPipelineService = cdrPipelineService;
+    }
+
+    /**
+     * Данный метод импортирует CDR записи из csv потока
+     *
+     * @param inputStream поток с содержимым csv файла
+     * @return результат импорта (количество строк, отклоненные строки, строк в секунду)
+     * @throws UncheckedIOException выбрасывается, если поток не удалось прочитать
+     */
+    public CDRImportResult importCsv(InputStream inputStream) {
+        long started = System.nanoTime();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        CsvRecordIterator records = new CsvRecordIterator(reader);
+
+        BulkInsertResult insertResult = cdrPipelineService.publishAll(() -> records);
+
+        //импортированными считаются сохраненные строки, строки, которые конвейер не сохранил, - отклоненными
+        if (insertResult.getFailedRows() > 0 && records.errors.size() < MAX_REPORTED_ERRORS) {
+            records.errors.add(insertResult.getFailedRows() + " parsed records were not persisted");
+        }
+        CDRImportResult result = new CDRImportResult(records.lineNumber, insertResult.getRows(),
+                records.rejectedCount + insertResult.getFailedRows(), (System.nanoTime() - started) / 1_000_000, records.errors);
+        log.info("CDR import: {} lines, {} imported, {} rejected in {} ms ({} rows/sec, insert {} rows/sec)",
+                result.getTotalLines(), result.getImportedCount(), result.getRejectedCount(), result.getElapsedMillis(),
+                result.getRowsPerSecond(), insertResult.getRowsPerSecond());
+        return result;
+    }
+
+    /**
+     * Данный метод разбирает строку csv вида "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00"
+     *
+     * @param line строка csv
+     * @return CDR запись
+     * @throws IllegalArgumentException выбрасывается, если строка некорректна
+     */
+    public CDR parseLine(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("expected 5 fields, got " + fields.length);
+        }
+
+        String callType = fields[0].trim();
+        if (!callType.equals("01") && !callType.equals("02")) {
+            throw new IllegalArgumentException("invalid call type " + callType);
+        }
+
+        String callerNumber = parseMsisdn(fields[1].trim());
+        String receiverNumber = parseMsisdn(fields[2].trim());
+
+        LocalDateTime startTime;
+        LocalDateTime endTime;
+        try {
+            startTime = LocalDateTime.parse(fields[3].trim());
+            endTime = LocalDateTime.parse(fields[4].trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date " + e.getParsedString());
+        }
+        if (endTime.isBefore(startTime)) {
+            throw new IllegalArgumentException("end time is before start time");
+        }
+
+        CDR cdr = new CDR();
+        cdr.setCallType(callType);
+        cdr.setCallerNumber(callerNumber);
+        cdr.setReceiverNumber(receiverNumber);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(endTime);
+        return cdr;
+    }
+
+    /**
+     * Проверяет, что номер абонента состоит только из цифр
+     *
+     * @param msisdn номер абонента
+     * @return номер абонента
+     * @throws IllegalArgumentException выбрасывается, если номер некорректен
+     */
+    private String parseMsisdn(String msisdn) {
+        if (msisdn.isEmpty()) {
+            throw new IllegalArgumentException("empty msisdn");
+        }
+        for (int i = 0; i < msisdn.length(); i++) {
+            if (!Character.isDigit(msisdn.charAt(i))) {
+                throw new IllegalArgumentException("invalid msisdn " + msisdn);
+            }
+        }
+        return msisdn;
+    }
+
+    /**
+     * Итератор, который читает строки по одной и возвращает только корректные записи,
+     * попутно считая прочитанные и отклоненные при разборе строки
+     */
+    private class CsvRecordIterator implements Iterator<CDR> {
+        private final BufferedReader reader;
+        private final List<String> errors = new ArrayList<>();
+        private long lineNumber;
+        private long rejectedCount;
+        private CDR next;
+
+        private CsvRecordIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    //пропускаем заголовок и пустые строки
+                    if (line.isBlank() || (lineNumber == 1 && line.startsWith(HEADER_PREFIX))) {
+                        continue;
+                    }
+                    try {
+                        next = parseLine(line);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        rejectedCount++;
+                        if (errors.size() < MAX_REPORTED_ERRORS) {
+                            errors.add("line " + lineNumber + ": " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return false;
+        }
+
+        @Override
+        public CDR next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CDR result = next;
+            next = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.IngestionStats;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Данный класс выступает в качестве сервиса непрерывной загрузки CDR записей, пока приложение работает.
+ * Поток-генератор с заданной частотой (cdr.ingest.rate-per-second) публикует записи об окончившихся звонках
+ * в конвейер сохранения сразу полями, без создания объекта записи. Если сохранение не успевает,
+ * кольцевой буфер конвейера заполняется и генератор ждет освобождения слотов (backpressure).
+ * Записи публикуются с собственным итогом загрузки, поэтому счетчик сохраненных записей и задержка
+ * не зависят от записей других производителей (генератора, импорта, загрузки файлов).
+ * Включается свойством cdr.ingest.enabled
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #start()} — запускает генератор.</li>
+ *   <li>{@link #stop()} — останавливает загрузку.</li>
+ *   <li>{@link #getStats()} — возвращает глубину буфера, счетчики и задержку сохранения.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.SubscriberRegistry} — номера абонентов в памяти.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRPipelineService} — конвейер сохранения CDR записей.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.util.SplittableRandom} — для генерации случайных значений.</li>
+ * </ul>
+ */
+@Service
+public class CDRIngestionService {
+    private static final Logger log = LoggerFactory.getLogger(CDRIngestionService.class);
+    private static final long TICK_MILLIS = 100;
+    private static final int MAX_CALL_TIME_IN_MINUTES = 120;
+
+    private final SubscriberRegistry subscriberRegistry;
+    private final CDRPipelineService cdrPipelineService;
+    private final boolean enabled;
+    private final double ratePerSecond;
+
+    private final AtomicLong producedCount = new AtomicLong();
+    private final PublishOutcome outcome = new PublishOutcome();
+    private volatile boolean running;
+    private Thread producer;
+
+    public CDRIngestionService(SubscriberRegistry subscriberRegistry,
+                               CDRPipelineService cdrPipelineService,
+                               @Value("${cdr.ingest.enabled:false}") boolean enabled,
+                               @Value("${cdr.ingest.rate-per-second:200}") double ratePerSecond) {
+        this.subscriberRegistry = subscriberRegistry;
+        this.cdrPipelineService = cdrPipelineService;
+        this.enabled = enabled;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /**
+     * Запускает загрузку после старта приложения, когда абоненты уже занесены в бд
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    /**
+     * Запускает поток-генератор
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        String[] msisdns = subscriberRegistry.msisdns().toArray(String[]::new);
+        if (msisdns.length < 2) {
+            throw new IllegalStateException("At least two subscribers are required for ingestion");
+        }
+
+        running = true;
+        producer = new Thread(() -> produce(msisdns), "cdr-ingest-producer");
+        //зависшая публикация не должна мешать завершению приложения
+        producer.setDaemon(true);
+        producer.start();
+        log.info("CDR ingestion started: {} records/sec, pipeline capacity {}", ratePerSecond, cdrPipelineService.getCapacity());
+    }
+
+    /**
+     * Останавливает генератор, уже опубликованные записи сохраняет конвейер
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        producer.interrupt();
+        try {
+            producer.join(TICK_MILLIS * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Возвращает текущее состояние загрузки
+     *
+     * @return глубина буфера конвейера, счетчики записей загрузки и задержка между окончанием последнего
+     * сохраненного звонка загрузки и текущим временем
+     */
+    public IngestionStats getStats() {
+        LocalDateTime lastEndTime = outcome.getLastPersistedEndTime();
+        long lagMillis = (lastEndTime == null) ? 0 : Duration.between(lastEndTime, LocalDateTime.now()).toMillis();
+
+        return new IngestionStats(running, cdrPipelineService.getDepth(), cdrPipelineService.getCapacity(),
+                producedCount.get(), outcome.getPersisted(), lagMillis);
+    }
+
+    /**
+     * Цикл генератора: каждый такт генерирует столько записей, сколько положено по частоте за прошедшее время.
+     * Запись описывает звонок, который закончился в момент генерации. Если буфер конвейера заполнен, публикация ждет
+     *
+     * @param msisdns номера абонентов
+     */
+    private void produce(String[] msisdns) {
+        SplittableRandom random = new SplittableRandom();
+        long lastTick = System.nanoTime();
+        //дробная часть записей, не сгенерированная на прошлом такте
+        double carry = 0;
+
+        try {
+            while (running) {
+                Thread.sleep(TICK_MILLIS);
+
+                long now = System.nanoTime();
+                double due = ratePerSecond * (now - lastTick) / 1_000_000_000.0 + carry;
+                long count = (long) due;
+                carry = due - count;
+                lastTick = now;
+
+                for (long i = 0; i < count; i++) {
+                    publishFinishedCall(random, msisdns);
+                    producedCount.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Публикует запись о звонке, который закончился только что
+     *
+     * @param random генератор случайных чисел
+     * @param msisdns номера абонентов
+     */
+    private void publishFinishedCall(SplittableRandom random, String[] msisdns) {
+        int callerIndex = random.nextInt(msisdns.length);
+        int receiverIndex = random.nextInt(msisdns.length - 1);
+        if (receiverIndex >= callerIndex) {
+            receiverIndex++;
+        }
+
+        LocalDateTime endTime = LocalDateTime.now();
+        cdrPipelineService.publish((random.nextBoolean()) ? "01" : "02",
+                msisdns[callerIndex],
+                msisdns[receiverIndex],
+                endTime.minusSeconds(random.nextInt(MAX_CALL_TIME_IN_MINUTES * 60)),
+                endTime,
+                outcome);
+    }
+}
@@ -0,0 +1,96 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Данный класс выступает в качестве сервиса обслуживания помесячных партиций CDR записей.
+ * Устаревший месяц удаляется целиком через DROP TABLE партиции вместе с агрегатами использования за этот месяц,
+ * поэтому время удаления не зависит от количества записей.
+ * При cdr.partitioning.retention-months больше 0 партиции старше заданного количества месяцев
+ * удаляются по расписанию cdr.partitioning.retention-cron
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #dropPartition(YearMonth)} — удаляет партицию месяца.</li>
+ *   <li>{@link #dropExpiredPartitions()} — удаляет партиции старше срока хранения.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий CDR записей с маршрутизацией по партициям.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRollupService} — сервис агрегатов использования.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UDRCache} — кэш UDR отчетов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRangeIndex} — индекс длительности звонков за произвольный период.</li>
+ * </ul>
+ */
+@Service
+public class CDRPartitionService {
+    private static final Logger log = LoggerFactory.getLogger(CDRPartitionService.class);
+
+    private final CDRepository cdRepository;
+    private final UsageRollupService usageRollupService;
+    private final UDRCache udrCache;
+    private final UsageRangeIndex usageRangeIndex;
+    private final int retentionMonths;
+
+    public CDRPartitionService(CDRepository cdRepository, UsageRollupService usageRollupService, UDRCache udrCache,
+                               UsageRangeIndex usageRangeIndex,
+                               @Value("${cdr.partitioning.retention-months:0}") int retentionMonths) {
+        if (retentionMonths < 0) {
+            throw new IllegalArgumentException("Retention months must not be negative");
+        }
+        this.cdRepository = cdRepository;
+        this.usageRollupService = usageRollupService;
+        this.udrCache = udrCache;
+        this.usageRangeIndex = usageRangeIndex;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Данный метод удаляет партицию месяца и агрегаты использования за этот месяц
+     *
+     * @param month месяц партиции
+     * @throws IllegalStateException если партиционирование выключено
+     */
+    public void dropPartition(YearMonth month) {
+        if (!cdRepository.isPartitioned()) {
+            throw new IllegalStateException("CDR partitioning is disabled");
+        }
+        cdRepository.dropPartition(month);
+        usageRollupService.clearMonth(month);
+        udrCache.invalidateMonth(month.getMonthValue());
+        usageRangeIndex.removeMonth(month);
+        log.info("CDR partition {} dropped", month);
+    }
+
+    /**
+     * Данный метод удаляет партиции, которые старше cdr.partitioning.retention-months месяцев
+     *
+     * @return список удаленных месяцев
+     */
+    @Scheduled(cron = "${cdr.partitioning.retention-cron:0 0 3 * * *}")
+    public List<YearMonth> dropExpiredPartitions() {
+        List<YearMonth> dropped = new ArrayList<>();
+        if (!cdRepository.isPartitioned() || retentionMonths == 0) {
+            return dropped;
+        }
+
+        YearMonth oldestKept = YearMonth.now().minusMonths(retentionMonths - 1);
+        for (YearMonth month : cdRepository.findPartitions()) {
+            if (month.isBefore(oldestKept)) {
+                dropPartition(month);
+                dropped.add(month);
+            }
+        }
+        return dropped;
+    }
+}
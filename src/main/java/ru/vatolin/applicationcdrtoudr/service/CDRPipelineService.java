@@ -0,0 +1,284 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Данный класс выступает в качестве конвейера между производителями CDR записей (генератор, импорт,
+ * непрерывная загрузка) и сохранением в бд.
+ * Производители публикуют записи в кольцевой буфер из своих потоков, единственный поток-писатель
+ * забирает их порциями по cdr.pipeline.batch-size записей и сохраняет в хранилище CDR записей,
+ * поэтому задержка производителя не зависит от задержки фиксации транзакции
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #publish(String, String, String, LocalDateTime, LocalDateTime, PublishOutcome)} — публикует запись без создания объекта.</li>
+ *   <li>{@link #publish(CDR, PublishOutcome)} — публикует запись с итогом производителя.</li>
+ *   <li>{@link #publishAll(Iterable)} — публикует записи и дожидается их сохранения.</li>
+ *   <li>{@link #awaitPersisted(long)} — дожидается сохранения записи с заданным номером.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRRingBuffer} — кольцевой буфер записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRStore} — хранилище CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UDRCache} — кэш UDR отчетов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRangeIndex} — индекс длительности звонков за произвольный период.</li>
+ * </ul>
+ */
+@Service
+public class CDRPipelineService {
+    private static final Logger log = LoggerFactory.getLogger(CDRPipelineService.class);
+    private static final long IDLE_PARK_NANOS = 100_000;
+
+    private final CDRStore cdrStore;
+    private final UDRCache udrCache;
+    private final UsageRangeIndex usageRangeIndex;
+    private final CDRRingBuffer ringBuffer;
+    private final int batchSize;
+
+    private final AtomicLong persistedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    public CDRPipelineService(CDRStore cdrStore, UDRCache udrCache, UsageRangeIndex usageRangeIndex,
+                              @Value("${cdr.pipeline.capacity:8192}") int capacity,
+                              @Value("${cdr.pipeline.batch-size:500}") int batchSize) {
+        this.cdrStore = cdrStore;
+        this.udrCache = udrCache;
+        this.usageRangeIndex = usageRangeIndex;
+        this.ringBuffer = new CDRRingBuffer(capacity, this::isWriterAlive);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Запускает поток-писатель
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        //писатель становится виден производителям только после запуска, иначе он считался бы остановленным
+        Thread thread = new Thread(this::drain, "cdr-pipeline-writer");
+        thread.setDaemon(true);
+        thread.start();
+        writer = thread;
+    }
+
+    /**
+     * Останавливает поток-писатель после сохранения уже опубликованных записей
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Публикует запись в буфер, если буфер заполнен, ждет освобождения слота
+     *
+     * @param callType тип звонка
+     * @param callerNumber номер инициатора
+     * @param receiverNumber номер принимающего
+     * @param startTime время начала звонка
+     * @param endTime время окончания звонка
+     * @param outcome итог производителя
+     * @return номер последовательности записи
+     * @throws IllegalStateException выбрасывается, если буфер заполнен, а писатель остановлен или поток прерван
+     */
+    public long publish(String callType, String callerNumber, String receiverNumber, LocalDateTime startTime, LocalDateTime endTime,
+                        PublishOutcome outcome) {
+        return ringBuffer.publish(callType, callerNumber, receiverNumber, startTime, endTime, outcome);
+    }
+
+    /**
+     * Публикует поля записи в буфер, сам объект записи после вызова можно переиспользовать
+     *
+     * @param cdr CDR запись
+     * @return номер последовательности записи
+     */
+    public long publish(CDR cdr) {
+        return publish(cdr, null);
+    }
+
+    /**
+     * Публикует поля записи в буфер вместе с итогом производителя: после сохранения порции писатель
+     * учитывает запись в итоге как сохраненную или отброшенную
+     *
+     * @param cdr CDR запись
+     * @param outcome итог производителя
+     * @return номер последовательности записи
+     * @throws IllegalStateException выбрасывается, если буфер заполнен, а писатель остановлен или поток прерван
+     */
+    public long publish(CDR cdr, PublishOutcome outcome) {
+        return ringBuffer.publish(cdr.getCallType(), cdr.getCallerNumber(), cdr.getReceiverNumber(), cdr.getStartTime(), cdr.getEndTime(), outcome);
+    }
+
+    /**
+     * Публикует все записи источника и дожидается сохранения последней из них
+     *
+     * @param records источник CDR записей
+     * @return результат вставки (количество сохраненных и отброшенных записей, строк в секунду)
+     * @throws IllegalStateException выбрасывается, если писатель остановлен до сохранения записей
+     */
+    public BulkInsertResult publishAll(Iterable<CDR> records) {
+        long started = System.nanoTime();
+        PublishOutcome outcome = new PublishOutcome();
+        long lastSequence = -1;
+
+        for (CDR cdr : records) {
+            lastSequence = publish(cdr, outcome);
+        }
+        if (lastSequence >= 0) {
+            awaitPersisted(lastSequence);
+        }
+
+        return BulkInsertResult.since(outcome.getPersisted(), outcome.getFailed(), started);
+    }
+
+    /**
+     * Дожидается, пока писатель обработает запись с заданным номером и все записи до нее.
+     * Обработанная запись сохранена, если она не учтена в итоге производителя как отброшенная
+     *
+     * @param sequence номер последовательности записи
+     * @throws IllegalStateException выбрасывается, если писатель остановлен, а запись еще не обработана
+     */
+    public void awaitPersisted(long sequence) {
+        while (ringBuffer.getConsumeSequence() <= sequence) {
+            //после остановки писатель дописывает опубликованные записи и завершается, дальше ждать нечего
+            if (!isWriterAlive() && ringBuffer.getConsumeSequence() <= sequence) {
+                throw new IllegalStateException("CDR pipeline is stopped, record " + sequence + " will not be persisted");
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Проверяет, что поток-писатель запущен и не завершился (в том числе после остановки или из-за ошибки)
+     *
+     * @return true, если писатель работает
+     */
+    private boolean isWriterAlive() {
+        Thread current = writer;
+        return current != null && current.isAlive();
+    }
+
+    public int getDepth() {
+        return ringBuffer.size();
+    }
+
+    public int getCapacity() {
+        return ringBuffer.capacity();
+    }
+
+    public long getPersistedCount() {
+        return persistedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Цикл писателя: забирает порцию опубликованных слотов, сохраняет ее и освобождает слоты.
+     * Порция, которую не удалось сохранить, отбрасывается и учитывается в счетчике ошибок и в итогах
+     * производителей записей, чтобы одна некорректная порция не останавливала конвейер.
+     * Отклоненные хранилищем записи учитываются так же, остальные записи порции считаются сохраненными
+     */
+    private void drain() {
+        List<CDR> batch = new ArrayList<>(batchSize);
+
+        while (running || ringBuffer.size() > 0) {
+            int count = ringBuffer.drainTo(batch, batchSize);
+            if (count == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                List<CDR> rejected = cdrStore.saveAll(batch);
+                List<CDR> saved = batch;
+                Set<CDR> rejectedSet = Collections.emptySet();
+                if (!rejected.isEmpty()) {
+                    //записи сравниваются по ссылке на слот буфера
+                    rejectedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+                    rejectedSet.addAll(rejected);
+                    saved = new ArrayList<>(count - rejected.size());
+                    for (CDR cdr : batch) {
+                        if (!rejectedSet.contains(cdr)) {
+                            saved.add(cdr);
+                        }
+                    }
+                    failedCount.addAndGet(rejected.size());
+                    log.warn("CDR store rejected {} of {} records in a batch", rejected.size(), count);
+                }
+                //отчеты абонентов порции удаляются из кэша после сохранения, а не после публикации
+                udrCache.invalidate(saved);
+                usageRangeIndex.add(saved);
+                persistedCount.addAndGet(saved.size());
+                reportOutcomes(batch, rejectedSet::contains);
+            } catch (RuntimeException e) {
+                failedCount.addAndGet(count);
+                log.error("CDR pipeline dropped a batch of {} records: {}", count, e.getMessage());
+                reportOutcomes(batch, cdr -> true);
+            }
+
+            //после освобождения слоты переиспользуются производителями, ссылки на них не храним
+            batch.clear();
+            ringBuffer.release(count);
+        }
+    }
+
+    /**
+     * Учитывает записи порции в итогах производителей, подряд идущие записи одного производителя
+     * с одинаковым результатом учитываются одним вызовом
+     *
+     * @param batch порция записей, еще не освобожденная в буфере
+     * @param failed проверка, что запись не сохранена
+     */
+    private void reportOutcomes(List<CDR> batch, Predicate<CDR> failed) {
+        int runStart = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            PublishOutcome outcome = ringBuffer.outcomeAt(runStart);
+            boolean runFailed = failed.test(batch.get(runStart));
+            if (i < batch.size() && ringBuffer.outcomeAt(i) == outcome && failed.test(batch.get(i)) == runFailed) {
+                continue;
+            }
+            if (outcome != null) {
+                if (runFailed) {
+                    outcome.addFailed(i - runStart);
+                } else {
+                    outcome.addPersisted(i - runStart, batch.get(i - 1).getEndTime());
+                }
+            }
+            runStart = i;
+        }
+    }
+}
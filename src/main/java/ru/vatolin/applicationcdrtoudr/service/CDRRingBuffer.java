@@ -0,0 +1,196 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Кольцевой буфер CDR записей с заранее созданными слотами между многими производителями и одним потребителем.
+ * Производитель захватывает номер последовательности атомарным инкрементом, копирует поля записи в слот
+ * и публикует слот, записывая номер последовательности в массив публикаций. Потребитель забирает
+ * подряд опубликованные слоты порцией и освобождает их после сохранения.
+ * Блокировок нет: если буфер заполнен, производитель ждет освобождения слота (backpressure).
+ * Номер захватывается только при свободном слоте, поэтому производитель, который перестал ждать
+ * (потребитель остановлен или поток производителя прерван), не оставляет в последовательности пропуск.
+ * Слоты переиспользуются, поэтому потребитель не должен хранить ссылки на записи после {@link #release(int)}.
+ * Вместе с записью в слоте хранится итог производителя ({@link PublishOutcome}), чтобы потребитель мог сообщить
+ * производителю, сохранена запись или отброшена
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #publish(String, String, String, LocalDateTime, LocalDateTime)} — публикует запись в свободный слот.</li>
+ *   <li>{@link #drainTo(List, int)} — отдает потребителю подряд опубликованные слоты.</li>
+ *   <li>{@link #release(int)} — освобождает слоты после сохранения.</li>
+ * </ul>
+ */
+public class CDRRingBuffer {
+    private static final long PRODUCER_PARK_NANOS = 10_000;
+
+    private final CDR[] slots;
+    private final PublishOutcome[] outcomes;
+    private final int mask;
+    //номер последовательности, опубликованной в каждом слоте
+    private final AtomicLongArray published;
+    //следующий номер для захвата производителем
+    private final AtomicLong claimSequence = new AtomicLong();
+    //следующий номер для чтения потребителем, изменяется только потребителем
+    private final AtomicLong consumeSequence = new AtomicLong();
+    //работает ли потребитель, без него заполненный буфер не освободится
+    private final BooleanSupplier consumerAlive;
+
+    public CDRRingBuffer(int capacity) {
+        this(capacity, () -> true);
+    }
+
+    public CDRRingBuffer(int capacity, BooleanSupplier consumerAlive) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two");
+        }
+        this.slots = new CDR[capacity];
+        this.outcomes = new PublishOutcome[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        this.consumerAlive = consumerAlive;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new CDR();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Публикует запись: захватывает следующий слот, ждет его освобождения и копирует в него поля
+     *
+     * @param callType тип звонка
+     * @param callerNumber номер инициатора
+     * @param receiverNumber номер принимающего
+     * @param startTime время начала звонка
+     * @param endTime время окончания звонка
+     * @return номер последовательности записи
+     */
+    public long publish(String callType, String callerNumber, String receiverNumber, LocalDateTime startTime, LocalDateTime endTime) {
+        return publish(callType, callerNumber, receiverNumber, startTime, endTime, null);
+    }
+
+    /**
+     * Публикует запись вместе с итогом производителя. Если буфер заполнен, ждет освобождения слота
+     *
+     * @param callType тип звонка
+     * @param callerNumber номер инициатора
+     * @param receiverNumber номер принимающего
+     * @param startTime время начала звонка
+     * @param endTime время окончания звонка
+     * @param outcome итог производителя или null, если производителю итог не нужен
+     * @return номер последовательности записи
+     * @throws IllegalStateException выбрасывается, если буфер заполнен, а потребитель остановлен
+     * или поток производителя прерван
+     */
+    public long publish(String callType, String callerNumber, String receiverNumber, LocalDateTime startTime, LocalDateTime endTime,
+                        PublishOutcome outcome) {
+        long sequence = claim();
+
+        int index = (int) (sequence & mask);
+        CDR slot = slots[index];
+        slot.setId(null);
+        slot.setCallType(callType);
+        slot.setCallerNumber(callerNumber);
+        slot.setReceiverNumber(receiverNumber);
+        slot.setStartTime(startTime);
+        slot.setEndTime(endTime);
+        outcomes[index] = outcome;
+        published.set(index, sequence);
+        return sequence;
+    }
+
+    /**
+     * Захватывает следующий номер последовательности, когда слот, занятый записью на круг раньше, освобожден
+     *
+     * @return номер последовательности
+     * @throws IllegalStateException выбрасывается, если потребитель остановлен или поток производителя прерван
+     */
+    private long claim() {
+        while (true) {
+            long sequence = claimSequence.get();
+            if (sequence - consumeSequence.get() < slots.length) {
+                if (claimSequence.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+                continue;
+            }
+
+            //при выставленном флаге прерывания parkNanos сразу возвращается, ожидание превратилось бы в активный цикл
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted while waiting for a free ring buffer slot");
+            }
+            if (!consumerAlive.getAsBoolean()) {
+                throw new IllegalStateException("Ring buffer consumer is stopped, the buffer will not be released");
+            }
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Добавляет в порцию подряд опубликованные слоты, начиная со следующего непрочитанного
+     *
+     * @param batch порция, в которую добавляются слоты
+     * @param maxBatch максимальное количество слотов
+     * @return количество добавленных слотов
+     */
+    public int drainTo(List<CDR> batch, int maxBatch) {
+        long next = consumeSequence.get();
+
+        int count = 0;
+        while (count < maxBatch) {
+            long sequence = next + count;
+            int index = (int) (sequence & mask);
+            if (published.get(index) != sequence) {
+                break;
+            }
+            batch.add(slots[index]);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Возвращает итог производителя записи из прочитанной, но еще не освобожденной порции
+     *
+     * @param offset номер записи в порции, полученной из {@link #drainTo(List, int)}
+     * @return итог производителя или null
+     */
+    public PublishOutcome outcomeAt(int offset) {
+        return outcomes[(int) ((consumeSequence.get() + offset) & mask)];
+    }
+
+    /**
+     * Освобождает прочитанные слоты для производителей
+     *
+     * @param count количество слотов
+     */
+    public void release(int count) {
+        consumeSequence.addAndGet(count);
+    }
+
+    /**
+     * @return номер следующей записи, которую прочитает потребитель (все записи до него сохранены)
+     */
+    public long getConsumeSequence() {
+        return consumeSequence.get();
+    }
+
+    /**
+     * @return количество захваченных, но еще не освобожденных слотов
+     */
+    public int size() {
+        long size = claimSequence.get() - consumeSequence.get();
+        return (int) Math.min(Math.max(size, 0), slots.length);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
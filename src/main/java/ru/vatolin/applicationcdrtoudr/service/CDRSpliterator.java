@@ -0,0 +1,144 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Ленивый источник случайных CDR записей в хронологическом порядке.
+ * Записи генерируются по одной при обходе, поэтому объем генерации не ограничен памятью.
+ * Все случайные значения берутся из одного SplittableRandom, при разделении (trySplit)
+ * префикс получает половину оставшегося периода и записей и собственный генератор, полученный через split()
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #tryAdvance(Consumer)} — генерирует следующую запись.</li>
+ *   <li>{@link #trySplit()} — отделяет первую половину оставшегося периода.</li>
+ *   <li>{@link #ofRate(SplittableRandom, String[], LocalDateTime, LocalDateTime, double)} — создает источник с заданной частотой записей.</li>
+ * </ul>
+ */
+public class CDRSpliterator implements Spliterator<CDR> {
+    private static final int MAX_CALL_TIME_IN_MINUTES = 120;
+
+    private final SplittableRandom random;
+    private final String[] msisdns;
+    //время окончания последнего звонка и конец периода в секундах
+    private long lastEndSecond;
+    private final long endSecond;
+    //количество записей, которые осталось сгенерировать
+    private long remaining;
+
+    public CDRSpliterator(SplittableRandom random, String[] msisdns, LocalDateTime startDateTime, LocalDateTime endDateTime, long countOfRecords) {
+        this(random, msisdns, startDateTime.toEpochSecond(ZoneOffset.UTC), endDateTime.toEpochSecond(ZoneOffset.UTC), countOfRecords);
+    }
+
+    private CDRSpliterator(SplittableRandom random, String[] msisdns, long startSecond, long endSecond, long countOfRecords) {
+        if (msisdns.length < 2) {
+            throw new IllegalArgumentException("At least two subscribers are required");
+        }
+        if (countOfRecords < 0 || endSecond < startSecond) {
+            throw new IllegalArgumentException("Invalid count of records or period");
+        }
+        this.random = random;
+        this.msisdns = msisdns;
+        this.lastEndSecond = startSecond;
+        this.endSecond = endSecond;
+        this.remaining = countOfRecords;
+    }
+
+    /**
+     * Создает источник, в котором количество записей определяется частотой и длиной периода
+     *
+     * @param random генератор случайных чисел
+     * @param msisdns номера абонентов
+     * @param startDateTime начало периода
+     * @param endDateTime конец периода
+     * @param recordsPerSecond количество записей в секунду периода
+     * @return источник CDR записей
+     */
+    public static CDRSpliterator ofRate(SplittableRandom random, String[] msisdns, LocalDateTime startDateTime,
+                                        LocalDateTime endDateTime, double recordsPerSecond) {
+        long seconds = endDateTime.toEpochSecond(ZoneOffset.UTC) - startDateTime.toEpochSecond(ZoneOffset.UTC);
+        return new CDRSpliterator(random, msisdns, startDateTime, endDateTime, Math.round(seconds * recordsPerSecond));
+    }
+
+    /**
+     * Генерирует следующую запись. Верхняя граница времени начала получается делением оставшегося периода
+     * на оставшееся количество записей, поэтому записи равномерно распределяются по периоду
+     *
+     * @param action получатель записи
+     * @return false, если записи закончились
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super CDR> action) {
+        if (remaining <= 0) {
+            return false;
+        }
+
+        //верхняя граница времени начала
+        long maxStartSecond = lastEndSecond + Math.max(0, endSecond - lastEndSecond) / remaining;
+
+        //случайно получаем тип звонка (true - 01, false - 02)
+        String callType = (random.nextBoolean()) ? "01" : "02";
+        //номер принимающего выбираем среди остальных абонентов, чтобы номера не совпадали
+        int callerIndex = random.nextInt(msisdns.length);
+        int receiverIndex = random.nextInt(msisdns.length - 1);
+        if (receiverIndex >= callerIndex) {
+            receiverIndex++;
+        }
+
+        //время начала звонка, диапазон может схлопнуться, если предыдущий звонок закончился в конце периода
+        long startSecond = (maxStartSecond > lastEndSecond)
+                ? lastEndSecond + random.nextLong(maxStartSecond - lastEndSecond)
+                : lastEndSecond;
+        //время окончания звонка не выходит за конец периода
+        long callEndSecond = Math.min(startSecond + random.nextInt(MAX_CALL_TIME_IN_MINUTES) * 60L, endSecond);
+
+        CDR cdr = new CDR();
+        cdr.setCallType(callType);
+        cdr.setCallerNumber(msisdns[callerIndex]);
+        cdr.setReceiverNumber(msisdns[receiverIndex]);
+        cdr.setStartTime(LocalDateTime.ofEpochSecond(startSecond, 0, ZoneOffset.UTC));
+        cdr.setEndTime(LocalDateTime.ofEpochSecond(callEndSecond, 0, ZoneOffset.UTC));
+        action.accept(cdr);
+
+        //запоминаем время окончания
+        lastEndSecond = callEndSecond;
+        remaining--;
+        return true;
+    }
+
+    /**
+     * Отделяет первую половину оставшегося периода вместе с половиной оставшихся записей
+     *
+     * @return источник для первой половины периода или null, если делить нечего
+     */
+    @Override
+    public Spliterator<CDR> trySplit() {
+        long midSecond = lastEndSecond + (endSecond - lastEndSecond) / 2;
+        if (remaining < 2 || midSecond <= lastEndSecond) {
+            return null;
+        }
+
+        long prefixCount = remaining / 2;
+        CDRSpliterator prefix = new CDRSpliterator(random.split(), msisdns, lastEndSecond, midSecond, prefixCount);
+
+        lastEndSecond = midSecond;
+        remaining -= prefixCount;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+}
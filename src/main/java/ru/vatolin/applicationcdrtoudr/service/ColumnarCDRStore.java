@@ -0,0 +1,320 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Колоночное хранилище CDR записей в памяти (cdr.storage.backend=columnar).
+ * Каждое поле записи хранится в отдельном массиве примитивов: индекс абонента инициатора и принимающего (int),
+ * время начала в секундах эпохи UTC (long), длительность в секундах (int) и тип звонка (byte),
+ * всего 21 байт на запись вместо объекта CDR с двумя LocalDateTime и тремя строками.
+ * Номера абонентов хранятся один раз в словаре, UDR суммы считаются проходом по массивам без создания объектов
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.util.HashMap} — словарь номер абонента -> индекс.</li>
+ *   <li>{@link java.util.concurrent.locks.ReentrantReadWriteLock} — для чтения отчетов параллельно с записью конвейера.</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "cdr.storage.backend", havingValue = "columnar")
+public class ColumnarCDRStore implements CDRStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> subscriberIndex = new HashMap<>();
+    private final List<String> subscribers = new ArrayList<>();
+
+    private int[] callers = new int[INITIAL_CAPACITY];
+    private int[] receivers = new int[INITIAL_CAPACITY];
+    private long[] startSeconds = new long[INITIAL_CAPACITY];
+    private int[] durations = new int[INITIAL_CAPACITY];
+    private byte[] callTypes = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    @Override
+    public List<CDR> saveAll(List<CDR> records) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + records.size());
+            for (CDR cdr : records) {
+                long start = cdr.getStartTime().toEpochSecond(ZoneOffset.UTC);
+                callers[size] = indexOf(cdr.getCallerNumber());
+                receivers[size] = indexOf(cdr.getReceiverNumber());
+                startSeconds[size] = start;
+                durations[size] = Math.toIntExact(cdr.getEndTime().toEpochSecond(ZoneOffset.UTC) - start);
+                callTypes[size] = Byte.parseByte(cdr.getCallType());
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return List.of();
+    }
+
+    @Override
+    public void saveEach(Iterator<CDR> records, Consumer<CDR> saved) {
+        records.forEachRemaining(cdr -> {
+            if (saveAll(List.of(cdr)).isEmpty()) {
+                saved.accept(cdr);
+            }
+        });
+    }
+
+    //записи уже находятся в памяти, поток строится по отсортированной выборке
+    @Override
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        long from = startTime.toEpochSecond(ZoneOffset.UTC);
+        long to = endTime.toEpochSecond(ZoneOffset.UTC);
+        List<CDRRow> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            Integer caller = subscriberIndex.get(msisdn);
+            if (caller == null) {
+                return Stream.empty();
+            }
+            for (int i = 0; i < size; i++) {
+                if (callers[i] == caller && startSeconds[i] > from && startSeconds[i] < to) {
+                    result.add(toRow(i));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        //записи конвейера из нескольких производителей могут идти не по порядку
+        result.sort(Comparator.comparing(CDRRow::startTime));
+        return result.stream();
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMonth(int month) {
+        lock.readLock().lock();
+        try {
+            long[] incoming = new long[subscribers.size()];
+            long[] outcoming = new long[subscribers.size()];
+            for (int i = 0; i < size; i++) {
+                if (monthOf(startSeconds[i]) == month) {
+                    incoming[callers[i]] += durations[i];
+                    outcoming[receivers[i]] += durations[i];
+                }
+            }
+
+            List<UsageTotal> totals = new ArrayList<>();
+            for (int subscriber = 0; subscriber < incoming.length; subscriber++) {
+                addTotal(totals, subscriber, incoming[subscriber], outcoming[subscriber]);
+            }
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //суммы собираются одним проходом в памяти, строки одного абонента в списке идут подряд
+    @Override
+    public Stream<UsageTotal> streamUsageByMonth(int month) {
+        return sumUsageByMonth(month).stream();
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month) {
+        return sumUsageBySubscriber(msisdn, month);
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMsisdn(String msisdn) {
+        return sumUsageBySubscriber(msisdn, 0);
+    }
+
+    /**
+     * Считает суммы абонентов по месяцам одним проходом по массивам: индекс абонента в словаре переводится
+     * в позицию среди запрошенных, секунды копятся в массиве [позиция][месяц][направление]
+     *
+     * @param msisdns номера абонентов
+     * @return суммы по номеру, месяцу и направлению
+     */
+    @Override
+    public List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns) {
+        lock.readLock().lock();
+        try {
+            //индекс абонента в словаре -> позиция среди запрошенных или -1
+            int[] positions = new int[subscribers.size()];
+            Arrays.fill(positions, -1);
+            List<Integer> requested = new ArrayList<>();
+            for (String msisdn : msisdns) {
+                Integer subscriber = subscriberIndex.get(msisdn);
+                if (subscriber != null && positions[subscriber] < 0) {
+                    positions[subscriber] = requested.size();
+                    requested.add(subscriber);
+                }
+            }
+
+            List<MonthlyUsageTotal> totals = new ArrayList<>();
+            if (requested.isEmpty()) {
+                return totals;
+            }
+            long[] seconds = new long[requested.size() * 24];
+            for (int i = 0; i < size; i++) {
+                int caller = positions[callers[i]];
+                int receiver = positions[receivers[i]];
+                if (caller < 0 && receiver < 0) {
+                    continue;
+                }
+                int month = monthOf(startSeconds[i]);
+                if (caller >= 0) {
+                    seconds[caller * 24 + (month - 1) * 2] += durations[i];
+                }
+                if (receiver >= 0) {
+                    seconds[receiver * 24 + (month - 1) * 2 + 1] += durations[i];
+                }
+            }
+
+            for (int position = 0; position < requested.size(); position++) {
+                String msisdn = subscribers.get(requested.get(position));
+                addMonthlyTotals(totals, msisdn, seconds, position * 24);
+            }
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            subscriberIndex.clear();
+            subscribers.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Считает суммарную длительность звонков абонента
+     *
+     * @param msisdn номер абонента
+     * @param month номер месяца (любого года) или 0 - за все время
+     * @return суммы по направлениям
+     */
+    private List<UsageTotal> sumUsageBySubscriber(String msisdn, int month) {
+        lock.readLock().lock();
+        try {
+            List<UsageTotal> totals = new ArrayList<>();
+            Integer subscriber = subscriberIndex.get(msisdn);
+            if (subscriber == null) {
+                return totals;
+            }
+
+            long incoming = 0;
+            long outcoming = 0;
+            for (int i = 0; i < size; i++) {
+                if (month != 0 && monthOf(startSeconds[i]) != month) {
+                    continue;
+                }
+                if (callers[i] == subscriber) {
+                    incoming += durations[i];
+                }
+                if (receivers[i] == subscriber) {
+                    outcoming += durations[i];
+                }
+            }
+            addTotal(totals, subscriber, incoming, outcoming);
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addTotal(List<UsageTotal> totals, int subscriber, long incoming, long outcoming) {
+        if (incoming > 0) {
+            totals.add(new UsageTotalRow(subscribers.get(subscriber), UsageTotal.INCOMING, incoming));
+        }
+        if (outcoming > 0) {
+            totals.add(new UsageTotalRow(subscribers.get(subscriber), UsageTotal.OUTCOMING, outcoming));
+        }
+    }
+
+    /**
+     * Добавляет ненулевые суммы абонента из массива секунд по месяцам:
+     * [offset + (месяц - 1) * 2] - инициатор, [offset + (месяц - 1) * 2 + 1] - принимающий
+     */
+    static void addMonthlyTotals(List<MonthlyUsageTotal> totals, String msisdn, long[] seconds, int offset) {
+        for (int month = 1; month <= 12; month++) {
+            long incoming = seconds[offset + (month - 1) * 2];
+            long outcoming = seconds[offset + (month - 1) * 2 + 1];
+            if (incoming > 0) {
+                totals.add(new UsageTotalRow(msisdn, month, UsageTotal.INCOMING, incoming));
+            }
+            if (outcoming > 0) {
+                totals.add(new UsageTotalRow(msisdn, month, UsageTotal.OUTCOMING, outcoming));
+            }
+        }
+    }
+
+    private CDRRow toRow(int i) {
+        LocalDateTime start = LocalDateTime.ofEpochSecond(startSeconds[i], 0, ZoneOffset.UTC);
+        return new CDRRow(i + 1, String.format("%02d", callTypes[i]), subscribers.get(callers[i]),
+                subscribers.get(receivers[i]), start, start.plus(Duration.ofSeconds(durations[i])));
+    }
+
+    private int indexOf(String msisdn) {
+        Integer index = subscriberIndex.get(msisdn);
+        if (index == null) {
+            index = subscribers.size();
+            subscriberIndex.put(msisdn, index);
+            subscribers.add(msisdn);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= callers.length) {
+            return;
+        }
+        int capacity = Math.max(required, callers.length * 2);
+        callers = Arrays.copyOf(callers, capacity);
+        receivers = Arrays.copyOf(receivers, capacity);
+        startSeconds = Arrays.copyOf(startSeconds, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        callTypes = Arrays.copyOf(callTypes, capacity);
+    }
+
+    /**
+     * Возвращает номер месяца по секундам эпохи без создания объектов даты
+     * (перевод номера дня в гражданскую дату по алгоритму Хиннанта)
+     *
+     * @param epochSecond секунды эпохи UTC
+     * @return номер месяца [1..12]
+     */
+    static int monthOf(long epochSecond) {
+        long z = Math.floorDiv(epochSecond, SECONDS_PER_DAY) + 719_468;
+        long dayOfEra = z - Math.floorDiv(z, 146_097) * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        return (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+    }
+}
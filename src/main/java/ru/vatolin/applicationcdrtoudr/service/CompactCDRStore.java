@@ -0,0 +1,216 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище CDR записей в таблице cdr_compact (cdr.storage.backend=compact).
+ * Вместо номеров абонентов строка хранит внешние ключи на subscribers, номер переводится в идентификатор
+ * и обратно один раз на границе хранилища по реестру абонентов. Индексы, выборка за период
+ * и группировка в UDR суммах работают с целочисленными ключами.
+ * Запись с номером, которого нет среди абонентов, сохранить нельзя, такие записи порции отклоняются
+ *
+ * <p>Вспомогательные методы:
+ * <ul>
+ *   <li>{@link #toUsageTotals(List)} — переводит идентификаторы в строках сумм в номера абонентов.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CompactCDRRepository} — репозиторий таблицы cdr_compact.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.SubscriberRegistry} — перевод номеров абонентов в идентификаторы.</li>
+ *   <li>{@link jakarta.persistence.EntityManager} — для пакетной вставки со ссылками на абонентов без их загрузки.</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "cdr.storage.backend", havingValue = "compact")
+public class CompactCDRStore implements CDRStore {
+    private final CompactCDRRepository compactCDRRepository;
+    private final SubscriberRegistry subscriberRegistry;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int fetchSize;
+
+    public CompactCDRStore(CompactCDRRepository compactCDRRepository,
+                           SubscriberRegistry subscriberRegistry,
+                           EntityManager entityManager,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${cdr.bulk.batch-size:500}") int batchSize,
+                           @Value("${cdr.stream.fetch-size:1000}") int fetchSize) {
+        this.compactCDRRepository = compactCDRRepository;
+        this.subscriberRegistry = subscriberRegistry;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Сохраняет порцию в одной транзакции, ссылки на абонентов создаются через getReference без запросов к subscribers.
+     * Записи с номером, которого нет среди абонентов, отклоняются до начала транзакции, остальные записи порции сохраняются
+     *
+     * @param records порция CDR записей
+     * @return отклоненные записи с неизвестным номером абонента
+     */
+    @Override
+    public List<CDR> saveAll(List<CDR> records) {
+        //переводим номера до начала транзакции, чтобы неизвестный номер не отменял сохранение всей порции
+        List<CDR> accepted = new ArrayList<>(records.size());
+        List<CDR> rejected = new ArrayList<>();
+        long[] callerIds = new long[records.size()];
+        long[] receiverIds = new long[records.size()];
+        for (CDR cdr : records) {
+            Long callerId = subscriberRegistry.idOf(cdr.getCallerNumber());
+            Long receiverId = subscriberRegistry.idOf(cdr.getReceiverNumber());
+            if (callerId == null || receiverId == null) {
+                rejected.add(cdr);
+                continue;
+            }
+            callerIds[accepted.size()] = callerId;
+            receiverIds[accepted.size()] = receiverId;
+            accepted.add(cdr);
+        }
+        if (accepted.isEmpty()) {
+            return rejected;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < accepted.size(); i++) {
+                CDR cdr = accepted.get(i);
+                entityManager.persist(new CompactCDR(cdr.getCallType(),
+                        entityManager.getReference(Subscriber.class, callerIds[i]),
+                        entityManager.getReference(Subscriber.class, receiverIds[i]),
+                        cdr.getStartTime(), cdr.getEndTime()));
+                if ((i + 1) % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+        });
+        return rejected;
+    }
+
+    @Override
+    public void saveEach(Iterator<CDR> records, Consumer<CDR> saved) {
+        records.forEachRemaining(cdr -> {
+            if (saveAll(List.of(cdr)).isEmpty()) {
+                saved.accept(cdr);
+            }
+        });
+    }
+
+    /**
+     * Возвращает ленивый поток звонков абонента, страницы по ключу (start_time, id) читаются JPQL проекцией
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    @Override
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        Long callerId = subscriberRegistry.idOf(msisdn);
+        if (callerId == null) {
+            return Stream.empty();
+        }
+
+        return KeysetCursor.stream(
+                        (afterStartTime, afterId, limit) -> compactCDRRepository.findIncomingPage(callerId, afterStartTime, afterId, endTime, Limit.of(limit)),
+                        CompactCDRRow::startTime, CompactCDRRow::id, startTime, fetchSize)
+                .map(row -> new CDRRow(row.id(), row.callType(), msisdn, subscriberRegistry.msisdnOf(row.receiverId()),
+                        row.startTime(), row.endTime()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMonth(int month) {
+        return toUsageTotals(compactCDRRepository.sumUsageByMonth(month));
+    }
+
+    /**
+     * Возвращает поток сумм за месяц, страницы читаются по ключу (идентификатор абонента, направление)
+     * отдельными запросами, идентификаторы переводятся в номера по реестру абонентов
+     *
+     * @param month номер месяца
+     * @return поток сумм в порядке (идентификатор абонента, направление)
+     */
+    @Override
+    public Stream<UsageTotal> streamUsageByMonth(int month) {
+        return PageCursor.<SubscriberUsageTotal>stream((last, limit) -> (last == null)
+                        ? compactCDRRepository.sumUsageByMonthPage(month, 0, "", limit)
+                        : compactCDRRepository.sumUsageByMonthPage(month, last.getSubscriberId(), last.getDirection(), limit), fetchSize)
+                .map(total -> new UsageTotalRow(subscriberRegistry.msisdnOf(total.getSubscriberId()), total.getDirection(), total.getTotalSeconds()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month) {
+        Long subscriberId = subscriberRegistry.idOf(msisdn);
+        return (subscriberId == null) ? new ArrayList<>()
+                : toUsageTotals(compactCDRRepository.sumUsageBySubscriberAndMonth(subscriberId, month));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMsisdn(String msisdn) {
+        Long subscriberId = subscriberRegistry.idOf(msisdn);
+        return (subscriberId == null) ? new ArrayList<>()
+                : toUsageTotals(compactCDRRepository.sumUsageBySubscriber(subscriberId));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns) {
+        List<Long> subscriberIds = new ArrayList<>(msisdns.size());
+        for (String msisdn : msisdns) {
+            Long subscriberId = subscriberRegistry.idOf(msisdn);
+            if (subscriberId != null) {
+                subscriberIds.add(subscriberId);
+            }
+        }
+
+        List<MonthlyUsageTotal> result = new ArrayList<>();
+        if (subscriberIds.isEmpty()) {
+            return result;
+        }
+        for (MonthlySubscriberUsageTotal total : compactCDRRepository.sumUsageBySubscribersGroupByMonth(subscriberIds)) {
+            result.add(new UsageTotalRow(subscriberRegistry.msisdnOf(total.getSubscriberId()), total.getUsageMonth(),
+                    total.getDirection(), total.getTotalSeconds()));
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteAll() {
+        compactCDRRepository.deleteAllInBatch();
+    }
+
+    /**
+     * Переводит идентификаторы абонентов в строках сумм в номера
+     *
+     * @param totals суммы по идентификатору абонента и направлению
+     * @return суммы по номеру абонента и направлению
+     */
+    private List<UsageTotal> toUsageTotals(List<SubscriberUsageTotal> totals) {
+        List<UsageTotal> result = new ArrayList<>(totals.size());
+        for (SubscriberUsageTotal total : totals) {
+            result.add(new UsageTotalRow(subscriberRegistry.msisdnOf(total.getSubscriberId()), total.getDirection(), total.getTotalSeconds()));
+        }
+        return result;
+    }
+}
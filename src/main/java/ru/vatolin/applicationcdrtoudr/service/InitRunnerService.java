@@ -1,8 +1,9 @@
 package ru.vatolin.applicationcdrtoudr.service;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Service;
-import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
 import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
 import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
 
@@ -12,12 +13,17 @@ import java.util.List;
 /**
  * Класс инициализации
  * Выполняет необходимые операции при запуске приложения
+ * Способ сохранения сгенерированных CDR записей задается свойством cdr.generator.mode:
+ * "single" - каждая запись сохраняется отдельно, "bulk" - пакетная вставка,
+ * "parallel" - параллельная генерация по временным срезам (cdr.generator.seed, cdr.generator.parallel-count, cdr.generator.parallelism)
  *
  * <p>Класс взаимодействует с:
  * <ul>
- *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий для работы с CDR-записями.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRStore} — хранилище CDR записей.</li>
  *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository} — репозиторий для работы с абонентами.</li>
  *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRGeneratorService} — сервис для работы с CDR записями</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UDRCache} — кэш UDR отчетов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRangeIndex} — индекс длительности звонков за произвольный период.</li>
  * </ul>
  *
  * <p>Для работы используются:
@@ -28,21 +34,40 @@ import java.util.List;
  */
 @Service
 public class InitRunnerService implements CommandLineRunner {
-    private final CDRepository cdRepository;
+    private final CDRStore cdrStore;
     private final SubscriberRepository subscriberRepository;
     private final CDRGeneratorService cdrGeneratorService;
+    private final UDRCache udrCache;
+    private final UsageRangeIndex usageRangeIndex;
+    private final String generatorMode;
+    private final long generatorSeed;
+    private final int parallelCount;
+    private final int parallelism;
 
-    public InitRunnerService(CDRepository cdRepository, SubscriberRepository subscriberRepository, CDRGeneratorService cdrGeneratorService) {
-        this.cdRepository = cdRepository;
+    public InitRunnerService(CDRStore cdrStore, SubscriberRepository subscriberRepository, CDRGeneratorService cdrGeneratorService,
+                             UDRCache udrCache, UsageRangeIndex usageRangeIndex,
+                             @Value("${cdr.generator.mode:bulk}") String generatorMode,
+                             @Value("${cdr.generator.seed:42}") long generatorSeed,
+                             @Value("${cdr.generator.parallel-count:100000}") int parallelCount,
+                             @Value("${cdr.generator.parallelism:4}") int parallelism) {
+        this.cdrStore = cdrStore;
         this.subscriberRepository = subscriberRepository;
         this.cdrGeneratorService = cdrGeneratorService;
+        this.udrCache = udrCache;
+        this.usageRangeIndex = usageRangeIndex;
+        this.generatorMode = generatorMode;
+        this.generatorSeed = generatorSeed;
+        this.parallelCount = parallelCount;
+        this.parallelism = parallelism;
     }
 
     @Override
     public void run(String... args) throws Exception {
         //отчищаем таблицы перед началом работы
-        cdRepository.deleteAll();
+        cdrStore.deleteAll();
         subscriberRepository.deleteAll();
+        udrCache.clear();
+        usageRangeIndex.clear();
 
         //список абонентов
         List<String> msisdns = Arrays.asList(
@@ -58,6 +83,12 @@ public class InitRunnerService implements CommandLineRunner {
         }
 
         //запуск генерации CDR записей
-        cdrGeneratorService.generateCDRecords();
+        if (generatorMode.equals("single")) {
+            cdrGeneratorService.generateCDRecords();
+        } else if (generatorMode.equals("parallel")) {
+            cdrGeneratorService.generateCDRecordsInParallel(generatorSeed, parallelCount, parallelism);
+        } else {
+            cdrGeneratorService.generateCDRecordsInBulk();
+        }
     }
 }
@@ -0,0 +1,192 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Хранилище CDR записей в бд (cdr.storage.backend=jpa, используется по умолчанию).
+ * Порции сохраняются пакетной вставкой вместе с агрегатами использования, выборка за период идет
+ * через маршрутизацию CDRepository (таблица cdr или помесячные партиции), UDR суммы читаются из usage_rollup.
+ * Чтение отчетов идет в read-only транзакциях строками и проекциями, без создания управляемых сущностей.
+ * Выборка за период дополняется записями архива, если период захватывает перенесенные в архив месяцы
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.CDRBulkInsertService} — сервис пакетной вставки CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий для работы с CDR-записями.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.UsageRollupRepository} — репозиторий агрегатов использования.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRollupService} — сервис агрегатов использования.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRArchive} — архив CDR записей на диске.</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "cdr.storage.backend", havingValue = "jpa", matchIfMissing = true)
+public class JpaCDRStore implements CDRStore {
+    private final CDRBulkInsertService cdrBulkInsertService;
+    private final CDRepository cdRepository;
+    private final UsageRollupRepository usageRollupRepository;
+    private final UsageRollupService usageRollupService;
+    private final CDRArchive cdrArchive;
+    private final int fetchSize;
+
+    public JpaCDRStore(CDRBulkInsertService cdrBulkInsertService, CDRepository cdRepository,
+                       UsageRollupRepository usageRollupRepository, UsageRollupService usageRollupService,
+                       CDRArchive cdrArchive, @Value("${cdr.stream.fetch-size:1000}") int fetchSize) {
+        this.cdrBulkInsertService = cdrBulkInsertService;
+        this.cdRepository = cdRepository;
+        this.usageRollupRepository = usageRollupRepository;
+        this.usageRollupService = usageRollupService;
+        this.cdrArchive = cdrArchive;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public List<CDR> saveAll(List<CDR> records) {
+        cdrBulkInsertService.saveChunk(records);
+        return List.of();
+    }
+
+    /**
+     * Сохраняет каждую запись отдельной транзакцией (при включенных партициях - отдельной вставкой в партицию месяца).
+     * Агрегаты использования обновляются в транзакции каждой записи, поэтому стоимость вставки не зависит
+     * от объема истории, а отчеты не видят агрегаты без уже сохраненных записей
+     *
+     * @param records источник CDR записей
+     * @param saved получатель сохраненных записей
+     */
+    @Override
+    public void saveEach(Iterator<CDR> records, Consumer<CDR> saved) {
+        records.forEachRemaining(cdr -> {
+            cdrBulkInsertService.saveChunk(List.of(cdr));
+            saved.accept(cdr);
+        });
+    }
+
+    /**
+     * Возвращает поток звонков абонента за период. Каждая страница курсора - отдельный запрос,
+     * поэтому поток читается без открытой транзакции. Записи архива читаются потоково из сегментов,
+     * выбранных по индексам, и сливаются с потоком из бд по ключу (start_time, id)
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    @Override
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        Stream<CDRRow> archived = cdrArchive.streamIncomingInRange(msisdn, startTime, endTime);
+        Stream<CDRRow> hot = cdRepository.streamIncomingInRange(msisdn, startTime, endTime);
+        return merge(archived, hot);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMonth(int month) {
+        return usageRollupRepository.sumUsageByMonth(month);
+    }
+
+    /**
+     * Возвращает поток сумм за месяц из usage_rollup. Каждая страница курсора - отдельный запрос
+     * по ключу (msisdn, direction), поэтому поток читается без открытой транзакции
+     *
+     * @param month номер месяца
+     * @return поток сумм в порядке (msisdn, direction)
+     */
+    @Override
+    public Stream<UsageTotal> streamUsageByMonth(int month) {
+        return PageCursor.stream((last, limit) -> (last == null)
+                ? usageRollupRepository.sumUsageByMonthPage(month, "", "", limit)
+                : usageRollupRepository.sumUsageByMonthPage(month, last.getMsisdn(), last.getDirection(), limit), fetchSize);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month) {
+        return usageRollupRepository.sumUsageByMsisdnAndMonth(msisdn, month);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UsageTotal> sumUsageByMsisdn(String msisdn) {
+        return usageRollupRepository.sumUsageByMsisdn(msisdn);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns) {
+        return msisdns.isEmpty() ? new ArrayList<>() : usageRollupRepository.sumUsageByMsisdnsGroupByMonth(msisdns);
+    }
+
+    @Override
+    public void deleteAll() {
+        cdRepository.deleteAll();
+        cdRepository.findPartitions().forEach(cdRepository::dropPartition);
+        usageRollupService.clear();
+        cdrArchive.deleteAll();
+    }
+
+    /**
+     * Сливает упорядоченные по (start_time, id) строки архива и поток строк из бд в один упорядоченный поток.
+     * Месяц, который уже зафиксирован в архиве, но еще не удален из бд, есть в обоих источниках,
+     * поэтому строка с тем же ключом из бд пропускается
+     *
+     * @param archived поток строк архива
+     * @param hot поток строк из бд
+     * @return поток строк в порядке (start_time, id), закрытие потока закрывает оба источника
+     */
+    private static Stream<CDRRow> merge(Stream<CDRRow> archived, Stream<CDRRow> hot) {
+        Iterator<CDRRow> archivedRows = archived.iterator();
+        Iterator<CDRRow> hotRows = hot.iterator();
+        Iterator<CDRRow> merged = new Iterator<>() {
+            private CDRRow archivedHead;
+            private CDRRow hotHead;
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return archivedHead != null || hotHead != null;
+            }
+
+            @Override
+            public CDRRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                CDRRow result;
+                int order = (archivedHead == null) ? 1 : (hotHead == null) ? -1 : CDRRow.ORDER.compare(archivedHead, hotHead);
+                if (order <= 0) {
+                    result = archivedHead;
+                    archivedHead = null;
+                    if (order == 0) {
+                        hotHead = null;
+                    }
+                } else {
+                    result = hotHead;
+                    hotHead = null;
+                }
+                return result;
+            }
+
+            private void fill() {
+                if (archivedHead == null && archivedRows.hasNext()) {
+                    archivedHead = archivedRows.next();
+                }
+                if (hotHead == null && hotRows.hasNext()) {
+                    hotHead = hotRows.next();
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(archived::close)
+                .onClose(hot::close);
+    }
+}
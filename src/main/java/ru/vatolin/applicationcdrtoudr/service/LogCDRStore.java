@@ -0,0 +1,615 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище CDR записей в журнале на диске (cdr.storage.backend=log).
+ * Записи только дописываются в конец текущего сегмента cdr_NNNNNNNN.log через FileChannel, каждая запись занимает
+ * {@value #RECORD_SIZE} байт: идентификатор, номера инициатора и принимающего (long), время начала и окончания
+ * (секунды эпохи UTC и наносекунды), тип звонка и CRC32 записи. Сегмент закрывается после cdr.log.segment-records записей.
+ * Для каждого блока из cdr.log.index-interval записей в памяти хранится минимальное и максимальное время начала
+ * (разреженный индекс), поэтому выборка за период читает только блоки, пересекающиеся с периодом.
+ * Суммы UDR отчетов хранятся в памяти по номеру, месяцу и направлению и обновляются при дописывании.
+ * При запуске сегменты читаются заново: проверяется CRC записей, недописанная последняя запись отбрасывается,
+ * индексы, суммы и следующий идентификатор восстанавливаются
+ *
+ * <p>Вспомогательные методы:
+ * <ul>
+ *   <li>{@link #recover()} — восстанавливает состояние хранилища по сегментам на диске.</li>
+ *   <li>{@link BlockMerger} — читает блоки, пересекающиеся с периодом, по одному и отдает строки по времени начала.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.nio.channels.FileChannel} — для дописывания и позиционного чтения сегментов.</li>
+ *   <li>{@link java.util.zip.CRC32} — для обнаружения недописанных записей при восстановлении.</li>
+ *   <li>{@link java.util.concurrent.locks.ReentrantReadWriteLock} — для чтения отчетов параллельно с записью конвейера.</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "cdr.storage.backend", havingValue = "log")
+public class LogCDRStore implements CDRStore {
+    static final int RECORD_SIZE = 56;
+    //байты записи без CRC
+    private static final int PAYLOAD_SIZE = RECORD_SIZE - Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "cdr_";
+    private static final String SEGMENT_SUFFIX = ".log";
+    //записей за одно чтение при восстановлении и выборке
+    private static final int READ_RECORDS = 4096;
+
+    private static final Logger log = LoggerFactory.getLogger(LogCDRStore.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Path directory;
+    private final int segmentRecords;
+    private final int indexInterval;
+    private final boolean force;
+
+    private final List<Segment> segments = new ArrayList<>();
+    //номер абонента -> секунды по месяцам: [(месяц - 1) * 2] - инициатор, [(месяц - 1) * 2 + 1] - принимающий
+    private final Map<Long, long[]> usage = new HashMap<>();
+    private FileChannel active;
+    private long nextId = 1;
+
+    public LogCDRStore(@Value("${cdr.log.directory:cdr-log}") String directory,
+                       @Value("${cdr.log.segment-records:1000000}") int segmentRecords,
+                       @Value("${cdr.log.index-interval:1024}") int indexInterval,
+                       @Value("${cdr.log.force:false}") boolean force) {
+        if (segmentRecords <= 0 || indexInterval <= 0) {
+            throw new IllegalArgumentException("Segment records and index interval must be positive");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentRecords = segmentRecords;
+        this.indexInterval = indexInterval;
+        this.force = force;
+        recover();
+    }
+
+    /**
+     * Сегмент журнала и его разреженный индекс
+     */
+    private final class Segment {
+        private final Path path;
+        private int count;
+        private long[] blockMin = new long[16];
+        private long[] blockMax = new long[16];
+
+        private Segment(Path path) {
+            this.path = path;
+        }
+
+        private void index(long startSecond) {
+            int block = count / indexInterval;
+            if (count % indexInterval == 0) {
+                if (block == blockMin.length) {
+                    blockMin = Arrays.copyOf(blockMin, block * 2);
+                    blockMax = Arrays.copyOf(blockMax, block * 2);
+                }
+                blockMin[block] = startSecond;
+                blockMax[block] = startSecond;
+            } else {
+                blockMin[block] = Math.min(blockMin[block], startSecond);
+                blockMax[block] = Math.max(blockMax[block], startSecond);
+            }
+            count++;
+        }
+
+        private int blocks() {
+            return (count + indexInterval - 1) / indexInterval;
+        }
+    }
+
+    /**
+     * Блок сегмента, пересекающийся с запрошенным периодом: минимальное время начала и диапазон номеров записей
+     */
+    private record Block(Path path, long minSecond, int firstRecord, int lastRecord) {
+    }
+
+    /**
+     * Дописывает порцию в журнал. Номера проверяются до записи, поэтому порция с неподходящим номером не записывается
+     *
+     * @param records порция CDR записей
+     * @return пустой список, порция записывается целиком
+     * @throws IllegalArgumentException если номер абонента нельзя записать в журнал
+     */
+    @Override
+    public List<CDR> saveAll(List<CDR> records) {
+        long[] callers = new long[records.size()];
+        long[] receivers = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            callers[i] = encode(records.get(i).getCallerNumber());
+            receivers[i] = encode(records.get(i).getReceiverNumber());
+        }
+
+        lock.writeLock().lock();
+        try {
+            int written = 0;
+            while (written < records.size()) {
+                Segment segment = activeSegment();
+                int count = Math.min(records.size() - written, segmentRecords - segment.count);
+                ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+                for (int i = written; i < written + count; i++) {
+                    CDR cdr = records.get(i);
+                    putRecord(buffer, nextId + i - written, callers[i], receivers[i], cdr);
+                }
+                buffer.flip();
+                append(segment, buffer);
+
+                //состояние в памяти меняется только после успешной записи на диск
+                for (int i = written; i < written + count; i++) {
+                    CDR cdr = records.get(i);
+                    long startSecond = cdr.getStartTime().toEpochSecond(ZoneOffset.UTC);
+                    segment.index(startSecond);
+                    addUsage(callers[i], receivers[i], startSecond, cdr.getEndTime().toEpochSecond(ZoneOffset.UTC));
+                }
+                nextId += count;
+                written += count;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return List.of();
+    }
+
+    @Override
+    public void saveEach(Iterator<CDR> records, Consumer<CDR> saved) {
+        records.forEachRemaining(cdr -> {
+            if (saveAll(List.of(cdr)).isEmpty()) {
+                saved.accept(cdr);
+            }
+        });
+    }
+
+    /**
+     * Возвращает ленивый поток звонков абонента в качестве инициатора за период в порядке времени начала.
+     * Под блокировкой чтения запоминаются только границы блоков, пересекающихся с периодом (записи журнала
+     * не изменяются после дописывания), сами блоки читаются при чтении потока по одному в порядке минимального
+     * времени начала. Поток нужно закрыть, чтобы освободить открытые сегменты
+     *
+     * @param msisdn номер абонента
+     * @param startTime начало периода (не включительно)
+     * @param endTime конец периода (не включительно)
+     * @return поток строк CDR записей
+     */
+    @Override
+    public Stream<CDRRow> streamIncomingInRange(String msisdn, LocalDateTime startTime, LocalDateTime endTime) {
+        long caller = Msisdn.encode(msisdn);
+        if (caller < 0) {
+            return Stream.empty();
+        }
+        long fromSecond = startTime.toEpochSecond(ZoneOffset.UTC);
+        long toSecond = endTime.toEpochSecond(ZoneOffset.UTC);
+
+        List<Block> blocks = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                for (int block = 0; block < segment.blocks(); block++) {
+                    if (segment.blockMax[block] >= fromSecond && segment.blockMin[block] <= toSecond) {
+                        int first = block * indexInterval;
+                        blocks.add(new Block(segment.path, segment.blockMin[block], first, Math.min(first + indexInterval, segment.count)));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (blocks.isEmpty()) {
+            return Stream.empty();
+        }
+
+        blocks.sort(Comparator.comparingLong(Block::minSecond));
+        BlockMerger merger = new BlockMerger(blocks, caller, startTime, endTime);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merger, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(merger::close);
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMonth(int month) {
+        lock.readLock().lock();
+        try {
+            List<UsageTotal> totals = new ArrayList<>();
+            for (Map.Entry<Long, long[]> entry : usage.entrySet()) {
+                addTotal(totals, entry.getKey(), entry.getValue()[(month - 1) * 2], entry.getValue()[(month - 1) * 2 + 1]);
+            }
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //суммы собираются одним проходом в памяти, строки одного абонента в списке идут подряд
+    @Override
+    public Stream<UsageTotal> streamUsageByMonth(int month) {
+        return sumUsageByMonth(month).stream();
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMsisdnAndMonth(String msisdn, int month) {
+        return sumUsageBySubscriber(msisdn, month);
+    }
+
+    @Override
+    public List<UsageTotal> sumUsageByMsisdn(String msisdn) {
+        return sumUsageBySubscriber(msisdn, 0);
+    }
+
+    //суммы по месяцам уже хранятся в памяти, строки собираются без чтения сегментов
+    @Override
+    public List<MonthlyUsageTotal> sumUsageByMsisdnsGroupByMonth(Collection<String> msisdns) {
+        List<MonthlyUsageTotal> totals = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String msisdn : new LinkedHashSet<>(msisdns)) {
+                long[] seconds = usage.get(Msisdn.encode(msisdn));
+                if (seconds != null) {
+                    ColumnarCDRStore.addMonthlyTotals(totals, msisdn, seconds, 0);
+                }
+            }
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        lock.writeLock().lock();
+        try {
+            closeActive();
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+            usage.clear();
+            nextId = 1;
+        } catch (IOException e) {
+            throw new RuntimeException("CDR log cleanup failed", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return segments.stream().mapToLong(segment -> segment.count).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closeActive();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Восстанавливает состояние по сегментам на диске. Недописанная или поврежденная запись допустима только
+     * в конце последнего сегмента (обрыв записи), журнал обрезается до последней целой записи
+     *
+     * @throws IllegalStateException если повреждена запись в середине журнала
+     */
+    private void recover() {
+        List<Path> paths;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                paths = files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                        && path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("CDR log directory " + directory + " is not available", e);
+        }
+
+        long truncated = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            boolean last = i == paths.size() - 1;
+            Segment segment = new Segment(paths.get(i));
+            try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long records = channel.size() / RECORD_SIZE;
+                long valid = recoverSegment(channel, segment, records);
+                if (valid < records || channel.size() % RECORD_SIZE != 0) {
+                    if (!last) {
+                        throw new IllegalStateException("CDR log segment " + segment.path + " is corrupted at record " + valid);
+                    }
+                    truncated = channel.size() - valid * RECORD_SIZE;
+                    channel.truncate(valid * RECORD_SIZE);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("CDR log segment " + segment.path + " recovery failed", e);
+            }
+            segments.add(segment);
+        }
+        log.info("CDR log recovered: {} segments, {} records, {} bytes of incomplete record truncated",
+                segments.size(), segments.stream().mapToLong(segment -> segment.count).sum(), truncated);
+    }
+
+    //читает записи сегмента до первой записи с неверной CRC, возвращает количество целых записей
+    private long recoverSegment(FileChannel channel, Segment segment, long records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_RECORDS * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (position < records) {
+            int count = (int) Math.min(READ_RECORDS, records - position);
+            buffer.clear().limit(count * RECORD_SIZE);
+            readFully(channel, buffer, position * RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                crc.reset();
+                crc.update(buffer.array(), offset, PAYLOAD_SIZE);
+                if ((int) crc.getValue() != buffer.getInt(offset + PAYLOAD_SIZE)) {
+                    return position + i;
+                }
+                long startSecond = buffer.getLong(offset + 24);
+                segment.index(startSecond);
+                addUsage(buffer.getLong(offset + 8), buffer.getLong(offset + 16), startSecond, buffer.getLong(offset + 32));
+                nextId = Math.max(nextId, buffer.getLong(offset) + 1);
+            }
+            position += count;
+        }
+        return records;
+    }
+
+    /**
+     * Чтение строк абонента из блоков в порядке минимального времени начала блока. Записи дописываются в порядке
+     * поступления, поэтому строки прочитанных блоков копятся в очереди по (время начала, id), и строка отдается,
+     * когда время ее начала меньше минимального времени начала еще не прочитанных блоков. В памяти находятся
+     * только строки абонента из блоков, пересекающихся между собой по времени
+     */
+    private final class BlockMerger implements Iterator<CDRRow> {
+        private final List<Block> blocks;
+        private final long caller;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private final PriorityQueue<CDRRow> pending = new PriorityQueue<>(CDRRow.ORDER);
+        private final Map<Path, FileChannel> channels = new HashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(indexInterval * RECORD_SIZE);
+        private int nextBlock;
+
+        private BlockMerger(List<Block> blocks, long caller, LocalDateTime startTime, LocalDateTime endTime) {
+            this.blocks = blocks;
+            this.caller = caller;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            //следующий блок может содержать строку раньше первой в очереди, пока его минимум не больше ее времени начала
+            while (nextBlock < blocks.size() && (pending.isEmpty()
+                    || pending.peek().startTime().toEpochSecond(ZoneOffset.UTC) >= blocks.get(nextBlock).minSecond())) {
+                read(blocks.get(nextBlock++));
+            }
+            if (pending.isEmpty()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public CDRRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll();
+        }
+
+        private void read(Block block) {
+            try {
+                FileChannel channel = channels.get(block.path());
+                if (channel == null) {
+                    channel = FileChannel.open(block.path(), StandardOpenOption.READ);
+                    channels.put(block.path(), channel);
+                }
+                buffer.clear().limit((block.lastRecord() - block.firstRecord()) * RECORD_SIZE);
+                readFully(channel, buffer, (long) block.firstRecord() * RECORD_SIZE);
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("CDR log segment " + block.path() + " read failed", e);
+            }
+
+            for (int offset = 0; offset < buffer.limit(); offset += RECORD_SIZE) {
+                if (buffer.getLong(offset + 8) == caller) {
+                    CDRRow row = readRow(buffer, offset);
+                    if (row.startTime().isAfter(startTime) && row.startTime().isBefore(endTime)) {
+                        pending.add(row);
+                    }
+                }
+            }
+        }
+
+        private void close() {
+            for (Map.Entry<Path, FileChannel> entry : channels.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    log.warn("CDR log segment {} close failed", entry.getKey(), e);
+                }
+            }
+            channels.clear();
+        }
+    }
+
+    private Segment activeSegment() {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.count < segmentRecords) {
+            if (active == null) {
+                active = openForAppend(last.path);
+            }
+            return last;
+        }
+
+        closeActive();
+        Segment segment = new Segment(directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segments.size() + 1, SEGMENT_SUFFIX)));
+        active = openForAppend(segment.path);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Дописывает записи в сегмент. При ошибке записи сегмент обрезается до последней записанной порции,
+     * поэтому на диске не остается части порции
+     *
+     * @param segment текущий сегмент
+     * @param buffer записи порции
+     */
+    private void append(Segment segment, ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            if (force) {
+                active.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                active.truncate((long) segment.count * RECORD_SIZE);
+                active.position((long) segment.count * RECORD_SIZE);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new RuntimeException("CDR log segment " + segment.path + " write failed", e);
+        }
+    }
+
+    private FileChannel openForAppend(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            return channel;
+        } catch (IOException e) {
+            throw new RuntimeException("CDR log segment " + path + " is not available", e);
+        }
+    }
+
+    private void closeActive() {
+        if (active == null) {
+            return;
+        }
+        try {
+            active.force(false);
+            active.close();
+        } catch (IOException e) {
+            throw new RuntimeException("CDR log segment close failed", e);
+        } finally {
+            active = null;
+        }
+    }
+
+    private List<UsageTotal> sumUsageBySubscriber(String msisdn, int month) {
+        List<UsageTotal> totals = new ArrayList<>();
+        long subscriber = Msisdn.encode(msisdn);
+        if (subscriber < 0) {
+            return totals;
+        }
+
+        lock.readLock().lock();
+        try {
+            long[] seconds = usage.get(subscriber);
+            if (seconds == null) {
+                return totals;
+            }
+            long incoming = 0;
+            long outcoming = 0;
+            for (int m = 1; m <= 12; m++) {
+                if (month == 0 || month == m) {
+                    incoming += seconds[(m - 1) * 2];
+                    outcoming += seconds[(m - 1) * 2 + 1];
+                }
+            }
+            addTotal(totals, subscriber, incoming, outcoming);
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addUsage(long caller, long receiver, long startSecond, long endSecond) {
+        int month = ColumnarCDRStore.monthOf(startSecond);
+        usage.computeIfAbsent(caller, key -> new long[24])[(month - 1) * 2] += endSecond - startSecond;
+        usage.computeIfAbsent(receiver, key -> new long[24])[(month - 1) * 2 + 1] += endSecond - startSecond;
+    }
+
+    private void addTotal(List<UsageTotal> totals, long subscriber, long incoming, long outcoming) {
+        if (incoming > 0) {
+            totals.add(new UsageTotalRow(Msisdn.decode(subscriber), UsageTotal.INCOMING, incoming));
+        }
+        if (outcoming > 0) {
+            totals.add(new UsageTotalRow(Msisdn.decode(subscriber), UsageTotal.OUTCOMING, outcoming));
+        }
+    }
+
+    /**
+     * Записывает запись в буфер: id, номер инициатора, номер принимающего, секунды начала, секунды окончания,
+     * наносекунды начала и окончания, тип звонка, 3 байта выравнивания и CRC32 предыдущих байт
+     */
+    private static void putRecord(ByteBuffer buffer, long id, long caller, long receiver, CDR cdr) {
+        int offset = buffer.position();
+        buffer.putLong(id);
+        buffer.putLong(caller);
+        buffer.putLong(receiver);
+        buffer.putLong(cdr.getStartTime().toEpochSecond(ZoneOffset.UTC));
+        buffer.putLong(cdr.getEndTime().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(cdr.getStartTime().getNano());
+        buffer.putInt(cdr.getEndTime().getNano());
+        buffer.put(Byte.parseByte(cdr.getCallType()));
+        buffer.put(new byte[3]);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), offset, PAYLOAD_SIZE);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static CDRRow readRow(ByteBuffer buffer, int offset) {
+        return new CDRRow(buffer.getLong(offset),
+                String.format("%02d", buffer.get(offset + 48)),
+                Msisdn.decode(buffer.getLong(offset + 8)),
+                Msisdn.decode(buffer.getLong(offset + 16)),
+                LocalDateTime.ofEpochSecond(buffer.getLong(offset + 24), buffer.getInt(offset + 40), ZoneOffset.UTC),
+                LocalDateTime.ofEpochSecond(buffer.getLong(offset + 32), buffer.getInt(offset + 44), ZoneOffset.UTC));
+    }
+
+    private static long encode(String msisdn) {
+        long encoded = Msisdn.encode(msisdn);
+        if (encoded < 0) {
+            throw new IllegalArgumentException("Msisdn " + msisdn + " can not be stored in CDR log");
+        }
+        return encoded;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of CDR log segment");
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Итератор CDR записей, который разбирает csv строки прямо из байтов отображенного в память участка файла.
+ * Тип звонка берется из констант, номера абонентов разбираются в long и переводятся в строки через кеш
+ * по значению и количеству цифр (ведущие нули сохраняются), время собирается из цифр без промежуточных строк,
+ * поэтому на каждое поле строка не создается.
+ * Заголовок пропускается только в начале файла, остальные некорректные строки пропускаются и считаются,
+ * в описании ошибки указывается смещение строки в файле
+ */
+public class MappedCDRChunkReader implements Iterator<CDR> {
+    private static final String OUTCOMING_CALL_TYPE = "01";
+    private static final String INCOMING_CALL_TYPE = "02";
+    private static final int MAX_MSISDN_DIGITS = 18;
+    private static final byte[] HEADER_PREFIX = "callType,".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buffer;
+    //смещение участка в файле, нужно только для описания ошибок
+    private final long fileOffset;
+    private final int maxReportedErrors;
+    private final MsisdnCache msisdnCache = new MsisdnCache();
+    private final List<String> errors = new ArrayList<>();
+
+    private int lineStart;
+    //позиция разбора внутри текущей строки
+    private int cursor;
+    private int lineEnd;
+    private long lineCount;
+    private long importedCount;
+    private long rejectedCount;
+    private CDR next;
+
+    public MappedCDRChunkReader(ByteBuffer buffer, long fileOffset, int maxReportedErrors) {
+        this.buffer = buffer;
+        this.fileOffset = fileOffset;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+
+        int limit = buffer.limit();
+        while (lineStart < limit) {
+            //ищем конец строки
+            int end = lineStart;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int nextLineStart = end + 1;
+            if (end > lineStart && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+
+            int start = lineStart;
+            lineStart = nextLineStart;
+
+            //пропускаем пустые строки и заголовок в начале файла
+            if (end == start || (fileOffset + start == 0 && isHeader(start, end))) {
+                continue;
+            }
+
+            lineCount++;
+            try {
+                next = parseLine(start, end);
+                importedCount++;
+                return true;
+            } catch (IllegalArgumentException | DateTimeException e) {
+                rejectedCount++;
+                if (errors.size() < maxReportedErrors) {
+                    errors.add("offset " + (fileOffset + start) + ": " + e.getMessage());
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public CDR next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CDR result = next;
+        next = null;
+        return result;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Разбирает строку вида "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00"
+     *
+     * @param start начало строки
+     * @param end конец строки (не включительно)
+     * @return CDR запись
+     */
+    private CDR parseLine(int start, int end) {
+        cursor = start;
+        lineEnd = end;
+
+        skipSpaces();
+        if (cursor + 2 > lineEnd || buffer.get(cursor) != '0') {
+            throw new IllegalArgumentException("invalid call type");
+        }
+        String callType = switch (buffer.get(cursor + 1)) {
+            case '1' -> OUTCOMING_CALL_TYPE;
+            case '2' -> INCOMING_CALL_TYPE;
+            default -> throw new IllegalArgumentException("invalid call type");
+        };
+        cursor += 2;
+
+        expectSeparator();
+        String callerNumber = parseMsisdn();
+        expectSeparator();
+        String receiverNumber = parseMsisdn();
+        expectSeparator();
+        LocalDateTime startTime = parseDateTime();
+        expectSeparator();
+        LocalDateTime endTime = parseDateTime();
+        skipSpaces();
+
+        if (cursor != lineEnd) {
+            throw new IllegalArgumentException("unexpected trailing data");
+        }
+        if (endTime.isBefore(startTime)) {
+            throw new IllegalArgumentException("end time is before start time");
+        }
+
+        CDR cdr = new CDR();
+        cdr.setCallType(callType);
+        cdr.setCallerNumber(callerNumber);
+        cdr.setReceiverNumber(receiverNumber);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(endTime);
+        return cdr;
+    }
+
+    private String parseMsisdn() {
+        long value = 0;
+        int digits = 0;
+        while (cursor < lineEnd && isDigit(buffer.get(cursor))) {
+            value = value * 10 + (buffer.get(cursor) - '0');
+            cursor++;
+            digits++;
+        }
+        if (digits == 0 || digits > MAX_MSISDN_DIGITS) {
+            throw new IllegalArgumentException("invalid msisdn");
+        }
+        return msisdnCache.get(value, digits);
+    }
+
+    private boolean isHeader(int start, int end) {
+        if (end - start < HEADER_PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_PREFIX.length; i++) {
+            if (buffer.get(start + i) != HEADER_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Разбирает время в формате ISO 8601: yyyy-MM-ddTHH:mm[:ss[.n]]
+     *
+     * @return время
+     */
+    private LocalDateTime parseDateTime() {
+        int year = parseDigits(4);
+        expect('-');
+        int month = parseDigits(2);
+        expect('-');
+        int day = parseDigits(2);
+        expect('T');
+        int hour = parseDigits(2);
+        expect(':');
+        int minute = parseDigits(2);
+
+        int second = 0;
+        int nanos = 0;
+        if (cursor < lineEnd && buffer.get(cursor) == ':') {
+            cursor++;
+            second = parseDigits(2);
+            if (cursor < lineEnd && buffer.get(cursor) == '.') {
+                cursor++;
+                int digits = 0;
+                while (cursor < lineEnd && isDigit(buffer.get(cursor)) && digits < 9) {
+                    nanos = nanos * 10 + (buffer.get(cursor) - '0');
+                    cursor++;
+                    digits++;
+                }
+                if (digits == 0) {
+                    throw new IllegalArgumentException("invalid date");
+                }
+                //дополняем дробную часть до наносекунд
+                for (; digits < 9; digits++) {
+                    nanos *= 10;
+                }
+            }
+        }
+
+        return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+    }
+
+    private int parseDigits(int count) {
+        if (cursor + count > lineEnd) {
+            throw new IllegalArgumentException("invalid date");
+        }
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            byte digit = buffer.get(cursor++);
+            if (!isDigit(digit)) {
+                throw new IllegalArgumentException("invalid date");
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    private void expect(char symbol) {
+        if (cursor >= lineEnd || buffer.get(cursor) != symbol) {
+            throw new IllegalArgumentException("invalid date");
+        }
+        cursor++;
+    }
+
+    private void expectSeparator() {
+        skipSpaces();
+        if (cursor >= lineEnd || buffer.get(cursor) != ',') {
+            throw new IllegalArgumentException("expected 5 fields");
+        }
+        cursor++;
+        skipSpaces();
+    }
+
+    private void skipSpaces() {
+        while (cursor < lineEnd && buffer.get(cursor) == ' ') {
+            cursor++;
+        }
+    }
+
+    private static boolean isDigit(byte symbol) {
+        return symbol >= '0' && symbol <= '9';
+    }
+
+    /**
+     * Кеш строковых представлений номеров с открытой адресацией по значению номера и количеству цифр.
+     * Количество цифр входит в ключ, поэтому "079..." и "79..." - разные номера.
+     * Абонентов немного, поэтому строка создается один раз на номер, а не на каждое поле
+     */
+    private static class MsisdnCache {
+        private long[] keys = new long[64];
+        private byte[] lengths = new byte[64];
+        private String[] values = new String[64];
+        private int size;
+
+        private String get(long msisdn, int digits) {
+            int mask = keys.length - 1;
+            int index = hash(msisdn, digits) & mask;
+            while (values[index] != null) {
+                if (keys[index] == msisdn && lengths[index] == digits) {
+                    return values[index];
+                }
+                index = (index + 1) & mask;
+            }
+
+            //восстанавливаем ведущие нули, отброшенные при разборе в long
+            String number = Long.toString(msisdn);
+            String value = (number.length() < digits) ? "0".repeat(digits - number.length()) + number : number;
+            keys[index] = msisdn;
+            lengths[index] = (byte) digits;
+            values[index] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            byte[] oldLengths = lengths;
+            String[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            lengths = new byte[oldLengths.length * 2];
+            values = new String[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int index = hash(oldKeys[i], oldLengths[i]) & mask;
+                    while (values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    lengths[index] = oldLengths[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(long msisdn, int digits) {
+            return Long.hashCode((msisdn * 31 + digits) * 0x9E3779B97F4A7C15L);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import ru.vatolin.applicationcdrtoudr.repository.MonthlyUDR;
+import ru.vatolin.applicationcdrtoudr.repository.MonthlyUsageTotal;
+import ru.vatolin.applicationcdrtoudr.repository.UDR;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Накопитель суммарной длительности звонков абонентов по месяцам.
+ * Для каждого абонента хранится {@value #SLOTS} счетчиков секунд в одном массиве long:
+ * [0..1] - сумма за год, [месяц * 2..месяц * 2 + 1] - сумма за месяц, четный счетчик - абонент инициатор,
+ * нечетный - принимающий. Строка суммы добавляется одновременно в месяц и в год, поэтому 12 месячных отчетов
+ * и годовой отчет строятся за один проход по результату группирующего запроса без объектов Duration на каждую строку
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #addAll(List)} — добавляет строки сумм по месяцам.</li>
+ *   <li>{@link #toReports()} — создает UDR отчеты с разбивкой по месяцам.</li>
+ * </ul>
+ */
+public final class MonthlyUsageAggregator {
+    private static final int SLOTS = 26;
+
+    private final List<String> msisdns;
+    private final Map<String, Integer> positions;
+    private final long[] seconds;
+
+    /**
+     * @param msisdns номера абонентов, порядок отчетов совпадает с порядком номеров (повторы не учитываются)
+     */
+    public MonthlyUsageAggregator(Collection<String> msisdns) {
+        this.msisdns = new ArrayList<>(new LinkedHashSet<>(msisdns));
+        this.positions = new HashMap<>(this.msisdns.size() * 2);
+        for (int i = 0; i < this.msisdns.size(); i++) {
+            positions.put(this.msisdns.get(i), i);
+        }
+        this.seconds = new long[this.msisdns.size() * SLOTS];
+    }
+
+    public List<String> msisdns() {
+        return msisdns;
+    }
+
+    /**
+     * Добавляет строки сумм, строки абонентов не из списка и месяцы вне [1..12] пропускаются
+     *
+     * @param totals суммы по номеру, месяцу и направлению
+     */
+    public void addAll(List<MonthlyUsageTotal> totals) {
+        for (MonthlyUsageTotal total : totals) {
+            Integer position = positions.get(total.getMsisdn());
+            int month = total.getUsageMonth();
+            if (position == null || month < 1 || month > 12) {
+                continue;
+            }
+            int direction = UsageTotal.INCOMING.equals(total.getDirection()) ? 0 : 1;
+            long value = total.getTotalSeconds();
+            int offset = position * SLOTS;
+            seconds[offset + month * 2 + direction] += value;
+            seconds[offset + direction] += value;
+        }
+    }
+
+    /**
+     * Возвращает суммарную длительность звонков абонента
+     *
+     * @param msisdn номер абонента
+     * @param month номер месяца [1..12] или 0 - за год
+     * @param incoming true - абонент инициатор, false - принимающий
+     * @return секунды или 0, если абонента нет в списке
+     */
+    public long seconds(String msisdn, int month, boolean incoming) {
+        Integer position = positions.get(msisdn);
+        return (position == null) ? 0 : seconds[position * SLOTS + month * 2 + (incoming ? 0 : 1)];
+    }
+
+    /**
+     * Создает UDR отчеты с разбивкой по месяцам в порядке номеров, месяцы без звонков заполняются нулями
+     *
+     * @return список отчетов
+     */
+    public List<MonthlyUDR> toReports() {
+        List<MonthlyUDR> reports = new ArrayList<>(msisdns.size());
+        for (int position = 0; position < msisdns.size(); position++) {
+            int offset = position * SLOTS;
+            MonthlyUDR report = new MonthlyUDR();
+            report.setMsisdn(msisdns.get(position));
+            report.setIncomingCall(callDetail(seconds[offset]));
+            report.setOutcomingCall(callDetail(seconds[offset + 1]));
+
+            List<MonthlyUDR.MonthDetail> months = new ArrayList<>(12);
+            for (int month = 1; month <= 12; month++) {
+                MonthlyUDR.MonthDetail detail = new MonthlyUDR.MonthDetail();
+                detail.setMonth(month);
+                detail.setIncomingCall(callDetail(seconds[offset + month * 2]));
+                detail.setOutcomingCall(callDetail(seconds[offset + month * 2 + 1]));
+                months.add(detail);
+            }
+            report.setMonths(months);
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    private static UDR.CallDetail callDetail(long seconds) {
+        UDR.CallDetail callDetail = new UDR.CallDetail();
+        callDetail.setTotalTime(Duration.ofSeconds(seconds));
+        return callDetail;
+    }
+}
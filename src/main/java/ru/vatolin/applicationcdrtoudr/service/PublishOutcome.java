@@ -0,0 +1,38 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Итог сохранения записей одного производителя в конвейере.
+ * Производитель публикует записи вместе с общим объектом итога, поток-писатель после сохранения порции
+ * увеличивает в нем счетчик сохраненных или отброшенных записей. Записи разных производителей в буфере
+ * перемешаны, поэтому итог привязан к каждой записи, а не к диапазону номеров последовательности.
+ * Вместе со счетчиками хранится время окончания последней сохраненной записи производителя
+ */
+public final class PublishOutcome {
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile LocalDateTime lastPersistedEndTime;
+
+    void addPersisted(long count, LocalDateTime lastEndTime) {
+        persisted.addAndGet(count);
+        lastPersistedEndTime = lastEndTime;
+    }
+
+    void addFailed(long count) {
+        failed.addAndGet(count);
+    }
+
+    public long getPersisted() {
+        return persisted.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public LocalDateTime getLastPersistedEndTime() {
+        return lastPersistedEndTime;
+    }
+}
@@ -0,0 +1,186 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.Msisdn;
+import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
+import ru.vatolin.applicationcdrtoudr.repository.SubscriberChangeListener;
+import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Данный класс хранит номера абонентов в памяти в виде long, чтобы проверка существования абонента
+ * и список абонентов не обращались к бд и не создавали сущности Subscriber.
+ * Номера хранятся в отсортированном long[] (поиск двоичным поиском) вместе с идентификаторами абонентов,
+ * а также в порядке абонентов в бд для списков. Номера, которые нельзя перевести в long без потерь
+ * (с ведущим нулем или не только из цифр), хранятся отдельно строками. Снимок перечитывается из бд при первом обращении
+ * после изменения абонентов (см. {@link SubscriberChangeListener})
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #exists(String)} — проверяет существование абонента.</li>
+ *   <li>{@link #msisdns()} — возвращает номера абонентов в порядке бд.</li>
+ *   <li>{@link #idOf(String)} — возвращает идентификатор абонента по номеру.</li>
+ *   <li>{@link #msisdnOf(long)} — возвращает номер абонента по идентификатору.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository} — репозиторий для работы с абонентами.</li>
+ * </ul>
+ */
+@Service
+public class SubscriberRegistry {
+    private final SubscriberRepository subscriberRepository;
+    private volatile Snapshot snapshot;
+
+    public SubscriberRegistry(SubscriberRepository subscriberRepository) {
+        this.subscriberRepository = subscriberRepository;
+    }
+
+    /**
+     * Данный метод проверяет существование абонента без обращения к бд
+     *
+     * @param msisdn номер абонента
+     * @return true - если абонент существует
+     */
+    public boolean exists(String msisdn) {
+        long encoded = Msisdn.encode(msisdn);
+        Snapshot current = current();
+        return (encoded < 0) ? current.fallbackIds.containsKey(msisdn) : Arrays.binarySearch(current.sortedMsisdns, encoded) >= 0;
+    }
+
+    /**
+     * Данный метод возвращает номера абонентов в порядке бд
+     *
+     * @return список номеров абонентов
+     */
+    public List<String> msisdns() {
+        Snapshot current = current();
+        List<String> msisdns = new ArrayList<>(current.ordered.length);
+        for (long msisdn : current.ordered) {
+            msisdns.add(current.decode(msisdn));
+        }
+        return msisdns;
+    }
+
+    /**
+     * Данный метод возвращает идентификатор абонента
+     *
+     * @param msisdn номер абонента
+     * @return идентификатор или null, если абонента нет
+     */
+    public Long idOf(String msisdn) {
+        long encoded = Msisdn.encode(msisdn);
+        Snapshot current = current();
+        if (encoded < 0) {
+            Long id = current.fallbackIds.get(msisdn);
+            return (id == null || id < 0) ? null : id;
+        }
+        int index = Arrays.binarySearch(current.sortedMsisdns, encoded);
+        return (index < 0 || current.idsByMsisdn[index] < 0) ? null : current.idsByMsisdn[index];
+    }
+
+    /**
+     * Данный метод возвращает номер абонента по идентификатору
+     *
+     * @param id идентификатор абонента
+     * @return номер абонента или null, если абонента нет
+     */
+    public String msisdnOf(long id) {
+        Snapshot current = current();
+        int index = Arrays.binarySearch(current.sortedIds, id);
+        return (index < 0) ? null : current.decode(current.msisdnsById[index]);
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        long version = SubscriberChangeListener.version();
+        if (current == null || current.version != version) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null || current.version != version) {
+                    current = load(version);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot load(long version) {
+        List<Subscriber> subscribers = subscriberRepository.findAll();
+        int count = subscribers.size();
+
+        long[] ordered = new long[count];
+        List<long[]> byMsisdn = new ArrayList<>(count);
+        long[][] byId = new long[count][];
+        List<String> fallbackMsisdns = new ArrayList<>();
+        Map<String, Long> fallbackIds = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Subscriber subscriber = subscribers.get(i);
+            //у несохраненного абонента идентификатора нет
+            long id = (subscriber.getId() == null) ? -1 : subscriber.getId();
+            long msisdn = Msisdn.encode(subscriber.getMsisdn());
+            if (msisdn < 0) {
+                //номер без перевода в long хранится строкой, в массивах вместо него - отрицательный номер строки
+                fallbackMsisdns.add(subscriber.getMsisdn());
+                fallbackIds.put(subscriber.getMsisdn(), id);
+                msisdn = -fallbackMsisdns.size();
+            } else {
+                byMsisdn.add(new long[]{msisdn, id});
+            }
+            ordered[i] = msisdn;
+            byId[i] = new long[]{id, msisdn};
+        }
+        byMsisdn.sort((a, b) -> Long.compare(a[0], b[0]));
+        Arrays.sort(byId, (a, b) -> Long.compare(a[0], b[0]));
+
+        Snapshot loaded = new Snapshot(version, ordered, new long[byMsisdn.size()], new long[byMsisdn.size()], new long[count], new long[count],
+                fallbackMsisdns.toArray(new String[0]), fallbackIds);
+        for (int i = 0; i < byMsisdn.size(); i++) {
+            loaded.sortedMsisdns[i] = byMsisdn.get(i)[0];
+            loaded.idsByMsisdn[i] = byMsisdn.get(i)[1];
+        }
+        for (int i = 0; i < count; i++) {
+            loaded.sortedIds[i] = byId[i][0];
+            loaded.msisdnsById[i] = byId[i][1];
+        }
+        return loaded;
+    }
+
+    /**
+     * Неизменяемый снимок абонентов
+     */
+    private static final class Snapshot {
+        private final long version;
+        private final long[] ordered;
+        private final long[] sortedMsisdns;
+        private final long[] idsByMsisdn;
+        private final long[] sortedIds;
+        private final long[] msisdnsById;
+        //номера, которые нельзя перевести в long, в порядке бд и их идентификаторы
+        private final String[] fallbackMsisdns;
+        private final Map<String, Long> fallbackIds;
+
+        private Snapshot(long version, long[] ordered, long[] sortedMsisdns, long[] idsByMsisdn, long[] sortedIds, long[] msisdnsById,
+                         String[] fallbackMsisdns, Map<String, Long> fallbackIds) {
+            this.version = version;
+            this.ordered = ordered;
+            this.sortedMsisdns = sortedMsisdns;
+            this.idsByMsisdn = idsByMsisdn;
+            this.sortedIds = sortedIds;
+            this.msisdnsById = msisdnsById;
+            this.fallbackMsisdns = fallbackMsisdns;
+            this.fallbackIds = fallbackIds;
+        }
+
+        private String decode(long msisdn) {
+            return (msisdn < 0) ? fallbackMsisdns[(int) (-msisdn - 1)] : Msisdn.decode(msisdn);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.SubscriberChangeListener;
+import ru.vatolin.applicationcdrtoudr.repository.UDRCacheStats;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Кэш готовых UDR отчетов по ключу (номер абонента, период, номер месяца).
+ * Размер ограничен udr.cache.max-size: при переполнении удаляется отчет, который дольше всех не запрашивался (LRU),
+ * отчет старше udr.cache.ttl-seconds секунд считается устаревшим и строится заново.
+ * После сохранения CDR записи удаляются только отчеты, которые она затрагивает: отчеты инициатора и принимающего
+ * за месяц начала звонка, их годовые отчеты и отчеты с разбивкой по месяцам, а также отчет всех абонентов за этот месяц.
+ * Отчет, который строился во время удаления его ключа, в кэш не попадает, поэтому устаревший результат
+ * не переживает сохранение записей. При изменении абонентов (см. {@link SubscriberChangeListener}) кэш перестраивается целиком.
+ * При udr.cache.max-size=0 отчеты не кэшируются, при udr.cache.ttl-seconds=0 отчеты не устаревают по времени
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #get(String, String, int, Supplier)} — возвращает отчет из кэша или строит его.</li>
+ *   <li>{@link #invalidate(List)} — удаляет отчеты, затронутые сохраненными записями.</li>
+ *   <li>{@link #invalidate(Invalidation)} — удаляет отчеты по собранным абонентам и месяцам.</li>
+ *   <li>{@link #invalidateMonth(int)} — удаляет отчеты, затронутые удалением месяца.</li>
+ *   <li>{@link #clear()} — удаляет все отчеты.</li>
+ *   <li>{@link #getStats()} — возвращает счетчики попаданий, промахов и вытеснений.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.util.LinkedHashMap} — отчеты в порядке последнего обращения для вытеснения по размеру.</li>
+ * </ul>
+ */
+@Service
+public class UDRCache {
+    //период отчета за месяц, за год и с разбивкой по месяцам (у двух последних номер месяца 0)
+    public static final String MONTH = "M";
+    public static final String YEAR = "Y";
+    public static final String MONTHS = "MONTHS";
+    //номер абонента в ключе отчета всех абонентов
+    public static final String EVERYONE = "*";
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+
+    private final LinkedHashMap<Key, Entry> entries;
+    //ключи отчетов, которые сейчас строятся: удаление ключа отменяет помещение отчета в кэш
+    private final Map<Key, Object> loading = new HashMap<>();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expiredCount;
+    private long invalidationCount;
+
+    private record Key(String msisdn, String period, int month) {
+    }
+
+    private record Entry(Object report, long loadedAt, long subscriberVersion) {
+    }
+
+    @Autowired
+    public UDRCache(@Value("${udr.cache.max-size:10000}") int maxSize,
+                    @Value("${udr.cache.ttl-seconds:300}") long ttlSeconds) {
+        this(maxSize, ttlSeconds, System::nanoTime);
+    }
+
+    UDRCache(int maxSize, long ttlSeconds, LongSupplier nanoTime) {
+        if (maxSize < 0 || ttlSeconds < 0) {
+            throw new IllegalArgumentException("Cache size and ttl must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > UDRCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает отчет из кэша или строит его. Отчет строится вне блокировки кэша,
+     * исключение при построении передается вызывающему, а ключ в кэш не попадает
+     *
+     * @param msisdn номер абонента или {@link #EVERYONE}
+     * @param period период {@link #MONTH}, {@link #YEAR} или {@link #MONTHS}
+     * @param month номер месяца [1..12] или 0
+     * @param loader построение отчета
+     * @return отчет
+     * @param <T> тип отчета
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String msisdn, String period, int month, Supplier<T> loader) {
+        Key key = new Key(msisdn, period, month);
+        long subscriberVersion = SubscriberChangeListener.version();
+        Object token = new Object();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.subscriberVersion() == subscriberVersion && !isExpired(entry)) {
+                hitCount++;
+                return (T) entry.report();
+            }
+            if (entry != null) {
+                entries.remove(key);
+                if (isExpired(entry)) {
+                    expiredCount++;
+                } else {
+                    invalidationCount++;
+                }
+            }
+            missCount++;
+            loading.put(key, token);
+        }
+
+        T report;
+        try {
+            report = loader.get();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key, token);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            //ключ удален во время построения - отчет мог быть построен по данным до сохранения записей
+            if (loading.remove(key, token) && maxSize > 0) {
+                entries.put(key, new Entry(report, nanoTime.getAsLong(), subscriberVersion));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Затронутые сохраненными записями абоненты и месяцы: номер абонента -> битовая маска номеров месяцев.
+     * Собирается по мере сохранения записей, сами записи не удерживаются
+     */
+    public static final class Invalidation {
+        private final Map<String, Integer> subscribers = new HashMap<>();
+        private int months;
+
+        public void add(CDR cdr) {
+            int bit = 1 << cdr.getStartTime().getMonthValue();
+            subscribers.merge(cdr.getCallerNumber(), bit, (a, b) -> a | b);
+            subscribers.merge(cdr.getReceiverNumber(), bit, (a, b) -> a | b);
+            months |= bit;
+        }
+    }
+
+    /**
+     * Удаляет отчеты, затронутые сохраненными записями
+     *
+     * @param records сохраненные CDR записи
+     */
+    public void invalidate(List<CDR> records) {
+        Invalidation invalidation = new Invalidation();
+        records.forEach(invalidation::add);
+        invalidate(invalidation);
+    }
+
+    /**
+     * Удаляет отчеты, затронутые сохраненными записями: для инициатора и принимающего каждой записи
+     * удаляются отчет за месяц начала звонка, годовой отчет и отчет с разбивкой по месяцам,
+     * для месяца начала звонка - отчет всех абонентов. Блокировка кэша берется один раз на порцию
+     *
+     * @param invalidation затронутые абоненты и месяцы
+     */
+    public synchronized void invalidate(Invalidation invalidation) {
+        for (Map.Entry<String, Integer> subscriber : invalidation.subscribers.entrySet()) {
+            remove(new Key(subscriber.getKey(), YEAR, 0));
+            remove(new Key(subscriber.getKey(), MONTHS, 0));
+            for (int month = 1; month <= 12; month++) {
+                if ((subscriber.getValue() & (1 << month)) != 0) {
+                    remove(new Key(subscriber.getKey(), MONTH, month));
+                }
+            }
+        }
+        for (int month = 1; month <= 12; month++) {
+            if ((invalidation.months & (1 << month)) != 0) {
+                remove(new Key(EVERYONE, MONTH, month));
+            }
+        }
+    }
+
+    /**
+     * Удаляет отчеты, затронутые удалением записей месяца: отчеты за этот месяц, годовые отчеты
+     * и отчеты с разбивкой по месяцам всех абонентов
+     *
+     * @param month номер месяца [1..12]
+     */
+    public synchronized void invalidateMonth(int month) {
+        List<Key> keys = new ArrayList<>();
+        for (Key key : entries.keySet()) {
+            if (key.month() == month || !key.period().equals(MONTH)) {
+                keys.add(key);
+            }
+        }
+        for (Key key : loading.keySet()) {
+            if (key.month() == month || !key.period().equals(MONTH)) {
+                keys.add(key);
+            }
+        }
+        keys.forEach(this::remove);
+    }
+
+    /**
+     * Удаляет все отчеты
+     */
+    public synchronized void clear() {
+        invalidationCount += entries.size();
+        entries.clear();
+        loading.clear();
+    }
+
+    public synchronized UDRCacheStats getStats() {
+        return new UDRCacheStats(entries.size(), maxSize, hitCount, missCount, evictionCount, expiredCount, invalidationCount);
+    }
+
+    private void remove(Key key) {
+        if (entries.remove(key) != null) {
+            invalidationCount++;
+        }
+        loading.remove(key);
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlNanos > 0 && nanoTime.getAsLong() - entry.loadedAt() >= ttlNanos;
+    }
+}
@@ -1,35 +1,64 @@
 package ru.vatolin.applicationcdrtoudr.service;
 
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.vatolin.applicationcdrtoudr.repository.*;
 
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Данный класс выступает в качестве сервиса для работы с UDR-отчетами.
  * Он предоставляет методы для генерации отчетов за месяц и год, а также вспомогательные методы
  * для работы с данными.
+ * Длительность звонков читается из хранилища CDR записей суммами по номеру и направлению звонка:
+ * в бд - из помесячных агрегатов использования (usage_rollup), поэтому объем чтения не зависит от количества CDR записей,
+ * в колоночном хранилище - проходом по массивам примитивов. Отчет по всем абонентам строится одним запросом.
+ * Готовые отчеты хранятся в кэше до сохранения CDR записей, которые их затрагивают
  *
  * <p>Основные методы:
  * <ul>
  *   <li>{@link #generateUDReportForMonth(String, int)} — генерирует UDR-отчет за указанный месяц.</li>
  *   <li>{@link #generateUDReportForYear(String)} — генерирует UDR-отчет за указанный год.</li>
+ *   <li>{@link #generateUDReportForEveryone(int)} — генерирует UDR-отчеты всех абонентов за указанный месяц.</li>
+ *   <li>{@link #streamUDReportForEveryone(int)} — возвращает поток UDR-отчетов всех абонентов за месяц, читаемый курсором хранилища.</li>
+ *   <li>{@link #generateUDReportForEveryoneInParallel(int)} — генерирует UDR-отчеты всех абонентов за месяц параллельно по абонентам.</li>
+ *   <li>{@link #generateUDReportByMonths(Collection)} — генерирует UDR-отчеты абонентов с разбивкой по месяцам.</li>
+ *   <li>{@link #generateUDReportForBatch(Collection, int)} — генерирует UDR-отчеты абонентов из списка за месяц или год одним запросом.</li>
+ *   <li>{@link #generateUDReportForRange(String, LocalDateTime, LocalDateTime)} — генерирует UDR-отчет за произвольный период.</li>
+ *   <li>{@link #getCacheStats()} — возвращает счетчики кэша UDR отчетов.</li>
  * </ul>
  *
  * <p>Вспомогательные методы:
  * <ul>
  *   <li>{@link #generateMsisdnList()} — генерирует список номеров абонентов.</li>
- *   <li>{@link #createIncomingList(String)} — создает список входящих звонков для указанного абонента.</li>
- *   <li>{@link #createOutcomingList(String)} — создает список исходящих звонков для указанного абонента.</li>
+ *   <li>{@link #collectTotals(List)} — раскладывает результат группирующего запроса по абонентам.</li>
+ *   <li>{@link #createUDR(String, long[])} — создает UDR отчет из суммарной длительности звонков.</li>
  * </ul>
  *
  * <p>Класс взаимодействует с:
  * <ul>
- *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий для работы с CDR-записями.</li>
- *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository} — репозиторий для работы с абонентами.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRStore} — хранилище CDR записей.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.SubscriberRegistry} — номера абонентов в памяти.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.MonthlyUsageAggregator} — накопитель сумм по месяцам.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UDRCache} — кэш готовых UDR отчетов.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.service.UsageRangeIndex} — индекс длительности звонков за произвольный период.</li>
  * </ul>
  *
  * <p>Для работы используются:
@@ -37,17 +66,49 @@ import java.util.Optional;
  *   <li>{@link java.time.Duration} — для работы с длительностью звонков.</li>
  *   <li>{@link java.util.ArrayList} — для хранения списков.</li>
  *   <li>{@link java.util.List} — для работы с коллекциями.</li>
- *   <li>{@link java.util.Optional} — для обработки возможных отсутствующих значений.</li>
+ *   <li>{@link java.util.Map} — для суммарной длительности звонков по абонентам.</li>
+ *   <li>{@link java.util.concurrent.ForkJoinPool} — для параллельного построения отчетов по абонентам.</li>
  * </ul>
  */
 @Service
 public class UDRGeneratorService {
-    private final CDRepository cdRepository;
-    private final SubscriberRepository subscriberRepository;
+    private static final Logger log = LoggerFactory.getLogger(UDRGeneratorService.class);
 
-    public UDRGeneratorService(CDRepository cdRepository, SubscriberRepository subscriberRepository) {
-        this.cdRepository = cdRepository;
-        this.subscriberRepository = subscriberRepository;
+    private final CDRStore cdrStore;
+    private final SubscriberRegistry subscriberRegistry;
+    private final UDRCache udrCache;
+    private final UsageRangeIndex usageRangeIndex;
+    private final long reportDeadlineMillis;
+    //пул построения отчетов всех абонентов, общий для всех запросов
+    private final ForkJoinPool reportPool;
+    private final int batchMaxSize;
+
+    public UDRGeneratorService(CDRStore cdrStore, SubscriberRegistry subscriberRegistry, UDRCache udrCache,
+                               UsageRangeIndex usageRangeIndex,
+                               @Value("${udr.report.parallelism:4}") int reportParallelism,
+                               @Value("${udr.report.deadline-ms:10000}") long reportDeadlineMillis,
+                               @Value("${udr.report.batch-max-size:1000}") int batchMaxSize) {
+        if (reportParallelism <= 0 || reportDeadlineMillis <= 0) {
+            throw new IllegalArgumentException("Report parallelism and deadline must be positive");
+        }
+        if (batchMaxSize <= 0) {
+            throw new IllegalArgumentException("Batch max size must be positive");
+        }
+        this.cdrStore = cdrStore;
+        this.subscriberRegistry = subscriberRegistry;
+        this.udrCache = udrCache;
+        this.usageRangeIndex = usageRangeIndex;
+        this.reportDeadlineMillis = reportDeadlineMillis;
+        this.batchMaxSize = batchMaxSize;
+        this.reportPool = new ForkJoinPool(reportParallelism);
+    }
+
+    /**
+     * Останавливает пул построения отчетов, незавершенные задачи отменяются
+     */
+    @PreDestroy
+    public void shutdown() {
+        reportPool.shutdownNow();
     }
 
     /**
@@ -59,140 +120,328 @@ public class UDRGeneratorService {
      * @throws RuntimeException если не найдено записей за этот месяц
      */
     public UDR generateUDReportForMonth(String msisdn, int numberOfMonth) {
-        UDR udr = new UDR();
+        //выбрасываем исключение, если нет записей за этот месяц
+        return findUDReportForMonth(msisdn, numberOfMonth)
+                .orElseThrow(() -> new RuntimeException("No record for " + numberOfMonth + " month"));
+    }
 
-        Duration incomingTime = Duration.ZERO;
-        Duration outcomingTime = Duration.ZERO;
+    /**
+     * Данный метод возвращает UDR отчет абонента за месяц, если за этот месяц есть звонки.
+     * Отсутствие звонков тоже кэшируется до сохранения записей абонента за этот месяц
+     *
+     * @param msisdn номер абонента
+     * @param numberOfMonth номер месяца
+     * @return UDR отчет за месяц или пустой результат, если звонков нет
+     */
+    public Optional<UDR> findUDReportForMonth(String msisdn, int numberOfMonth) {
+        return udrCache.get(msisdn, UDRCache.MONTH, numberOfMonth, () -> {
+            long[] seconds = collectTotals(cdrStore.sumUsageByMsisdnAndMonth(msisdn, numberOfMonth)).get(msisdn);
+            return (seconds == null || (seconds[0] == 0 && seconds[1] == 0)) ? Optional.empty() : Optional.of(createUDR(msisdn, seconds));
+        });
+    }
 
-        //список CDR записей, где абонент выступал в качесвте инициатора
-        List<CDR> incomingList = createIncomingList(msisdn);
-        //список CDR записей, где абонент выступал в качесвте принимающего
-        List<CDR> outcomingList = createOutcomingList(msisdn);
+    /**
+     * Данный метод генерирует UDR отчет за год для конкретного человека
+     *
+     * @param msisdn номер абонента для которого генерируется отчет
+     * @return UDR отчет за год по заданному пользователю
+     */
+    public UDR generateUDReportForYear(String msisdn) {
+        return udrCache.get(msisdn, UDRCache.YEAR, 0, () -> {
+            long[] seconds = collectTotals(cdrStore.sumUsageByMsisdn(msisdn)).get(msisdn);
+            return createUDR(msisdn, (seconds == null) ? new long[2] : seconds);
+        });
+    }
 
-        //считаем итоговое время в качестве инициатора
-        for (CDR cdr : incomingList) {
-            //берем только нужный нам месяц
-            if (cdr.getStartTime().getMonthValue() == numberOfMonth) {
-                Duration durationBetween = Duration.between(cdr.getStartTime(), cdr.getEndTime());
-                incomingTime = incomingTime.plus(durationBetween);
-            }
-        }
+    /**
+     * Данный метод генерирует UDR отчет абонента за произвольный период [from, to) по индексу длительности звонков.
+     * В отличие от отчетов за месяц и год, звонок на границе периода учитывается только своей частью внутри периода.
+     * Отчет не кэшируется: ключей периодов слишком много, а построение занимает два двоичных поиска
+     *
+     * @param msisdn номер абонента
+     * @param from начало периода (включительно)
+     * @param to конец периода (не включительно)
+     * @return UDR отчет за период, при отсутствии звонков - с нулевой длительностью
+     * @throws IllegalArgumentException если начало периода не раньше его конца
+     */
+    public UDR generateUDReportForRange(String msisdn, LocalDateTime from, LocalDateTime to) {
+        return createUDR(msisdn, usageRangeIndex.sum(msisdn, from, to));
+    }
+
+    /**
+     * Данный метод генерирует UDR отчеты за месяц для всех абонентов одним группирующим запросом.
+     * Абоненты без звонков за месяц в отчет не попадают, порядок отчетов совпадает с порядком абонентов в бд
+     *
+     * @param numberOfMonth номер месяца, за который необходимо сгенерировать отчеты
+     * @return список UDR отчетов
+     */
+    public List<UDR> generateUDReportForEveryone(int numberOfMonth) {
+        return udrCache.get(UDRCache.EVERYONE, UDRCache.MONTH, numberOfMonth, () -> loadUDReportForEveryone(numberOfMonth));
+    }
+
+    //строит отчеты всех абонентов при промахе кэша, список в кэше неизменяемый
+    private List<UDR> loadUDReportForEveryone(int numberOfMonth) {
+        Map<String, long[]> totals = collectTotals(cdrStore.sumUsageByMonth(numberOfMonth));
 
-        //считаем итоговое время в качестве принимающего
-        for (CDR cdr : outcomingList) {
-            //берем только нужный нам месяц
-            if (cdr.getStartTime().getMonthValue() == numberOfMonth) {
-                Duration durationBetween = Duration.between(cdr.getStartTime(), cdr.getEndTime());
-                outcomingTime = outcomingTime.plus(durationBetween);
+        List<UDR> reports = new ArrayList<>();
+        for (String msisdn : generateMsisdnList()) {
+            long[] seconds = totals.get(msisdn);
+            if (seconds != null && (seconds[0] != 0 || seconds[1] != 0)) {
+                reports.add(createUDR(msisdn, seconds));
             }
         }
+        return List.copyOf(reports);
+    }
 
-        //выбрасываем исключение, если нет записей за этот месяц
-        if (incomingTime.equals(Duration.ZERO) && outcomingTime.equals(Duration.ZERO)) {
-            throw new RuntimeException("No record for " + numberOfMonth + " month");
-        }
+    /**
+     * Данный метод возвращает ленивый поток UDR отчетов за месяц для всех абонентов.
+     * Суммы читаются курсором хранилища, отчет абонента создается, как только прочитаны все его строки,
+     * поэтому память не зависит от количества абонентов. Абоненты без звонков за месяц в поток не попадают,
+     * порядок отчетов совпадает с порядком ключа хранилища. Отчеты не кэшируются, поток нужно закрыть после чтения
+     *
+     * @param numberOfMonth номер месяца, за который необходимо сгенерировать отчеты
+     * @return поток UDR отчетов
+     */
+    public Stream<UDR> streamUDReportForEveryone(int numberOfMonth) {
+        Stream<UsageTotal> totals = cdrStore.streamUsageByMonth(numberOfMonth);
+        Iterator<UsageTotal> rows = totals.iterator();
 
-        //передаем значения в объект типа UDR
-        udr.setMsisdn(msisdn);
-        UDR.CallDetail incomingCall = new UDR.CallDetail();
-        incomingCall.setTotalTime(incomingTime);
-        udr.setIncomingCall(incomingCall);
+        Iterator<UDR> reports = new Iterator<>() {
+            //первая строка следующего абонента, прочитанная при поиске конца строк текущего
+            private UsageTotal head;
+            private UDR next;
 
-        UDR.CallDetail outcomingCall = new UDR.CallDetail();
-        outcomingCall.setTotalTime(outcomingTime);
-        udr.setOutcomingCall(outcomingCall);
+            @Override
+            public boolean hasNext() {
+                while (next == null && (head != null || rows.hasNext())) {
+                    next = collectNext();
+                }
+                return next != null;
+            }
 
-        return udr;
+            @Override
+            public UDR next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                UDR result = next;
+                next = null;
+                return result;
+            }
+
+            //складывает строки одного абонента, возвращает null для номера не из списка абонентов или без звонков
+            private UDR collectNext() {
+                UsageTotal row = (head != null) ? head : rows.next();
+                head = null;
+                String msisdn = row.getMsisdn();
+                long[] seconds = new long[2];
+                while (true) {
+                    seconds[UsageTotal.INCOMING.equals(row.getDirection()) ? 0 : 1] += row.getTotalSeconds();
+                    if (!rows.hasNext()) {
+                        break;
+                    }
+                    row = rows.next();
+                    if (!msisdn.equals(row.getMsisdn())) {
+                        head = row;
+                        break;
+                    }
+                }
+                boolean empty = seconds[0] == 0 && seconds[1] == 0;
+                return (empty || !subscriberRegistry.exists(msisdn)) ? null : createUDR(msisdn, seconds);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reports, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(totals::close);
     }
 
     /**
-     * Данный метод генерирует UDR отчет за год для конкретного человека
+     * Данный метод генерирует UDR отчеты за месяц для всех абонентов параллельно по абонентам
+     * с ограничениями udr.report.parallelism и udr.report.deadline-ms
      *
-     * @param msisdn номер абонента для которого генерируется отчет
-     * @return UDR отчет за год по заданному пользователю
+     * @param numberOfMonth номер месяца, за который необходимо сгенерировать отчеты
+     * @return отчеты в порядке абонентов и ошибки построения
      */
-    public UDR generateUDReportForYear(String msisdn) {
-        UDR udr = new UDR();
+    public UDRBatchResult generateUDReportForEveryoneInParallel(int numberOfMonth) {
+        return generateUDReportForEveryoneInParallel(numberOfMonth, Duration.ofMillis(reportDeadlineMillis));
+    }
 
-        Duration incomingTime = Duration.ZERO;
-        Duration outcomingTime = Duration.ZERO;
+    /**
+     * Данный метод строит отчет каждого абонента за месяц отдельной задачей в общем ForkJoinPool
+     * из udr.report.parallelism потоков.
+     * Задачи, не завершенные к сроку deadline, отменяются и попадают в ошибки, как и задачи, завершившиеся исключением,
+     * ошибка одного абонента не прерывает остальных. Отчеты собираются по списку абонентов, а не по порядку завершения задач,
+     * поэтому порядок результата не зависит от количества потоков. Абоненты без звонков за месяц в отчет не попадают
+     *
+     * @param numberOfMonth номер месяца, за который необходимо сгенерировать отчеты
+     * @param deadline срок построения всех отчетов
+     * @return отчеты в порядке абонентов и ошибки построения
+     */
+    public UDRBatchResult generateUDReportForEveryoneInParallel(int numberOfMonth, Duration deadline) {
+        if (deadline.isNegative() || deadline.isZero()) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+        long started = System.nanoTime();
+        List<String> msisdns = generateMsisdnList();
 
-        //список CDR записей, где абонент выступал в качесвте инициатора
-        List<CDR> incomingList = createIncomingList(msisdn);
-        //список CDR записей, где абонент выступал в качесвте принимающего
-        List<CDR> outcomingList = createOutcomingList(msisdn);
+        List<Callable<Optional<UDR>>> tasks = new ArrayList<>(msisdns.size());
+        for (String msisdn : msisdns) {
+            tasks.add(() -> findUDReportForMonth(msisdn, numberOfMonth));
+        }
 
-        //считаем итоговое время в качестве инициатора
-        for (CDR cdr : incomingList) {
-            Duration durationBetween = Duration.between(cdr.getStartTime(), cdr.getEndTime());
-            incomingTime = incomingTime.plus(durationBetween);
+        //задачи, не завершенные к сроку, invokeAll отменяет сам
+        List<Future<Optional<UDR>>> futures;
+        try {
+            futures = reportPool.invokeAll(tasks, deadline.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("UDR report generation interrupted", e);
         }
 
-        //считаем итоговое время в качестве принимающего
-        for (CDR cdr : outcomingList) {
-            Duration durationBetween = Duration.between(cdr.getStartTime(), cdr.getEndTime());
-            outcomingTime = outcomingTime.plus(durationBetween);
+        //invokeAll возвращает задачи в порядке списка абонентов, все задачи к этому моменту завершены или отменены
+        List<UDR> reports = new ArrayList<>();
+        List<UDRBatchResult.Failure> errors = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get().ifPresent(reports::add);
+            } catch (CancellationException e) {
+                errors.add(new UDRBatchResult.Failure(msisdns.get(i), "Deadline of " + deadline.toMillis() + " ms exceeded"));
+            } catch (ExecutionException e) {
+                //ForkJoinPool может оборачивать исключение задачи, в ошибку идет текст исходного исключения
+                Throwable cause = e.getCause();
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                errors.add(new UDRBatchResult.Failure(msisdns.get(i), String.valueOf(cause.getMessage())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("UDR report generation interrupted", e);
+            }
         }
 
-        //передаем значения в объект типа UDR
-        udr.setMsisdn(msisdn);
-        UDR.CallDetail incomingCall = new UDR.CallDetail();
-        incomingCall.setTotalTime(incomingTime);
-        udr.setIncomingCall(incomingCall);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        if (!errors.isEmpty()) {
+            log.warn("UDR reports for month {}: {} of {} subscribers failed", numberOfMonth, errors.size(), msisdns.size());
+        }
+        return new UDRBatchResult(reports, errors, elapsedMillis);
+    }
 
-        UDR.CallDetail outcomingCall = new UDR.CallDetail();
-        outcomingCall.setTotalTime(outcomingTime);
-        udr.setOutcomingCall(outcomingCall);
+    /**
+     * Данный метод генерирует UDR отчет абонента за год с разбивкой по 12 месяцам
+     *
+     * @param msisdn номер абонента
+     * @return UDR отчет с суммами за год и за каждый месяц
+     */
+    public MonthlyUDR generateUDReportByMonths(String msisdn) {
+        return udrCache.get(msisdn, UDRCache.MONTHS, 0, () -> generateUDReportByMonths(List.of(msisdn)).get(0));
+    }
 
-        return udr;
+    /**
+     * Данный метод генерирует UDR отчеты абонентов с разбивкой по месяцам. Суммы всех абонентов по месяцам
+     * читаются одним группирующим запросом и раскладываются в счетчики long, годовая сумма копится в том же проходе
+     *
+     * @param msisdns номера абонентов
+     * @return список UDR отчетов в порядке номеров
+     */
+    public List<MonthlyUDR> generateUDReportByMonths(Collection<String> msisdns) {
+        MonthlyUsageAggregator aggregator = new MonthlyUsageAggregator(msisdns);
+        aggregator.addAll(cdrStore.sumUsageByMsisdnsGroupByMonth(aggregator.msisdns()));
+        return aggregator.toReports();
     }
 
     /**
-     * Данный метод генерирут список с номерами абонентов, абоненты берутся из базы данных
+     * Данный метод генерирует UDR отчеты абонентов из списка за месяц или за год одним запросом к хранилищу
+     * по списку номеров (суммы по месяцам, из которых складываются и месяц, и год).
+     * Отчеты идут в порядке номеров без повторов, для месяца без звонков абонента вместо отчета возвращается ошибка,
+     * как у отчета для конкретного абонента. Отчеты не берутся из кэша и не попадают в него
      *
-     * @return список нмоеров абонентов
+     * @param msisdns номера абонентов, не больше udr.report.batch-max-size
+     * @param numberOfMonth номер месяца [1..12] или 0 - за год
+     * @return отчеты и ошибки построения
+     * @throws IllegalArgumentException если номеров больше udr.report.batch-max-size или номер месяца вне [0..12]
      */
-    public List<String> generateMsisdnList() {
-        List<Subscriber> subscribers = subscriberRepository.findAll();
+    public UDRBatchResult generateUDReportForBatch(Collection<String> msisdns, int numberOfMonth) {
+        if (msisdns.size() > batchMaxSize) {
+            throw new IllegalArgumentException("Batch size must not exceed " + batchMaxSize);
+        }
+        if (numberOfMonth < 0 || numberOfMonth > 12) {
+            throw new IllegalArgumentException("Invalid month number. Must be between 1 and 12, or 0 for the year");
+        }
+        long started = System.nanoTime();
 
-        List<String> msisdnList = new ArrayList<>();
+        MonthlyUsageAggregator aggregator = new MonthlyUsageAggregator(msisdns);
+        if (!aggregator.msisdns().isEmpty()) {
+            aggregator.addAll(cdrStore.sumUsageByMsisdnsGroupByMonth(aggregator.msisdns()));
+        }
 
-        for (Subscriber subscriber : subscribers) {
-            msisdnList.add(subscriber.getMsisdn());
+        List<UDR> reports = new ArrayList<>();
+        List<UDRBatchResult.Failure> errors = new ArrayList<>();
+        for (String msisdn : aggregator.msisdns()) {
+            long[] seconds = {aggregator.seconds(msisdn, numberOfMonth, true), aggregator.seconds(msisdn, numberOfMonth, false)};
+            if (numberOfMonth != 0 && seconds[0] == 0 && seconds[1] == 0) {
+                errors.add(new UDRBatchResult.Failure(msisdn, "No record for " + numberOfMonth + " month"));
+            } else {
+                reports.add(createUDR(msisdn, seconds));
+            }
         }
 
-        return msisdnList;
+        return new UDRBatchResult(reports, errors, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
     }
 
     /**
-     * Данный метод берет CDR записи из бд, если список не пустой возвращает его
+     * Данный метод возвращает счетчики кэша UDR отчетов
      *
-     * @param msisdn номер абонента
-     * @return список CDR записей с абонентом в качесвте инициатора
+     * @return размер кэша, попадания, промахи и вытеснения
      */
-    private ArrayList<CDR> createIncomingList(String msisdn) {
-        Optional<ArrayList<CDR>> optionalIncomingList = cdRepository.findIncomingByMsisdn(msisdn);
-
-        if(optionalIncomingList.isEmpty()) {
-            throw new IllegalStateException("Incoming calls for " + msisdn + "not found");
-        }
+    public UDRCacheStats getCacheStats() {
+        return udrCache.getStats();
+    }
 
-        return optionalIncomingList.get();
+    /**
+     * Данный метод генерирут список с номерами абонентов, абоненты берутся из реестра абонентов без обращения к бд
+     *
+     * @return список нмоеров абонентов
+     */
+    public List<String> generateMsisdnList() {
+        return subscriberRegistry.msisdns();
     }
 
     /**
-     * Данный метод берет CDR записи из бд, если список не пустой возвращает его
+     * Данный метод раскладывает строки группирующего запроса по абонентам
      *
-     * @param msisdn номера абонента
-     * @return список CDR записей с абонентом в качесвте принимающего
+     * @param usageTotals суммарная длительность по номеру и направлению звонка
+     * @return номер абонента -> [секунды в качестве инициатора, секунды в качестве принимающего]
      */
-    private ArrayList<CDR> createOutcomingList(String msisdn) {
-        Optional<ArrayList<CDR>> optionalOutcomingList = cdRepository.findOutcomingByMsisdn(msisdn);
+    private Map<String, long[]> collectTotals(List<UsageTotal> usageTotals) {
+        Map<String, long[]> totals = new HashMap<>();
 
-        if(optionalOutcomingList.isEmpty()) {
-            throw new IllegalStateException("Outcoming calls for " + msisdn + "not found");
+        for (UsageTotal usageTotal : usageTotals) {
+            long[] seconds = totals.computeIfAbsent(usageTotal.getMsisdn(), msisdn -> new long[2]);
+            int direction = UsageTotal.INCOMING.equals(usageTotal.getDirection()) ? 0 : 1;
+            seconds[direction] += usageTotal.getTotalSeconds();
         }
+        return totals;
+    }
+
+    /**
+     * Данный метод создает UDR отчет
+     *
+     * @param msisdn номер абонента
+     * @param seconds [секунды в качестве инициатора, секунды в качестве принимающего]
+     * @return UDR отчет
+     */
+    private UDR createUDR(String msisdn, long[] seconds) {
+        UDR udr = new UDR();
+
+        //передаем значения в объект типа UDR
+        udr.setMsisdn(msisdn);
+        UDR.CallDetail incomingCall = new UDR.CallDetail();
+        incomingCall.setTotalTime(Duration.ofSeconds(seconds[0]));
+        udr.setIncomingCall(incomingCall);
 
-        return optionalOutcomingList.get();
+        UDR.CallDetail outcomingCall = new UDR.CallDetail();
+        outcomingCall.setTotalTime(Duration.ofSeconds(seconds[1]));
+        udr.setOutcomingCall(outcomingCall);
+
+        return udr;
     }
 }
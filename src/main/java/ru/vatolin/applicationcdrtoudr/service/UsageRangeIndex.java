@@ -0,0 +1,257 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.stereotype.Service;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс длительности звонков для UDR отчетов за произвольный период [from, to).
+ * Для каждого абонента и направления звонка хранятся отсортированные времена начала звонков (секунды эпохи UTC),
+ * длительности и префиксные суммы длительностей, поэтому сумма за период - это разность двух префиксных сумм
+ * по двум двоичным поискам. Звонки на границах периода обрезаются: просматриваются только звонки, начавшиеся
+ * не раньше чем за максимальную длительность звонка абонента до границы.
+ * Сохраненные записи сначала дописываются в буфер, буфер сливается с отсортированными массивами при первом запросе,
+ * поэтому вставка не требует сортировки. Индекс заполняется записями, сохраненными после запуска приложения
+ * (при запуске хранилище очищается, см. {@link InitRunnerService})
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #add(List)} — добавляет сохраненные записи в индекс.</li>
+ *   <li>{@link #sum(String, LocalDateTime, LocalDateTime)} — суммарная длительность звонков абонента за период.</li>
+ *   <li>{@link #removeMonth(YearMonth)} — удаляет звонки, начавшиеся в месяце удаленной партиции.</li>
+ *   <li>{@link #clear()} — удаляет все звонки.</li>
+ * </ul>
+ *
+ * <p>Для работы используются:
+ * <ul>
+ *   <li>{@link java.util.concurrent.ConcurrentHashMap} — номер абонента -> звонки по направлениям.</li>
+ * </ul>
+ */
+@Service
+public class UsageRangeIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    //номер абонента -> [звонки в качестве инициатора, звонки в качестве принимающего]
+    private final Map<String, Series[]> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Звонки абонента в одном направлении
+     */
+    private static final class Series {
+        //отсортированные по времени начала звонки и префиксные суммы: prefix[i] - сумма длительностей звонков [0, i)
+        private long[] starts = new long[0];
+        private int[] durations = new int[0];
+        private long[] prefix = new long[1];
+        private int size;
+        private int maxDuration;
+
+        //звонки, еще не слитые с отсортированными массивами
+        private long[] pendingStarts = new long[INITIAL_CAPACITY];
+        private int[] pendingDurations = new int[INITIAL_CAPACITY];
+        private int pendingSize;
+
+        private synchronized void add(long start, int duration) {
+            if (pendingSize == pendingStarts.length) {
+                pendingStarts = Arrays.copyOf(pendingStarts, pendingSize * 2);
+                pendingDurations = Arrays.copyOf(pendingDurations, pendingSize * 2);
+            }
+            pendingStarts[pendingSize] = start;
+            pendingDurations[pendingSize] = duration;
+            pendingSize++;
+            maxDuration = Math.max(maxDuration, duration);
+        }
+
+        /**
+         * Возвращает суммарную длительность звонков за период, звонки на границах обрезаются по периоду
+         *
+         * @param from начало периода в секундах эпохи (включительно)
+         * @param to конец периода в секундах эпохи (не включительно)
+         * @return секунды
+         */
+        private synchronized long sum(long from, long to) {
+            merge();
+            int lo = lowerBound(from);
+            int hi = lowerBound(to);
+            long total = prefix[hi] - prefix[lo];
+
+            //звонки, начавшиеся в периоде и закончившиеся после его конца
+            for (int i = Math.max(lo, lowerBound(to - maxDuration)); i < hi; i++) {
+                long end = starts[i] + durations[i];
+                if (end > to) {
+                    total -= end - to;
+                }
+            }
+            //звонки, начавшиеся до периода и закончившиеся в нем или после него
+            for (int i = lowerBound(from - maxDuration); i < lo; i++) {
+                long end = starts[i] + durations[i];
+                if (end > from) {
+                    total += Math.min(end, to) - from;
+                }
+            }
+            return total;
+        }
+
+        private synchronized void removeRange(long from, long to) {
+            merge();
+            int lo = lowerBound(from);
+            int hi = lowerBound(to);
+            if (lo == hi) {
+                return;
+            }
+            System.arraycopy(starts, hi, starts, lo, size - hi);
+            System.arraycopy(durations, hi, durations, lo, size - hi);
+            size -= hi - lo;
+            rebuildPrefix(lo);
+        }
+
+        /**
+         * Сливает буфер с отсортированными массивами и пересчитывает префиксные суммы начиная с первого измененного звонка
+         */
+        private void merge() {
+            if (pendingSize == 0) {
+                return;
+            }
+            //записи приходят в основном по времени, поэтому буфер обычно уже отсортирован
+            long[] addedStarts = Arrays.copyOf(pendingStarts, pendingSize);
+            int[] addedDurations = Arrays.copyOf(pendingDurations, pendingSize);
+            sortByStart(addedStarts, addedDurations);
+
+            long[] mergedStarts = new long[size + pendingSize];
+            int[] mergedDurations = new int[size + pendingSize];
+            int firstChanged = lowerBound(addedStarts[0]);
+            System.arraycopy(starts, 0, mergedStarts, 0, firstChanged);
+            System.arraycopy(durations, 0, mergedDurations, 0, firstChanged);
+            int i = firstChanged;
+            int j = 0;
+            int k = firstChanged;
+            while (i < size || j < addedStarts.length) {
+                if (j == addedStarts.length || (i < size && starts[i] <= addedStarts[j])) {
+                    mergedStarts[k] = starts[i];
+                    mergedDurations[k++] = durations[i++];
+                } else {
+                    mergedStarts[k] = addedStarts[j];
+                    mergedDurations[k++] = addedDurations[j++];
+                }
+            }
+
+            starts = mergedStarts;
+            durations = mergedDurations;
+            size = mergedStarts.length;
+            pendingSize = 0;
+            rebuildPrefix(firstChanged);
+        }
+
+        private void rebuildPrefix(int from) {
+            if (prefix.length < size + 1) {
+                prefix = Arrays.copyOf(prefix, Math.max(size + 1, prefix.length * 2));
+            }
+            for (int i = from; i < size; i++) {
+                prefix[i + 1] = prefix[i] + durations[i];
+            }
+        }
+
+        //индекс первого звонка с временем начала не меньше second
+        private int lowerBound(long second) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < second) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static void sortByStart(long[] starts, int[] durations) {
+            for (int i = 1; i < starts.length; i++) {
+                if (starts[i - 1] > starts[i]) {
+                    //буфер не отсортирован: сортируем пары (начало, длительность) упакованными индексами
+                    Integer[] order = new Integer[starts.length];
+                    for (int k = 0; k < order.length; k++) {
+                        order[k] = k;
+                    }
+                    Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+                    long[] sortedStarts = new long[starts.length];
+                    int[] sortedDurations = new int[durations.length];
+                    for (int k = 0; k < order.length; k++) {
+                        sortedStarts[k] = starts[order[k]];
+                        sortedDurations[k] = durations[order[k]];
+                    }
+                    System.arraycopy(sortedStarts, 0, starts, 0, starts.length);
+                    System.arraycopy(sortedDurations, 0, durations, 0, durations.length);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет сохраненные записи в индекс инициатора и принимающего
+     *
+     * @param records сохраненные CDR записи
+     */
+    public void add(List<CDR> records) {
+        records.forEach(this::add);
+    }
+
+    public void add(CDR cdr) {
+        long start = cdr.getStartTime().toEpochSecond(ZoneOffset.UTC);
+        int duration = Math.toIntExact(cdr.getEndTime().toEpochSecond(ZoneOffset.UTC) - start);
+        seriesOf(cdr.getCallerNumber())[0].add(start, duration);
+        seriesOf(cdr.getReceiverNumber())[1].add(start, duration);
+    }
+
+    /**
+     * Возвращает суммарную длительность звонков абонента за период [from, to), звонки на границах периода
+     * учитываются только своей частью внутри периода
+     *
+     * @param msisdn номер абонента
+     * @param from начало периода (включительно)
+     * @param to конец периода (не включительно)
+     * @return [секунды в качестве инициатора, секунды в качестве принимающего]
+     */
+    public long[] sum(String msisdn, LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("Range start must be before range end");
+        }
+        Series[] series = subscribers.get(msisdn);
+        if (series == null) {
+            return new long[2];
+        }
+        long fromSecond = from.toEpochSecond(ZoneOffset.UTC);
+        long toSecond = to.toEpochSecond(ZoneOffset.UTC);
+        return new long[]{series[0].sum(fromSecond, toSecond), series[1].sum(fromSecond, toSecond)};
+    }
+
+    /**
+     * Удаляет звонки, начавшиеся в месяце
+     *
+     * @param month месяц
+     */
+    public void removeMonth(YearMonth month) {
+        long from = month.atDay(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        long to = month.plusMonths(1).atDay(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        for (Series[] series : subscribers.values()) {
+            series[0].removeRange(from, to);
+            series[1].removeRange(from, to);
+        }
+    }
+
+    public void clear() {
+        subscribers.clear();
+    }
+
+    private Series[] seriesOf(String msisdn) {
+        return subscribers.computeIfAbsent(msisdn, key -> new Series[]{new Series(), new Series()});
+    }
+}
@@ -0,0 +1,162 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRArchive;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageRollupRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * Данный класс выступает в качестве сервиса поддержки агрегатов использования (таблица usage_rollup).
+ * Агрегат хранит суммарную длительность и количество звонков абонента за месяц в одном направлении,
+ * звонок относится к месяцу времени начала. Агрегаты обновляются в транзакции вставки порции CDR записей,
+ * поэтому UDR отчеты читают несколько строк агрегатов вместо всех CDR записей абонента
+ *
+ * <p>Основные методы:
+ * <ul>
+ *   <li>{@link #record(List)} — прибавляет порцию CDR записей к агрегатам в текущей транзакции.</li>
+ *   <li>{@link #rebuild()} — пересчитывает агрегаты по всем CDR записям.</li>
+ *   <li>{@link #clear()} — удаляет все агрегаты.</li>
+ *   <li>{@link #clearMonth(YearMonth)} — удаляет агрегаты за месяц удаленной партиции.</li>
+ * </ul>
+ *
+ * <p>Класс взаимодействует с:
+ * <ul>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.UsageRollupRepository} — репозиторий агрегатов использования.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRepository} — репозиторий CDR записей, для пересчета по партициям.</li>
+ *   <li>{@link ru.vatolin.applicationcdrtoudr.repository.CDRArchive} — архив CDR записей, для пересчета по перенесенным месяцам.</li>
+ * </ul>
+ */
+@Service
+public class UsageRollupService {
+    private final UsageRollupRepository usageRollupRepository;
+    private final CDRepository cdRepository;
+    private final CDRArchive cdrArchive;
+
+    public UsageRollupService(UsageRollupRepository usageRollupRepository, CDRepository cdRepository, CDRArchive cdrArchive) {
+        this.usageRollupRepository = usageRollupRepository;
+        this.cdRepository = cdRepository;
+        this.cdrArchive = cdrArchive;
+    }
+
+    /**
+     * Ключ агрегата использования
+     *
+     * @param msisdn номер абонента
+     * @param year год
+     * @param month месяц
+     * @param direction направление звонка
+     */
+    private record RollupKey(String msisdn, int year, int month, String direction) {
+    }
+
+    /**
+     * Данный метод суммирует порцию записей в памяти по ключу (номер, год, месяц, направление)
+     * и прибавляет суммы к агрегатам, по одному запросу на ключ.
+     * Вызывается внутри транзакции вставки, поэтому агрегаты и CDR записи фиксируются вместе
+     *
+     * @param chunk порция CDR записей
+     */
+    public void record(List<CDR> chunk) {
+        //ключ агрегата -> [секунды, количество звонков]
+        Map<RollupKey, long[]> deltas = new HashMap<>();
+
+        for (CDR cdr : chunk) {
+            int year = cdr.getStartTime().getYear();
+            int month = cdr.getStartTime().getMonthValue();
+            long seconds = durationSeconds(cdr.getStartTime(), cdr.getEndTime());
+
+            long[] incoming = deltas.computeIfAbsent(new RollupKey(cdr.getCallerNumber(), year, month, UsageTotal.INCOMING), key -> new long[2]);
+            incoming[0] += seconds;
+            incoming[1]++;
+            long[] outcoming = deltas.computeIfAbsent(new RollupKey(cdr.getReceiverNumber(), year, month, UsageTotal.OUTCOMING), key -> new long[2]);
+            outcoming[0] += seconds;
+            outcoming[1]++;
+        }
+
+        for (Map.Entry<RollupKey, long[]> delta : deltas.entrySet()) {
+            RollupKey key = delta.getKey();
+            usageRollupRepository.addUsage(key.msisdn(), key.year(), key.month(), key.direction(),
+                    delta.getValue()[0], delta.getValue()[1]);
+        }
+    }
+
+    /**
+     * Данный метод считает длительность звонка так же, как datediff(SECOND, start_time, end_time) в запросах пересчета:
+     * количество переходов через границу секунды, дробные части секунд отбрасываются у обоих концов звонка
+     *
+     * @param startTime время начала звонка
+     * @param endTime время окончания звонка
+     * @return длительность в секундах
+     */
+    static long durationSeconds(LocalDateTime startTime, LocalDateTime endTime) {
+        return endTime.toEpochSecond(ZoneOffset.UTC) - startTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Данный метод пересчитывает агрегаты по всем CDR записям одним запросом
+     * (при включенных партициях - одним запросом на партицию), записи архива прибавляются по одному сегменту.
+     * Записи архива, которые еще остались в бд (сбой между фиксацией архива и удалением месяца), уже учтены
+     * запросом по бд и пропускаются. Нужен для записей, сохраненных в обход пакетной вставки
+     */
+    @Transactional
+    public void rebuild() {
+        usageRollupRepository.deleteAllInBatch();
+        if (cdRepository.isPartitioned()) {
+            cdRepository.rebuildUsageRollupFromPartitions();
+        } else {
+            usageRollupRepository.rebuildFromCdr();
+        }
+
+        //идентификаторы записей архивных месяцев, которые еще есть в бд
+        Map<YearMonth, long[]> hotIds = new HashMap<>();
+        for (YearMonth month : cdrArchive.findMonths()) {
+            LongStream.Builder ids = LongStream.builder();
+            cdRepository.forEachInMonth(month, row -> ids.add(row.id()));
+            long[] sorted = ids.build().sorted().toArray();
+            if (sorted.length > 0) {
+                hotIds.put(month, sorted);
+            }
+        }
+        cdrArchive.forEachSegment(rows -> {
+            List<CDR> segment = new ArrayList<>(rows.size());
+            for (CDRRow row : rows) {
+                long[] ids = hotIds.get(YearMonth.from(row.startTime()));
+                if (ids == null || Arrays.binarySearch(ids, row.id()) < 0) {
+                    segment.add(new CDR(row.id(), row.callType(), row.callerNumber(), row.receiverNumber(),
+                            row.startTime(), row.endTime()));
+                }
+            }
+            record(segment);
+        });
+    }
+
+    /**
+     * Данный метод удаляет все агрегаты
+     */
+    public void clear() {
+        usageRollupRepository.deleteAllInBatch();
+    }
+
+    /**
+     * Данный метод удаляет агрегаты за месяц конкретного года
+     *
+     * @param month месяц
+     */
+    public void clearMonth(YearMonth month) {
+        usageRollupRepository.deleteByYearAndMonth(month.getYear(), month.getMonthValue());
+    }
+}
@@ -1,5 +1,6 @@
 package ru.vatolin.applicationcdrtoudr.controller;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -7,15 +8,30 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.IngestionStats;
 import ru.vatolin.applicationcdrtoudr.service.CDRGeneratorService;
+import ru.vatolin.applicationcdrtoudr.service.CDRImportService;
+import ru.vatolin.applicationcdrtoudr.service.CDRIngestionService;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,6 +39,12 @@ public class CDRControllerTest {
     @Mock
     private CDRGeneratorService cdrGeneratorService;
 
+    @Mock
+    private CDRIngestionService cdrIngestionService;
+
+    @Mock
+    private CDRImportService cdrImportService;
+
     @InjectMocks
     private CDRController cdrController;
 
@@ -33,6 +55,54 @@ public class CDRControllerTest {
         mockMvc = MockMvcBuilders.standaloneSetup(cdrController).build();
     }
 
+    /**
+     * проверяем потоковую выдачу CDR отчета: csv пишется прямо в ответ, поток строк закрывается после записи
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testStreamCDR() throws Exception {
+        LocalDateTime startTime = LocalDateTime.parse("2025-01-01T00:00:00");
+        LocalDateTime endTime = LocalDateTime.parse("2025-03-01T00:00:00");
+        AtomicBoolean closed = new AtomicBoolean();
+        when(cdrGeneratorService.streamCDReport("79001002030", startTime, endTime)).thenReturn(Stream.of(
+                new CDRRow(1, "01", "79001002030", "79001112233", startTime.plusDays(1), startTime.plusDays(1).plusMinutes(5)),
+                new CDRRow(2, "01", "79001002030", "79101112233", startTime.plusDays(2), startTime.plusDays(2).plusMinutes(1)))
+                .onClose(() -> closed.set(true)));
+        doCallRealMethod().when(cdrGeneratorService).writeCDReport(any(), any());
+
+        //ответ пишется асинхронно, поэтому проверяем его после завершения обработки
+        MvcResult result = mockMvc.perform(get("/cdr/generate/79001002030?startDate=2025-01-01T00:00:00&endDate=2025-03-01T00:00:00&mode=stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andReturn().getResponse().getContentAsString();
+
+        //проверяем результаты
+        String[] lines = body.split("\n");
+        Assertions.assertEquals(3, lines.length, "ответ должен содержать заголовок и 2 строки");
+        Assertions.assertEquals("callType,callerNumber,receiverNumber,startTime,endTime", lines[0], "некорректный заголовок");
+        Assertions.assertEquals("01, 79001002030, 79001112233, 2025-01-02T00:00, 2025-01-02T00:05", lines[1], "некорректная первая строка");
+        Assertions.assertTrue(closed.get(), "поток строк должен закрываться после записи ответа");
+    }
+
+    /**
+     * проверяем, что при отсутствии записей потоковая выдача отвечает ошибкой до начала записи csv
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testStreamCDR_noRecords() throws Exception {
+        when(cdrGeneratorService.streamCDReport("79001002030", LocalDateTime.parse("2025-01-01T00:00:00"),
+                LocalDateTime.parse("2025-03-01T00:00:00"))).thenReturn(Stream.empty());
+
+        MvcResult result = mockMvc.perform(get("/cdr/generate/79001002030?startDate=2025-01-01T00:00:00&endDate=2025-03-01T00:00:00&mode=stream"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("No CDR for 79001002030"));
+    }
+
     /**
      * проверяем вызов генерации CDR отчета
      * @throws Exception выбрасывает perform
@@ -104,4 +174,51 @@ public class CDRControllerTest {
         mockMvc.perform(get("/cdr/generate/79998887766?startDate=2025-01-01T00:00:00&endDate=2025-03-01T00:00:00"))
                 .andExpect(status().isBadRequest()).andExpect(jsonPath("$.error").value("No CDR for " + msisdn));
     }
+
+    /**
+     * проверяем получение состояния непрерывной загрузки
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGetIngestionStats() throws Exception {
+        when(cdrIngestionService.getStats()).thenReturn(new IngestionStats(true, 15, 100, 1000, 985, 250));
+
+        mockMvc.perform(get("/cdr/ingest/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.running").value(true))
+                .andExpect(jsonPath("$.queueDepth").value(15))
+                .andExpect(jsonPath("$.persistedCount").value(985))
+                .andExpect(jsonPath("$.lagMillis").value(250));
+    }
+
+    /**
+     * проверяем импорт CDR записей из csv файла
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testImportCDR() throws Exception {
+        when(cdrImportService.importCsv(any())).thenReturn(new CDRImportResult(3, 1, 1, 10, List.of("line 3: invalid call type 05")));
+
+        mockMvc.perform(post("/cdr/import").contentType("text/csv")
+                        .content("callType,callerNumber,receiverNumber,startTime,endTime\n"
+                                + "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"
+                                + "05, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.importedCount").value(1))
+                .andExpect(jsonPath("$.rejectedCount").value(1))
+                .andExpect(jsonPath("$.errors[0]").value("line 3: invalid call type 05"));
+    }
+
+    /**
+     * проверяем импорт пустого файла
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testImportCDR_emptyFile() throws Exception {
+        when(cdrImportService.importCsv(any())).thenReturn(new CDRImportResult(0, 0, 0, 0, List.of()));
+
+        mockMvc.perform(post("/cdr/import").contentType("text/csv").content(""))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Empty CDR file"));
+    }
 }
@@ -1,22 +1,34 @@
 package ru.vatolin.applicationcdrtoudr.controller;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.vatolin.applicationcdrtoudr.repository.MonthlyUDR;
 import ru.vatolin.applicationcdrtoudr.repository.UDR;
+import ru.vatolin.applicationcdrtoudr.repository.UDRBatchResult;
+import ru.vatolin.applicationcdrtoudr.repository.UDRCacheStats;
 import ru.vatolin.applicationcdrtoudr.service.UDRGeneratorService;
 
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
@@ -34,6 +46,72 @@ public class UDRControllerTest {
         mockMvc = MockMvcBuilders.standaloneSetup(udrController).build();
     }
 
+    /**
+     * проверяем вызов генерации UDR отчета с разбивкой по месяцам
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGenerateUDReportByMonths() throws Exception {
+        String msisdn = "79998887766";
+
+        MonthlyUDR udr = new MonthlyUDR();
+        udr.setMsisdn(msisdn);
+        udr.setIncomingCall(callDetail(Duration.ofMinutes(90)));
+        udr.setOutcomingCall(callDetail(Duration.ZERO));
+        MonthlyUDR.MonthDetail january = new MonthlyUDR.MonthDetail();
+        january.setMonth(1);
+        january.setIncomingCall(callDetail(Duration.ofMinutes(90)));
+        january.setOutcomingCall(callDetail(Duration.ZERO));
+        udr.setMonths(List.of(january));
+
+        when(udrGeneratorService.generateUDReportByMonths(msisdn)).thenReturn(udr);
+
+        //проверяем получение нужного ответа и корректных данных в json
+        mockMvc.perform(get("/udr/report/79998887766/months"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.msisdn").value(msisdn))
+                .andExpect(jsonPath("$.incomingCall.totalTime").value("01:30:00"))
+                .andExpect(jsonPath("$.months[0].month").value(1))
+                .andExpect(jsonPath("$.months[0].incomingCall.totalTime").value("01:30:00"))
+                .andExpect(jsonPath("$.months[0].outcomingCall.totalTime").value("00:00:00"));
+    }
+
+    /**
+     * проверяем вызов генерации UDR отчета за произвольный период и валидацию дат
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGenerateUDReportForRange() throws Exception {
+        String msisdn = "79998887766";
+
+        UDR udr = new UDR();
+        udr.setMsisdn(msisdn);
+        udr.setIncomingCall(callDetail(Duration.ofMinutes(10)));
+        udr.setOutcomingCall(callDetail(Duration.ZERO));
+
+        when(udrGeneratorService.generateUDReportForRange(msisdn,
+                LocalDateTime.of(2025, 3, 1, 10, 0), LocalDateTime.of(2025, 3, 8, 0, 0))).thenReturn(udr);
+
+        //проверяем получение нужного ответа и корректных данных в json
+        mockMvc.perform(get("/udr/report/79998887766/range")
+                        .param("from", "2025-03-01T10:00:00")
+                        .param("to", "2025-03-08T00:00:00"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.msisdn").value(msisdn))
+                .andExpect(jsonPath("$.incomingCall.totalTime").value("00:10:00"));
+
+        //некорректная дата и пустой период
+        mockMvc.perform(get("/udr/report/79998887766/range")
+                        .param("from", "2025-03-01")
+                        .param("to", "2025-03-08T00:00:00"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/udr/report/79998887766/range")
+                        .param("from", "2025-03-08T00:00:00")
+                        .param("to", "2025-03-08T00:00:00"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Range start must be before range end"));
+    }
+
     /**
      * проверяем вызов генерации UDR очета за месяц
      * @throws Exception выбрасывает perform
@@ -110,6 +188,24 @@ public class UDRControllerTest {
                 .andExpect(jsonPath("$.outcomingCall.totalTime").value("01:00:00"));
     }
 
+    /**
+     * проверяем получение счетчиков кэша UDR отчетов
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGetCacheStats() throws Exception {
+        when(udrGeneratorService.getCacheStats()).thenReturn(new UDRCacheStats(3, 10000, 12, 3, 0, 1, 2));
+
+        mockMvc.perform(get("/udr/cache/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(3))
+                .andExpect(jsonPath("$.hitCount").value(12))
+                .andExpect(jsonPath("$.missCount").value(3))
+                .andExpect(jsonPath("$.evictionCount").value(0))
+                .andExpect(jsonPath("$.expiredCount").value(1))
+                .andExpect(jsonPath("$.invalidationCount").value(2));
+    }
+
     /**
      * тестируем получение корректного ответа при неверном параматре периода
      * @throws Exception выбрасывает perform
@@ -147,10 +243,7 @@ public class UDRControllerTest {
         outcomingCall1.setTotalTime(Duration.ofMinutes(60));
         udr2.setOutcomingCall(outcomingCall1);
 
-        List<String> list = List.of("79998887766", "79995554433");
-        when(udrGeneratorService.generateMsisdnList()).thenReturn(list);
-        when(udrGeneratorService.generateUDReportForMonth("79998887766", 1)).thenReturn(udr1);
-        when(udrGeneratorService.generateUDReportForMonth("79995554433", 1)).thenReturn(udr2);
+        when(udrGeneratorService.generateUDReportForEveryone(1)).thenReturn(List.of(udr1, udr2));
 
         //проверяем получение нужного ответа и корректных данных в json
         mockMvc.perform(get("/udr/report/all?numberOfMonth=1"))
@@ -169,13 +262,112 @@ public class UDRControllerTest {
      */
     @Test
     void testGenerateUDReportForEveryone_whenNoReports() throws Exception {
-        List<String> list = List.of("79998887766", "79995554433");
-        when(udrGeneratorService.generateMsisdnList()).thenReturn(list);
-        when(udrGeneratorService.generateUDReportForMonth("79998887766", 1)).thenThrow(new RuntimeException());
-        when(udrGeneratorService.generateUDReportForMonth("79995554433", 1)).thenThrow(new RuntimeException());
+        when(udrGeneratorService.generateUDReportForEveryone(1)).thenReturn(List.of());
 
         mockMvc.perform(get("/udr/report/all?numberOfMonth=1"))
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.error").value("No records for this month"));
     }
+
+    /**
+     * проверяем потоковый режим генерации UDR отчетов для всех абонентов: каждый отчет - отдельная строка JSON
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGenerateUDReportForEveryone_stream() throws Exception {
+        UDR udr1 = new UDR();
+        udr1.setMsisdn("79998887766");
+        udr1.setIncomingCall(callDetail(Duration.ofMinutes(60)));
+        udr1.setOutcomingCall(callDetail(Duration.ZERO));
+        UDR udr2 = new UDR();
+        udr2.setMsisdn("79995554433");
+        udr2.setIncomingCall(callDetail(Duration.ZERO));
+        udr2.setOutcomingCall(callDetail(Duration.ofSeconds(90)));
+
+        when(udrGeneratorService.streamUDReportForEveryone(1)).thenReturn(Stream.of(udr1, udr2));
+
+        //ответ пишется асинхронно, поэтому проверяем его после завершения обработки
+        MvcResult result = mockMvc.perform(get("/udr/report/all?numberOfMonth=1&mode=stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        //проверяем результаты
+        String[] lines = body.split("\n");
+        Assertions.assertEquals(2, lines.length, "каждый отчет должен быть отдельной строкой");
+        Assertions.assertTrue(lines[0].contains("\"msisdn\":\"79998887766\"") && lines[0].contains("\"totalTime\":\"01:00:00\""),
+                "первая строка должна содержать первый отчет");
+        Assertions.assertTrue(lines[1].contains("\"totalTime\":\"00:01:30\""), "вторая строка должна содержать второй отчет");
+    }
+
+    /**
+     * проверяем вызов генерации UDR отчетов по списку номеров и валидацию тела запроса
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGenerateUDReportForBatch() throws Exception {
+        UDR udr = new UDR();
+        udr.setMsisdn("79998887766");
+        udr.setIncomingCall(callDetail(Duration.ofMinutes(60)));
+        udr.setOutcomingCall(callDetail(Duration.ZERO));
+
+        when(udrGeneratorService.generateUDReportForBatch(List.of("79998887766", "79995554433"), 1)).thenReturn(new UDRBatchResult(
+                List.of(udr), List.of(new UDRBatchResult.Failure("79995554433", "No record for 1 month")), 3));
+
+        //проверяем получение нужного ответа и корректных данных в json
+        mockMvc.perform(post("/udr/report/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"msisdns\": [\"79998887766\", \"79995554433\"], \"period\": \"M\", \"numberOfMonth\": 1}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reports[0].msisdn").value("79998887766"))
+                .andExpect(jsonPath("$.reports[0].incomingCall.totalTime").value("01:00:00"))
+                .andExpect(jsonPath("$.errors[0].msisdn").value("79995554433"));
+
+        //пустой список номеров и некорректный месяц
+        mockMvc.perform(post("/udr/report/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"msisdns\": [], \"period\": \"Y\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("No msisdns"));
+        mockMvc.perform(post("/udr/report/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"msisdns\": [\"79998887766\"], \"period\": \"M\", \"numberOfMonth\": 13}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Invalid month number"));
+    }
+
+    /**
+     * проверяем параллельный режим генерации UDR отчетов для всех абонентов: ответ содержит отчеты и ошибки
+     * @throws Exception выбрасывает perform
+     */
+    @Test
+    void testGenerateUDReportForEveryone_parallel() throws Exception {
+        UDR udr = new UDR();
+        udr.setMsisdn("79998887766");
+        udr.setIncomingCall(callDetail(Duration.ofMinutes(60)));
+        udr.setOutcomingCall(callDetail(Duration.ZERO));
+
+        when(udrGeneratorService.generateUDReportForEveryoneInParallel(1)).thenReturn(new UDRBatchResult(List.of(udr),
+                List.of(new UDRBatchResult.Failure("79995554433", "Deadline of 10000 ms exceeded")), 15));
+
+        mockMvc.perform(get("/udr/report/all?numberOfMonth=1&mode=parallel"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reports[0].msisdn").value("79998887766"))
+                .andExpect(jsonPath("$.reports[0].incomingCall.totalTime").value("01:00:00"))
+                .andExpect(jsonPath("$.errors[0].msisdn").value("79995554433"))
+                .andExpect(jsonPath("$.errors[0].error").value("Deadline of 10000 ms exceeded"));
+
+        mockMvc.perform(get("/udr/report/all?numberOfMonth=1&mode=invalid"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Invalid mode parameter"));
+    }
+
+    private UDR.CallDetail callDetail(Duration duration) {
+        UDR.CallDetail callDetail = new UDR.CallDetail();
+        callDetail.setTotalTime(duration);
+        return callDetail;
+    }
 }
@@ -0,0 +1,178 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class CDRArchiveTest {
+    private static final YearMonth JANUARY = YearMonth.of(2025, 1);
+
+    @TempDir
+    private Path directory;
+
+    /**
+     * тестирование записи сегментов: месяц делится на сегменты по размеру, индекс сегмента хранит диапазоны,
+     * выборка возвращает записи абонента за период в порядке времени начала
+     */
+    @Test
+    void testArchiveAndFind() {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 2);
+
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.write(row(2, "79001112233", LocalDateTime.of(2025, 1, 5, 12, 0, 0, 500)));
+            writer.write(row(3, "79998887766", LocalDateTime.of(2025, 1, 10, 12, 0)));
+            writer.write(row(4, "79998887766", LocalDateTime.of(2025, 1, 25, 12, 0)));
+            writer.write(row(5, "79999999999", LocalDateTime.of(2025, 1, 1, 12, 0)));
+            Assertions.assertEquals(5, writer.commit(), "Должно быть записано 5 записей");
+        }
+
+        List<CDRArchive.Segment> segments = cdrArchive.findSegments();
+        List<CDRRow> found = cdrArchive.streamIncomingInRange("79001112233",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 2, 1, 0, 0)).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(3, segments.size(), "5 записей по 2 - три сегмента");
+        Assertions.assertEquals("79001112233", segments.get(0).minCaller(), "Минимальный номер сегмента");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 20, 12, 0), segments.get(0).maxStartTime(), "Максимальное время сегмента");
+        Assertions.assertEquals(List.of(2L, 1L), found.stream().map(CDRRow::id).toList(), "Записи должны идти по времени начала");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 5, 12, 0, 0, 500), found.get(0).startTime(), "Время должно сохраняться точно");
+        Assertions.assertTrue(cdrArchive.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 10, 12, 0), LocalDateTime.of(2025, 1, 25, 12, 0)).toList().isEmpty(), "Границы периода не включаются");
+    }
+
+    /**
+     * тестирование ленивой выборки: строки месяцев идут по порядку, строки дописанного позже сегмента месяца
+     * сливаются с остальными по времени начала
+     */
+    @Test
+    void testStreamIncomingInRange() {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 2);
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(YearMonth.of(2025, 2))) {
+            writer.write(row(10, "79001112233", LocalDateTime.of(2025, 2, 3, 12, 0)));
+            writer.commit();
+        }
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 5, 12, 0)));
+            writer.write(row(2, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.write(row(3, "79998887766", LocalDateTime.of(2025, 1, 1, 12, 0)));
+            writer.commit();
+        }
+        //поздняя запись января попадает в отдельный сегмент
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(4, "79001112233", LocalDateTime.of(2025, 1, 10, 12, 0)));
+            writer.commit();
+        }
+
+        List<Long> ids;
+        try (Stream<CDRRow> rows = cdrArchive.streamIncomingInRange("79001112233",
+                LocalDateTime.of(2024, 12, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0))) {
+            ids = rows.map(CDRRow::id).toList();
+        }
+
+        //проверка результатов
+        Assertions.assertEquals(List.of(1L, 4L, 2L, 10L), ids, "Записи должны идти по времени начала");
+        Assertions.assertEquals(0, cdrArchive.streamIncomingInRange("79000000000",
+                LocalDateTime.of(2024, 12, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)).count(), "Записей абонента нет");
+    }
+
+    /**
+     * тестирование перезапуска: индексы загружаются с диска, повторный перенос месяца добавляет новые сегменты
+     */
+    @Test
+    void testReloadAndAppend() {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 10);
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.commit();
+        }
+
+        CDRArchive reloaded = new CDRArchive(directory.toString(), 10);
+        try (CDRArchive.MonthWriter writer = reloaded.openMonth(JANUARY)) {
+            writer.write(row(2, "79001112233", LocalDateTime.of(2025, 1, 21, 12, 0)));
+            writer.commit();
+        }
+        List<Long> ids = new ArrayList<>();
+        new CDRArchive(directory.toString(), 10).forEachSegment(rows -> rows.forEach(row -> ids.add(row.id())));
+
+        //проверка результатов
+        Assertions.assertEquals(List.of(JANUARY), reloaded.findMonths(), "Архив содержит один месяц");
+        Assertions.assertEquals(2, reloaded.findSegments().size(), "Повторный перенос добавляет сегмент");
+        Assertions.assertEquals(List.of(1L, 2L), ids, "Записи должны читаться после перезапуска");
+    }
+
+    /**
+     * тестирование повторного переноса месяца после сбоя до удаления из бд: уже записанные строки не дублируются
+     */
+    @Test
+    void testRepeatedArchiveSkipsArchivedRows() {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 10);
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.write(row(2, "79001112233", LocalDateTime.of(2025, 1, 21, 12, 0)));
+            writer.commit();
+        }
+
+        //месяц остался в бд, в нем появилась еще одна запись
+        int added;
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.write(row(2, "79001112233", LocalDateTime.of(2025, 1, 21, 12, 0)));
+            writer.write(row(3, "79001112233", LocalDateTime.of(2025, 1, 22, 12, 0)));
+            added = writer.commit();
+        }
+
+        //проверка результатов
+        Assertions.assertEquals(1, added, "Повторно должна записываться только новая строка");
+        Assertions.assertArrayEquals(new long[]{1, 2, 3}, cdrArchive.findIds(JANUARY), "Строки архива не должны дублироваться");
+    }
+
+    /**
+     * тестирование записи без фиксации: сегменты удаляются и не видны выборкам
+     */
+    @Test
+    void testCloseWithoutCommit() throws IOException {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 10);
+
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+        }
+
+        //проверка результатов
+        Assertions.assertTrue(cdrArchive.findSegments().isEmpty(), "Незафиксированный сегмент не должен быть виден");
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count(), "Файлы незафиксированного сегмента должны удаляться");
+        }
+    }
+
+    /**
+     * тестирование удаления архива
+     */
+    @Test
+    void testDeleteAll() {
+        CDRArchive cdrArchive = new CDRArchive(directory.toString(), 10);
+        try (CDRArchive.MonthWriter writer = cdrArchive.openMonth(JANUARY)) {
+            writer.write(row(1, "79001112233", LocalDateTime.of(2025, 1, 20, 12, 0)));
+            writer.commit();
+        }
+
+        cdrArchive.deleteAll();
+
+        //проверка результатов
+        Assertions.assertTrue(cdrArchive.findSegments().isEmpty(), "Архив должен быть пустым");
+        Assertions.assertTrue(new CDRArchive(directory.toString(), 10).findSegments().isEmpty(), "Индексы должны удаляться с диска");
+    }
+
+    private CDRRow row(long id, String caller, LocalDateTime startTime) {
+        return new CDRRow(id, "01", caller, "79101112233", startTime, startTime.plusMinutes(5));
+    }
+}
@@ -0,0 +1,141 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.stream.Stream;
+
+//DDL в H2 фиксирует транзакцию, поэтому тест выполняется без общей транзакции теста
+//страница курсора из 2 строк, чтобы страницы переходили между партициями
+@DataJpaTest(properties = {"cdr.partitioning.enabled=true", "cdr.stream.fetch-size=2"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class CDRepositoryPartitionTest {
+
+    @Autowired
+    private CDRepository cdRepository;
+
+    @Autowired
+    private UsageRollupRepository usageRollupRepository;
+
+    @AfterEach
+    void tearDown() {
+        cdRepository.findPartitions().forEach(cdRepository::dropPartition);
+        usageRollupRepository.deleteAllInBatch();
+    }
+
+    /**
+     * тестирование маршрутизации: записи попадают в партиции своих месяцев,
+     * выборка за период читает только пересекающиеся партиции и возвращает записи по порядку
+     */
+    @Test
+    void testInsertAndFindInRange() {
+        List<CDR> records = List.of(
+                cdr("79998887766", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 2, 5, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 3, 15, 12, 0)),
+                cdr("79995554433", LocalDateTime.of(2025, 2, 6, 12, 0)));
+
+        cdRepository.createPartitionsFor(records);
+        cdRepository.insertIntoPartitions(records);
+
+        List<CDRRow> found;
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 10, 0, 0), LocalDateTime.of(2025, 2, 28, 0, 0))) {
+            found = stream.toList();
+        }
+
+        //проверка результатов
+        Assertions.assertEquals(List.of(YearMonth.of(2025, 1), YearMonth.of(2025, 2), YearMonth.of(2025, 3)),
+                cdRepository.findPartitions(), "Должно быть создано 3 партиции");
+        Assertions.assertEquals(2, found.size(), "За период должно быть 2 записи");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 20, 12, 0), found.get(0).startTime(), "Записи должны идти по времени начала");
+        Assertions.assertEquals(LocalDateTime.of(2025, 2, 5, 12, 0), found.get(1).startTime(), "Записи должны идти по времени начала");
+        Assertions.assertNotEquals(found.get(0).id(), found.get(1).id(), "Идентификаторы не должны пересекаться между партициями");
+        Assertions.assertEquals(0, cdRepository.count(), "Таблица cdr не должна использоваться");
+    }
+
+    /**
+     * тестирование удаления месяца и пересчета агрегатов по партициям
+     */
+    @Test
+    void testDropPartitionAndRebuild() {
+        List<CDR> records = List.of(
+                cdr("79998887766", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 2, 5, 12, 0)));
+        cdRepository.createPartitionsFor(records);
+        cdRepository.insertIntoPartitions(records);
+
+        cdRepository.dropPartition(YearMonth.of(2025, 1));
+        cdRepository.rebuildUsageRollupFromPartitions();
+
+        List<CDRRow> found;
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0))) {
+            found = stream.toList();
+        }
+        List<UsageTotal> totals = usageRollupRepository.sumUsageByMsisdn("79998887766");
+
+        //проверка результатов
+        Assertions.assertEquals(List.of(YearMonth.of(2025, 2)), cdRepository.findPartitions(), "Должна остаться одна партиция");
+        Assertions.assertEquals(1, found.size(), "Записи удаленного месяца не должны читаться");
+        Assertions.assertEquals(1, totals.size(), "Агрегат только по направлению инициатора");
+        Assertions.assertEquals(600, totals.get(0).getTotalSeconds(), "Агрегат только по оставшейся партиции");
+    }
+
+    /**
+     * тестирование потока по ключу (start_time, id): страницы продолжаются в следующей партиции,
+     * записи с одинаковым временем начала не теряются и не повторяются
+     */
+    @Test
+    void testStreamAcrossPartitions() {
+        List<CDR> records = List.of(
+                cdr("79998887766", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 2, 5, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 2, 5, 12, 0)),
+                cdr("79998887766", LocalDateTime.of(2025, 3, 15, 12, 0)),
+                cdr("79995554433", LocalDateTime.of(2025, 2, 6, 12, 0)));
+        cdRepository.createPartitionsFor(records);
+        cdRepository.insertIntoPartitions(records);
+
+        List<CDRRow> history;
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2026, 1, 1, 0, 0))) {
+            history = stream.toList();
+        }
+        List<CDRRow> february;
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 20, 12, 0), LocalDateTime.of(2025, 3, 1, 0, 0))) {
+            february = stream.toList();
+        }
+
+        //проверка результатов
+        Assertions.assertEquals(5, history.size(), "За год у инициатора 5 записей");
+        Assertions.assertEquals(5, history.stream().map(CDRRow::id).distinct().count(), "Записи не должны повторяться");
+        for (int i = 1; i < history.size(); i++) {
+            CDRRow previous = history.get(i - 1);
+            CDRRow current = history.get(i);
+            Assertions.assertTrue(previous.startTime().isBefore(current.startTime())
+                    || (previous.startTime().equals(current.startTime()) && previous.id() < current.id()), "Записи должны идти по ключу (start_time, id)");
+        }
+        Assertions.assertEquals(2, february.size(), "Начало периода не включается");
+    }
+
+    private CDR cdr(String caller, LocalDateTime startTime) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber("79001112233");
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusMinutes(10));
+        return cdr;
+    }
+}
@@ -6,8 +6,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.Optional;
+import java.util.List;
+import java.util.stream.Stream;
 
 @DataJpaTest
 public class CDRepositoryTest {
@@ -16,64 +18,68 @@ public class CDRepositoryTest {
     private CDRepository cdRepository;
 
     /**
-     * тестирование поиска msisdn в качестве инициализатора в базе данных
+     * тестирование потока звонков абонента за период: только звонки инициатора в порядке времени начала
      */
     @Test
-    void testFindIncomingByMsisdn() {
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79998887766");
-        cdr1.setReceiverNumber("79995554433");
-        cdr1.setStartTime(LocalDateTime.now());
-        cdr1.setEndTime(LocalDateTime.now().plusMinutes(10));
+    void testStreamIncomingInRange() {
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+        List<CDR> records = new ArrayList<>();
+        for (int i = 3; i > 0; i--) {
+            CDR cdr = new CDR();
+            cdr.setCallType("01");
+            cdr.setCallerNumber("79998887766");
+            cdr.setReceiverNumber("79995554433");
+            cdr.setStartTime(base.plusDays(i));
+            cdr.setEndTime(base.plusDays(i).plusMinutes(10));
+            records.add(cdr);
+        }
+        //поток читается через JDBC, поэтому записи сбрасываются в бд
+        cdRepository.saveAllAndFlush(records);
 
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("01");
-        cdr2.setCallerNumber("79998887766");
-        cdr2.setReceiverNumber("79992221122");
-        cdr2.setStartTime(LocalDateTime.now());
-        cdr2.setEndTime(LocalDateTime.now().plusMinutes(5));
-
-        cdRepository.save(cdr1);
-        cdRepository.save(cdr2);
-
-        Optional<ArrayList<CDR>> result = cdRepository.findIncomingByMsisdn("79998887766");
+        List<CDRRow> incoming;
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79998887766", base, base.plusDays(30))) {
+            incoming = stream.toList();
+        }
 
         //проверка результатов
-        Assertions.assertTrue(result.isPresent(), "Результат не должен быть пустым");
-        Assertions.assertEquals(2, result.get().size(), "Должно быть 2 входящих звонка");
-        Assertions.assertEquals("79998887766", result.get().get(0).getCallerNumber(), "Номер инициатора должен совпадать");
-        Assertions.assertEquals("79998887766", result.get().get(1).getCallerNumber(), "Номер инициатора должен совпадать");
+        Assertions.assertEquals(3, incoming.size(), "Должно быть 3 звонка");
+        Assertions.assertEquals(base.plusDays(1), incoming.get(0).startTime(), "Записи должны быть упорядочены по времени начала");
+        Assertions.assertEquals(base.plusDays(3), incoming.get(2).startTime(), "Записи должны быть упорядочены по времени начала");
+        try (Stream<CDRRow> stream = cdRepository.streamIncomingInRange("79995554433", base, base.plusDays(30))) {
+            Assertions.assertEquals(0, stream.count(), "Принимающий не является инициатором");
+        }
     }
 
     /**
-     * тестирование поиска msisdn в качестве принимающего в базе данных
+     * тестирование переноса месяца: месяцы до заданного, чтение месяца в порядке (caller, start_time, id) и удаление месяца
      */
     @Test
-    void testFindOutcomingByMsisdn() {
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("02");
-        cdr1.setCallerNumber("79995554433");
-        cdr1.setReceiverNumber("79998887766");
-        cdr1.setStartTime(LocalDateTime.now());
-        cdr1.setEndTime(LocalDateTime.now().plusMinutes(10));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79992221122");
-        cdr2.setReceiverNumber("79998887766");
-        cdr2.setStartTime(LocalDateTime.now());
-        cdr2.setEndTime(LocalDateTime.now().plusMinutes(5));
+    void testMonthOperations() {
+        String[][] calls = {{"79998887766", "2025-01-20T12:00"}, {"79001112233", "2025-01-25T12:00"},
+                {"79001112233", "2025-01-05T12:00"}, {"79001112233", "2025-02-05T12:00"}};
+        List<CDR> records = new ArrayList<>();
+        for (String[] call : calls) {
+            CDR cdr = new CDR();
+            cdr.setCallType("01");
+            cdr.setCallerNumber(call[0]);
+            cdr.setReceiverNumber("79995554433");
+            cdr.setStartTime(LocalDateTime.parse(call[1]));
+            cdr.setEndTime(LocalDateTime.parse(call[1]).plusMinutes(10));
+            records.add(cdr);
+        }
+        //запросы по месяцам идут через JDBC, поэтому записи сбрасываются в бд
+        cdRepository.saveAllAndFlush(records);
 
-        cdRepository.save(cdr1);
-        cdRepository.save(cdr2);
-
-        Optional<ArrayList<CDR>> result = cdRepository.findOutcomingByMsisdn("79998887766");
+        List<CDRRow> january = new ArrayList<>();
+        cdRepository.forEachInMonth(YearMonth.of(2025, 1), january::add);
 
         //проверка результатов
-        Assertions.assertTrue(result.isPresent(), "Результат не должен быть пустым");
-        Assertions.assertEquals(2, result.get().size(), "Должно быть 2 исходящих звонка");
-        Assertions.assertEquals("79998887766", result.get().get(0).getReceiverNumber(), "Номер получателя должен совпадать");
-        Assertions.assertEquals("79998887766", result.get().get(1).getReceiverNumber(), "Номер получателя должен совпадать");
+        Assertions.assertEquals(List.of(YearMonth.of(2025, 1)), cdRepository.findMonthsBefore(YearMonth.of(2025, 2)), "До февраля только январь");
+        Assertions.assertEquals(3, january.size(), "В январе 3 записи");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 5, 12, 0), january.get(0).startTime(), "Записи идут по номеру и времени начала");
+        Assertions.assertEquals("79998887766", january.get(2).callerNumber(), "Записи идут по номеру и времени начала");
+
+        cdRepository.deleteMonth(YearMonth.of(2025, 1));
+        Assertions.assertEquals(List.of(YearMonth.of(2025, 2)), cdRepository.findMonthsBefore(YearMonth.of(2026, 1)), "Январь должен быть удален");
     }
 }
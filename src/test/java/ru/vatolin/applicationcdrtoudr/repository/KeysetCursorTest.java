@@ -0,0 +1,82 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeysetCursorTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    /**
+     * тестирование обхода по страницам: строки с одинаковым временем начала на границе страницы
+     * не теряются и не повторяются, неполная страница завершает обход без лишнего запроса
+     */
+    @Test
+    void testStream_ties() {
+        List<CDRRow> rows = List.of(row(1, 10), row(2, 10), row(3, 10), row(4, 20), row(5, 30));
+        AtomicInteger loads = new AtomicInteger();
+
+        List<CDRRow> result = KeysetCursor.stream(pageLoader(rows, loads), CDRRow::startTime, CDRRow::id, BASE, 2).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(rows, result, "Строки должны идти по ключу (start_time, id) без пропусков и повторов");
+        Assertions.assertEquals(3, loads.get(), "5 строк по 2 - три запроса");
+    }
+
+    /**
+     * тестирование ленивости: страницы загружаются только по мере чтения потока
+     */
+    @Test
+    void testStream_lazy() {
+        List<CDRRow> rows = List.of(row(1, 10), row(2, 20), row(3, 30), row(4, 40));
+        AtomicInteger loads = new AtomicInteger();
+
+        List<CDRRow> first = KeysetCursor.stream(pageLoader(rows, loads), CDRRow::startTime, CDRRow::id, BASE, 2)
+                .limit(2)
+                .toList();
+
+        //проверка результатов
+        Assertions.assertEquals(2, first.size(), "Должно быть прочитано 2 строки");
+        Assertions.assertEquals(1, loads.get(), "Вторая страница не должна загружаться");
+    }
+
+    /**
+     * тестирование границы периода: строки с временем начала, равным началу периода, не возвращаются
+     */
+    @Test
+    void testStream_exclusiveStart() {
+        List<CDRRow> rows = List.of(row(1, 0), row(2, 10));
+
+        List<CDRRow> result = KeysetCursor.stream(pageLoader(rows, new AtomicInteger()), CDRRow::startTime, CDRRow::id, BASE, 10).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(List.of(row(2, 10)), result, "Начало периода не включается");
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> KeysetCursor.stream(pageLoader(rows, new AtomicInteger()), CDRRow::startTime, CDRRow::id, BASE, 0), "нет ожидаемого исключения");
+    }
+
+    //загрузчик страницы по списку в памяти, повторяет условие запроса (start_time, id) > (after, afterId)
+    private KeysetCursor.PageLoader<CDRRow> pageLoader(List<CDRRow> rows, AtomicInteger loads) {
+        return (afterStartTime, afterId, limit) -> {
+            loads.incrementAndGet();
+            List<CDRRow> page = new ArrayList<>();
+            rows.stream()
+                    .filter(row -> row.startTime().isAfter(afterStartTime)
+                            || (row.startTime().equals(afterStartTime) && row.id() > afterId))
+                    .sorted(Comparator.comparing(CDRRow::startTime).thenComparingLong(CDRRow::id))
+                    .limit(limit)
+                    .forEach(page::add);
+            return page;
+        };
+    }
+
+    private CDRRow row(long id, int minutes) {
+        LocalDateTime startTime = BASE.plusMinutes(minutes);
+        return new CDRRow(id, "01", "79998887766", "79995554433", startTime, startTime.plusMinutes(1));
+    }
+}
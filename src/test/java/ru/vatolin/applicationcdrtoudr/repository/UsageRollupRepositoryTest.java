@@ -0,0 +1,136 @@
+package ru.vatolin.applicationcdrtoudr.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@DataJpaTest
+public class UsageRollupRepositoryTest {
+
+    @Autowired
+    private UsageRollupRepository usageRollupRepository;
+
+    @Autowired
+    private CDRepository cdRepository;
+
+    /**
+     * тестирование прибавления к агрегату: первый вызов создает агрегат, следующий прибавляет к нему
+     */
+    @Test
+    void testAddUsage() {
+        usageRollupRepository.addUsage("79998887766", 2025, 1, UsageTotal.INCOMING, 600, 1);
+        usageRollupRepository.addUsage("79998887766", 2025, 1, UsageTotal.INCOMING, 300, 2);
+        usageRollupRepository.addUsage("79998887766", 2024, 1, UsageTotal.INCOMING, 60, 1);
+        usageRollupRepository.addUsage("79998887766", 2025, 2, UsageTotal.OUTCOMING, 120, 1);
+
+        List<UsageRollup> rollups = usageRollupRepository.findAll();
+        List<UsageTotal> january = usageRollupRepository.sumUsageByMsisdnAndMonth("79998887766", 1);
+        List<UsageTotal> allTime = usageRollupRepository.sumUsageByMsisdn("79998887766");
+
+        //проверка результатов
+        Assertions.assertEquals(3, rollups.size(), "Должно быть 3 агрегата");
+        UsageRollup merged = rollups.stream().filter(rollup -> rollup.getYear() == 2025 && rollup.getMonth() == 1).findFirst().orElseThrow();
+        Assertions.assertEquals(900, merged.getTotalSeconds(), "Длительность должна суммироваться");
+        Assertions.assertEquals(3, merged.getCallCount(), "Количество звонков должно суммироваться");
+        Assertions.assertEquals(1, january.size(), "За январь только одно направление");
+        Assertions.assertEquals(960, january.get(0).getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertEquals(2, allTime.size(), "За все время два направления");
+    }
+
+    /**
+     * тестирование пересчета по звонкам с долями секунды: datediff считает переходы через границу секунды,
+     * так же, как инкрементальное прибавление в UsageRollupService
+     */
+    @Test
+    void testRebuildFromCdr_fractionalSeconds() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 10, 12, 0, 0, 500_000_000);
+        cdRepository.save(new CDR(null, "01", "79998887766", "79995554433", start, start.plusNanos(700_000_000)));
+        cdRepository.save(new CDR(null, "01", "79998887766", "79995554433", start.plusSeconds(10), start.plusSeconds(10).plusNanos(400_000_000)));
+        cdRepository.flush();
+
+        usageRollupRepository.rebuildFromCdr();
+        List<UsageTotal> totals = usageRollupRepository.sumUsageByMsisdnAndMonth("79998887766", 1);
+
+        //проверка результатов
+        Assertions.assertEquals(1, totals.size(), "За январь только одно направление");
+        Assertions.assertEquals(1, totals.get(0).getTotalSeconds(), "Длительность считается по переходам через границу секунды");
+    }
+
+    /**
+     * тестирование сумм по месяцам для нескольких абонентов одним запросом
+     */
+    @Test
+    void testSumUsageByMsisdnsGroupByMonth() {
+        usageRollupRepository.addUsage("79998887766", 2025, 1, UsageTotal.INCOMING, 600, 1);
+        usageRollupRepository.addUsage("79998887766", 2024, 1, UsageTotal.INCOMING, 60, 1);
+        usageRollupRepository.addUsage("79998887766", 2025, 5, UsageTotal.OUTCOMING, 120, 1);
+        usageRollupRepository.addUsage("79995554433", 2025, 1, UsageTotal.OUTCOMING, 300, 1);
+        usageRollupRepository.addUsage("79001112233", 2025, 1, UsageTotal.INCOMING, 30, 1);
+
+        List<MonthlyUsageTotal> totals = usageRollupRepository.sumUsageByMsisdnsGroupByMonth(List.of("79998887766", "79995554433"));
+
+        //проверка результатов
+        Assertions.assertEquals(3, totals.size(), "Строки по номеру, месяцу и направлению только запрошенных абонентов");
+        MonthlyUsageTotal january = totals.stream()
+                .filter(total -> total.getMsisdn().equals("79998887766") && total.getUsageMonth() == 1).findFirst().orElseThrow();
+        Assertions.assertEquals(660, january.getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertTrue(totals.stream().anyMatch(total -> total.getUsageMonth() == 5
+                && total.getDirection().equals(UsageTotal.OUTCOMING) && total.getTotalSeconds() == 120), "Май в качестве принимающего");
+    }
+
+    /**
+     * тестирование страниц сумм за месяц: следующая страница начинается строго после ключа (msisdn, direction)
+     * последней строки предыдущей
+     */
+    @Test
+    void testSumUsageByMonthPage() {
+        usageRollupRepository.addUsage("79998887766", 2025, 1, UsageTotal.INCOMING, 600, 1);
+        usageRollupRepository.addUsage("79998887766", 2024, 1, UsageTotal.INCOMING, 60, 1);
+        usageRollupRepository.addUsage("79998887766", 2025, 1, UsageTotal.OUTCOMING, 120, 1);
+        usageRollupRepository.addUsage("79995554433", 2025, 1, UsageTotal.OUTCOMING, 300, 1);
+        usageRollupRepository.addUsage("79001112233", 2025, 2, UsageTotal.INCOMING, 30, 1);
+
+        List<UsageTotal> first = usageRollupRepository.sumUsageByMonthPage(1, "", "", 2);
+        UsageTotal last = first.get(first.size() - 1);
+        List<UsageTotal> second = usageRollupRepository.sumUsageByMonthPage(1, last.getMsisdn(), last.getDirection(), 2);
+
+        //проверка результатов
+        Assertions.assertEquals(2, first.size(), "Первая страница полная");
+        Assertions.assertEquals("79995554433", first.get(0).getMsisdn(), "Строки упорядочены по номеру");
+        Assertions.assertEquals(UsageTotal.INCOMING, first.get(1).getDirection(), "Строки абонента упорядочены по направлению");
+        Assertions.assertEquals(660, first.get(1).getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertEquals(1, second.size(), "Вторая страница - оставшаяся строка за январь");
+        Assertions.assertEquals(UsageTotal.OUTCOMING, second.get(0).getDirection(), "Страница продолжается внутри абонента");
+    }
+
+    /**
+     * тестирование пересчета агрегатов по таблице cdr
+     */
+    @Test
+    void testRebuildFromCdr() {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 10, 12, 0);
+        for (int i = 0; i < 3; i++) {
+            CDR cdr = new CDR();
+            cdr.setCallType("01");
+            cdr.setCallerNumber("79998887766");
+            cdr.setReceiverNumber("79995554433");
+            cdr.setStartTime(start.plusDays(i));
+            cdr.setEndTime(start.plusDays(i).plusMinutes(10));
+            cdRepository.save(cdr);
+        }
+        cdRepository.flush();
+
+        usageRollupRepository.rebuildFromCdr();
+
+        List<UsageTotal> totals = usageRollupRepository.sumUsageByMonth(3);
+        Assertions.assertEquals(2, totals.size(), "Должно быть по одному направлению на абонента");
+        for (UsageTotal total : totals) {
+            Assertions.assertEquals(1800, total.getTotalSeconds(), "Длительность не совпадает");
+        }
+        Assertions.assertEquals(3, usageRollupRepository.findAll().get(0).getCallCount(), "Количество звонков не совпадает");
+    }
+}
@@ -0,0 +1,76 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.CDRArchive;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRArchiveServiceTest {
+    @Mock
+    private CDRepository cdRepository;
+
+    @Mock
+    private CDRArchive cdrArchive;
+
+    @Mock
+    private CDRArchive.MonthWriter monthWriter;
+
+    /**
+     * проверяем, что в архив переносятся только месяцы старше срока, а записи удаляются из бд после фиксации архива
+     */
+    @Test
+    void testArchiveAgedMonths() {
+        CDRArchiveService cdrArchiveService = new CDRArchiveService(cdRepository, cdrArchive, true, 3);
+        YearMonth oldest = YearMonth.now().minusMonths(5);
+        when(cdRepository.findMonthsBefore(YearMonth.now().minusMonths(2))).thenReturn(List.of(oldest));
+        when(cdrArchive.openMonth(oldest)).thenReturn(monthWriter);
+        when(monthWriter.commit()).thenReturn(10);
+
+        List<YearMonth> archived = cdrArchiveService.archiveAgedMonths();
+
+        //хранятся текущий и два предыдущих месяца
+        Assertions.assertEquals(List.of(oldest), archived, "перенесены не те месяцы");
+        InOrder inOrder = inOrder(cdRepository, monthWriter);
+        inOrder.verify(cdRepository).forEachInMonth(eq(oldest), any());
+        inOrder.verify(monthWriter).commit();
+        inOrder.verify(monthWriter).close();
+        inOrder.verify(cdRepository).deleteMonth(oldest);
+    }
+
+    /**
+     * проверяем, что при ошибке записи архива записи месяца остаются в бд
+     */
+    @Test
+    void testArchiveMonth_writeFailed() {
+        CDRArchiveService cdrArchiveService = new CDRArchiveService(cdRepository, cdrArchive, true, 3);
+        YearMonth month = YearMonth.now().minusMonths(5);
+        when(cdrArchive.openMonth(month)).thenReturn(monthWriter);
+        doThrow(new RuntimeException("disk full")).when(cdRepository).forEachInMonth(eq(month), any());
+
+        Assertions.assertThrows(RuntimeException.class, () -> cdrArchiveService.archiveMonth(month), "нет ожидаемого исключения");
+        verify(monthWriter).close();
+        verify(monthWriter, never()).commit();
+        verify(cdRepository, never()).deleteMonth(any());
+    }
+
+    /**
+     * проверяем, что при выключенном архиве записи не переносятся
+     */
+    @Test
+    void testArchiveAgedMonths_disabled() {
+        CDRArchiveService cdrArchiveService = new CDRArchiveService(cdRepository, cdrArchive, false, 3);
+
+        Assertions.assertTrue(cdrArchiveService.archiveAgedMonths().isEmpty(), "месяцы не должны переноситься");
+        verifyNoInteractions(cdRepository, cdrArchive);
+    }
+}
@@ -0,0 +1,107 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRBulkInsertServiceTest {
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private CDRepository cdRepository;
+
+    @Mock
+    private UsageRollupService usageRollupService;
+
+    private CDRBulkInsertService cdrBulkInsertService;
+
+    @BeforeEach
+    void setUp() {
+        //batch по 2 записи, транзакция по 5 записей
+        cdrBulkInsertService = new CDRBulkInsertService(entityManager, transactionManager, cdRepository, usageRollupService, 2, 5);
+    }
+
+    /**
+     * проверяем, что все записи сохраняются и разбиваются на транзакции по chunkSize записей
+     */
+    @Test
+    void testSaveAll() {
+        List<CDR> records = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            records.add(new CDR());
+        }
+
+        BulkInsertResult result = cdrBulkInsertService.saveAll(records);
+
+        //проверяем количество сохраненных записей
+        Assertions.assertEquals(12, result.getRows(), "количество сохраненных записей не совпадает");
+        verify(entityManager, times(12)).persist(any(CDR.class));
+        //12 записей по 5 в транзакции - 3 транзакции
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(3)).commit(any());
+        //агрегаты обновляются в каждой транзакции
+        verify(usageRollupService, times(3)).record(anyList());
+    }
+
+    /**
+     * проверяем, что контекст персистентности сбрасывается после каждого batch
+     */
+    @Test
+    void testSaveChunk_flushEveryBatch() {
+        cdrBulkInsertService.saveChunk(List.of(new CDR(), new CDR(), new CDR(), new CDR()));
+
+        //2 batch по 2 записи и финальный сброс
+        verify(entityManager, times(3)).flush();
+        verify(entityManager, times(3)).clear();
+    }
+
+    /**
+     * проверяем, что пустой источник не открывает транзакций
+     */
+    @Test
+    void testSaveAll_empty() {
+        BulkInsertResult result = cdrBulkInsertService.saveAll(List.of());
+
+        Assertions.assertEquals(0, result.getRows(), "записей быть не должно");
+        verifyNoInteractions(transactionManager);
+    }
+
+    /**
+     * проверяем, что при включенных партициях порция вставляется в партиции,
+     * а партиции создаются до начала транзакции
+     */
+    @Test
+    void testSaveChunk_partitioned() {
+        List<CDR> chunk = List.of(new CDR(), new CDR());
+        when(cdRepository.isPartitioned()).thenReturn(true);
+
+        cdrBulkInsertService.saveChunk(chunk);
+
+        InOrder inOrder = inOrder(cdRepository, transactionManager);
+        inOrder.verify(cdRepository).createPartitionsFor(chunk);
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(cdRepository).insertIntoPartitions(chunk);
+        inOrder.verify(transactionManager).commit(any());
+        verify(usageRollupService).record(chunk);
+        verifyNoInteractions(entityManager);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRFileIngestServiceTest {
+    @Mock
+    private CDRPipelineService cdrPipelineService;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * проверяем, что файл, разбитый на несколько участков, загружается целиком, а некорректные строки отклоняются
+     * @throws IOException выбрасывает запись файла
+     */
+    @Test
+    void testIngestFile() throws IOException {
+        StringBuilder csv = new StringBuilder("callType,callerNumber,receiverNumber,startTime,endTime\n");
+        for (int i = 0; i < 50; i++) {
+            csv.append(String.format("0%d, 7900111%04d, 79101112233, 2025-01-01T00:%02d:15.5, 2025-01-01T02:00\r\n", i % 2 + 1, i, i));
+        }
+        csv.append("05, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n");
+        csv.append("01, 79001112233, 79101112233, 2025-13-01T00:00, 2025-01-01T02:00\n");
+        csv.append("01, 79001112233, 79101112233, 2025-01-01T00:00\n");
+        Path file = tempDir.resolve("cdr.csv");
+        Files.writeString(file, csv);
+
+        //участки по 200 байт, поэтому файл делится на много участков
+        CDRFileIngestService service = new CDRFileIngestService(cdrPipelineService, true, tempDir.toString(), 200, 4);
+        List<CDR> saved = Collections.synchronizedList(new ArrayList<>());
+        when(cdrPipelineService.publishAll(any())).thenAnswer(invocation -> {
+            Iterable<CDR> records = invocation.getArgument(0);
+            int count = 0;
+            for (CDR cdr : records) {
+                saved.add(cdr);
+                count++;
+            }
+            return new BulkInsertResult(count, 1);
+        });
+
+        CDRImportResult result = service.ingestFile(file);
+
+        //проверяем счетчики
+        Assertions.assertEquals(53, result.getTotalLines(), "количество строк не совпадает");
+        Assertions.assertEquals(50, result.getImportedCount(), "количество загруженных строк не совпадает");
+        Assertions.assertEquals(3, result.getRejectedCount(), "количество отклоненных строк не совпадает");
+        Assertions.assertEquals(50, saved.size(), "количество сохраненных записей не совпадает");
+
+        //проверяем, что строки не разрезаны и поля разобраны корректно
+        saved.sort(Comparator.comparing(CDR::getStartTime));
+        CDR first = saved.get(0);
+        Assertions.assertEquals("01", first.getCallType(), "тип звонка не совпадает");
+        Assertions.assertEquals("79001110000", first.getCallerNumber(), "номер инициатора не совпадает");
+        Assertions.assertEquals("79101112233", first.getReceiverNumber(), "номер принимающего не совпадает");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0, 15, 500_000_000), first.getStartTime(), "время начала не совпадает");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 1, 2, 0), first.getEndTime(), "время окончания не совпадает");
+        Assertions.assertEquals("79001110049", saved.get(49).getCallerNumber(), "последняя запись не совпадает");
+    }
+
+    /**
+     * проверяем, что ведущие нули номеров сохраняются, а строка заголовка не в начале файла отклоняется
+     * @throws IOException выбрасывает запись файла
+     */
+    @Test
+    void testIngestFile_leadingZeroAndHeader() throws IOException {
+        String csv = "callType,callerNumber,receiverNumber,startTime,endTime\n"
+                + "01, 079001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"
+                + "02, 79001112233, 079001112233, 2025-01-01T03:00, 2025-01-01T04:00\n"
+                + "callType,callerNumber,receiverNumber,startTime,endTime\n"
+                + "c1, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n";
+        Path file = tempDir.resolve("cdr.csv");
+        Files.writeString(file, csv);
+
+        CDRFileIngestService service = new CDRFileIngestService(cdrPipelineService, true, tempDir.toString(), 1024, 1);
+        List<CDR> saved = new ArrayList<>();
+        when(cdrPipelineService.publishAll(any())).thenAnswer(invocation -> {
+            Iterable<CDR> records = invocation.getArgument(0);
+            records.forEach(saved::add);
+            return new BulkInsertResult(saved.size(), 1);
+        });
+
+        CDRImportResult result = service.ingestFile(file);
+
+        Assertions.assertEquals(4, result.getTotalLines(), "заголовок в начале файла не должен считаться строкой");
+        Assertions.assertEquals(2, result.getImportedCount(), "количество загруженных строк не совпадает");
+        Assertions.assertEquals(2, result.getRejectedCount(), "строки, начинающиеся с 'c', должны отклоняться");
+        Assertions.assertEquals("079001112233", saved.get(0).getCallerNumber(), "ведущий ноль номера потерян");
+        Assertions.assertEquals("79001112233", saved.get(1).getCallerNumber(), "номер без ведущего нуля не совпадает");
+        Assertions.assertEquals("079001112233", saved.get(1).getReceiverNumber(), "ведущий ноль номера потерян");
+    }
+
+    /**
+     * проверяем, что загруженный файл из каталога переименовывается
+     * @throws IOException выбрасывает запись файла
+     */
+    @Test
+    void testPollDirectory() throws IOException {
+        Path file = tempDir.resolve("nightly.csv");
+        Files.writeString(file, "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n");
+
+        CDRFileIngestService service = new CDRFileIngestService(cdrPipelineService, true, tempDir.toString(), 1024, 1);
+        when(cdrPipelineService.publishAll(any())).thenReturn(new BulkInsertResult(1, 1));
+        service.pollDirectory();
+
+        Assertions.assertFalse(Files.exists(file), "файл должен быть переименован");
+        Assertions.assertTrue(Files.exists(tempDir.resolve("nightly.csv.done")), "файл должен быть отмечен загруженным");
+        verify(cdrPipelineService, times(1)).publishAll(any());
+    }
+}
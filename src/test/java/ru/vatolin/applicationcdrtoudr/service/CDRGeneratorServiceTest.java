@@ -1,14 +1,16 @@
 package ru.vatolin.applicationcdrtoudr.service;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
 import ru.vatolin.applicationcdrtoudr.repository.CDR;
-import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
 import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
 import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
 
@@ -16,10 +18,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.*;
 
@@ -29,14 +38,24 @@ public class CDRGeneratorServiceTest {
     private SubscriberRepository subscriberRepository;
 
     @Mock
-    private CDRepository cdRepository;
+    private CDRStore cdrStore;
+
+    @Mock
+    private CDRPipelineService cdrPipelineService;
 
-    @InjectMocks
     private CDRGeneratorService cdrGeneratorService;
 
+    private UsageRangeIndex usageRangeIndex;
+
     @TempDir
     Path tempDir;
 
+    @BeforeEach
+    void setUp() {
+        //реестр абонентов настоящий, абоненты загружаются из Mock репозитория
+        cdrGeneratorService = new CDRGeneratorService(cdrStore, new SubscriberRegistry(subscriberRepository), cdrPipelineService, new UDRCache(100, 60), usageRangeIndex = new UsageRangeIndex(), 1000, 2000);
+    }
+
     /**
      * Проверяем роботоспособность generateCDRecords()
      */
@@ -50,11 +69,15 @@ public class CDRGeneratorServiceTest {
         //задаем поведение Mock объекту
         when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
 
+        List<CDR> saved = captureSavedEach();
+
         //запускаем проверяемый метод
-        cdrGeneratorService.generateCDRecords();
+        BulkInsertResult result = cdrGeneratorService.generateCDRecords();
 
-        //проверяем, что save сработал и принял объект класса CDR
-        verify(cdRepository, atLeastOnce()).save(any(CDR.class));
+        //проверяем, что записи сохранены по одной
+        verify(cdrStore, times(1)).saveEach(any(), any());
+        Assertions.assertFalse(saved.isEmpty(), "записи не были сохранены");
+        Assertions.assertEquals(saved.size(), result.getRows(), "количество сохраненных записей не совпадает");
         //проверяем, что findAll сработал хоть раз
         verify(subscriberRepository, times(1)).findAll();
     }
@@ -72,11 +95,14 @@ public class CDRGeneratorServiceTest {
         //задаем поведение Mock объекту
         when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
 
+        List<CDR> saved = captureSavedEach();
+
         //запускаем проверяемый метод
         cdrGeneratorService.generateCDRecords();
 
         //проверяем чтобы save сработал хоть раз, а также корректность началального времени
-        verify(cdRepository, atLeastOnce()).save(argThat(cdr -> cdr.getStartTime().isBefore(cdr.getEndTime())));
+        Assertions.assertFalse(saved.isEmpty(), "записи не были сохранены");
+        Assertions.assertTrue(saved.stream().anyMatch(cdr -> cdr.getStartTime().isBefore(cdr.getEndTime())), "некорректная запись");
     }
 
     /**
@@ -92,11 +118,14 @@ public class CDRGeneratorServiceTest {
         //задаем поведение Mock объекту
         when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
 
+        List<CDR> saved = captureSavedEach();
+
         //запускаем проверяемый метод
         cdrGeneratorService.generateCDRecords();
 
         //проверяем чтобы save сработал хоть раз, а также корректность конечного времени
-        verify(cdRepository, atLeastOnce()).save(argThat(cdr -> cdr.getEndTime().isBefore(LocalDateTime.now())));
+        Assertions.assertFalse(saved.isEmpty(), "записи не были сохранены");
+        Assertions.assertTrue(saved.stream().anyMatch(cdr -> cdr.getEndTime().isBefore(LocalDateTime.now())), "некорректная запись");
     }
 
     /**
@@ -112,11 +141,216 @@ public class CDRGeneratorServiceTest {
         //задаем поведение Mock объекту
         when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
 
+        List<CDR> saved = captureSavedEach();
+
         //запускаем проверяемый метод
         cdrGeneratorService.generateCDRecords();
 
         //проверяем чтобы save сработал хоть раз, а также чтобы номер звонящего и принимающего отличались
-        verify(cdRepository, atLeastOnce()).save(argThat(cdr -> !cdr.getCallerNumber().equals(cdr.getReceiverNumber())));
+        Assertions.assertFalse(saved.isEmpty(), "записи не были сохранены");
+        Assertions.assertTrue(saved.stream().anyMatch(cdr -> !cdr.getCallerNumber().equals(cdr.getReceiverNumber())), "некорректная запись");
+    }
+
+    /**
+     * проверяем, что в индекс периодов попадают только записи, которые хранилище сохранило:
+     * запись, на которой сохранение прервалось исключением, и следующие записи в индексе не учитываются
+     */
+    @Test
+    void testGenerateCDRecords_indexOnlySaved() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79251256677");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79251258899");
+
+        //задаем поведение Mock объекту
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
+
+        //хранилище сохраняет первую запись и падает на второй
+        List<CDR> saved = new ArrayList<>();
+        doAnswer(invocation -> {
+            Iterator<CDR> records = invocation.getArgument(0);
+            Consumer<CDR> onSaved = invocation.getArgument(1);
+            CDR first = records.next();
+            saved.add(first);
+            onSaved.accept(first);
+            records.next();
+            throw new IllegalStateException("store is unavailable");
+        }).when(cdrStore).saveEach(any(), any());
+
+        //запускаем проверяемый метод
+        Assertions.assertThrows(IllegalStateException.class, () -> cdrGeneratorService.generateCDRecords());
+
+        //проверяем, что в индексе только длительность первой записи (у инициатора и у принимающего)
+        CDR first = saved.get(0);
+        long duration = first.getEndTime().toEpochSecond(ZoneOffset.UTC) - first.getStartTime().toEpochSecond(ZoneOffset.UTC);
+        LocalDateTime from = LocalDateTime.of(2000, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.now().plusYears(1);
+        long indexed = 0;
+        for (String msisdn : List.of("79251256677", "79251258899")) {
+            long[] sum = usageRangeIndex.sum(msisdn, from, to);
+            indexed += sum[0] + sum[1];
+        }
+        Assertions.assertEquals(2 * duration, indexed, "в индекс попала несохраненная запись");
+    }
+
+    /**
+     * проверяем, что в результате учитываются только записи, которые хранилище сохранило, а не все сгенерированные
+     */
+    @Test
+    void testGenerateCDRecords_rowsOnlySaved() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79251256677");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79251258899");
+
+        //задаем поведение Mock объекту
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
+
+        //хранилище пропускает каждую вторую запись
+        List<CDR> saved = new ArrayList<>();
+        doAnswer(invocation -> {
+            Iterator<CDR> records = invocation.getArgument(0);
+            Consumer<CDR> onSaved = invocation.getArgument(1);
+            boolean skip = false;
+            while (records.hasNext()) {
+                CDR cdr = records.next();
+                if (!skip) {
+                    saved.add(cdr);
+                    onSaved.accept(cdr);
+                }
+                skip = !skip;
+            }
+            return null;
+        }).when(cdrStore).saveEach(any(), any());
+
+        //запускаем проверяемый метод
+        BulkInsertResult result = cdrGeneratorService.generateCDRecords();
+
+        //генерируется не меньше 1000 записей, сохраненных - половина
+        Assertions.assertTrue(saved.size() >= 500, "записи не были сохранены");
+        Assertions.assertEquals(saved.size(), result.getRows(), "в результат попали несохраненные записи");
+    }
+
+    /**
+     * проверяем, что при пакетной генерации записи уходят в сервис пакетной вставки, а не сохраняются по одной
+     */
+    @Test
+    void testGenerateCDRecordsInBulk() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79251256677");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79251258899");
+
+        //задаем поведение Mock объекту
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2));
+
+        when(cdrPipelineService.publishAll(any())).thenReturn(new BulkInsertResult(1000, 1));
+
+        //запускаем проверяемый метод
+        cdrGeneratorService.generateCDRecordsInBulk();
+
+        //проверяем, что записи переданы в конвейер сохранения одним вызовом
+        verify(cdrPipelineService, times(1)).publishAll(argThat(records -> records.iterator().hasNext()));
+        verify(cdrStore, never()).saveEach(any(), any());
+    }
+
+    /**
+     * проверяем, что параллельная генерация при одинаковом seed дает одинаковый результат при любом числе потоков,
+     * а записи идут в хронологическом порядке
+     */
+    @Test
+    void testGenerateCDRecordsInParallel_deterministic() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79251256677");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79251258899");
+        Subscriber subscriber3 = new Subscriber();
+        subscriber3.setMsisdn("79251251234");
+
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+        LocalDateTime endTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+        //собираем сохраненные записи в строки для сравнения
+        List<String> saved = new ArrayList<>();
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2, subscriber3));
+        when(cdrPipelineService.publish(any(CDR.class), any(PublishOutcome.class))).thenAnswer(invocation -> {
+            CDR cdr = invocation.getArgument(0);
+            saved.add(cdr.getCallType() + "," + cdr.getCallerNumber() + "," + cdr.getReceiverNumber() + ","
+                    + cdr.getStartTime() + "," + cdr.getEndTime());
+            return (long) saved.size() - 1;
+        });
+
+        //запускаем генерацию в одном и в четырех потоках
+        cdrGeneratorService.generateCDRecordsInParallel(7L, 25_000, 1, startTime, endTime);
+        List<String> singleThread = new ArrayList<>(saved);
+        saved.clear();
+        cdrGeneratorService.generateCDRecordsInParallel(7L, 25_000, 4, startTime, endTime);
+
+        Assertions.assertEquals(25_000, singleThread.size(), "количество записей не совпадает");
+        Assertions.assertEquals(singleThread, saved, "результат зависит от количества потоков");
+
+        //проверяем хронологический порядок времени начала
+        LocalDateTime previous = startTime;
+        for (String line : saved) {
+            LocalDateTime current = LocalDateTime.parse(line.split(",")[3]);
+            Assertions.assertFalse(current.isBefore(previous), "нарушен хронологический порядок");
+            previous = current;
+        }
+    }
+
+    /**
+     * проверяем, что поток записей с одинаковым seed воспроизводится, а с другим seed отличается
+     */
+    @Test
+    void testStreamCDRecords_seeded() {
+        List<String> msisdns = List.of("79251256677", "79251258899", "79251251234");
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+        LocalDateTime endTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+        List<String> first = cdrGeneratorService.streamCDRecords(5L, 1000, msisdns, startTime, endTime).map(this::line).toList();
+        List<String> second = cdrGeneratorService.streamCDRecords(5L, 1000, msisdns, startTime, endTime).map(this::line).toList();
+        List<String> other = cdrGeneratorService.streamCDRecords(6L, 1000, msisdns, startTime, endTime).map(this::line).toList();
+
+        Assertions.assertEquals(1000, first.size(), "количество записей не совпадает");
+        Assertions.assertEquals(first, second, "записи с одинаковым seed должны совпадать");
+        Assertions.assertNotEquals(first, other, "записи с разным seed не должны совпадать");
+    }
+
+    /**
+     * проверяем, что поток записей не генерирует весь объем заранее: из потока на 100 млн записей
+     * читаются только первые записи
+     */
+    @Test
+    void testStreamCDRecords_lazy() {
+        List<String> msisdns = List.of("79251256677", "79251258899");
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+        LocalDateTime endTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            List<CDR> records = cdrGeneratorService.streamCDRecords(1L, 100_000_000L, msisdns, startTime, endTime)
+                    .limit(10)
+                    .toList();
+            Assertions.assertEquals(10, records.size(), "количество прочитанных записей не совпадает");
+        });
+    }
+
+    /**
+     * проверяем, что поток с заданной частотой дает количество записей по длине периода и распределяет их по всему периоду
+     */
+    @Test
+    void testStreamCDRecordsAtRate() {
+        List<String> msisdns = List.of("79251256677", "79251258899", "79251251234");
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+        LocalDateTime endTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+        //одна запись в сутки
+        List<CDR> records = cdrGeneratorService.streamCDRecordsAtRate(8L, 1.0 / 86_400, msisdns, startTime, endTime).toList();
+
+        Assertions.assertEquals(366, records.size(), "количество записей не соответствует частоте");
+        //записи есть в каждом месяце периода, а не только в его начале
+        Set<Month> months = EnumSet.noneOf(Month.class);
+        records.forEach(cdr -> months.add(cdr.getStartTime().getMonth()));
+        Assertions.assertEquals(12, months.size(), "записи распределены не по всему периоду");
     }
 
     /**
@@ -142,25 +376,12 @@ public class CDRGeneratorServiceTest {
         LocalDateTime endTime = LocalDateTime.of(2025, 3, 1, 0, 0, 0);
 
         //создаем cdr для тестов
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251238");
-        cdr2.setStartTime(LocalDateTime.of(2025, 3, 5, 0, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 3, 5, 2, 0, 0));
-
-        Optional<ArrayList<CDR>> optionalIncoming = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-
-        //задаем поведение Mock объектам
+        CDRRow cdr1 = new CDRRow(1L, "01", "79251256677", "79251251234",
+                LocalDateTime.of(2025, 1, 1, 0, 0, 0), LocalDateTime.of(2025, 1, 1, 2, 0, 0));
+
+        //задаем поведение Mock объектам, фильтрация по периоду выполняется в бд
         when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2, subscriber3, subscriber4, subscriber5));
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(optionalIncoming);
+        when(cdrStore.streamIncomingInRange(msisdn, startTime, endTime)).thenReturn(Stream.of(cdr1));
 
         //запускаем тестируемый метод
         String reportId = cdrGeneratorService.generateCDReport(msisdn, startTime, endTime);
@@ -186,4 +407,28 @@ public class CDRGeneratorServiceTest {
             e.printStackTrace();
         }
     }
+
+    private String line(CDR cdr) {
+        return cdr.getCallType() + "," + cdr.getCallerNumber() + "," + cdr.getReceiverNumber() + ","
+                + cdr.getStartTime() + "," + cdr.getEndTime();
+    }
+
+    /**
+     * Сохраняет записи, переданные в saveEach, в список для проверки
+     *
+     * @return список сохраненных записей
+     */
+    private List<CDR> captureSavedEach() {
+        List<CDR> saved = new ArrayList<>();
+        doAnswer(invocation -> {
+            Iterator<CDR> records = invocation.getArgument(0);
+            Consumer<CDR> onSaved = invocation.getArgument(1);
+            records.forEachRemaining(cdr -> {
+                saved.add(cdr);
+                onSaved.accept(cdr);
+            });
+            return null;
+        }).when(cdrStore).saveEach(any(), any());
+        return saved;
+    }
 }
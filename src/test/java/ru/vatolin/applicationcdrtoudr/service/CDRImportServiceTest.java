@@ -0,0 +1,102 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRImportResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRImportServiceTest {
+    @Mock
+    private CDRPipelineService cdrPipelineService;
+
+    @InjectMocks
+    private CDRImportService cdrImportService;
+
+    /**
+     * проверяем, что корректные строки сохраняются, а некорректные отклоняются без прерывания загрузки
+     */
+    @Test
+    void testImportCsv() {
+        String csv = "callType,callerNumber,receiverNumber,startTime,endTime\n"
+                + "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"
+                + "05, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"
+                + "02, 79101112233, 79001112233, 2025-01-02T00:00\n"
+                + "02, 7910111223a, 79001112233, 2025-01-02T00:00, 2025-01-02T00:10\n"
+                + "02, 79101112233, 79001112233, 2025-01-02T00:00, 2025-01-01T00:10\n"
+                + "02, 79101112233, 79001112233, 2025-01-03T00:00:15, 2025-01-03T00:10\n";
+
+        //сохраняем записи, которые пришли в конвейер сохранения
+        List<CDR> saved = new ArrayList<>();
+        when(cdrPipelineService.publishAll(any())).thenAnswer(invocation -> {
+            Iterable<CDR> records = invocation.getArgument(0);
+            records.forEach(saved::add);
+            return new BulkInsertResult(saved.size(), 1);
+        });
+
+        CDRImportResult result = cdrImportService.importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        //проверяем счетчики
+        Assertions.assertEquals(7, result.getTotalLines(), "количество строк не совпадает");
+        Assertions.assertEquals(2, result.getImportedCount(), "количество импортированных строк не совпадает");
+        Assertions.assertEquals(4, result.getRejectedCount(), "количество отклоненных строк не совпадает");
+        Assertions.assertEquals(4, result.getErrors().size(), "количество ошибок не совпадает");
+        Assertions.assertTrue(result.getErrors().get(0).startsWith("line 3:"), "ошибка должна указывать номер строки");
+
+        //проверяем сохраненные записи
+        Assertions.assertEquals(2, saved.size(), "количество сохраненных записей не совпадает");
+        Assertions.assertEquals("79001112233", saved.get(0).getCallerNumber(), "номер инициатора не совпадает");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 1, 2, 0), saved.get(0).getEndTime(), "время окончания не совпадает");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 3, 0, 0, 15), saved.get(1).getStartTime(), "время начала не совпадает");
+    }
+
+    /**
+     * проверяем, что разобранные строки, которые конвейер не сохранил, не считаются импортированными
+     */
+    @Test
+    void testImportCsv_failedRowsAreRejected() {
+        String csv = "01, 79001112233, 79101112233, 2025-01-01T00:00, 2025-01-01T02:00\n"
+                + "02, 79101112233, 79001112233, 2025-01-02T00:00, 2025-01-02T00:10\n"
+                + "02, 79101112233, 79001112233, 2025-01-03T00:00, 2025-01-03T00:10\n";
+
+        //конвейер сохраняет только одну запись из трех
+        when(cdrPipelineService.publishAll(any())).thenAnswer(invocation -> {
+            Iterable<CDR> records = invocation.getArgument(0);
+            records.forEach(cdr -> { });
+            return new BulkInsertResult(1, 2, 1);
+        });
+
+        CDRImportResult result = cdrImportService.importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        Assertions.assertEquals(3, result.getTotalLines(), "количество строк не совпадает");
+        Assertions.assertEquals(1, result.getImportedCount(), "несохраненные строки не должны считаться импортированными");
+        Assertions.assertEquals(2, result.getRejectedCount(), "несохраненные строки должны считаться отклоненными");
+        Assertions.assertEquals(1, result.getErrors().size(), "количество ошибок не совпадает");
+    }
+
+    /**
+     * проверяем разбор строки в формате CDR отчета
+     */
+    @Test
+    void testParseLine() {
+        CDR cdr = cdrImportService.parseLine("02, 79101112233, 79001112233, 2025-01-02T00:00, 2025-01-02T00:10");
+
+        Assertions.assertEquals("02", cdr.getCallType(), "тип звонка не совпадает");
+        Assertions.assertEquals("79101112233", cdr.getCallerNumber(), "номер инициатора не совпадает");
+        Assertions.assertEquals("79001112233", cdr.getReceiverNumber(), "номер принимающего не совпадает");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cdrImportService.parseLine("garbage"), "нет ожидаемого исключения");
+    }
+}
@@ -0,0 +1,128 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
+import ru.vatolin.applicationcdrtoudr.repository.IngestionStats;
+import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
+import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRIngestionServiceTest {
+    @Mock
+    private SubscriberRepository subscriberRepository;
+
+    @Mock
+    private CDRStore cdrStore;
+
+    private CDRPipelineService cdrPipelineService;
+    private CDRIngestionService cdrIngestionService;
+
+    @AfterEach
+    void tearDown() {
+        cdrIngestionService.stop();
+        cdrPipelineService.stop();
+    }
+
+    /**
+     * проверяем, что сгенерированные записи доходят через конвейер до пакетной вставки
+     * @throws InterruptedException выбрасывает sleep
+     */
+    @Test
+    void testIngestionPersistsRecords() throws InterruptedException {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 128, 50);
+        cdrPipelineService.start();
+        cdrIngestionService = new CDRIngestionService(new SubscriberRegistry(subscriberRepository), cdrPipelineService, true, 1000);
+        when(subscriberRepository.findAll()).thenReturn(subscribers());
+
+        cdrIngestionService.start();
+        Thread.sleep(500);
+        cdrIngestionService.stop();
+        Thread.sleep(100);
+
+        IngestionStats stats = cdrIngestionService.getStats();
+        Assertions.assertFalse(stats.isRunning(), "загрузка должна быть остановлена");
+        Assertions.assertTrue(stats.getPersistedCount() > 0, "записи должны сохраняться");
+        verify(cdrStore, atLeastOnce()).saveAll(anyList());
+    }
+
+    /**
+     * проверяем, что при остановившемся сохранении буфер конвейера заполняется и генератор ждет
+     * @throws InterruptedException выбрасывает sleep
+     */
+    @Test
+    void testBackpressureWhenPersistenceStalls() throws InterruptedException {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 128, 10);
+        cdrPipelineService.start();
+        cdrIngestionService = new CDRIngestionService(new SubscriberRegistry(subscriberRepository), cdrPipelineService, true, 5000);
+        when(subscriberRepository.findAll()).thenReturn(subscribers());
+
+        //писатель зависает на первой порции
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return List.of();
+        }).when(cdrStore).saveAll(anyList());
+
+        cdrIngestionService.start();
+        Thread.sleep(500);
+        IngestionStats stats = cdrIngestionService.getStats();
+        release.countDown();
+
+        //буфер заполнен (зависшая порция слоты не освободила), а сгенерировано не больше, чем поместилось в буфер
+        Assertions.assertEquals(128, stats.getQueueDepth(), "буфер должен быть заполнен");
+        Assertions.assertEquals(128, stats.getQueueCapacity(), "емкость буфера не совпадает");
+        Assertions.assertTrue(stats.getProducedCount() <= 128, "генератор должен ждать освобождения слотов");
+        Assertions.assertEquals(0, stats.getPersistedCount(), "сохраненных записей быть не должно");
+    }
+
+    /**
+     * проверяем, что сохраненные записи и задержка считаются только по записям загрузки:
+     * исторические записи другого производителя не увеличивают задержку до месяцев
+     * @throws InterruptedException выбрасывает sleep
+     */
+    @Test
+    void testStatsIgnoreOtherProducers() throws InterruptedException {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 128, 50);
+        cdrPipelineService.start();
+        cdrIngestionService = new CDRIngestionService(new SubscriberRegistry(subscriberRepository), cdrPipelineService, true, 1000);
+        when(subscriberRepository.findAll()).thenReturn(subscribers());
+
+        cdrIngestionService.start();
+        Thread.sleep(300);
+        //импорт исторической записи после записей загрузки
+        CDR historical = new CDR();
+        historical.setCallType("01");
+        historical.setCallerNumber("79251256677");
+        historical.setReceiverNumber("79251258899");
+        historical.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0));
+        historical.setEndTime(LocalDateTime.of(2025, 1, 1, 0, 5));
+        cdrPipelineService.publishAll(List.of(historical));
+        cdrIngestionService.stop();
+        Thread.sleep(100);
+
+        IngestionStats stats = cdrIngestionService.getStats();
+        Assertions.assertTrue(stats.getPersistedCount() > 0, "записи загрузки должны сохраняться");
+        Assertions.assertTrue(stats.getPersistedCount() <= stats.getProducedCount(), "сохраненными считаются только записи загрузки");
+        Assertions.assertTrue(stats.getLagMillis() < 60_000, "задержка не должна зависеть от исторических записей");
+    }
+
+    private List<Subscriber> subscribers() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79251256677");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79251258899");
+        return List.of(subscriber1, subscriber2);
+    }
+}
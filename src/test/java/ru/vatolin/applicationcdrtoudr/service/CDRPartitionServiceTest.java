@@ -0,0 +1,56 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRPartitionServiceTest {
+    @Mock
+    private CDRepository cdRepository;
+
+    @Mock
+    private UsageRollupService usageRollupService;
+
+    /**
+     * проверяем, что удаляются только партиции старше срока хранения вместе с их агрегатами
+     */
+    @Test
+    void testDropExpiredPartitions() {
+        CDRPartitionService cdrPartitionService = new CDRPartitionService(cdRepository, usageRollupService, new UDRCache(100, 60), new UsageRangeIndex(), 3);
+        YearMonth current = YearMonth.now();
+        when(cdRepository.isPartitioned()).thenReturn(true);
+        when(cdRepository.findPartitions()).thenReturn(List.of(current.minusMonths(4), current.minusMonths(3),
+                current.minusMonths(2), current));
+
+        List<YearMonth> dropped = cdrPartitionService.dropExpiredPartitions();
+
+        //хранятся текущий и два предыдущих месяца
+        Assertions.assertEquals(List.of(current.minusMonths(4), current.minusMonths(3)), dropped, "удалены не те партиции");
+        verify(cdRepository).dropPartition(current.minusMonths(4));
+        verify(cdRepository).dropPartition(current.minusMonths(3));
+        verify(usageRollupService).clearMonth(current.minusMonths(4));
+        verify(usageRollupService).clearMonth(current.minusMonths(3));
+        verify(cdRepository, never()).dropPartition(current.minusMonths(2));
+    }
+
+    /**
+     * проверяем, что без срока хранения партиции не удаляются
+     */
+    @Test
+    void testDropExpiredPartitions_retentionDisabled() {
+        CDRPartitionService cdrPartitionService = new CDRPartitionService(cdRepository, usageRollupService, new UDRCache(100, 60), new UsageRangeIndex(), 0);
+        when(cdRepository.isPartitioned()).thenReturn(true);
+
+        Assertions.assertTrue(cdrPartitionService.dropExpiredPartitions().isEmpty(), "партиции не должны удаляться");
+        verify(cdRepository, never()).dropPartition(any());
+    }
+}
@@ -0,0 +1,200 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.BulkInsertResult;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRStore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CDRPipelineServiceTest {
+    @Mock
+    private CDRStore cdrStore;
+
+    private CDRPipelineService cdrPipelineService;
+
+    @AfterEach
+    void tearDown() {
+        cdrPipelineService.stop();
+    }
+
+    /**
+     * проверяем, что publishAll возвращается только после сохранения всех записей, а записи сохраняются порциями
+     */
+    @Test
+    void testPublishAllWaitsForPersistence() {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 16, 5);
+        cdrPipelineService.start();
+
+        //копируем поля записей, так как слоты буфера переиспользуются
+        List<String> saved = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            List<CDR> batch = invocation.getArgument(0);
+            Assertions.assertTrue(batch.size() <= 5, "порция больше заданного размера");
+            batch.forEach(cdr -> saved.add(cdr.getReceiverNumber()));
+            return List.of();
+        }).when(cdrStore).saveAll(anyList());
+
+        List<CDR> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(record(String.valueOf(i)));
+        }
+        BulkInsertResult result = cdrPipelineService.publishAll(records);
+
+        Assertions.assertEquals(100, result.getRows(), "количество записей не совпадает");
+        Assertions.assertEquals(0, result.getFailedRows(), "отброшенных записей быть не должно");
+        Assertions.assertEquals(100, saved.size(), "не все записи сохранены к возврату из publishAll");
+        Assertions.assertEquals("0", saved.get(0), "нарушен порядок записей");
+        Assertions.assertEquals("99", saved.get(99), "нарушен порядок записей");
+        Assertions.assertEquals(100, cdrPipelineService.getPersistedCount(), "счетчик сохраненных записей не совпадает");
+        Assertions.assertEquals(0, cdrPipelineService.getDepth(), "буфер должен быть пуст");
+    }
+
+    /**
+     * проверяем, что ошибка сохранения порции не останавливает конвейер
+     */
+    @Test
+    void testFailedBatchIsCounted() {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 16, 4);
+
+        //первая порция падает, остальные сохраняются
+        AtomicBoolean failed = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("db is down");
+            }
+            return List.of();
+        }).when(cdrStore).saveAll(anyList());
+
+        //публикуем до запуска писателя, чтобы первые 4 записи попали в одну порцию
+        long lastSequence = -1;
+        for (int i = 0; i < 4; i++) {
+            lastSequence = cdrPipelineService.publish(record(String.valueOf(i)));
+        }
+        cdrPipelineService.start();
+        cdrPipelineService.awaitPersisted(lastSequence);
+        BulkInsertResult result = cdrPipelineService.publishAll(List.of(record("4"), record("5")));
+
+        Assertions.assertEquals(2, result.getRows(), "количество записей не совпадает");
+        Assertions.assertEquals(4, cdrPipelineService.getFailedCount(), "счетчик отброшенных записей не совпадает");
+        Assertions.assertEquals(2, cdrPipelineService.getPersistedCount(), "счетчик сохраненных записей не совпадает");
+    }
+
+    /**
+     * проверяем, что publishAll возвращает количество сохраненных записей, а записи отброшенной порции
+     * учитываются как отброшенные только у их производителя
+     */
+    @Test
+    void testPublishAllReportsFailedRows() throws InterruptedException {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 16, 4);
+
+        //писатель держит первую порцию, пока не опубликованы все записи, чтобы состав следующих порций не зависел
+        //от планировщика; падает только порция с записью "bad"
+        CountDownLatch gateTaken = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<CDR> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(cdr -> "gate".equals(cdr.getReceiverNumber()))) {
+                gateTaken.countDown();
+                while (cdrPipelineService.getDepth() < 7) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+            if (batch.stream().anyMatch(cdr -> "bad".equals(cdr.getReceiverNumber()))) {
+                throw new IllegalStateException("constraint violation");
+            }
+            return List.of();
+        }).when(cdrStore).saveAll(anyList());
+
+        //записи другого производителя попадают в ту же порцию, но не учитываются в его итоге
+        PublishOutcome other = new PublishOutcome();
+        cdrPipelineService.publish(record("gate"), other);
+        cdrPipelineService.start();
+        gateTaken.await();
+        cdrPipelineService.publish(record("0"), other);
+        BulkInsertResult result = cdrPipelineService.publishAll(List.of(record("bad"), record("2"), record("3"), record("4"), record("5")));
+
+        Assertions.assertEquals(2, result.getRows(), "количество сохраненных записей не совпадает");
+        Assertions.assertEquals(3, result.getFailedRows(), "количество отброшенных записей не совпадает");
+        Assertions.assertEquals(1, other.getPersisted(), "запись другого производителя учтена неверно");
+        Assertions.assertEquals(1, other.getFailed(), "запись другого производителя не учтена как отброшенная");
+    }
+
+    /**
+     * проверяем, что отклоненные хранилищем записи учитываются как отброшенные, а остальные записи порции - как сохраненные
+     */
+    @Test
+    void testRejectedRecordsAreCounted() {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 16, 8);
+        cdrPipelineService.start();
+
+        //хранилище отклоняет записи с неизвестным номером
+        doAnswer(invocation -> {
+            List<CDR> batch = invocation.getArgument(0);
+            return batch.stream().filter(cdr -> "unknown".equals(cdr.getReceiverNumber())).toList();
+        }).when(cdrStore).saveAll(anyList());
+
+        BulkInsertResult result = cdrPipelineService.publishAll(List.of(record("0"), record("unknown"), record("2"), record("unknown")));
+
+        Assertions.assertEquals(2, result.getRows(), "количество сохраненных записей не совпадает");
+        Assertions.assertEquals(2, result.getFailedRows(), "количество отклоненных записей не совпадает");
+        Assertions.assertEquals(2, cdrPipelineService.getPersistedCount(), "счетчик сохраненных записей не совпадает");
+        Assertions.assertEquals(2, cdrPipelineService.getFailedCount(), "счетчик отброшенных записей не совпадает");
+    }
+
+    /**
+     * проверяем, что ожидание сохранения не зависает, если писатель остановлен
+     */
+    @Test
+    void testAwaitPersistedFailsWhenStopped() {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 16, 4);
+
+        //писатель не запущен, поэтому запись не будет сохранена
+        long sequence = cdrPipelineService.publish(record("0"));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> cdrPipelineService.awaitPersisted(sequence),
+                "ожидание остановленного писателя должно завершаться ошибкой");
+        verify(cdrStore, never()).saveAll(anyList());
+    }
+
+    /**
+     * проверяем, что публикация в заполненный буфер не зависает, если писатель остановлен
+     */
+    @Test
+    void testPublishFailsWhenFullAndStopped() {
+        cdrPipelineService = new CDRPipelineService(cdrStore, new UDRCache(100, 60), new UsageRangeIndex(), 2, 2);
+
+        //писатель не запущен, буфер на 2 слота заполняется первыми двумя записями
+        cdrPipelineService.publish(record("0"));
+        cdrPipelineService.publish(record("1"));
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                Assertions.assertThrows(IllegalStateException.class, () -> cdrPipelineService.publishAll(List.of(record("2"))),
+                        "публикация в заполненный буфер без писателя должна завершаться ошибкой"));
+        Assertions.assertEquals(2, cdrPipelineService.getDepth(), "неудачная публикация не должна занимать слот");
+    }
+
+    private CDR record(String receiverNumber) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber("79001112233");
+        cdr.setReceiverNumber(receiverNumber);
+        cdr.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0));
+        cdr.setEndTime(LocalDateTime.of(2025, 1, 1, 0, 5));
+        return cdr;
+    }
+}
@@ -0,0 +1,121 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CDRRingBufferTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    /**
+     * проверяем, что записи нескольких производителей доходят до потребителя без потерь
+     * и в порядке публикации каждого производителя
+     * @throws InterruptedException выбрасывает join
+     */
+    @Test
+    void testMultipleProducers() throws InterruptedException {
+        int producers = 4;
+        int recordsPerProducer = 20_000;
+        //буфер намного меньше объема, поэтому производители ждут освобождения слотов
+        CDRRingBuffer ringBuffer = new CDRRingBuffer(64);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String caller = "7900000000" + p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < recordsPerProducer; i++) {
+                    ringBuffer.publish("01", caller, String.valueOf(i), TIME, TIME);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        //потребитель запоминает последний номер записи каждого производителя
+        int[] lastIndex = new int[producers];
+        Arrays.fill(lastIndex, -1);
+        List<CDR> batch = new ArrayList<>();
+        long consumed = 0;
+        while (consumed < (long) producers * recordsPerProducer) {
+            int count = ringBuffer.drainTo(batch, 16);
+            for (CDR cdr : batch) {
+                int producer = cdr.getCallerNumber().charAt(10) - '0';
+                int index = Integer.parseInt(cdr.getReceiverNumber());
+                Assertions.assertEquals(lastIndex[producer] + 1, index, "нарушен порядок записей производителя");
+                lastIndex[producer] = index;
+                Assertions.assertNull(cdr.getId(), "id слота должен сбрасываться");
+            }
+            batch.clear();
+            ringBuffer.release(count);
+            consumed += count;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int p = 0; p < producers; p++) {
+            Assertions.assertEquals(recordsPerProducer - 1, lastIndex[p], "записи производителя потеряны");
+        }
+        Assertions.assertEquals(0, ringBuffer.size(), "буфер должен быть пуст");
+    }
+
+    /**
+     * проверяем, что потребитель не получает неопубликованные слоты
+     */
+    @Test
+    void testDrainOnlyPublished() {
+        CDRRingBuffer ringBuffer = new CDRRingBuffer(8);
+        List<CDR> batch = new ArrayList<>();
+
+        Assertions.assertEquals(0, ringBuffer.drainTo(batch, 8), "пустой буфер не должен отдавать слоты");
+
+        ringBuffer.publish("01", "79001112233", "79101112233", TIME, TIME.plusMinutes(1));
+        ringBuffer.publish("02", "79101112233", "79001112233", TIME, TIME.plusMinutes(2));
+        Assertions.assertEquals(2, ringBuffer.drainTo(batch, 8), "количество слотов не совпадает");
+        Assertions.assertEquals(TIME.plusMinutes(2), batch.get(1).getEndTime(), "поля записи не совпадают");
+        Assertions.assertEquals(2, ringBuffer.size(), "слоты до release заняты");
+
+        ringBuffer.release(2);
+        Assertions.assertEquals(0, ringBuffer.size(), "слоты должны освободиться");
+        Assertions.assertEquals(2, ringBuffer.getConsumeSequence(), "номер потребителя не совпадает");
+    }
+
+    /**
+     * проверяем, что прерванный производитель не ждет заполненный буфер в активном цикле, а завершается ошибкой,
+     * не захватив номер последовательности
+     */
+    @Test
+    void testPublishInterruptedWhenFull() {
+        CDRRingBuffer ringBuffer = new CDRRingBuffer(2);
+        ringBuffer.publish("01", "79001112233", "79101112233", TIME, TIME.plusMinutes(1));
+        ringBuffer.publish("01", "79001112233", "79101112233", TIME, TIME.plusMinutes(1));
+
+        Thread.currentThread().interrupt();
+        try {
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> ringBuffer.publish("01", "79001112233", "79101112233", TIME, TIME.plusMinutes(1)),
+                    "прерванный производитель должен завершаться ошибкой");
+            Assertions.assertTrue(Thread.currentThread().isInterrupted(), "флаг прерывания должен сохраниться");
+        } finally {
+            Thread.interrupted();
+        }
+
+        //после освобождения слотов следующая запись получает номер без пропуска
+        ringBuffer.release(2);
+        Assertions.assertEquals(2, ringBuffer.publish("01", "79001112233", "79101112233", TIME, TIME.plusMinutes(1)),
+                "номер последовательности не должен пропускаться");
+    }
+
+    /**
+     * проверяем, что емкость буфера должна быть степенью двойки
+     */
+    @Test
+    void testInvalidCapacity() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CDRRingBuffer(100));
+    }
+}
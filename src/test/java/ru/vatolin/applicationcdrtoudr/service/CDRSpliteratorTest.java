@@ -0,0 +1,81 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+public class CDRSpliteratorTest {
+    private static final String[] MSISDNS = {"79251256677", "79251258899", "79251251234"};
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+    /**
+     * проверяем, что при одинаковом seed источник выдает одинаковые записи
+     */
+    @Test
+    void testSameSeedSameRecords() {
+        List<String> first = collect(new CDRSpliterator(new SplittableRandom(1L), MSISDNS, START, END, 1000));
+        List<String> second = collect(new CDRSpliterator(new SplittableRandom(1L), MSISDNS, START, END, 1000));
+
+        Assertions.assertEquals(1000, first.size(), "количество записей не совпадает");
+        Assertions.assertEquals(first, second, "записи с одинаковым seed должны совпадать");
+    }
+
+    /**
+     * проверяем, что записи идут в хронологическом порядке, не выходят за период и номера не совпадают
+     */
+    @Test
+    void testRecordsAreCorrect() {
+        CDRSpliterator spliterator = new CDRSpliterator(new SplittableRandom(2L), MSISDNS, START, END, 5000);
+
+        LocalDateTime previous = START;
+        for (CDR cdr : StreamSupport.stream(spliterator, false).toList()) {
+            Assertions.assertFalse(cdr.getStartTime().isBefore(previous), "нарушен хронологический порядок");
+            Assertions.assertFalse(cdr.getEndTime().isAfter(END), "время окончания вышло за период");
+            Assertions.assertFalse(cdr.getEndTime().isBefore(cdr.getStartTime()), "окончание раньше начала");
+            Assertions.assertNotEquals(cdr.getCallerNumber(), cdr.getReceiverNumber(), "номера не должны совпадать");
+            previous = cdr.getEndTime();
+        }
+    }
+
+    /**
+     * проверяем, что после разделения записи префикса идут раньше записей остатка, а общее количество сохраняется
+     */
+    @Test
+    void testTrySplit() {
+        CDRSpliterator suffix = new CDRSpliterator(new SplittableRandom(3L), MSISDNS, START, END, 1001);
+        Spliterator<CDR> prefix = suffix.trySplit();
+
+        Assertions.assertNotNull(prefix, "источник должен делиться");
+        Assertions.assertEquals(1001, prefix.estimateSize() + suffix.estimateSize(), "количество записей не сохранилось");
+
+        List<CDR> prefixRecords = StreamSupport.stream(prefix, false).toList();
+        List<CDR> suffixRecords = StreamSupport.stream(suffix, false).toList();
+        Assertions.assertFalse(prefixRecords.get(prefixRecords.size() - 1).getStartTime()
+                .isAfter(suffixRecords.get(0).getStartTime()), "префикс должен быть раньше остатка");
+    }
+
+    /**
+     * проверяем, что количество записей источника с частотой определяется длиной периода
+     */
+    @Test
+    void testOfRate() {
+        CDRSpliterator spliterator = CDRSpliterator.ofRate(new SplittableRandom(4L), MSISDNS, START, START.plusHours(1), 0.5);
+
+        Assertions.assertEquals(1800, spliterator.estimateSize(), "количество записей не соответствует частоте");
+    }
+
+    private List<String> collect(CDRSpliterator spliterator) {
+        List<String> lines = new ArrayList<>();
+        spliterator.forEachRemaining(cdr -> lines.add(cdr.getCallType() + "," + cdr.getCallerNumber() + ","
+                + cdr.getReceiverNumber() + "," + cdr.getStartTime() + "," + cdr.getEndTime()));
+        return lines;
+    }
+}
@@ -0,0 +1,113 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Сравнение хранилища jpa и журнала на диске на одних и тех же записях: пакетная запись,
+ * выборка CDR отчета за период и UDR суммы за месяц.
+ * Запускается только явно: mvn test -Dtest=CDRStoreBenchmarkTest -Dcdr.benchmark=true
+ */
+@DataJpaTest
+@Import({JpaCDRStore.class, CDRBulkInsertService.class, UsageRollupService.class, CDRArchive.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "cdr.benchmark", matches = "true")
+public class CDRStoreBenchmarkTest {
+    private static final Logger log = LoggerFactory.getLogger(CDRStoreBenchmarkTest.class);
+    private static final String[] MSISDNS = {
+            "79001112233", "79101112233", "79201112233", "79301112233", "79401112233",
+            "79501112233", "79601112233", "79701112233", "79801112233", "79901112233"};
+    private static final int RECORDS = 200_000;
+    private static final int CHUNK = 5000;
+
+    @Autowired
+    private JpaCDRStore jpaCDRStore;
+
+    @TempDir
+    private Path directory;
+
+    private LogCDRStore logCDRStore;
+
+    @AfterEach
+    void tearDown() {
+        jpaCDRStore.deleteAll();
+        if (logCDRStore != null) {
+            logCDRStore.close();
+        }
+    }
+
+    /**
+     * замер пакетной записи, выборки за период и сумм за месяц для обоих хранилищ
+     */
+    @Test
+    void benchmarkJpaAgainstLog() {
+        List<List<CDR>> chunks = generate();
+        logCDRStore = new LogCDRStore(directory.toString(), 1_000_000, 1024, false);
+
+        measure("jpa", jpaCDRStore, chunks);
+        measure("log", logCDRStore, chunks);
+    }
+
+    private void measure(String name, CDRStore store, List<List<CDR>> chunks) {
+        long write = time(() -> {
+            chunks.forEach(store::saveAll);
+            return null;
+        });
+        LocalDateTime end = LocalDateTime.now();
+        long range = time(() -> {
+            for (String msisdn : MSISDNS) {
+                try (Stream<CDRRow> rows = store.streamIncomingInRange(msisdn, end.minusMonths(1), end)) {
+                    rows.toList();
+                }
+            }
+            return null;
+        });
+        long month = time(() -> store.sumUsageByMonth(end.getMonthValue()));
+
+        log.info("{}: write {} records {} ms ({} records/s), range report x{} {} ms, month totals {} ms",
+                name, RECORDS, write, RECORDS * 1000L / Math.max(write, 1), MSISDNS.length, range, month);
+    }
+
+    private List<List<CDR>> generate() {
+        LocalDateTime end = LocalDateTime.now();
+        CDRSpliterator spliterator = new CDRSpliterator(new SplittableRandom(42), MSISDNS, end.minusYears(1), end, RECORDS);
+        List<List<CDR>> chunks = new ArrayList<>();
+        List<CDR> chunk = new ArrayList<>(CHUNK);
+        for (var iterator = Spliterators.iterator(spliterator); iterator.hasNext(); ) {
+            chunk.add(iterator.next());
+            if (chunk.size() == CHUNK) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static long time(Supplier<?> action) {
+        long start = System.nanoTime();
+        action.get();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
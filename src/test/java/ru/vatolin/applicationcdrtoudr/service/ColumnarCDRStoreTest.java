@@ -0,0 +1,128 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.MonthlyUsageTotal;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+public class ColumnarCDRStoreTest {
+    private final ColumnarCDRStore columnarCDRStore = new ColumnarCDRStore();
+
+    /**
+     * тестирование выборки за период: границы не включаются, записи возвращаются по времени начала
+     */
+    @Test
+    void testFindIncomingInRange() {
+        columnarCDRStore.saveAll(List.of(
+                cdr("02", "79998887766", "79995554433", LocalDateTime.of(2025, 2, 5, 12, 0), 600),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0), 60),
+                cdr("01", "79995554433", "79998887766", LocalDateTime.of(2025, 1, 21, 12, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 3, 1, 0, 0), 60)));
+
+        List<CDRRow> found = columnarCDRStore.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(2, found.size(), "За период должно быть 2 записи");
+        Assertions.assertEquals("01", found.get(0).callType(), "Тип звонка должен восстанавливаться из byte");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 20, 12, 1), found.get(0).endTime(), "Время окончания восстанавливается по длительности");
+        Assertions.assertEquals("02", found.get(1).callType(), "Записи должны идти по времени начала");
+        Assertions.assertEquals("79995554433", found.get(1).receiverNumber(), "Номер должен восстанавливаться из словаря");
+        Assertions.assertTrue(columnarCDRStore.streamIncomingInRange("79000000000",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)).toList().isEmpty(), "Неизвестный номер");
+    }
+
+    /**
+     * тестирование сумм по месяцу любого года и за все время
+     */
+    @Test
+    void testSumUsage() {
+        columnarCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 31, 23, 50), 600),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2024, 1, 10, 12, 0), 300),
+                cdr("02", "79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 0, 0), 60)));
+
+        List<UsageTotal> january = columnarCDRStore.sumUsageByMonth(1);
+        List<UsageTotal> february = columnarCDRStore.sumUsageByMsisdnAndMonth("79998887766", 2);
+        List<UsageTotal> allTime = columnarCDRStore.sumUsageByMsisdn("79998887766");
+
+        //проверка результатов
+        Assertions.assertEquals(2, january.size(), "За январь инициатор и принимающий");
+        Assertions.assertEquals(900, total(january, "79998887766", UsageTotal.INCOMING), "Январь считается по всем годам");
+        Assertions.assertEquals(900, total(january, "79995554433", UsageTotal.OUTCOMING), "Январь считается по всем годам");
+        Assertions.assertEquals(1, february.size(), "За февраль только входящий звонок");
+        Assertions.assertEquals(60, total(february, "79998887766", UsageTotal.OUTCOMING), "Звонок относится к месяцу начала");
+        Assertions.assertEquals(900, total(allTime, "79998887766", UsageTotal.INCOMING), "Сумма за все время");
+        Assertions.assertEquals(60, total(allTime, "79998887766", UsageTotal.OUTCOMING), "Сумма за все время");
+    }
+
+    /**
+     * тестирование сумм по месяцам одним проходом по массивам
+     */
+    @Test
+    void testSumUsageByMsisdnsGroupByMonth() {
+        columnarCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 31, 23, 50), 600),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2024, 1, 10, 12, 0), 300),
+                cdr("02", "79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 0, 0), 60),
+                cdr("01", "79001112233", "79995554433", LocalDateTime.of(2025, 3, 1, 0, 0), 60)));
+
+        List<MonthlyUsageTotal> totals = columnarCDRStore.sumUsageByMsisdnsGroupByMonth(List.of("79998887766", "79000000000"));
+
+        //проверка результатов
+        Assertions.assertEquals(2, totals.size(), "Январь в качестве инициатора и февраль в качестве принимающего");
+        Assertions.assertEquals(1, totals.get(0).getUsageMonth(), "Строки идут по месяцам");
+        Assertions.assertEquals(900, totals.get(0).getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertEquals(UsageTotal.OUTCOMING, totals.get(1).getDirection(), "Февраль в качестве принимающего");
+        Assertions.assertEquals(60, totals.get(1).getTotalSeconds(), "Длительность за февраль");
+    }
+
+    /**
+     * тестирование вычисления месяца по секундам эпохи на границах месяцев и високосных годах
+     */
+    @Test
+    void testMonthOf() {
+        for (LocalDate date = LocalDate.of(1999, 12, 1); date.isBefore(LocalDate.of(2029, 1, 1)); date = date.plusDays(1)) {
+            long dayStart = date.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            Assertions.assertEquals(date.getMonthValue(), ColumnarCDRStore.monthOf(dayStart), "Месяц не совпадает для " + date);
+            Assertions.assertEquals(date.getMonthValue(), ColumnarCDRStore.monthOf(dayStart + 86_399), "Месяц не совпадает для " + date);
+        }
+    }
+
+    /**
+     * тестирование очистки хранилища
+     */
+    @Test
+    void testDeleteAll() {
+        columnarCDRStore.saveAll(List.of(cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 1, 0, 0), 60)));
+
+        columnarCDRStore.deleteAll();
+
+        Assertions.assertEquals(0, columnarCDRStore.size(), "Хранилище должно быть пустым");
+        Assertions.assertTrue(columnarCDRStore.sumUsageByMsisdn("79998887766").isEmpty(), "Словарь номеров должен очищаться");
+    }
+
+    private long total(List<UsageTotal> totals, String msisdn, String direction) {
+        return totals.stream()
+                .filter(total -> total.getMsisdn().equals(msisdn) && total.getDirection().equals(direction))
+                .mapToLong(UsageTotal::getTotalSeconds)
+                .sum();
+    }
+
+    private CDR cdr(String callType, String caller, String receiver, LocalDateTime startTime, int seconds) {
+        CDR cdr = new CDR();
+        cdr.setCallType(callType);
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusSeconds(seconds));
+        return cdr;
+    }
+}
@@ -0,0 +1,181 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import ru.vatolin.applicationcdrtoudr.repository.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+@DataJpaTest(properties = {"cdr.storage.backend=compact", "cdr.stream.fetch-size=2"})
+@Import({CompactCDRStore.class, SubscriberRegistry.class})
+public class CompactCDRStoreTest {
+
+    @Autowired
+    private CompactCDRStore compactCDRStore;
+
+    @Autowired
+    private CompactCDRRepository compactCDRRepository;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @BeforeEach
+    void setUp() {
+        //как при запуске приложения: хранилище очищается до пересоздания абонентов
+        compactCDRStore.deleteAll();
+        for (String msisdn : List.of("79998887766", "79995554433")) {
+            Subscriber subscriber = new Subscriber();
+            subscriber.setMsisdn(msisdn);
+            subscriberRepository.save(subscriber);
+        }
+    }
+
+    /**
+     * тестирование сохранения: строки ссылаются на абонентов по идентификатору,
+     * номера восстанавливаются при чтении за период
+     */
+    @Test
+    void testSaveAndFindInRange() {
+        compactCDRStore.saveAll(List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 2, 5, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 1, 21, 12, 0))));
+
+        List<CDRRow> found = compactCDRStore.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 2, 1, 0, 0)).toList();
+        CompactCDR stored = compactCDRRepository.findAll().get(0);
+
+        //проверка результатов
+        Assertions.assertEquals(3, compactCDRRepository.count(), "Должно быть сохранено 3 записи");
+        Assertions.assertNotNull(stored.getCaller().getId(), "Запись должна ссылаться на абонента");
+        Assertions.assertEquals(1, found.size(), "За период должна быть 1 запись");
+        Assertions.assertEquals("79998887766", found.get(0).callerNumber(), "Номер инициатора не восстановлен");
+        Assertions.assertEquals("79995554433", found.get(0).receiverNumber(), "Номер принимающего не восстановлен");
+    }
+
+    /**
+     * тестирование потока по страницам из 2 строк: записи с одинаковым временем начала не теряются
+     */
+    @Test
+    void testStreamIncomingInRange() {
+        compactCDRStore.saveAll(List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 25, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 1, 21, 12, 0))));
+
+        List<CDRRow> found = compactCDRStore.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 2, 1, 0, 0)).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(3, found.size(), "За период должно быть 3 записи");
+        Assertions.assertEquals(3, found.stream().map(CDRRow::id).distinct().count(), "Записи не должны повторяться");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 25, 12, 0), found.get(2).startTime(), "Записи должны идти по времени начала");
+        Assertions.assertEquals("79995554433", found.get(0).receiverNumber(), "Номер принимающего не восстановлен");
+        Assertions.assertEquals(0, compactCDRStore.streamIncomingInRange("79000000000",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 2, 1, 0, 0)).count(), "Неизвестный номер");
+    }
+
+    /**
+     * тестирование сумм по целочисленным ключам с переводом идентификаторов в номера
+     */
+    @Test
+    void testSumUsage() {
+        compactCDRStore.saveAll(List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", "79995554433", LocalDateTime.of(2024, 1, 5, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 12, 0))));
+
+        List<UsageTotal> january = compactCDRStore.sumUsageByMonth(1);
+        List<UsageTotal> allTime = compactCDRStore.sumUsageByMsisdn("79998887766");
+
+        //проверка результатов
+        Assertions.assertEquals(2, january.size(), "За январь инициатор и принимающий");
+        Assertions.assertTrue(january.stream().anyMatch(total -> total.getMsisdn().equals("79998887766")
+                && total.getDirection().equals(UsageTotal.INCOMING) && total.getTotalSeconds() == 1200), "Январь считается по всем годам");
+        Assertions.assertEquals(2, allTime.size(), "За все время два направления");
+        Assertions.assertTrue(compactCDRStore.sumUsageByMsisdnAndMonth("79000000000", 1).isEmpty(), "Неизвестный номер");
+    }
+
+    /**
+     * тестирование потока сумм за месяц: страницы по 2 строки читаются по ключу (абонент, направление)
+     * без пропусков и повторов на границах страниц
+     */
+    @Test
+    void testStreamUsageByMonth() {
+        compactCDRStore.saveAll(List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2024, 1, 5, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 1, 7, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 12, 0))));
+
+        List<UsageTotal> january;
+        try (Stream<UsageTotal> stream = compactCDRStore.streamUsageByMonth(1)) {
+            january = stream.toList();
+        }
+
+        //проверка результатов: первый абонент создан первым, поэтому его строки идут первыми
+        Assertions.assertEquals(4, january.size(), "По два направления у каждого абонента");
+        Assertions.assertEquals(List.of("79998887766", "79998887766", "79995554433", "79995554433"),
+                january.stream().map(UsageTotal::getMsisdn).toList(), "Строки одного абонента идут подряд");
+        Assertions.assertEquals(List.of(UsageTotal.INCOMING, UsageTotal.OUTCOMING, UsageTotal.INCOMING, UsageTotal.OUTCOMING),
+                january.stream().map(UsageTotal::getDirection).toList(), "Строки упорядочены по направлению");
+        Assertions.assertEquals(1200, january.get(1).getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertEquals(1200, january.get(2).getTotalSeconds(), "Февраль не попадает в сумму за январь");
+    }
+
+    /**
+     * тестирование сумм по месяцам для нескольких абонентов одним запросом по идентификаторам
+     */
+    @Test
+    void testSumUsageByMsisdnsGroupByMonth() {
+        compactCDRStore.saveAll(List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0)),
+                cdr("79998887766", "79995554433", LocalDateTime.of(2024, 1, 5, 12, 0)),
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 12, 0))));
+
+        List<MonthlyUsageTotal> totals = compactCDRStore.sumUsageByMsisdnsGroupByMonth(List.of("79998887766", "79000000000"));
+
+        //проверка результатов
+        Assertions.assertEquals(2, totals.size(), "Январь в качестве инициатора и февраль в качестве принимающего");
+        Assertions.assertTrue(totals.stream().allMatch(total -> total.getMsisdn().equals("79998887766")), "Номер восстанавливается по идентификатору");
+        Assertions.assertTrue(totals.stream().anyMatch(total -> total.getUsageMonth() == 1
+                && total.getDirection().equals(UsageTotal.INCOMING) && total.getTotalSeconds() == 1200), "Январь считается по всем годам");
+        Assertions.assertTrue(totals.stream().anyMatch(total -> total.getUsageMonth() == 2
+                && total.getDirection().equals(UsageTotal.OUTCOMING) && total.getTotalSeconds() == 600), "Февраль в качестве принимающего");
+    }
+
+    /**
+     * тестирование сохранения порции с записью, номера которой нет среди абонентов:
+     * запись отклоняется, остальные записи порции сохраняются
+     */
+    @Test
+    void testSaveAll_unknownSubscriber() {
+        CDR unknown = cdr("79000000000", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0));
+        List<CDR> records = List.of(
+                cdr("79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 10, 0)),
+                unknown,
+                cdr("79995554433", "79998887766", LocalDateTime.of(2025, 1, 20, 14, 0)));
+
+        List<CDR> rejected = compactCDRStore.saveAll(records);
+
+        Assertions.assertEquals(List.of(unknown), rejected, "Отклонена не та запись");
+        Assertions.assertEquals(2, compactCDRRepository.count(), "Остальные записи порции должны сохраняться");
+    }
+
+    private CDR cdr(String caller, String receiver, LocalDateTime startTime) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusMinutes(10));
+        return cdr;
+    }
+}
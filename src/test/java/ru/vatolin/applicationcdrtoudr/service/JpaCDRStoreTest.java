@@ -0,0 +1,146 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRArchive;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageRollupRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotalRow;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class JpaCDRStoreTest {
+    @Mock
+    private CDRBulkInsertService cdrBulkInsertService;
+
+    @Mock
+    private CDRepository cdRepository;
+
+    @Mock
+    private UsageRollupRepository usageRollupRepository;
+
+    @Mock
+    private UsageRollupService usageRollupService;
+
+    @Mock
+    private CDRArchive cdrArchive;
+
+    private JpaCDRStore jpaCDRStore;
+
+    @BeforeEach
+    void setUp() {
+        jpaCDRStore = new JpaCDRStore(cdrBulkInsertService, cdRepository, usageRollupRepository, usageRollupService, cdrArchive, 2);
+    }
+
+    /**
+     * проверяем, что каждая запись сохраняется отдельной порцией из одной записи (вместе с агрегатами
+     * в ее транзакции), каждая сохраненная запись передается получателю, а агрегаты не пересчитываются целиком
+     */
+    @Test
+    void testSaveEach() {
+        CDR first = new CDR();
+        CDR second = new CDR();
+        List<CDR> saved = new ArrayList<>();
+        jpaCDRStore.saveEach(List.of(first, second).iterator(), saved::add);
+
+        verify(cdrBulkInsertService, times(1)).saveChunk(List.of(first));
+        verify(cdrBulkInsertService, times(1)).saveChunk(List.of(second));
+        Assertions.assertEquals(2, saved.size(), "не все сохраненные записи переданы получателю");
+        verify(usageRollupService, never()).rebuild();
+    }
+
+    /**
+     * проверяем, что порция уходит в пакетную вставку
+     */
+    @Test
+    void testSaveAll() {
+        List<CDR> chunk = List.of(new CDR(), new CDR());
+
+        jpaCDRStore.saveAll(chunk);
+
+        verify(cdrBulkInsertService, times(1)).saveChunk(chunk);
+    }
+
+    /**
+     * проверяем, что строки архива сливаются со строками бд по времени начала
+     */
+    @Test
+    void testStreamIncomingInRange_archive() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2025, 6, 1, 0, 0);
+        when(cdrArchive.streamIncomingInRange("79001112233", start, end)).thenReturn(Stream.of(row(2, start.plusDays(2))));
+        when(cdRepository.streamIncomingInRange("79001112233", start, end))
+                .thenReturn(Stream.of(row(1, start.plusDays(1)), row(3, start.plusDays(3))));
+
+        List<Long> streamed = jpaCDRStore.streamIncomingInRange("79001112233", start, end).map(CDRRow::id).toList();
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L), streamed, "строки архива и бд должны идти по времени начала");
+    }
+
+    /**
+     * проверяем, что строка, которая есть и в архиве, и в бд (месяц не удален после переноса), возвращается один раз
+     */
+    @Test
+    void testStreamIncomingInRange_archivedAndHot() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2025, 6, 1, 0, 0);
+        when(cdrArchive.streamIncomingInRange("79001112233", start, end))
+                .thenReturn(Stream.of(row(1, start.plusDays(1)), row(2, start.plusDays(2))));
+        when(cdRepository.streamIncomingInRange("79001112233", start, end))
+                .thenReturn(Stream.of(row(1, start.plusDays(1)), row(2, start.plusDays(2)), row(3, start.plusDays(3))));
+
+        List<Long> found = jpaCDRStore.streamIncomingInRange("79001112233", start, end).map(CDRRow::id).toList();
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L), found, "строки архива и бд не должны дублироваться");
+    }
+
+    /**
+     * проверяем, что удаление всех записей очищает и архив
+     */
+    @Test
+    void testDeleteAll() {
+        jpaCDRStore.deleteAll();
+
+        verify(cdRepository).deleteAll();
+        verify(usageRollupService).clear();
+        verify(cdrArchive).deleteAll();
+    }
+
+    private CDRRow row(long id, LocalDateTime startTime) {
+        return new CDRRow(id, "01", "79001112233", "79101112233", startTime, startTime.plusMinutes(1));
+    }
+
+    /**
+     * проверяем, что поток сумм за месяц читает страницы по ключу последней строки и останавливается на неполной странице
+     */
+    @Test
+    void testStreamUsageByMonth() {
+        UsageTotalRow first = new UsageTotalRow("79001112233", UsageTotal.INCOMING, 60);
+        UsageTotalRow second = new UsageTotalRow("79001112233", UsageTotal.OUTCOMING, 120);
+        UsageTotalRow third = new UsageTotalRow("79101112233", UsageTotal.INCOMING, 30);
+        when(usageRollupRepository.sumUsageByMonthPage(1, "", "", 2)).thenReturn(List.of(first, second));
+        when(usageRollupRepository.sumUsageByMonthPage(1, "79001112233", UsageTotal.OUTCOMING, 2)).thenReturn(List.of(third));
+
+        List<UsageTotal> totals;
+        try (Stream<UsageTotal> stream = jpaCDRStore.streamUsageByMonth(1)) {
+            totals = stream.toList();
+        }
+
+        //проверяем результаты
+        Assertions.assertEquals(List.of(first, second, third), totals, "строки всех страниц в порядке ключа");
+        verify(usageRollupRepository, times(2)).sumUsageByMonthPage(anyInt(), anyString(), anyString(), anyInt());
+    }
+}
@@ -0,0 +1,204 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.MonthlyUsageTotal;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class LogCDRStoreTest {
+    @TempDir
+    private Path directory;
+
+    private final List<LogCDRStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(LogCDRStore::close);
+    }
+
+    /**
+     * тестирование записи в несколько сегментов и выборки за период по разреженному индексу
+     */
+    @Test
+    void testSaveAndFindInRange() throws IOException {
+        LogCDRStore logCDRStore = open();
+        logCDRStore.saveAll(List.of(
+                cdr("02", "79998887766", "79995554433", LocalDateTime.of(2025, 2, 5, 12, 0), 600),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0, 0, 700), 60),
+                cdr("01", "79995554433", "79998887766", LocalDateTime.of(2025, 1, 21, 12, 0), 60)));
+        logCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 3, 1, 0, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2024, 12, 1, 0, 0), 60)));
+
+        List<CDRRow> found = logCDRStore.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)).toList();
+
+        //проверка результатов
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(2, files.count(), "5 записей по 3 в сегменте - два сегмента");
+        }
+        Assertions.assertEquals(5, logCDRStore.size(), "Должно быть записано 5 записей");
+        Assertions.assertEquals(2, found.size(), "За период должно быть 2 записи");
+        Assertions.assertEquals(LocalDateTime.of(2025, 1, 20, 12, 0, 0, 700), found.get(0).startTime(), "Записи должны идти по времени начала");
+        Assertions.assertEquals("02", found.get(1).callType(), "Тип звонка должен восстанавливаться");
+        Assertions.assertEquals("79995554433", found.get(1).receiverNumber(), "Номер должен восстанавливаться");
+        Assertions.assertEquals(LocalDateTime.of(2025, 2, 5, 12, 10), found.get(1).endTime(), "Время окончания должно восстанавливаться");
+    }
+
+    /**
+     * тестирование сумм по месяцу любого года и за все время
+     */
+    @Test
+    void testSumUsage() {
+        LogCDRStore logCDRStore = open();
+        logCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 31, 23, 50), 600),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2024, 1, 10, 12, 0), 300),
+                cdr("02", "79995554433", "79998887766", LocalDateTime.of(2025, 2, 1, 0, 10), 120)));
+
+        List<UsageTotal> january = logCDRStore.sumUsageByMonth(1);
+        List<UsageTotal> allTime = logCDRStore.sumUsageByMsisdn("79998887766");
+
+        //проверка результатов
+        Assertions.assertEquals(2, january.size(), "За январь инициатор и принимающий");
+        Assertions.assertTrue(january.stream().anyMatch(total -> total.getMsisdn().equals("79998887766")
+                && total.getDirection().equals(UsageTotal.INCOMING) && total.getTotalSeconds() == 900), "Январь считается по всем годам");
+        Assertions.assertEquals(2, allTime.size(), "За все время два направления");
+        Assertions.assertTrue(logCDRStore.sumUsageByMsisdnAndMonth("79000000000", 1).isEmpty(), "Неизвестный номер");
+
+        List<MonthlyUsageTotal> byMonths = logCDRStore.sumUsageByMsisdnsGroupByMonth(List.of("79998887766", "abc"));
+        Assertions.assertEquals(2, byMonths.size(), "Январь в качестве инициатора и февраль в качестве принимающего");
+        Assertions.assertEquals(900, byMonths.get(0).getTotalSeconds(), "Январь считается по всем годам");
+        Assertions.assertEquals(2, byMonths.get(1).getUsageMonth(), "Февраль в качестве принимающего");
+    }
+
+    /**
+     * тестирование восстановления: после перезапуска записи, суммы и идентификаторы восстанавливаются,
+     * недописанная последняя запись отбрасывается
+     */
+    @Test
+    void testRecovery() throws IOException {
+        LogCDRStore logCDRStore = open();
+        logCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 21, 12, 0), 60)));
+        logCDRStore.close();
+        //обрыв записи: половина записи в конце сегмента
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[LogCDRStore.RECORD_SIZE / 2], StandardOpenOption.APPEND);
+
+        LogCDRStore recovered = open();
+        recovered.saveAll(List.of(cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 22, 12, 0), 60)));
+        List<CDRRow> found = recovered.streamIncomingInRange("79998887766",
+                LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 2, 1, 0, 0)).toList();
+
+        //проверка результатов
+        Assertions.assertEquals(3, found.size(), "Записи должны восстанавливаться");
+        Assertions.assertEquals(List.of(1L, 2L, 3L), found.stream().map(CDRRow::id).toList(), "Идентификаторы продолжаются после перезапуска");
+        Assertions.assertEquals(180, recovered.sumUsageByMsisdn("79998887766").get(0).getTotalSeconds(), "Суммы должны восстанавливаться");
+    }
+
+    /**
+     * тестирование восстановления: поврежденная запись в середине журнала не отбрасывается молча
+     */
+    @Test
+    void testRecovery_corruptedSegment() throws IOException {
+        LogCDRStore logCDRStore = open();
+        logCDRStore.saveAll(List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 21, 12, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 22, 12, 0), 60),
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 23, 12, 0), 60)));
+        logCDRStore.close();
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 8);
+        }
+
+        Assertions.assertThrows(IllegalStateException.class, this::open, "нет ожидаемого исключения");
+    }
+
+    /**
+     * тестирование порции с номером, который нельзя записать: порция не записывается целиком
+     */
+    @Test
+    void testSaveAll_invalidMsisdn() {
+        LogCDRStore logCDRStore = open();
+        List<CDR> records = List.of(
+                cdr("01", "79998887766", "79995554433", LocalDateTime.of(2025, 1, 20, 12, 0), 60),
+                cdr("01", "unknown", "79995554433", LocalDateTime.of(2025, 1, 21, 12, 0), 60));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> logCDRStore.saveAll(records), "нет ожидаемого исключения");
+        Assertions.assertEquals(0, logCDRStore.size(), "Порция не должна записываться");
+    }
+
+    /**
+     * тестирование потока за период: блоки из разных сегментов, записанные не по порядку времени начала,
+     * читаются по одному, а строки все равно идут по времени начала
+     */
+    @Test
+    void testStreamIncomingInRange() {
+        LogCDRStore logCDRStore = open();
+        List<CDR> records = new ArrayList<>();
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+        for (int i = 0; i < 20; i++) {
+            //время начала идет не по порядку, часть звонков другого абонента
+            records.add(cdr("01", i % 4 == 0 ? "79995554433" : "79998887766", "79992221122", base.plusHours((i * 7) % 20), 60));
+        }
+        logCDRStore.saveAll(records);
+
+        List<LocalDateTime> expected = records.stream()
+                .filter(cdr -> cdr.getCallerNumber().equals("79998887766"))
+                .map(CDR::getStartTime)
+                .filter(startTime -> startTime.isAfter(base) && startTime.isBefore(base.plusHours(18)))
+                .sorted()
+                .toList();
+
+        List<LocalDateTime> streamed;
+        try (Stream<CDRRow> rows = logCDRStore.streamIncomingInRange("79998887766", base, base.plusHours(18))) {
+            streamed = rows.map(CDRRow::startTime).toList();
+        }
+
+        //проверка результатов
+        Assertions.assertEquals(expected, streamed, "Строки потока должны идти по времени начала");
+        try (Stream<CDRRow> rows = logCDRStore.streamIncomingInRange("79998887766", base, base.plusHours(18))) {
+            Assertions.assertEquals(expected.get(0), rows.findFirst().orElseThrow().startTime(), "Первая строка потока не совпадает");
+        }
+    }
+
+    private LogCDRStore open() {
+        LogCDRStore logCDRStore = new LogCDRStore(directory.toString(), 3, 2, false);
+        stores.add(logCDRStore);
+        return logCDRStore;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private CDR cdr(String callType, String caller, String receiver, LocalDateTime startTime, int seconds) {
+        CDR cdr = new CDR();
+        cdr.setCallType(callType);
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusSeconds(seconds));
+        return cdr;
+    }
+}
@@ -0,0 +1,89 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.vatolin.applicationcdrtoudr.repository.Subscriber;
+import ru.vatolin.applicationcdrtoudr.repository.SubscriberRepository;
+
+import java.util.List;
+
+//абоненты сохраняются в отдельных транзакциях, чтобы реестр видел изменения после их фиксации
+@DataJpaTest
+@Import(SubscriberRegistry.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SubscriberRegistryTest {
+
+    @Autowired
+    private SubscriberRegistry subscriberRegistry;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @AfterEach
+    void tearDown() {
+        subscriberRepository.deleteAll();
+    }
+
+    /**
+     * тестирование проверки существования, порядка номеров и перевода номер <-> идентификатор
+     */
+    @Test
+    void testLookups() {
+        Subscriber first = save("79901112233");
+        Subscriber second = save("79001112233");
+
+        //проверка результатов
+        Assertions.assertEquals(List.of("79901112233", "79001112233"), subscriberRegistry.msisdns(), "Номера должны идти в порядке бд");
+        Assertions.assertTrue(subscriberRegistry.exists("79001112233"), "Абонент должен существовать");
+        Assertions.assertFalse(subscriberRegistry.exists("79001112234"), "Абонента не должно существовать");
+        Assertions.assertFalse(subscriberRegistry.exists("7900abc"), "Номер не из цифр не может существовать");
+        Assertions.assertEquals(first.getId(), subscriberRegistry.idOf("79901112233"), "Идентификатор не совпадает");
+        Assertions.assertEquals("79001112233", subscriberRegistry.msisdnOf(second.getId()), "Номер не совпадает");
+        Assertions.assertNull(subscriberRegistry.idOf("79001112234"), "Идентификатора быть не должно");
+    }
+
+    /**
+     * тестирование номеров, которые нельзя перевести в long: реестр загружается и находит их по строке
+     */
+    @Test
+    void testUnencodableMsisdns() {
+        save("79901112233");
+        Subscriber leadingZero = save("079001112233");
+        save("7900abc");
+
+        //проверка результатов
+        Assertions.assertEquals(List.of("79901112233", "079001112233", "7900abc"), subscriberRegistry.msisdns(), "Номера должны идти в порядке бд");
+        Assertions.assertTrue(subscriberRegistry.exists("079001112233"), "Абонент с ведущим нулем должен существовать");
+        Assertions.assertTrue(subscriberRegistry.exists("7900abc"), "Абонент с номером не из цифр должен существовать");
+        Assertions.assertFalse(subscriberRegistry.exists("79001112233"), "Номер без ведущего нуля - другой абонент");
+        Assertions.assertEquals(leadingZero.getId(), subscriberRegistry.idOf("079001112233"), "Идентификатор не совпадает");
+        Assertions.assertEquals("079001112233", subscriberRegistry.msisdnOf(leadingZero.getId()), "Номер не совпадает");
+    }
+
+    /**
+     * тестирование перечитывания реестра после изменения абонентов
+     */
+    @Test
+    void testRefreshOnChange() {
+        save("79001112233");
+        Assertions.assertFalse(subscriberRegistry.exists("79101112233"), "Абонента еще нет");
+
+        Subscriber added = save("79101112233");
+        Assertions.assertTrue(subscriberRegistry.exists("79101112233"), "Реестр должен увидеть нового абонента");
+
+        subscriberRepository.delete(added);
+        Assertions.assertFalse(subscriberRegistry.exists("79101112233"), "Реестр должен увидеть удаление абонента");
+    }
+
+    private Subscriber save(String msisdn) {
+        Subscriber subscriber = new Subscriber();
+        subscriber.setMsisdn(msisdn);
+        return subscriberRepository.save(subscriber);
+    }
+}
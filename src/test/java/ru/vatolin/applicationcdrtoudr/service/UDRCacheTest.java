@@ -0,0 +1,155 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.UDRCacheStats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UDRCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    /**
+     * проверяем попадание в кэш и вытеснение отчета, который дольше всех не запрашивался
+     */
+    @Test
+    void testGet_evictsLeastRecentlyUsed() {
+        UDRCache udrCache = new UDRCache(2, 0, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        udrCache.get("79001112233", UDRCache.MONTH, 1, loads::incrementAndGet);
+        udrCache.get("79001112233", UDRCache.MONTH, 2, loads::incrementAndGet);
+        //обращение к первому отчету делает вторым кандидатом на вытеснение второй отчет
+        udrCache.get("79001112233", UDRCache.MONTH, 1, loads::incrementAndGet);
+        udrCache.get("79001112233", UDRCache.MONTH, 3, loads::incrementAndGet);
+        udrCache.get("79001112233", UDRCache.MONTH, 1, loads::incrementAndGet);
+        udrCache.get("79001112233", UDRCache.MONTH, 2, loads::incrementAndGet);
+
+        //проверяем результаты
+        UDRCacheStats stats = udrCache.getStats();
+        Assertions.assertEquals(4, loads.get(), "отчет за второй месяц должен строиться повторно");
+        Assertions.assertEquals(2, stats.getHitCount(), "два попадания в отчет за первый месяц");
+        Assertions.assertEquals(4, stats.getMissCount(), "четыре промаха");
+        Assertions.assertEquals(2, stats.getEvictionCount(), "вытеснены отчеты за второй и третий месяц");
+        Assertions.assertEquals(2, stats.getSize(), "размер кэша не больше заданного");
+    }
+
+    /**
+     * проверяем, что отчет старше времени жизни строится заново
+     */
+    @Test
+    void testGet_expired() {
+        UDRCache udrCache = new UDRCache(10, 60, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        udrCache.get("79001112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+        now.addAndGet(59_000_000_000L);
+        udrCache.get("79001112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+        now.addAndGet(1_000_000_000L);
+        int report = udrCache.get("79001112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+
+        //проверяем результаты
+        Assertions.assertEquals(2, report, "устаревший отчет должен строиться заново");
+        Assertions.assertEquals(1, udrCache.getStats().getExpiredCount(), "один отчет устарел");
+        Assertions.assertEquals(1, udrCache.getStats().getHitCount(), "до истечения времени жизни отчет берется из кэша");
+    }
+
+    /**
+     * проверяем, что сохранение записи удаляет только отчеты ее абонентов за месяц начала звонка,
+     * их годовые отчеты и отчет всех абонентов за этот месяц
+     */
+    @Test
+    void testInvalidate() {
+        UDRCache udrCache = new UDRCache(100, 0, now::get);
+        AtomicInteger loads = new AtomicInteger();
+        List<String[]> keys = List.of(
+                new String[]{"79001112233", UDRCache.MONTH, "3"},
+                new String[]{"79001112233", UDRCache.MONTH, "4"},
+                new String[]{"79001112233", UDRCache.YEAR, "0"},
+                new String[]{"79101112233", UDRCache.MONTHS, "0"},
+                new String[]{"79201112233", UDRCache.YEAR, "0"},
+                new String[]{UDRCache.EVERYONE, UDRCache.MONTH, "3"},
+                new String[]{UDRCache.EVERYONE, UDRCache.MONTH, "4"});
+        keys.forEach(key -> udrCache.get(key[0], key[1], Integer.parseInt(key[2]), loads::incrementAndGet));
+
+        udrCache.invalidate(List.of(cdr("79001112233", "79101112233", LocalDateTime.of(2025, 3, 15, 10, 0))));
+        keys.forEach(key -> udrCache.get(key[0], key[1], Integer.parseInt(key[2]), loads::incrementAndGet));
+
+        //проверяем результаты: заново строятся отчеты за март, годовой отчет, разбивка по месяцам и отчет всех абонентов за март
+        Assertions.assertEquals(keys.size() + 4, loads.get(), "должны быть удалены только затронутые отчеты");
+        Assertions.assertEquals(4, udrCache.getStats().getInvalidationCount(), "удалено 4 отчета");
+        Assertions.assertEquals(3, udrCache.getStats().getHitCount(), "отчеты за апрель и другого абонента остаются в кэше");
+    }
+
+    /**
+     * проверяем, что отчет, который строился во время сохранения затрагивающих его записей, в кэш не попадает
+     */
+    @Test
+    void testInvalidate_duringLoad() {
+        UDRCache udrCache = new UDRCache(100, 0, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        udrCache.get("79001112233", UDRCache.MONTH, 3, () -> {
+            udrCache.invalidate(List.of(cdr("79001112233", "79101112233", LocalDateTime.of(2025, 3, 15, 10, 0))));
+            return loads.incrementAndGet();
+        });
+        int report = udrCache.get("79001112233", UDRCache.MONTH, 3, loads::incrementAndGet);
+
+        //проверяем результаты
+        Assertions.assertEquals(2, report, "отчет, построенный до сохранения записи, не должен кэшироваться");
+        Assertions.assertEquals(0, udrCache.getStats().getHitCount(), "попаданий быть не должно");
+    }
+
+    /**
+     * проверяем удаление отчетов при удалении записей месяца
+     */
+    @Test
+    void testInvalidateMonth() {
+        UDRCache udrCache = new UDRCache(100, 0, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        udrCache.get("79001112233", UDRCache.MONTH, 3, loads::incrementAndGet);
+        udrCache.get("79001112233", UDRCache.MONTH, 4, loads::incrementAndGet);
+        udrCache.get("79101112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+        udrCache.invalidateMonth(3);
+
+        //проверяем результаты
+        Assertions.assertEquals(1, udrCache.getStats().getSize(), "остается только отчет за другой месяц");
+        Assertions.assertEquals(2, udrCache.getStats().getInvalidationCount(), "удалены отчет за месяц и годовой отчет");
+    }
+
+    /**
+     * проверяем, что при нулевом размере отчеты не кэшируются, а ошибка построения передается вызывающему
+     */
+    @Test
+    void testGet_disabledAndFailure() {
+        UDRCache disabled = new UDRCache(0, 0, now::get);
+        AtomicInteger loads = new AtomicInteger();
+        disabled.get("79001112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+        disabled.get("79001112233", UDRCache.YEAR, 0, loads::incrementAndGet);
+
+        UDRCache udrCache = new UDRCache(10, 0, now::get);
+        Assertions.assertThrows(RuntimeException.class, () -> udrCache.get("79001112233", UDRCache.MONTH, 1, () -> {
+            throw new RuntimeException("No record for 1 month");
+        }), "ошибка построения отчета должна передаваться вызывающему");
+
+        //проверяем результаты
+        Assertions.assertEquals(2, loads.get(), "при нулевом размере отчет строится каждый раз");
+        Assertions.assertEquals(0, udrCache.getStats().getSize(), "ошибка не должна кэшироваться");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new UDRCache(-1, 0), "отрицательный размер недопустим");
+    }
+
+    private CDR cdr(String caller, String receiver, LocalDateTime startTime) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusMinutes(10));
+        return cdr;
+    }
+}
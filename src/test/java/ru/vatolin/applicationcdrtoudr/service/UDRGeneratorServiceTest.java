@@ -1,17 +1,20 @@
 package ru.vatolin.applicationcdrtoudr.service;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.vatolin.applicationcdrtoudr.repository.*;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.*;
 
@@ -21,10 +24,23 @@ public class UDRGeneratorServiceTest {
     private SubscriberRepository subscriberRepository;
 
     @Mock
-    private CDRepository cdRepository;
+    private CDRStore cdrStore;
 
-    @InjectMocks
     private UDRGeneratorService udrGeneratorService;
+    private UsageRangeIndex usageRangeIndex;
+
+    @BeforeEach
+    void setUp() {
+        //реестр абонентов настоящий, абоненты загружаются из Mock репозитория
+        usageRangeIndex = new UsageRangeIndex();
+        udrGeneratorService = new UDRGeneratorService(cdrStore, new SubscriberRegistry(subscriberRepository), new UDRCache(100, 60),
+                usageRangeIndex, 3, 10000, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        udrGeneratorService.shutdown();
+    }
 
     /**
      * тестируем генератор Msisdn списка
@@ -54,42 +70,10 @@ public class UDRGeneratorServiceTest {
     void testGenerateUDReportForYear() {
         String msisdn = "79251256677";
 
-        //создаем CDR записи для теста
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251235");
-        cdr2.setStartTime(LocalDateTime.of(2025, 1, 1, 3, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 1, 1, 4, 0, 0));
-
-        CDR cdr3 = new CDR();
-        cdr3.setCallType("01");
-        cdr3.setCallerNumber("79251251234");
-        cdr3.setReceiverNumber("79251256677");
-        cdr3.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr3.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr4 = new CDR();
-        cdr4.setCallType("02");
-        cdr4.setCallerNumber("79251251235");
-        cdr4.setReceiverNumber("79251256677");
-        cdr4.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr4.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        //получаем Optional объекты
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>(List.of(cdr3, cdr4)));
-
-        //назначаем поведение Mock объектов
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        //назначаем поведение Mock объектов: бд вернула суммы по двум направлениям
+        when(cdrStore.sumUsageByMsisdn(msisdn)).thenReturn(List.of(
+                usage(msisdn, UsageTotal.INCOMING, 3 * 3600),
+                usage(msisdn, UsageTotal.OUTCOMING, 4 * 3600)));
 
         //запускаем тестируемый метод
         UDR udr = udrGeneratorService.generateUDReportForYear(msisdn);
@@ -106,25 +90,8 @@ public class UDRGeneratorServiceTest {
     @Test
     void testGenerateUDReportForYear_whenIncomingZero() {
         String msisdn = "79251256677";
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251251234");
-        cdr1.setReceiverNumber("79251256677");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251251235");
-        cdr2.setReceiverNumber("79251256677");
-        cdr2.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>());
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+
+        when(cdrStore.sumUsageByMsisdn(msisdn)).thenReturn(List.of(usage(msisdn, UsageTotal.OUTCOMING, 4 * 3600)));
 
         UDR udr = udrGeneratorService.generateUDReportForYear(msisdn);
 
@@ -139,25 +106,7 @@ public class UDRGeneratorServiceTest {
     void testGenerateUDReportForYear_whenOutcomingZero() {
         String msisdn = "79251256677";
 
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251235");
-        cdr2.setStartTime(LocalDateTime.of(2025, 1, 1, 3, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 1, 1, 4, 0, 0));
-
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>());
-
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        when(cdrStore.sumUsageByMsisdn(msisdn)).thenReturn(List.of(usage(msisdn, UsageTotal.INCOMING, 3 * 3600)));
 
         UDR udr = udrGeneratorService.generateUDReportForYear(msisdn);
 
@@ -174,42 +123,10 @@ public class UDRGeneratorServiceTest {
         //номер месяца
         int number = 1;
 
-        //cdr объекты для тестов
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251235");
-        cdr2.setStartTime(LocalDateTime.of(2025, 2, 1, 3, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 2, 1, 4, 0, 0));
-
-        CDR cdr3 = new CDR();
-        cdr3.setCallType("01");
-        cdr3.setCallerNumber("79251251234");
-        cdr3.setReceiverNumber("79251256677");
-        cdr3.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr3.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr4 = new CDR();
-        cdr4.setCallType("02");
-        cdr4.setCallerNumber("79251251235");
-        cdr4.setReceiverNumber("79251256677");
-        cdr4.setStartTime(LocalDateTime.of(2025, 2, 1, 0, 0, 0));
-        cdr4.setEndTime(LocalDateTime.of(2025, 2, 1, 2, 0, 0));
-
-        //получаем Optional
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>(List.of(cdr3, cdr4)));
-
         //задаем поведение Mock объектам
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        when(cdrStore.sumUsageByMsisdnAndMonth(msisdn, number)).thenReturn(List.of(
+                usage(msisdn, UsageTotal.INCOMING, 2 * 3600),
+                usage(msisdn, UsageTotal.OUTCOMING, 2 * 3600)));
 
         //запускаем тестируемый метод
         UDR udr = udrGeneratorService.generateUDReportForMonth(msisdn, number);
@@ -221,32 +138,46 @@ public class UDRGeneratorServiceTest {
     }
 
     /**
-     * тестируем генерацию UDR отчетов за месяц когда incoming равно 0
+     * тестируем, что повторный запрос отчета берется из кэша, а сохранение записи абонента за этот месяц
+     * заставляет построить отчет заново
      */
     @Test
-    void testGenerateUDReportForMonth_whenIncomingZero() {
+    void testGenerateUDReportForMonth_cached() {
         String msisdn = "79251256677";
-        int number = 1;
+        UDRCache udrCache = new UDRCache(100, 60);
+        udrGeneratorService = new UDRGeneratorService(cdrStore, new SubscriberRegistry(subscriberRepository), udrCache, new UsageRangeIndex(), 4, 10000, 1000);
 
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251251234");
-        cdr1.setReceiverNumber("79251256677");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
+        //задаем поведение Mock объектам: после сохранения записи сумма изменилась
+        when(cdrStore.sumUsageByMsisdnAndMonth(msisdn, 1))
+                .thenReturn(List.of(usage(msisdn, UsageTotal.INCOMING, 3600)))
+                .thenReturn(List.of(usage(msisdn, UsageTotal.INCOMING, 7200)));
 
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251251235");
-        cdr2.setReceiverNumber("79251256677");
-        cdr2.setStartTime(LocalDateTime.of(2025, 2, 1, 0, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 2, 1, 2, 0, 0));
+        //запускаем тестируемый метод
+        udrGeneratorService.generateUDReportForMonth(msisdn, 1);
+        UDR cached = udrGeneratorService.generateUDReportForMonth(msisdn, 1);
+        CDR cdr = new CDR();
+        cdr.setCallerNumber("79001002233");
+        cdr.setReceiverNumber(msisdn);
+        cdr.setStartTime(LocalDateTime.of(2025, 1, 10, 12, 0));
+        udrCache.invalidate(List.of(cdr));
+        UDR rebuilt = udrGeneratorService.generateUDReportForMonth(msisdn, 1);
+
+        //проверяем результаты
+        verify(cdrStore, times(2)).sumUsageByMsisdnAndMonth(msisdn, 1);
+        Assertions.assertEquals("01:00:00", cached.getIncomingCall().getTotalTime(), "повторный отчет должен браться из кэша");
+        Assertions.assertEquals("02:00:00", rebuilt.getIncomingCall().getTotalTime(), "после сохранения записи отчет строится заново");
+        Assertions.assertEquals(1, udrGeneratorService.getCacheStats().getHitCount(), "одно попадание в кэш");
+    }
 
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>());
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
+    /**
+     * тестируем генерацию UDR отчетов за месяц когда incoming равно 0
+     */
+    @Test
+    void testGenerateUDReportForMonth_whenIncomingZero() {
+        String msisdn = "79251256677";
+        int number = 1;
 
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        when(cdrStore.sumUsageByMsisdnAndMonth(msisdn, number)).thenReturn(List.of(usage(msisdn, UsageTotal.OUTCOMING, 2 * 3600)));
 
         UDR udr = udrGeneratorService.generateUDReportForMonth(msisdn, number);
 
@@ -262,25 +193,7 @@ public class UDRGeneratorServiceTest {
         String msisdn = "79251256677";
         int number = 1;
 
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 1, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 1, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251235");
-        cdr2.setStartTime(LocalDateTime.of(2025, 2, 1, 3, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 2, 1, 4, 0, 0));
-
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>());
-
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        when(cdrStore.sumUsageByMsisdnAndMonth(msisdn, number)).thenReturn(List.of(usage(msisdn, UsageTotal.INCOMING, 2 * 3600)));
 
         UDR udr = udrGeneratorService.generateUDReportForMonth(msisdn, number);
 
@@ -296,41 +209,248 @@ public class UDRGeneratorServiceTest {
         String msisdn = "79251256677";
         int number = 1;
 
-        CDR cdr1 = new CDR();
-        cdr1.setCallType("01");
-        cdr1.setCallerNumber("79251256677");
-        cdr1.setReceiverNumber("79251251234");
-        cdr1.setStartTime(LocalDateTime.of(2025, 2, 1, 0, 0, 0));
-        cdr1.setEndTime(LocalDateTime.of(2025, 2, 1, 2, 0, 0));
-
-        CDR cdr2 = new CDR();
-        cdr2.setCallType("02");
-        cdr2.setCallerNumber("79251256677");
-        cdr2.setReceiverNumber("79251251235");
-        cdr2.setStartTime(LocalDateTime.of(2025, 3, 1, 3, 0, 0));
-        cdr2.setEndTime(LocalDateTime.of(2025, 3, 1, 4, 0, 0));
-
-        CDR cdr3 = new CDR();
-        cdr3.setCallType("01");
-        cdr3.setCallerNumber("79251251234");
-        cdr3.setReceiverNumber("79251256677");
-        cdr3.setStartTime(LocalDateTime.of(2025, 2, 1, 0, 0, 0));
-        cdr3.setEndTime(LocalDateTime.of(2025, 2, 1, 2, 0, 0));
-
-        CDR cdr4 = new CDR();
-        cdr4.setCallType("02");
-        cdr4.setCallerNumber("79251251235");
-        cdr4.setReceiverNumber("79251256677");
-        cdr4.setStartTime(LocalDateTime.of(2025, 3, 1, 0, 0, 0));
-        cdr4.setEndTime(LocalDateTime.of(2025, 3, 1, 2, 0, 0));
-
-        Optional<ArrayList<CDR>> incomingOptional = Optional.of(new ArrayList<>(List.of(cdr1, cdr2)));
-        Optional<ArrayList<CDR>> outcomingOptional = Optional.of(new ArrayList<>(List.of(cdr3, cdr4)));
-
-        when(cdRepository.findIncomingByMsisdn(msisdn)).thenReturn(incomingOptional);
-        when(cdRepository.findOutcomingByMsisdn(msisdn)).thenReturn(outcomingOptional);
+        when(cdrStore.sumUsageByMsisdnAndMonth(msisdn, number)).thenReturn(List.of());
 
         //проверяем выбрасывание исключения
         Assertions.assertThrows(RuntimeException.class, () -> udrGeneratorService.generateUDReportForMonth(msisdn, number), "нет ожидаемого исключения");
     }
+
+    /**
+     * тестируем генерацию UDR отчетов всех абонентов за месяц одним запросом:
+     * порядок совпадает с порядком абонентов, абоненты без звонков пропускаются
+     */
+    @Test
+    void testGenerateUDReportForEveryone() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79001002233");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79001007788");
+        Subscriber subscriber3 = new Subscriber();
+        subscriber3.setMsisdn("79001009900");
+
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2, subscriber3));
+        when(cdrStore.sumUsageByMonth(1)).thenReturn(List.of(
+                usage("79001009900", UsageTotal.INCOMING, 600),
+                usage("79001002233", UsageTotal.OUTCOMING, 3600),
+                usage("79001009900", UsageTotal.OUTCOMING, 60)));
+
+        List<UDR> reports = udrGeneratorService.generateUDReportForEveryone(1);
+
+        Assertions.assertEquals(2, reports.size(), "абонент без звонков не должен попадать в отчет");
+        Assertions.assertEquals("79001002233", reports.get(0).getMsisdn(), "порядок отчетов не совпадает с порядком абонентов");
+        Assertions.assertEquals("00:00:00", reports.get(0).getIncomingCall().getTotalTime(), "время в качестве инициатора не сходится с ожидаемым");
+        Assertions.assertEquals("01:00:00", reports.get(0).getOutcomingCall().getTotalTime(), "время в качестве принимающего не сходится с ожидаемым");
+        Assertions.assertEquals("79001009900", reports.get(1).getMsisdn(), "порядок отчетов не совпадает с порядком абонентов");
+        Assertions.assertEquals("00:10:00", reports.get(1).getIncomingCall().getTotalTime(), "время в качестве инициатора не сходится с ожидаемым");
+        Assertions.assertEquals("00:01:00", reports.get(1).getOutcomingCall().getTotalTime(), "время в качестве принимающего не сходится с ожидаемым");
+        verify(cdrStore, never()).sumUsageByMsisdnAndMonth(anyString(), anyInt());
+    }
+
+    /**
+     * тестируем параллельную генерацию UDR отчетов всех абонентов: порядок совпадает с порядком абонентов
+     * при любом количестве потоков, ошибки и превышение срока собираются по абонентам и не прерывают остальных
+     */
+    @Test
+    void testGenerateUDReportForEveryoneInParallel() {
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (String msisdn : List.of("79001002233", "79001007788", "79001009900", "79001001111", "79001005555")) {
+            Subscriber subscriber = new Subscriber();
+            subscriber.setMsisdn(msisdn);
+            subscribers.add(subscriber);
+        }
+        when(subscriberRepository.findAll()).thenReturn(subscribers);
+        when(cdrStore.sumUsageByMsisdnAndMonth(anyString(), eq(1))).thenAnswer(invocation -> {
+            String msisdn = invocation.getArgument(0);
+            return switch (msisdn) {
+                case "79001007788" -> List.of();
+                case "79001009900" -> throw new IllegalStateException("Storage unavailable");
+                case "79001005555" -> {
+                    Thread.sleep(2000);
+                    yield List.of(usage(msisdn, UsageTotal.INCOMING, 60));
+                }
+                default -> List.of(usage(msisdn, UsageTotal.INCOMING, 600));
+            };
+        });
+
+        //запускаем тестируемый метод
+        UDRBatchResult result = udrGeneratorService.generateUDReportForEveryoneInParallel(1, Duration.ofMillis(500));
+
+        //проверяем результаты
+        Assertions.assertEquals(2, result.getReports().size(), "абонент без звонков не должен попадать в отчет");
+        Assertions.assertEquals("79001002233", result.getReports().get(0).getMsisdn(), "порядок отчетов не совпадает с порядком абонентов");
+        Assertions.assertEquals("79001001111", result.getReports().get(1).getMsisdn(), "порядок отчетов не совпадает с порядком абонентов");
+        Assertions.assertEquals("00:10:00", result.getReports().get(1).getIncomingCall().getTotalTime(), "время в качестве инициатора не сходится с ожидаемым");
+        Assertions.assertEquals(2, result.getErrors().size(), "ошибка и превышение срока должны попадать в ошибки");
+        Assertions.assertEquals("79001009900", result.getErrors().get(0).getMsisdn(), "ошибки идут в порядке абонентов");
+        Assertions.assertEquals("Storage unavailable", result.getErrors().get(0).getError(), "текст ошибки не совпадает");
+        Assertions.assertEquals("79001005555", result.getErrors().get(1).getMsisdn(), "ошибки идут в порядке абонентов");
+        Assertions.assertTrue(result.getErrors().get(1).getError().startsWith("Deadline"), "задача должна отменяться по сроку");
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> udrGeneratorService.generateUDReportForEveryoneInParallel(1, Duration.ZERO), "срок должен быть положительным");
+    }
+
+    /**
+     * тестируем генерацию UDR отчетов с разбивкой по месяцам: суммы месяцев и года за один запрос к хранилищу
+     */
+    @Test
+    void testGenerateUDReportByMonths() {
+        String msisdn1 = "79251256677";
+        String msisdn2 = "79001002233";
+
+        //назначаем поведение Mock объектов: хранилище вернуло суммы по месяцам, строка чужого абонента не учитывается
+        when(cdrStore.sumUsageByMsisdnsGroupByMonth(List.of(msisdn1, msisdn2))).thenReturn(List.of(
+                new UsageTotalRow(msisdn1, 1, UsageTotal.INCOMING, 3600),
+                new UsageTotalRow(msisdn1, 3, UsageTotal.INCOMING, 1800),
+                new UsageTotalRow(msisdn1, 3, UsageTotal.OUTCOMING, 60),
+                new UsageTotalRow(msisdn2, 12, UsageTotal.OUTCOMING, 7200),
+                new UsageTotalRow("79000000000", 1, UsageTotal.INCOMING, 60)));
+
+        //запускаем тестируемый метод, повторный номер не дает второго отчета
+        List<MonthlyUDR> reports = udrGeneratorService.generateUDReportByMonths(List.of(msisdn1, msisdn2, msisdn1));
+
+        //проверяем результаты
+        verify(cdrStore, times(1)).sumUsageByMsisdnsGroupByMonth(anyCollection());
+        Assertions.assertEquals(2, reports.size(), "отчет должен быть на каждого абонента");
+        MonthlyUDR first = reports.get(0);
+        Assertions.assertEquals(msisdn1, first.getMsisdn(), "порядок отчетов совпадает с порядком номеров");
+        Assertions.assertEquals(12, first.getMonths().size(), "в отчете должны быть все 12 месяцев");
+        Assertions.assertEquals("01:30:00", first.getIncomingCall().getTotalTime(), "сумма за год в качестве инициатора");
+        Assertions.assertEquals("00:01:00", first.getOutcomingCall().getTotalTime(), "сумма за год в качестве принимающего");
+        Assertions.assertEquals("00:30:00", first.getMonths().get(2).getIncomingCall().getTotalTime(), "сумма за март");
+        Assertions.assertEquals("00:00:00", first.getMonths().get(1).getIncomingCall().getTotalTime(), "месяц без звонков");
+        Assertions.assertEquals("02:00:00", reports.get(1).getMonths().get(11).getOutcomingCall().getTotalTime(), "сумма за декабрь");
+    }
+
+    /**
+     * тестируем генерацию UDR отчетов по списку номеров: один запрос к хранилищу для месяца и для года,
+     * месяц без звонков абонента попадает в ошибки
+     */
+    @Test
+    void testGenerateUDReportForBatch() {
+        String msisdn1 = "79251256677";
+        String msisdn2 = "79001002233";
+        when(cdrStore.sumUsageByMsisdnsGroupByMonth(List.of(msisdn1, msisdn2))).thenReturn(List.of(
+                new UsageTotalRow(msisdn1, 1, UsageTotal.INCOMING, 3600),
+                new UsageTotalRow(msisdn1, 3, UsageTotal.OUTCOMING, 60),
+                new UsageTotalRow(msisdn2, 3, UsageTotal.INCOMING, 120)));
+
+        //запускаем тестируемый метод, повторный номер не дает второго отчета
+        UDRBatchResult month = udrGeneratorService.generateUDReportForBatch(List.of(msisdn1, msisdn2, msisdn1), 1);
+        UDRBatchResult year = udrGeneratorService.generateUDReportForBatch(List.of(msisdn1, msisdn2), 0);
+
+        //проверяем результаты
+        verify(cdrStore, times(2)).sumUsageByMsisdnsGroupByMonth(anyCollection());
+        Assertions.assertEquals(1, month.getReports().size(), "отчет только у абонента со звонками за месяц");
+        Assertions.assertEquals("01:00:00", month.getReports().get(0).getIncomingCall().getTotalTime(), "сумма за январь");
+        Assertions.assertEquals(msisdn2, month.getErrors().get(0).getMsisdn(), "абонент без звонков за месяц попадает в ошибки");
+        Assertions.assertEquals("No record for 1 month", month.getErrors().get(0).getError(), "текст ошибки не совпадает");
+        Assertions.assertEquals(2, year.getReports().size(), "отчет за год есть у каждого абонента");
+        Assertions.assertEquals("00:01:00", year.getReports().get(0).getOutcomingCall().getTotalTime(), "сумма за год в качестве принимающего");
+        Assertions.assertEquals("00:02:00", year.getReports().get(1).getIncomingCall().getTotalTime(), "сумма за год в качестве инициатора");
+        IllegalArgumentException invalidMonth = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> udrGeneratorService.generateUDReportForBatch(List.of(msisdn1), 13), "номер месяца вне диапазона");
+        Assertions.assertTrue(invalidMonth.getMessage().contains("0 for the year"), "в сообщении должен быть указан месяц 0 (год)");
+    }
+
+    /**
+     * тестируем ограничение размера списка абонентов, заданное в конструкторе
+     */
+    @Test
+    void testGenerateUDReportForBatch_tooLarge() {
+        udrGeneratorService = new UDRGeneratorService(cdrStore, new SubscriberRegistry(subscriberRepository), new UDRCache(100, 60),
+                usageRangeIndex, 4, 10000, 2);
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> udrGeneratorService.generateUDReportForBatch(List.of("79998887766", "79995554433", "79001112233"), 1),
+                "список больше udr.report.batch-max-size");
+        verifyNoInteractions(cdrStore);
+    }
+
+    /**
+     * тестируем поток UDR отчетов всех абонентов: строки одного абонента складываются,
+     * абоненты без звонков и номера не из списка абонентов пропускаются, поток хранилища закрывается
+     */
+    @Test
+    void testStreamUDReportForEveryone() {
+        Subscriber subscriber1 = new Subscriber();
+        subscriber1.setMsisdn("79001002233");
+        Subscriber subscriber2 = new Subscriber();
+        subscriber2.setMsisdn("79001007788");
+        Subscriber subscriber3 = new Subscriber();
+        subscriber3.setMsisdn("79001009900");
+        when(subscriberRepository.findAll()).thenReturn(List.of(subscriber1, subscriber2, subscriber3));
+        AtomicBoolean closed = new AtomicBoolean();
+        when(cdrStore.streamUsageByMonth(1)).thenReturn(Stream.of(
+                usage("79000000000", UsageTotal.INCOMING, 60),
+                usage("79001002233", UsageTotal.INCOMING, 3600),
+                usage("79001002233", UsageTotal.OUTCOMING, 90),
+                usage("79001007788", UsageTotal.INCOMING, 0),
+                usage("79001009900", UsageTotal.OUTCOMING, 120)).onClose(() -> closed.set(true)));
+
+        //запускаем тестируемый метод
+        List<UDR> reports;
+        try (Stream<UDR> stream = udrGeneratorService.streamUDReportForEveryone(1)) {
+            reports = stream.toList();
+        }
+
+        //проверяем результаты
+        Assertions.assertEquals(2, reports.size(), "в поток попадают только абоненты со звонками");
+        Assertions.assertEquals("79001002233", reports.get(0).getMsisdn(), "порядок отчетов - порядок строк хранилища");
+        Assertions.assertEquals("01:00:00", reports.get(0).getIncomingCall().getTotalTime(), "сумма в качестве инициатора");
+        Assertions.assertEquals("00:01:30", reports.get(0).getOutcomingCall().getTotalTime(), "сумма в качестве принимающего");
+        Assertions.assertEquals("00:02:00", reports.get(1).getOutcomingCall().getTotalTime(), "последний абонент потока");
+        Assertions.assertTrue(closed.get(), "поток хранилища должен закрываться вместе с потоком отчетов");
+    }
+
+    /**
+     * тестируем генерацию UDR отчета за произвольный период: звонок на границе учитывается частью внутри периода
+     */
+    @Test
+    void testGenerateUDReportForRange() {
+        String msisdn = "79251256677";
+        usageRangeIndex.add(List.of(
+                cdr(msisdn, "79001002233", LocalDateTime.of(2025, 3, 1, 9, 50), 1200),
+                cdr("79001002233", msisdn, LocalDateTime.of(2025, 3, 5, 12, 0), 600)));
+
+        //запускаем тестируемый метод
+        UDR udr = udrGeneratorService.generateUDReportForRange(msisdn,
+                LocalDateTime.of(2025, 3, 1, 10, 0), LocalDateTime.of(2025, 3, 8, 0, 0));
+
+        //проверяем результаты
+        Assertions.assertEquals(msisdn, udr.getMsisdn(), "номер абонента не совпадает");
+        Assertions.assertEquals("00:10:00", udr.getIncomingCall().getTotalTime(), "учитывается только часть звонка внутри периода");
+        Assertions.assertEquals("00:10:00", udr.getOutcomingCall().getTotalTime(), "звонок внутри периода учитывается целиком");
+        verifyNoInteractions(cdrStore);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> udrGeneratorService.generateUDReportForRange(msisdn,
+                LocalDateTime.of(2025, 3, 8, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)), "начало периода должно быть раньше конца");
+    }
+
+    private CDR cdr(String caller, String receiver, LocalDateTime startTime, long seconds) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusSeconds(seconds));
+        return cdr;
+    }
+
+    private UsageTotal usage(String msisdn, String direction, long totalSeconds) {
+        return new UsageTotal() {
+            @Override
+            public String getMsisdn() {
+                return msisdn;
+            }
+
+            @Override
+            public String getDirection() {
+                return direction;
+            }
+
+            @Override
+            public Long getTotalSeconds() {
+                return totalSeconds;
+            }
+        };
+    }
 }
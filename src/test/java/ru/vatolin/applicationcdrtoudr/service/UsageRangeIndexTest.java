@@ -0,0 +1,111 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public class UsageRangeIndexTest {
+    private static final String MSISDN = "79001112233";
+    private static final String OTHER = "79101112233";
+
+    /**
+     * проверяем обрезку звонков на обеих границах периода и звонок, который перекрывает период целиком
+     */
+    @Test
+    void testSum_clipsBoundaryCalls() {
+        UsageRangeIndex usageRangeIndex = new UsageRangeIndex();
+        usageRangeIndex.add(List.of(
+                cdr(MSISDN, OTHER, LocalDateTime.of(2025, 3, 1, 9, 55), 600),
+                cdr(MSISDN, OTHER, LocalDateTime.of(2025, 3, 1, 10, 30), 300),
+                cdr(MSISDN, OTHER, LocalDateTime.of(2025, 3, 1, 10, 58), 600),
+                cdr(OTHER, MSISDN, LocalDateTime.of(2025, 3, 1, 8, 0), 10800)));
+
+        long[] seconds = usageRangeIndex.sum(MSISDN, LocalDateTime.of(2025, 3, 1, 10, 0), LocalDateTime.of(2025, 3, 1, 11, 0));
+
+        //проверяем результаты: 5 минут до конца первого звонка, второй целиком и 2 минуты третьего
+        Assertions.assertEquals(300 + 300 + 120, seconds[0], "звонки на границах должны обрезаться по периоду");
+        Assertions.assertEquals(3600, seconds[1], "звонок, перекрывающий период, учитывается длиной периода");
+        Assertions.assertArrayEquals(new long[2], usageRangeIndex.sum("79901112233",
+                LocalDateTime.of(2025, 3, 1, 10, 0), LocalDateTime.of(2025, 3, 1, 11, 0)), "у абонента без звонков нулевые суммы");
+    }
+
+    /**
+     * сравниваем сумму по индексу с прямым проходом по записям на случайных звонках и периодах,
+     * записи добавляются не по порядку и между запросами
+     */
+    @Test
+    void testSum_matchesLinearScan() {
+        UsageRangeIndex usageRangeIndex = new UsageRangeIndex();
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDateTime origin = LocalDateTime.of(2025, 1, 1, 0, 0);
+        List<CDR> records = new ArrayList<>();
+
+        for (int round = 0; round < 5; round++) {
+            List<CDR> batch = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                boolean outgoing = random.nextBoolean();
+                batch.add(cdr(outgoing ? MSISDN : OTHER, outgoing ? OTHER : MSISDN,
+                        origin.plusSeconds(random.nextLong(30L * 24 * 3600)), random.nextInt(1, 7200)));
+            }
+            usageRangeIndex.add(batch);
+            records.addAll(batch);
+
+            for (int query = 0; query < 50; query++) {
+                LocalDateTime from = origin.plusSeconds(random.nextLong(30L * 24 * 3600));
+                LocalDateTime to = from.plusSeconds(random.nextLong(1, 5L * 24 * 3600));
+                Assertions.assertArrayEquals(scan(records, from, to), usageRangeIndex.sum(MSISDN, from, to),
+                        "сумма по индексу должна совпадать с прямым проходом за период " + from + " - " + to);
+            }
+        }
+    }
+
+    /**
+     * проверяем удаление звонков месяца и очистку индекса
+     */
+    @Test
+    void testRemoveMonthAndClear() {
+        UsageRangeIndex usageRangeIndex = new UsageRangeIndex();
+        usageRangeIndex.add(List.of(
+                cdr(MSISDN, OTHER, LocalDateTime.of(2025, 2, 10, 10, 0), 600),
+                cdr(MSISDN, OTHER, LocalDateTime.of(2025, 3, 10, 10, 0), 300)));
+        LocalDateTime from = LocalDateTime.of(2025, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+        usageRangeIndex.removeMonth(YearMonth.of(2025, 2));
+        Assertions.assertEquals(300, usageRangeIndex.sum(MSISDN, from, to)[0], "звонки удаленного месяца не учитываются");
+
+        usageRangeIndex.clear();
+        Assertions.assertEquals(0, usageRangeIndex.sum(MSISDN, from, to)[0], "после очистки звонков нет");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> usageRangeIndex.sum(MSISDN, to, from),
+                "начало периода должно быть раньше конца");
+    }
+
+    private long[] scan(List<CDR> records, LocalDateTime from, LocalDateTime to) {
+        long[] seconds = new long[2];
+        for (CDR cdr : records) {
+            LocalDateTime start = cdr.getStartTime().isAfter(from) ? cdr.getStartTime() : from;
+            LocalDateTime end = cdr.getEndTime().isBefore(to) ? cdr.getEndTime() : to;
+            if (start.isBefore(end)) {
+                seconds[MSISDN.equals(cdr.getCallerNumber()) ? 0 : 1] += Duration.between(start, end).getSeconds();
+            }
+        }
+        return seconds;
+    }
+
+    private CDR cdr(String caller, String receiver, LocalDateTime startTime, long seconds) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(startTime.plusSeconds(seconds));
+        return cdr;
+    }
+}
@@ -0,0 +1,144 @@
+package ru.vatolin.applicationcdrtoudr.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.vatolin.applicationcdrtoudr.repository.CDR;
+import ru.vatolin.applicationcdrtoudr.repository.CDRArchive;
+import ru.vatolin.applicationcdrtoudr.repository.CDRRow;
+import ru.vatolin.applicationcdrtoudr.repository.CDRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageRollupRepository;
+import ru.vatolin.applicationcdrtoudr.repository.UsageTotal;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UsageRollupServiceTest {
+    @Mock
+    private UsageRollupRepository usageRollupRepository;
+
+    @Mock
+    private CDRepository cdRepository;
+
+    @Mock
+    private CDRArchive cdrArchive;
+
+    @InjectMocks
+    private UsageRollupService usageRollupService;
+
+    /**
+     * проверяем, что порция суммируется в памяти и к каждому агрегату прибавляется один раз
+     */
+    @Test
+    void testRecord() {
+        LocalDateTime january = LocalDateTime.of(2025, 1, 31, 23, 0);
+        LocalDateTime february = LocalDateTime.of(2025, 2, 1, 0, 0);
+
+        usageRollupService.record(List.of(
+                cdr("79001112233", "79101112233", january, january.plusMinutes(10)),
+                cdr("79001112233", "79101112233", january.plusMinutes(30), january.plusMinutes(50)),
+                //звонок относится к месяцу времени начала
+                cdr("79001112233", "79201112233", february, february.plusMinutes(1))));
+
+        verify(usageRollupRepository).addUsage("79001112233", 2025, 1, UsageTotal.INCOMING, 1800, 2);
+        verify(usageRollupRepository).addUsage("79101112233", 2025, 1, UsageTotal.OUTCOMING, 1800, 2);
+        verify(usageRollupRepository).addUsage("79001112233", 2025, 2, UsageTotal.INCOMING, 60, 1);
+        verify(usageRollupRepository).addUsage("79201112233", 2025, 2, UsageTotal.OUTCOMING, 60, 1);
+        verifyNoMoreInteractions(usageRollupRepository);
+    }
+
+    /**
+     * проверяем, что длительность звонка с долями секунды считается как datediff(SECOND, ...) при пересчете:
+     * по переходам через границу секунды, а не округлением длительности вниз
+     */
+    @Test
+    void testRecord_fractionalSeconds() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 10, 12, 0, 0, 500_000_000);
+
+        usageRollupService.record(List.of(
+                //0.7 секунды с переходом через границу секунды
+                cdr("79001112233", "79101112233", start, start.plusNanos(700_000_000)),
+                //0.4 секунды внутри одной секунды
+                cdr("79001112233", "79101112233", start.plusSeconds(10), start.plusSeconds(10).plusNanos(400_000_000))));
+
+        verify(usageRollupRepository).addUsage("79001112233", 2025, 1, UsageTotal.INCOMING, 1, 2);
+        verify(usageRollupRepository).addUsage("79101112233", 2025, 1, UsageTotal.OUTCOMING, 1, 2);
+    }
+
+    /**
+     * проверяем, что при включенных партициях агрегаты пересчитываются по партициям, а не по таблице cdr
+     */
+    @Test
+    void testRebuild_partitioned() {
+        when(cdRepository.isPartitioned()).thenReturn(true);
+
+        usageRollupService.rebuild();
+
+        verify(usageRollupRepository).deleteAllInBatch();
+        verify(cdRepository).rebuildUsageRollupFromPartitions();
+        verify(usageRollupRepository, never()).rebuildFromCdr();
+    }
+
+    /**
+     * проверяем, что при пересчете записи архива прибавляются к агрегатам по сегментам
+     */
+    @Test
+    void testRebuild_archive() {
+        LocalDateTime january = LocalDateTime.of(2024, 1, 10, 12, 0);
+        doAnswer(invocation -> {
+            Consumer<List<CDRRow>> consumer = invocation.getArgument(0);
+            consumer.accept(List.of(new CDRRow(1L, "01", "79001112233", "79101112233", january, january.plusMinutes(5))));
+            return null;
+        }).when(cdrArchive).forEachSegment(any());
+
+        usageRollupService.rebuild();
+
+        verify(usageRollupRepository).rebuildFromCdr();
+        verify(usageRollupRepository).addUsage("79001112233", 2024, 1, UsageTotal.INCOMING, 300, 1);
+        verify(usageRollupRepository).addUsage("79101112233", 2024, 1, UsageTotal.OUTCOMING, 300, 1);
+    }
+
+    /**
+     * проверяем, что записи архива, которые еще есть в бд, не учитываются при пересчете повторно
+     */
+    @Test
+    void testRebuild_archivedMonthStillInDb() {
+        LocalDateTime january = LocalDateTime.of(2024, 1, 10, 12, 0);
+        CDRRow hot = new CDRRow(1L, "01", "79001112233", "79101112233", january, january.plusMinutes(5));
+        CDRRow archivedOnly = new CDRRow(2L, "01", "79001112233", "79101112233", january.plusDays(1), january.plusDays(1).plusMinutes(1));
+        when(cdrArchive.findMonths()).thenReturn(List.of(YearMonth.of(2024, 1)));
+        doAnswer(invocation -> {
+            Consumer<CDRRow> consumer = invocation.getArgument(1);
+            consumer.accept(hot);
+            return null;
+        }).when(cdRepository).forEachInMonth(eq(YearMonth.of(2024, 1)), any());
+        doAnswer(invocation -> {
+            Consumer<List<CDRRow>> consumer = invocation.getArgument(0);
+            consumer.accept(List.of(hot, archivedOnly));
+            return null;
+        }).when(cdrArchive).forEachSegment(any());
+
+        usageRollupService.rebuild();
+
+        //запись 1 учтена запросом по бд, из архива прибавляется только запись 2
+        verify(usageRollupRepository).addUsage("79001112233", 2024, 1, UsageTotal.INCOMING, 60, 1);
+        verify(usageRollupRepository).addUsage("79101112233", 2024, 1, UsageTotal.OUTCOMING, 60, 1);
+    }
+
+    private CDR cdr(String caller, String receiver, LocalDateTime startTime, LocalDateTime endTime) {
+        CDR cdr = new CDR();
+        cdr.setCallType("01");
+        cdr.setCallerNumber(caller);
+        cdr.setReceiverNumber(receiver);
+        cdr.setStartTime(startTime);
+        cdr.setEndTime(endTime);
+        return cdr;
+    }
+}